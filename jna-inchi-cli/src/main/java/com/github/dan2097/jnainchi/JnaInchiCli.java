@@ -0,0 +1,422 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Command-line tool converting SD, SMILES or InChI files (or standard input) to InChI, using all available cores.
+ * Input may be gzip compressed. Output is tab separated, one line per input record in input order.
+ * A progress and throughput summary is written to standard error.
+ */
+public class JnaInchiCli {
+
+  private static final String USAGE = "Usage: java -jar jna-inchi-cli.jar [options] [InChI flags] [input ...]\n"
+      + "Converts each input file, or standard input if none are given, to tab separated output.\n"
+      + "Input may be gzip compressed.\n"
+      + "Options:\n"
+      + "  -f, --format FORMAT    input format: sdf, smi or inchi (default: from the file extension)\n"
+      + "  -o, --output FILE      output file (default: standard output)\n"
+      + "  -t, --threads N        number of worker threads (default: number of processors)\n"
+      + "  -c, --columns COLUMNS  comma separated output columns from id, inchi, key, auxinfo, status, message\n"
+      + "                         (default: id,inchi,key,status)\n"
+      + "      --timeout SECONDS  timeout per structure (default: none)\n"
+      + "      --progress N       report progress to standard error every N records, 0 to disable (default: 100000)\n"
+      + "      --memo DIR         reuse results stored in DIR by previous runs, storing new results there\n"
+      + "                         (not used for the auxinfo column)\n"
+      + "  -h, --help             show this message\n"
+      + "InChI flags are given by name, e.g. -FixedH -RecMet -SNon\n";
+
+  enum Format {
+    SDF,
+    SMI,
+    INCHI
+  }
+
+  enum Column {
+    ID,
+    INCHI,
+    KEY,
+    AUXINFO,
+    STATUS,
+    MESSAGE
+  }
+
+  private static class UsageException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private UsageException(String message) {
+      super(message);
+    }
+  }
+
+  private Format format;
+  private String output;
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private List<Column> columns = new ArrayList<>();
+  private long progressInterval = 100000;
+  private String memo;
+  private final List<String> inputs = new ArrayList<>();
+  private InchiOptions options;
+
+  public static void main(String[] args) {
+    System.exit(run(args, System.in, System.out, System.err));
+  }
+
+  /**
+   * Runs the tool
+   * @param args
+   * @param stdin
+   * @param stdout
+   * @param stderr
+   * @return the exit code: 0 on success, 1 for invalid arguments, 2 if the input could not be read or output written
+   */
+  static int run(String[] args, InputStream stdin, OutputStream stdout, PrintStream stderr) {
+    JnaInchiCli cli = new JnaInchiCli();
+    try {
+      if (!cli.parseArgs(args)) {
+        stderr.print(USAGE);
+        return 0;
+      }
+    }
+    catch (UsageException e) {
+      stderr.println(e.getMessage());
+      stderr.print(USAGE);
+      return 1;
+    }
+    try {
+      cli.convert(stdin, stdout, stderr);
+    }
+    catch (IOException | UncheckedIOException e) {
+      stderr.println("Error: " + e.getMessage());
+      return 2;
+    }
+    return 0;
+  }
+
+  /**
+   * @param args
+   * @return false if help was requested
+   * @throws UsageException
+   */
+  private boolean parseArgs(String[] args) throws UsageException {
+    InchiOptions.InchiOptionsBuilder builder = new InchiOptions.InchiOptionsBuilder();
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      switch (arg) {
+      case "-h":
+      case "--help":
+        return false;
+      case "-f":
+      case "--format":
+        format = parseFormat(value(args, ++i, arg));
+        break;
+      case "-o":
+      case "--output":
+        output = value(args, ++i, arg);
+        break;
+      case "-t":
+      case "--threads":
+        threads = parseLong(value(args, ++i, arg), arg, 1, Integer.MAX_VALUE).intValue();
+        break;
+      case "-c":
+      case "--columns":
+        columns = parseColumns(value(args, ++i, arg));
+        break;
+      case "--timeout":
+        String timeout = value(args, ++i, arg);
+        try {
+          double seconds = Double.parseDouble(timeout);
+          if (!(seconds >= 0)) {
+            throw new NumberFormatException();
+          }
+          builder.withTimeoutMilliSeconds(Math.round(seconds * 1000));
+        }
+        catch (NumberFormatException e) {
+          throw new UsageException("Invalid timeout: " + timeout);
+        }
+        break;
+      case "--progress":
+        progressInterval = parseLong(value(args, ++i, arg), arg, 0, Long.MAX_VALUE);
+        break;
+      case "--memo":
+        memo = value(args, ++i, arg);
+        break;
+      case "-":
+        inputs.add(arg);
+        break;
+      default:
+        if (arg.startsWith("-")) {
+          builder.withFlag(parseFlag(arg));
+        }
+        else {
+          inputs.add(arg);
+        }
+      }
+    }
+    if (columns.isEmpty()) {
+      columns.add(Column.ID);
+      columns.add(Column.INCHI);
+      columns.add(Column.KEY);
+      columns.add(Column.STATUS);
+    }
+    List<InchiOutputField> fields = new ArrayList<>();
+    if (columns.contains(Column.AUXINFO)) {
+      fields.add(InchiOutputField.AUX_INFO);
+    }
+    if (columns.contains(Column.MESSAGE)) {
+      fields.add(InchiOutputField.MESSAGE);
+    }
+    options = builder.withOutputFields(fields.toArray(new InchiOutputField[0])).build();
+    if (inputs.isEmpty()) {
+      inputs.add("-");
+    }
+    for (String input : inputs) {
+      if (format == null && detectFormat(input) == null) {
+        throw new UsageException("The format of " + (input.equals("-") ? "standard input" : input) + " must be given with --format");
+      }
+    }
+    return true;
+  }
+
+  private static String value(String[] args, int i, String option) throws UsageException {
+    if (i >= args.length) {
+      throw new UsageException("Missing value for " + option);
+    }
+    return args[i];
+  }
+
+  private static Long parseLong(String value, String option, long min, long max) throws UsageException {
+    try {
+      long l = Long.parseLong(value);
+      if (l >= min && l <= max) {
+        return l;
+      }
+    }
+    catch (NumberFormatException e) {
+      //reported below
+    }
+    throw new UsageException("Invalid value for " + option + ": " + value);
+  }
+
+  private static Format parseFormat(String value) throws UsageException {
+    try {
+      return Format.valueOf(value.toUpperCase(Locale.ROOT));
+    }
+    catch (IllegalArgumentException e) {
+      throw new UsageException("Unknown format: " + value);
+    }
+  }
+
+  private static List<Column> parseColumns(String value) throws UsageException {
+    List<Column> columns = new ArrayList<>();
+    for (String column : value.split(",")) {
+      try {
+        columns.add(Column.valueOf(column.trim().toUpperCase(Locale.ROOT)));
+      }
+      catch (IllegalArgumentException e) {
+        throw new UsageException("Unknown column: " + column);
+      }
+    }
+    return columns;
+  }
+
+  private static InchiFlag parseFlag(String arg) throws UsageException {
+    String name = arg.substring(arg.startsWith("--") ? 2 : 1);
+    for (InchiFlag flag : InchiFlag.values()) {
+      if (flag.name().equalsIgnoreCase(name) || flag.toString().equalsIgnoreCase(name)) {
+        return flag;
+      }
+    }
+    throw new UsageException("Unknown option: " + arg);
+  }
+
+  /**
+   * @param input
+   * @return the format implied by the file extension, ignoring any .gz extension, or null if unknown
+   */
+  static Format detectFormat(String input) {
+    String name = input.toLowerCase(Locale.ROOT);
+    if (name.endsWith(".gz")) {
+      name = name.substring(0, name.length() - 3);
+    }
+    if (name.endsWith(".sdf") || name.endsWith(".sd") || name.endsWith(".mol")) {
+      return Format.SDF;
+    }
+    if (name.endsWith(".smi") || name.endsWith(".smiles") || name.endsWith(".ism")) {
+      return Format.SMI;
+    }
+    if (name.endsWith(".inchi")) {
+      return Format.INCHI;
+    }
+    return null;
+  }
+
+  private void convert(InputStream stdin, OutputStream stdout, PrintStream stderr) throws IOException {
+    //counts accumulate over the inputs
+    SmilesFileProcessor processor = new SmilesFileProcessor(options, threads);
+    if (progressInterval > 0) {
+      processor.setProgressListener(stderr::println, progressInterval);
+    }
+    InchiMemoStore memoStore = memo != null ? InchiMemoStore.openForWriting(Paths.get(memo)) : null;
+    OutputStream out = null;
+    try {
+      out = output != null ? Files.newOutputStream(Paths.get(output)) : stdout;
+      Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+      for (String input : inputs) {
+        InputStream in = input.equals("-") ? stdin : null;
+        Format inputFormat = format != null ? format : detectFormat(input);
+        InchiBatch.Conversion<String, InchiOutput> conversion = getConversion(inputFormat, memoStore);
+        if (inputFormat == Format.SDF) {
+          SdfPipeline.SdfPipelineBuilder builder = in != null ? new SdfPipeline.SdfPipelineBuilder(in) : new SdfPipeline.SdfPipelineBuilder(Paths.get(input));
+          try (SdfPipeline pipeline = builder.withInflateThreads(threads).build()) {
+            processor.process(sdfRecords(pipeline.records()), conversion, this::appendColumns, writer);
+          }
+        }
+        else {
+          if (in == null) {
+            in = Files.newInputStream(Paths.get(input));
+          }
+          try (BufferedReader reader = new BufferedReader(new InputStreamReader(decompress(in), StandardCharsets.UTF_8), 1 << 16)) {
+            processor.process(SmilesFileProcessor.readLines(reader), conversion, this::appendColumns, writer);
+          }
+        }
+      }
+      writer.flush();
+    }
+    finally {
+      if (out != null && out != stdout) {
+        out.close();
+      }
+      stderr.println(processor.getCounts());
+      if (memoStore != null) {
+        stderr.println("Memo store: " + memoStore.getHitCount() + " reused, " + memoStore.getMissCount() + " converted, " + memoStore.size() + " stored");
+        memoStore.close();
+      }
+    }
+  }
+
+  /**
+   * Wraps the stream in a {@link GZIPInputStream} if it starts with the gzip magic number
+   * @param in
+   * @return
+   * @throws IOException
+   */
+  static InputStream decompress(InputStream in) throws IOException {
+    BufferedInputStream buffered = new BufferedInputStream(in, 1 << 16);
+    buffered.mark(2);
+    int b1 = buffered.read();
+    int b2 = buffered.read();
+    buffered.reset();
+    if (b1 == 0x1f && b2 == 0x8b) {
+      return new GZIPInputStream(buffered, 1 << 16);
+    }
+    return buffered;
+  }
+
+  private InchiBatch.Conversion<String, InchiOutput> getConversion(Format format, InchiMemoStore memoStore) {
+    switch (format) {
+    case SDF:
+      return memoStore == null ? molText -> JnaInchi.molToInchi(molText, options) :
+        molText -> memoStore.getOrConvert(InchiMemoStore.Key.ofMolfile(molText, options), options, () -> JnaInchi.molToInchi(molText, options));
+    case SMI:
+      return memoStore == null ? smiles -> SmilesToInchi.toInchi(smiles, options) :
+        smiles -> SmilesToInchi.toInchi(smiles, options, memoStore);
+    case INCHI:
+      return memoStore == null ? inchi -> JnaInchi.inchiToInchi(inchi, options) :
+        inchi -> memoStore.getOrConvert(InchiMemoStore.Key.ofInchi(inchi, options), options, () -> JnaInchi.inchiToInchi(inchi, options));
+    default:
+      throw new IllegalStateException("Unexpected format: " + format);
+    }
+  }
+
+  /**
+   * The SD file records, identified by their title, or else their record number
+   * @param records
+   * @return
+   */
+  private static Stream<SmilesFileProcessor.Record> sdfRecords(Stream<byte[]> records) {
+    long[] recordNumber = new long[1];
+    return records.map(record -> {
+      recordNumber[0]++;
+      String molText = new String(record, StandardCharsets.UTF_8);
+      int newline = molText.indexOf('\n');
+      String title = (newline >= 0 ? molText.substring(0, newline) : molText).trim();
+      return new SmilesFileProcessor.Record(!title.isEmpty() ? title : String.valueOf(recordNumber[0]), molText);
+    });
+  }
+
+  private void appendColumns(StringBuilder sb, String id, InchiBatchResult result) {
+    InchiOutput inchiOutput = result.getOutput();
+    String inchi = inchiOutput != null ? inchiOutput.getInchi() : null;
+    for (int i = 0; i < columns.size(); i++) {
+      if (i > 0) {
+        sb.append('\t');
+      }
+      switch (columns.get(i)) {
+      case ID:
+        sb.append(id);
+        break;
+      case INCHI:
+        if (inchi != null) {
+          sb.append(inchi);
+        }
+        break;
+      case KEY:
+        if (inchi != null) {
+          sb.append(InchiKeyGenerator.inchiToInchiKey(inchi).getInchiKey());
+        }
+        break;
+      case AUXINFO:
+        if (inchiOutput != null && inchiOutput.getAuxInfo() != null) {
+          sb.append(inchiOutput.getAuxInfo());
+        }
+        break;
+      case STATUS:
+        sb.append(inchiOutput != null ? inchiOutput.getStatus() : InchiStatus.ERROR);
+        break;
+      case MESSAGE:
+        String message = inchiOutput != null ? inchiOutput.getMessage() : String.valueOf(result.getError().getMessage());
+        if (message != null) {
+          //keep one record per line
+          sb.append(message.replace('\t', ' ').replace('\n', ' ').replace('\r', ' '));
+        }
+        break;
+      }
+    }
+  }
+
+}
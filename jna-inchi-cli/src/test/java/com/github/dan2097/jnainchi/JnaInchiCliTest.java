@@ -0,0 +1,142 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JnaInchiCliTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final String ETHANOL = "ethanol\n  test\n\n"
+      + "  3  2  0  0  0  0  0  0  0  0999 V2000\n"
+      + "    0.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    1.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    2.0000    0.0000    0.0000 O   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "  1  2  1  0\n"
+      + "  2  3  1  0\n"
+      + "M  END\n";
+
+  private static final String ETHANOL_INCHI = "InChI=1S/C2H6O/c1-2-3/h3H,2H2,1H3";
+  private static final String ETHANOL_KEY = "LFQSCWFLJHTTHZ-UHFFFAOYSA-N";
+
+  @Test
+  public void testSmilesFromStdin() {
+    String smiles = "CCO ethanol\nC\nC1CC bad\n";
+    String[] out = run(smiles, 0, "-f", "smi", "-t", "2");
+    assertEquals(3, out.length);
+    assertEquals("ethanol\t" + ETHANOL_INCHI + "\t" + ETHANOL_KEY + "\tSUCCESS", out[0]);
+    assertEquals("2\tInChI=1S/CH4/h1H4\tVNWKTOKETHGBQD-UHFFFAOYSA-N\tSUCCESS", out[1]);
+    assertEquals("bad\t\t\tERROR", out[2]);
+  }
+
+  @Test
+  public void testGzipInchiFile() throws IOException {
+    Path input = folder.getRoot().toPath().resolve("input.inchi.gz");
+    try (OutputStream os = new GZIPOutputStream(Files.newOutputStream(input))) {
+      os.write((ETHANOL_INCHI + "\nInChI=1S/CH4/h1H4 methane\n").getBytes(StandardCharsets.US_ASCII));
+    }
+    String[] out = run("", 0, "-FixedH", "-c", "key,id,status", input.toString());
+    assertEquals(2, out.length);
+    assertEquals(JnaInchi.inchiToInchiKey(JnaInchi.inchiToInchi(ETHANOL_INCHI, new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH).build()).getInchi()).getInchiKey() + "\t1\tSUCCESS", out[0]);
+    assertTrue(out[1].endsWith("\tmethane\tSUCCESS"));
+  }
+
+  @Test
+  public void testSdfFile() throws IOException {
+    Path input = folder.getRoot().toPath().resolve("input.sdf");
+    Files.write(input, (ETHANOL + "$$$$\n\ninvalid\n$$$$\n" + ETHANOL + "$$$$\n").getBytes(StandardCharsets.US_ASCII));
+    Path output = folder.getRoot().toPath().resolve("output.tsv");
+    run("", 0, "-o", output.toString(), "-c", "id,inchi,auxinfo", input.toString());
+    String[] out = new String(Files.readAllBytes(output), StandardCharsets.UTF_8).split("\n");
+    assertEquals(3, out.length);
+    assertEquals("ethanol\t" + ETHANOL_INCHI + "\t" + JnaInchi.molToInchi(ETHANOL).getAuxInfo(), out[0]);
+    assertEquals("2\t\t", out[1]);
+    assertEquals(out[0], out[2]);
+  }
+
+  @Test
+  public void testCounts() throws IOException {
+    //only SMILES that cannot be parsed are counted as unparseable
+    assertTrue(runForStderr("CCO ethanol\nC\nC1CC bad\n".getBytes(StandardCharsets.UTF_8), "-f", "smi").contains("3 records (2 success, 0 warning, 1 error of which 1 unparseable)"));
+    ByteArrayOutputStream sdf = new ByteArrayOutputStream();
+    try (OutputStream os = new GZIPOutputStream(sdf)) {
+      os.write((ETHANOL + "$$$$\n\ninvalid\n$$$$\n" + ETHANOL + "$$$$\n").getBytes(StandardCharsets.US_ASCII));
+    }
+    assertTrue(runForStderr(sdf.toByteArray(), "-f", "sdf").contains("3 records (2 success, 0 warning, 1 error of which 0 unparseable)"));
+  }
+
+  @Test
+  public void testMemo() throws IOException {
+    Path memo = folder.getRoot().toPath().resolve("memo");
+    String smiles = "CCO ethanol\nC\nC1CC bad\n";
+    String[] first = run(smiles, 0, "-f", "smi", "--memo", memo.toString());
+    String[] second = run(smiles, 0, "-f", "smi", "--memo", memo.toString());
+    assertArrayEquals(first, second);
+    assertEquals("ethanol\t" + ETHANOL_INCHI + "\t" + ETHANOL_KEY + "\tSUCCESS", second[0]);
+    try (InchiMemoStore store = InchiMemoStore.open(memo)) {
+      //unparseable SMILES are not stored
+      assertEquals(2, store.size());
+    }
+  }
+
+  @Test
+  public void testInvalidArguments() {
+    run("", 1, "-UnknownFlag");
+    run("", 1, "--threads", "0");
+    run("", 1, "--columns", "id,unknown");
+    //format cannot be determined
+    run("", 1);
+    run("", 0, "--help");
+  }
+
+  private static String[] run(String stdin, int expectedExitCode, String... args) {
+    ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+    ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+    int exitCode = JnaInchiCli.run(args, new ByteArrayInputStream(stdin.getBytes(StandardCharsets.UTF_8)), stdout, new PrintStream(stderr));
+    assertEquals(new String(stderr.toByteArray(), StandardCharsets.UTF_8), expectedExitCode, exitCode);
+    String out = new String(stdout.toByteArray(), StandardCharsets.UTF_8);
+    return out.isEmpty() ? new String[0] : out.split("\n");
+  }
+
+  private static String runForStderr(byte[] stdin, String... args) {
+    ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+    int exitCode = JnaInchiCli.run(args, new ByteArrayInputStream(stdin), new ByteArrayOutputStream(), new PrintStream(stderr));
+    String err = new String(stderr.toByteArray(), StandardCharsets.UTF_8);
+    assertEquals(err, 0, exitCode);
+    return err;
+  }
+
+}
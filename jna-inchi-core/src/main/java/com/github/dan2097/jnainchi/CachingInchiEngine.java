@@ -0,0 +1,154 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Answers {@link #toInchi(InchiInput, InchiOptions)} from an {@link InchiResultCache} where possible, otherwise calls the underlying engine
+ * and caches its result. This avoids rebuilding the InChI of structures that are seen repeatedly, e.g. common reagents, salts and solvents.
+ * Molfile and InChI input is passed straight to the underlying engine.
+ * <p>
+ * Setting this as the default engine applies the cache to all conversions of {@link InchiInput}s, including batch conversions and SMILES:
+ * <pre>
+ * InchiEngines.setDefaultEngine(new CachingInchiEngine(InchiEngines.getDefaultEngine(), new InchiResultCache(100_000)));
+ * </pre>
+ */
+public class CachingInchiEngine implements InchiEngine {
+
+  public static final String NAME = "cache";
+
+  private final InchiEngine engine;
+  private final InchiResultCache cache;
+
+  /**
+   * @param engine the engine that performs conversions not found in the cache
+   * @param cache may be shared with other engines
+   */
+  public CachingInchiEngine(InchiEngine engine, InchiResultCache cache) {
+    if (engine == null || cache == null) {
+      throw new IllegalArgumentException("An engine and cache are required");
+    }
+    this.engine = engine;
+    this.cache = cache;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  public InchiResultCache getCache() {
+    return cache;
+  }
+
+  @Override
+  public InchiOutput toInchi(InchiInput inchiInput, InchiOptions options) {
+    return cache.getOrConvert(inchiInput, options, engine);
+  }
+
+  /**
+   * Variants that are not cached are generated together by the underlying engine, so the native molecule is still only created once
+   */
+  @Override
+  public List<InchiOutput> toInchiVariants(InchiInput inchiInput, List<InchiOptions> variants) {
+    List<InchiOutput> outputs = new ArrayList<>(variants.size());
+    List<InchiResultCache.Key> keys = new ArrayList<>(variants.size());
+    List<InchiOptions> missing = new ArrayList<>();
+    for (InchiOptions options : variants) {
+      InchiResultCache.Key key = InchiResultCache.Key.of(inchiInput, options);
+      InchiOutput output = cache.get(key);
+      if (output == null) {
+        missing.add(options);
+      }
+      keys.add(key);
+      outputs.add(output);
+    }
+    if (!missing.isEmpty()) {
+      List<InchiOutput> converted = engine.toInchiVariants(inchiInput, missing);
+      for (int i = 0, j = 0; i < outputs.size(); i++) {
+        if (outputs.get(i) == null) {
+          InchiOutput output = converted.get(j++);
+          cache.put(keys.get(i), variants.get(i), output);
+          outputs.set(i, output);
+        }
+      }
+    }
+    return outputs;
+  }
+
+  /**
+   * A cached output for the same options answers this, otherwise the underlying engine's key path is used.
+   * Keys are not cached, as the cache holds complete outputs
+   */
+  @Override
+  public InchiKeyOutput toInchiKey(InchiInput inchiInput, InchiOptions options) {
+    InchiOutput output = cache.get(InchiResultCache.Key.of(inchiInput, options));
+    if (output == null) {
+      return engine.toInchiKey(inchiInput, options);
+    }
+    String inchi = output.getInchi();
+    if (inchi == null) {
+      return new InchiKeyOutput("", InchiKeyStatus.EMPTY_INPUT);
+    }
+    return engine.inchiToInchiKey(inchi);
+  }
+
+  @Override
+  public InchiOutput molToInchi(String molText, InchiOptions options) {
+    return engine.molToInchi(molText, options);
+  }
+
+  @Override
+  public InchiOutput molToInchi(ByteBuffer molText, InchiOptions options) {
+    return engine.molToInchi(molText, options);
+  }
+
+  @Override
+  public List<InchiOutput> molToInchiVariants(String molText, List<InchiOptions> variants) {
+    return engine.molToInchiVariants(molText, variants);
+  }
+
+  @Override
+  public InchiOutput inchiToInchi(String inchi, InchiOptions options) {
+    return engine.inchiToInchi(inchi, options);
+  }
+
+  @Override
+  public InchiOutput inchiToInchi(ByteBuffer inchi, InchiOptions options) {
+    return engine.inchiToInchi(inchi, options);
+  }
+
+  @Override
+  public InchiKeyOutput inchiToInchiKey(String inchi) {
+    return engine.inchiToInchiKey(inchi);
+  }
+
+  @Override
+  public InchiKeyOutput inchiToInchiKey(ByteBuffer inchi) {
+    return engine.inchiToInchiKey(inchi);
+  }
+
+  @Override
+  public InchiKeyOutput molToInchiKey(String molText, InchiOptions options) {
+    return engine.molToInchiKey(molText, options);
+  }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Set;
+
+import com.github.dan2097.jnainchi.inchi.InchiLibrary;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+/**
+ * Converts an {@link InchiInput} to InChI using the classic (structure based) GetINCHIEx API.
+ * <p>
+ * The whole molecule (inchi_InputEx, atoms, 0D stereo and the options string) is written into a single block of native memory,
+ * so each conversion crosses into the InChI library once to generate the InChI and once to free the result.
+ * By comparison {@link InchiConverter} makes a native call for each atom property, bond and stereo element that is set.
+ * The output is the same as {@link JnaInchi#toInchi(InchiInput, InchiOptions)}.
+ * <p>
+ * The native block is reused and grown as needed between molecules.
+ * A converter must only be used by one thread at a time.
+ */
+public class ClassicInchiConverter {
+
+  static final int POINTER_SIZE = Native.POINTER_SIZE;
+  static final ClassicInchiLayout LAYOUT = new ClassicInchiLayout(POINTER_SIZE);
+
+  private Memory memory;
+  private ByteBuffer buffer;
+
+  //inchi_Output is four char pointers
+  private final Memory output = new Memory(4 * POINTER_SIZE);
+
+  private InchiOptions lastOptions;
+  private byte[] optionBytes;
+
+  public InchiOutput toInchi(InchiInput inchiInput) {
+    return toInchi(inchiInput, InchiOptions.DEFAULT_OPTIONS);
+  }
+
+  public InchiOutput toInchi(InchiInput inchiInput, InchiOptions options) {
+    if (options != lastOptions) {
+      optionBytes = ClassicInchiLayout.toOptionBytes(options);
+      lastOptions = options;
+    }
+    int size = LAYOUT.inputSize(inchiInput, optionBytes);
+    ByteBuffer buf = prepareBuffer(size);
+    LAYOUT.writeInput(buf, Pointer.nativeValue(memory), inchiInput, optionBytes);
+
+    //IXA also calls GetINCHIEx, which unlike GetINCHI supports Zz pseudo atoms
+    int ret = InchiLibrary.GetINCHIEx(memory, output);
+    try {
+      Set<InchiOutputField> fields = options.getOutputFields();
+      return ClassicInchiLayout.toInchiOutput(ret, getString(0), fields.contains(InchiOutputField.AUX_INFO) ? getString(1) : null,
+          fields.contains(InchiOutputField.MESSAGE) ? getString(2) : null, fields.contains(InchiOutputField.LOG) ? getString(3) : null, fields);
+    }
+    finally {
+      InchiLibrary.FreeINCHI(output);
+    }
+  }
+
+  /**
+   * Ensures the native block can hold the given number of bytes and zeroes that many bytes from the start of it
+   * @param size
+   * @return
+   */
+  private ByteBuffer prepareBuffer(int size) {
+    if (memory == null || memory.size() < size) {
+      long newSize = memory != null ? Math.max(size, memory.size() * 2) : Math.max(size, 4096);
+      memory = new Memory(newSize);
+      buffer = memory.getByteBuffer(0, newSize).order(ByteOrder.nativeOrder());
+    }
+    ByteBuffer buf = buffer;
+    buf.clear();
+    while (buf.position() < size) {
+      buf.put(ClassicInchiLayout.ZEROS, 0, Math.min(ClassicInchiLayout.ZEROS.length, size - buf.position()));
+    }
+    return buf;
+  }
+
+  private String getString(int field) {
+    Pointer p = output.getPointer((long) field * POINTER_SIZE);
+    return p != null ? p.getString(0) : null;
+  }
+
+}
@@ -0,0 +1,75 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts structures using the classic struct based API, see {@link ClassicInchiConverter}.
+ * Each thread uses its own converter so that the native input block is reused.
+ * Molfile and InChI input, which the classic API does not handle, are converted using IXA.
+ */
+public class ClassicInchiEngine implements InchiEngine {
+
+  public static final String NAME = "classic";
+
+  private static final ThreadLocal<ClassicInchiConverter> CONVERTER = ThreadLocal.withInitial(ClassicInchiConverter::new);
+
+  private final IxaInchiEngine ixaEngine = new IxaInchiEngine();
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public InchiOutput toInchi(InchiInput inchiInput, InchiOptions options) {
+    return CONVERTER.get().toInchi(inchiInput, options);
+  }
+
+  @Override
+  public InchiOutput molToInchi(String molText, InchiOptions options) {
+    return ixaEngine.molToInchi(molText, options);
+  }
+
+  @Override
+  public InchiOutput inchiToInchi(String inchi, InchiOptions options) {
+    return ixaEngine.inchiToInchi(inchi, options);
+  }
+
+  @Override
+  public InchiKeyOutput inchiToInchiKey(String inchi) {
+    return ixaEngine.inchiToInchiKey(inchi);
+  }
+
+  @Override
+  public InchiOutput molToInchi(ByteBuffer molText, InchiOptions options) {
+    return ixaEngine.molToInchi(molText, options);
+  }
+
+  @Override
+  public InchiOutput inchiToInchi(ByteBuffer inchi, InchiOptions options) {
+    return ixaEngine.inchiToInchi(inchi, options);
+  }
+
+  @Override
+  public InchiKeyOutput inchiToInchiKey(ByteBuffer inchi) {
+    return ixaEngine.inchiToInchiKey(inchi);
+  }
+
+}
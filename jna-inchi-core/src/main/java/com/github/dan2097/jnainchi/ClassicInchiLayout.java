@@ -0,0 +1,372 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lays out an {@link InchiInput} as the inchi_InputEx taken by GetINCHIEx, and converts the result back to an {@link InchiOutput}.
+ * <p>
+ * The layout only writes to a {@link ByteBuffer} view of memory allocated by the caller, so has no dependency on JNA
+ * and is shared by {@link ClassicInchiConverter} and the FFM binding.
+ */
+final class ClassicInchiLayout {
+
+  //Layout of inchi_Atom and inchi_Stereo0D from inchi_api.h
+  static final int MAXVAL = 20;
+  static final int ATOM_SIZE = 120;
+  static final int ATOM_X = 0;
+  static final int ATOM_Y = 8;
+  static final int ATOM_Z = 16;
+  static final int ATOM_NEIGHBOR = 24;
+  static final int ATOM_BOND_TYPE = 64;
+  static final int ATOM_BOND_STEREO = 84;
+  static final int ATOM_ELNAME = 104;
+  static final int ATOM_NUM_BONDS = 110;
+  static final int ATOM_NUM_ISO_H = 112;
+  static final int ATOM_ISOTOPIC_MASS = 116;
+  static final int ATOM_RADICAL = 118;
+  static final int ATOM_CHARGE = 119;
+
+  static final int STEREO_SIZE = 12;
+  static final int STEREO_NEIGHBOR = 0;
+  static final int STEREO_CENTRAL_ATOM = 8;
+  static final int STEREO_TYPE = 10;
+  static final int STEREO_PARITY = 11;
+
+  static final byte[] ZEROS = new byte[4096];
+
+  //inchi_InputEx is three pointers, two shorts, then the (unused) polymer and V3000 pointers
+  private final int pointerSize;
+  private final int inputNumAtoms;
+  private final int inputNumStereo;
+  private final int inputSize;
+
+  /**
+   * @param pointerSize the size of a native pointer, 4 or 8
+   */
+  ClassicInchiLayout(int pointerSize) {
+    if (pointerSize != 4 && pointerSize != 8) {
+      throw new IllegalArgumentException("Unsupported pointer size: " + pointerSize);
+    }
+    this.pointerSize = pointerSize;
+    inputNumAtoms = 3 * pointerSize;
+    inputNumStereo = inputNumAtoms + 2;
+    inputSize = ((inputNumStereo + 2 + pointerSize - 1) / pointerSize + 2) * pointerSize;
+  }
+
+  /**
+   * The InChI options string, including the chiral flag that IXA always passes to InChI (off unless set),
+   * which is recorded in the AuxInfo. AuxNone is added if the AuxInfo was not requested
+   * @param options
+   * @return null terminated ASCII
+   */
+  static byte[] toOptionBytes(InchiOptions options) {
+    String optionString = options.toString();
+    List<InchiFlag> flags = options.getFlags();
+    if (!flags.contains(InchiFlag.ChiralFlagON) && !flags.contains(InchiFlag.ChiralFlagOFF)) {
+      optionString += (optionString.isEmpty() ? "" : " ") + (InchiOptions.IS_WINDOWS ? "/" : "-") + InchiFlag.ChiralFlagOFF;
+    }
+    if (!options.getOutputFields().contains(InchiOutputField.AUX_INFO) && !flags.contains(InchiFlag.AuxNone)) {
+      optionString += " " + (InchiOptions.IS_WINDOWS ? "/" : "-") + InchiFlag.AuxNone;
+    }
+    byte[] ascii = optionString.getBytes(StandardCharsets.US_ASCII);
+    return Arrays.copyOf(ascii, ascii.length + 1);
+  }
+
+  /**
+   * The number of bytes needed to lay out the given input (and options) as an inchi_InputEx
+   * @param inchiInput
+   * @param optionBytes
+   * @return
+   */
+  int inputSize(InchiInput inchiInput, byte[] optionBytes) {
+    int atomCount = inchiInput.getAtoms().size();
+    if (atomCount > Short.MAX_VALUE) {
+      throw new IllegalStateException("InChI is limited to 32767 atoms, input contained " + atomCount + " atoms");
+    }
+    int stereoCount = inchiInput.getStereos().size();
+    if (stereoCount > Short.MAX_VALUE) {
+      throw new IllegalStateException("Too many stereochemistry elements in input");
+    }
+    return inputSize + atomCount * ATOM_SIZE + stereoCount * STEREO_SIZE + optionBytes.length;
+  }
+
+  /**
+   * Lays out the input as an inchi_InputEx, followed by its atoms, 0D stereo and options string.
+   * The buffer must be zeroed for {@link #inputSize(InchiInput, byte[])} bytes.
+   * @param buf native order view of the native memory
+   * @param address native address of the start of the buffer
+   * @param inchiInput
+   * @param optionBytes from {@link #toOptionBytes(InchiOptions)}
+   */
+  void writeInput(ByteBuffer buf, long address, InchiInput inchiInput, byte[] optionBytes) {
+    List<InchiAtom> atoms = inchiInput.getAtoms();
+    int atomCount = atoms.size();
+    List<InchiStereo> stereos = inchiInput.getStereos();
+    int stereoCount = stereos.size();
+
+    int atomsOffset = inputSize;
+    int stereosOffset = atomsOffset + atomCount * ATOM_SIZE;
+    int optionsOffset = stereosOffset + stereoCount * STEREO_SIZE;
+    putPointer(buf, 0, atomCount > 0 ? address + atomsOffset : 0);
+    putPointer(buf, pointerSize, stereoCount > 0 ? address + stereosOffset : 0);
+    putPointer(buf, 2 * pointerSize, address + optionsOffset);
+    buf.putShort(inputNumAtoms, (short) atomCount);
+    buf.putShort(inputNumStereo, (short) stereoCount);
+
+    writeAtoms(buf, atomsOffset, atoms);
+    writeBonds(buf, atomsOffset, inchiInput);
+    writeStereos(buf, stereosOffset, inchiInput, stereos);
+    buf.position(optionsOffset);
+    buf.put(optionBytes);
+  }
+
+  /**
+   * Converts the result of GetINCHIEx to the same output IXA would have given
+   * @param ret
+   * @param inchi
+   * @param auxInfo
+   * @param message
+   * @param log
+   * @return
+   */
+  static InchiOutput toInchiOutput(int ret, String inchi, String auxInfo, String message, String log) {
+    return toInchiOutput(ret, inchi, auxInfo, message, log, EnumSet.allOf(InchiOutputField.class));
+  }
+
+  /**
+   * As {@link #toInchiOutput(int, String, String, String, String)}, omitting fields that were not requested
+   * @param ret
+   * @param inchi
+   * @param auxInfo
+   * @param message
+   * @param log
+   * @param fields
+   * @return
+   */
+  static InchiOutput toInchiOutput(int ret, String inchi, String auxInfo, String message, String log, Set<InchiOutputField> fields) {
+    InchiStatus status = JnaInchi.getInchiStatus(ret);
+    if (message == null) {
+      message = "";
+    }
+    //IXA does not provide the log of a failed calculation
+    if (status == InchiStatus.ERROR || !fields.contains(InchiOutputField.LOG)) {
+      log = null;
+    }
+    if (!fields.contains(InchiOutputField.AUX_INFO)) {
+      auxInfo = null;
+    }
+    if (!fields.contains(InchiOutputField.MESSAGE)) {
+      message = null;
+    }
+    return new InchiOutput(inchi, auxInfo, message, log, status);
+  }
+
+  void putPointer(ByteBuffer buf, int offset, long address) {
+    if (pointerSize == 8) {
+      buf.putLong(offset, address);
+    }
+    else {
+      buf.putInt(offset, (int) address);
+    }
+  }
+
+  private static void writeAtoms(ByteBuffer buf, int atomsOffset, List<InchiAtom> atoms) {
+    for (int i = 0, len = atoms.size(); i < len; i++) {
+      InchiAtom atom = atoms.get(i);
+      int offset = atomsOffset + i * ATOM_SIZE;
+      buf.putDouble(offset + ATOM_X, atom.getX());
+      buf.putDouble(offset + ATOM_Y, atom.getY());
+      buf.putDouble(offset + ATOM_Z, atom.getZ());
+      String elName = atom.getElName();
+      if (elName.length() > 5) {
+        throw new IllegalArgumentException("Element name was too long: " + elName);
+      }
+      for (int j = 0; j < elName.length(); j++) {
+        buf.put(offset + ATOM_ELNAME + j, (byte) elName.charAt(j));
+      }
+      buf.put(offset + ATOM_NUM_ISO_H, (byte) atom.getImplicitHydrogen());
+      buf.put(offset + ATOM_NUM_ISO_H + 1, (byte) atom.getImplicitProtium());
+      buf.put(offset + ATOM_NUM_ISO_H + 2, (byte) atom.getImplicitDeuterium());
+      buf.put(offset + ATOM_NUM_ISO_H + 3, (byte) atom.getImplicitTritium());
+      buf.putShort(offset + ATOM_ISOTOPIC_MASS, (short) atom.getIsotopicMass());
+      buf.put(offset + ATOM_RADICAL, atom.getRadical().getCode());
+      buf.put(offset + ATOM_CHARGE, (byte) atom.getCharge());
+    }
+  }
+
+  /**
+   * Each bond is listed once, in the neighbor list of its start atom, unless that atom's neighbor list is full
+   * @param buf
+   * @param atomsOffset
+   * @param inchiInput
+   */
+  private static void writeBonds(ByteBuffer buf, int atomsOffset, InchiInput inchiInput) {
+    for (InchiBond bond : inchiInput.getBonds()) {
+      int idx1 = inchiInput.indexOf(bond.getStart());
+      int idx2 = inchiInput.indexOf(bond.getEnd());
+      if (idx1 < 0 || idx2 < 0) {
+        throw new IllegalStateException("Bond referenced an atom that was not part of the InchiInput");
+      }
+      byte bondType = bond.getType().getCode();
+      byte bondStereo = bond.getStereo().getCode();
+      int offset = atomsOffset + idx1 * ATOM_SIZE;
+      int numBonds = buf.getShort(offset + ATOM_NUM_BONDS);
+      if (numBonds == MAXVAL) {
+        //Wedges are relative to the atom holding the bond, so swap 1UP <-> 2UP etc.
+        offset = atomsOffset + idx2 * ATOM_SIZE;
+        numBonds = buf.getShort(offset + ATOM_NUM_BONDS);
+        idx2 = idx1;
+        if (bond.getStereo() != InchiBondStereo.DOUBLE_EITHER) {
+          bondStereo = (byte) -bondStereo;
+        }
+        if (numBonds == MAXVAL) {
+          throw new IllegalArgumentException("InChI is limited to " + MAXVAL + " bonds per atom");
+        }
+      }
+      buf.putShort(offset + ATOM_NEIGHBOR + numBonds * 2, (short) idx2);
+      buf.put(offset + ATOM_BOND_TYPE + numBonds, bondType);
+      buf.put(offset + ATOM_BOND_STEREO + numBonds, bondStereo);
+      buf.putShort(offset + ATOM_NUM_BONDS, (short) (numBonds + 1));
+    }
+  }
+
+  private static void writeStereos(ByteBuffer buf, int stereosOffset, InchiInput inchiInput, List<InchiStereo> stereos) {
+    for (int i = 0, len = stereos.size(); i < len; i++) {
+      InchiStereo stereo = stereos.get(i);
+      int offset = stereosOffset + i * STEREO_SIZE;
+      InchiAtom[] atoms = stereo.getAtoms();
+      InchiAtom centralAtom = stereo.getCentralAtom();
+      InchiStereoParity parity = stereo.getParity();
+      if (stereo.getType() == InchiStereoType.Allene && centralAtom != null) {
+        atoms = atoms.clone();
+        parity = toClassicAllene(inchiInput, centralAtom, atoms, parity);
+      }
+      for (int j = 0; j < 4; j++) {
+        buf.putShort(offset + STEREO_NEIGHBOR + j * 2, (short) getStereoAtomIndex(inchiInput, atoms[j]));
+      }
+      //NO_ATOM for double bonds
+      int centralIdx = centralAtom != null ? getStereoAtomIndex(inchiInput, centralAtom) : -1;
+      buf.putShort(offset + STEREO_CENTRAL_ATOM, (short) centralIdx);
+      buf.put(offset + STEREO_TYPE, stereo.getType().getCode());
+      buf.put(offset + STEREO_PARITY, parity.getCode());
+    }
+  }
+
+  /**
+   * IXA accepts the four atoms around an allene in any order, each being a substituent
+   * or a terminal atom of the allene (in lieu of an implicit hydrogen).
+   * The classic API expects (substituent, terminal atom, other terminal atom, substituent),
+   * so the atoms are rearranged into that order, inverting the parity if this is an odd permutation.
+   * @param inchiInput
+   * @param centralAtom
+   * @param atoms the four atoms, rearranged in place
+   * @param parity
+   * @return the parity with respect to the rearranged atoms
+   */
+  private static InchiStereoParity toClassicAllene(InchiInput inchiInput, InchiAtom centralAtom, InchiAtom[] atoms, InchiStereoParity parity) {
+    InchiAtom[] ends = new InchiAtom[2];
+    int endCount = 0;
+    for (InchiBond bond : inchiInput.getBonds()) {
+      InchiAtom end = bond.getStart() == centralAtom ? bond.getEnd() : bond.getEnd() == centralAtom ? bond.getStart() : null;
+      if (end != null) {
+        if (endCount == 2) {
+          return parity;//not an allene, left for InChI to report
+        }
+        ends[endCount++] = end;
+      }
+    }
+    if (endCount != 2) {
+      return parity;
+    }
+    //partition the atoms by the terminal atom they belong to
+    int[][] groups = new int[2][2];
+    int[] groupSizes = new int[2];
+    for (int i = 0; i < 4; i++) {
+      InchiAtom atom = atoms[i];
+      int group = (atom == ends[0] || isBonded(inchiInput, atom, ends[0])) ? 0 :
+        (atom == ends[1] || isBonded(inchiInput, atom, ends[1])) ? 1 : -1;
+      if (group < 0 || groupSizes[group] == 2) {
+        return parity;
+      }
+      groups[group][groupSizes[group]++] = i;
+    }
+    //the outermost positions take a substituent from each end, in preference to a terminal atom
+    if (atoms[groups[0][0]] == ends[0]) {
+      swap(groups[0]);
+    }
+    if (atoms[groups[1][0]] == ends[1]) {
+      swap(groups[1]);
+    }
+    int[] order = new int[]{groups[0][0], groups[0][1], groups[1][1], groups[1][0]};
+    InchiAtom substituent1 = atoms[order[0]];
+    InchiAtom substituent2 = atoms[order[3]];
+    atoms[0] = substituent1;
+    atoms[1] = ends[0];
+    atoms[2] = ends[1];
+    atoms[3] = substituent2;
+
+    int inversions = 0;
+    for (int i = 0; i < 4; i++) {
+      for (int j = i + 1; j < 4; j++) {
+        if (order[i] > order[j]) {
+          inversions++;
+        }
+      }
+    }
+    if (inversions % 2 == 1) {
+      if (parity == InchiStereoParity.ODD) {
+        return InchiStereoParity.EVEN;
+      }
+      if (parity == InchiStereoParity.EVEN) {
+        return InchiStereoParity.ODD;
+      }
+    }
+    return parity;
+  }
+
+  private static void swap(int[] pair) {
+    int tmp = pair[0];
+    pair[0] = pair[1];
+    pair[1] = tmp;
+  }
+
+  private static boolean isBonded(InchiInput inchiInput, InchiAtom atom1, InchiAtom atom2) {
+    for (InchiBond bond : inchiInput.getBonds()) {
+      if ((bond.getStart() == atom1 && bond.getEnd() == atom2) || (bond.getStart() == atom2 && bond.getEnd() == atom1)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int getStereoAtomIndex(InchiInput inchiInput, InchiAtom atom) {
+    int idx = atom != null ? inchiInput.indexOf(atom) : -1;
+    if (idx < 0) {
+      throw new IllegalStateException("Stereo element referenced an atom that was not part of the InchiInput");
+    }
+    return idx;
+  }
+
+}
@@ -0,0 +1,125 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Coalesces concurrent {@link #toInchi(InchiInput, InchiOptions)} calls for the same structure and options,
+ * so that only one of them calls the underlying engine and the others share its output, see {@link InchiSingleFlight}.
+ * Structures are identified by {@link InchiResultCache.Key#of(InchiInput, InchiOptions)}.
+ * Other conversions, including {@link #toInchiKey(InchiInput, InchiOptions)}, are passed straight to the underlying engine.
+ * <p>
+ * Setting this as the default engine coalesces all conversions of {@link InchiInput}s, including SMILES:
+ * <pre>
+ * InchiEngines.setDefaultEngine(new CoalescingInchiEngine(InchiEngines.getDefaultEngine()));
+ * </pre>
+ * It may be combined with a cache, in which case only cache misses are coalesced:
+ * <pre>
+ * new CachingInchiEngine(new CoalescingInchiEngine(engine), cache)
+ * </pre>
+ */
+public class CoalescingInchiEngine implements InchiEngine {
+
+  public static final String NAME = "coalesce";
+
+  private final InchiEngine engine;
+  private final InchiSingleFlight singleFlight;
+
+  public CoalescingInchiEngine(InchiEngine engine) {
+    this(engine, new InchiSingleFlight());
+  }
+
+  /**
+   * @param engine the engine that performs the conversions
+   * @param singleFlight may be shared with other engines
+   */
+  public CoalescingInchiEngine(InchiEngine engine, InchiSingleFlight singleFlight) {
+    if (engine == null || singleFlight == null) {
+      throw new IllegalArgumentException("An engine and single flight are required");
+    }
+    this.engine = engine;
+    this.singleFlight = singleFlight;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  public InchiSingleFlight getSingleFlight() {
+    return singleFlight;
+  }
+
+  @Override
+  public InchiOutput toInchi(InchiInput inchiInput, InchiOptions options) {
+    return singleFlight.execute(InchiResultCache.Key.of(inchiInput, options), () -> engine.toInchi(inchiInput, options));
+  }
+
+  @Override
+  public InchiKeyOutput toInchiKey(InchiInput inchiInput, InchiOptions options) {
+    return engine.toInchiKey(inchiInput, options);
+  }
+
+  @Override
+  public List<InchiOutput> toInchiVariants(InchiInput inchiInput, List<InchiOptions> variants) {
+    return engine.toInchiVariants(inchiInput, variants);
+  }
+
+  @Override
+  public InchiOutput molToInchi(String molText, InchiOptions options) {
+    return engine.molToInchi(molText, options);
+  }
+
+  @Override
+  public InchiOutput molToInchi(ByteBuffer molText, InchiOptions options) {
+    return engine.molToInchi(molText, options);
+  }
+
+  @Override
+  public List<InchiOutput> molToInchiVariants(String molText, List<InchiOptions> variants) {
+    return engine.molToInchiVariants(molText, variants);
+  }
+
+  @Override
+  public InchiOutput inchiToInchi(String inchi, InchiOptions options) {
+    return engine.inchiToInchi(inchi, options);
+  }
+
+  @Override
+  public InchiOutput inchiToInchi(ByteBuffer inchi, InchiOptions options) {
+    return engine.inchiToInchi(inchi, options);
+  }
+
+  @Override
+  public InchiKeyOutput inchiToInchiKey(String inchi) {
+    return engine.inchiToInchiKey(inchi);
+  }
+
+  @Override
+  public InchiKeyOutput inchiToInchiKey(ByteBuffer inchi) {
+    return engine.inchiToInchiKey(inchi);
+  }
+
+  @Override
+  public InchiKeyOutput molToInchiKey(String molText, InchiOptions options) {
+    return engine.molToInchiKey(molText, options);
+  }
+
+}
@@ -0,0 +1,618 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts disconnected structures, e.g. salts, solvates and mixtures, one connected component at a time.
+ * Each component's InChI is looked up in, or added to, an {@link InchiResultCache}, and the InChIs of the components
+ * are then assembled into the InChI of the whole structure. So for a parent compound recorded with many different
+ * counter-ions or solvents, the parent is only converted once.
+ * <p>
+ * Assembly is only used where the result is known to be the same as converting the whole structure,
+ * otherwise the whole structure is passed to the underlying engine. That is the case when:
+ * <ul>
+ * <li>any output other than the InChI is requested, see {@link InchiOptions.InchiOptionsBuilder#withOutputFields(InchiOutputField...)},
+ * as the messages of the whole structure are not simply those of its components</li>
+ * <li>an option such as {@link InchiFlag#RecMet} or {@link InchiFlag#FixedH} is used</li>
+ * <li>InChI splits a component further, e.g. by disconnecting a metal</li>
+ * <li>a component has isotopic layers, or could not be converted without error</li>
+ * <li>the order of the components depends on more than their formulae, i.e. different components have the same formula
+ * apart from hydrogens</li>
+ * </ul>
+ * With verification enabled the whole structure is also converted, and its output returned if it differs from the assembled output.
+ * <pre>
+ * InchiEngines.setDefaultEngine(new ComponentInchiEngine(InchiEngines.getDefaultEngine(), new InchiResultCache(100_000)));
+ * InchiOptions options = new InchiOptions.InchiOptionsBuilder().withOutputFields().build();
+ * InchiOutput output = JnaInchi.toInchi(inchiInput, options);
+ * </pre>
+ */
+public class ComponentInchiEngine implements InchiEngine {
+
+  public static final String NAME = "component";
+
+  /**
+   * Options for which assembly has been checked against converting the whole structure.
+   * The chiral flag options are excluded as they warn about components without stereo
+   */
+  private static final Set<InchiFlag> SUPPORTED_FLAGS = Collections.unmodifiableSet(EnumSet.of(InchiFlag.NEWPSOFF, InchiFlag.DoNotAddH,
+      InchiFlag.SNon, InchiFlag.SRel, InchiFlag.SRac, InchiFlag.SUU, InchiFlag.SLUUD, InchiFlag.AuxNone, InchiFlag.WarnOnEmptyStructure, InchiFlag.NoWarnings, InchiFlag.LooseTSACheck));
+
+  /**
+   * The layers of a single component InChI that can be assembled, in the order they appear
+   */
+  private static final String LAYERS = "chqpbtms";
+
+  private final InchiEngine engine;
+  private final InchiResultCache cache;
+  private final boolean verify;
+
+  private final AtomicLong assembledCount = new AtomicLong();
+  private final AtomicLong fallbackCount = new AtomicLong();
+  private final AtomicLong mismatchCount = new AtomicLong();
+
+  /**
+   * @param engine the engine that converts components, and structures that cannot be assembled
+   * @param cache the cache of component results, may be shared with other engines
+   */
+  public ComponentInchiEngine(InchiEngine engine, InchiResultCache cache) {
+    this(engine, cache, false);
+  }
+
+  /**
+   * @param engine the engine that converts components, and structures that cannot be assembled
+   * @param cache the cache of component results, may be shared with other engines
+   * @param verify if true, assembled outputs are checked against converting the whole structure
+   */
+  public ComponentInchiEngine(InchiEngine engine, InchiResultCache cache, boolean verify) {
+    if (engine == null || cache == null) {
+      throw new IllegalArgumentException("An engine and cache are required");
+    }
+    this.engine = engine;
+    this.cache = cache;
+    this.verify = verify;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  public InchiResultCache getCache() {
+    return cache;
+  }
+
+  public boolean isVerify() {
+    return verify;
+  }
+
+  /**
+   * The number of multi-component structures whose output was assembled from their components
+   * @return
+   */
+  public long getAssembledCount() {
+    return assembledCount.get();
+  }
+
+  /**
+   * The number of multi-component structures that had to be converted as a whole
+   * @return
+   */
+  public long getFallbackCount() {
+    return fallbackCount.get();
+  }
+
+  /**
+   * The number of assembled outputs that differed from converting the whole structure, only counted when verifying
+   * @return
+   */
+  public long getMismatchCount() {
+    return mismatchCount.get();
+  }
+
+  @Override
+  public InchiOutput toInchi(InchiInput inchiInput, InchiOptions options) {
+    if (!canAssemble(options)) {
+      return engine.toInchi(inchiInput, options);
+    }
+    List<InchiInput> components = splitComponents(inchiInput);
+    if (components.size() < 2) {
+      return cache.getOrConvert(inchiInput, options, engine);
+    }
+    InchiOutput assembled;
+    try {
+      List<InchiOutput> outputs = new ArrayList<>(components.size());
+      for (InchiInput component : components) {
+        outputs.add(cache.getOrConvert(component, options, engine));
+      }
+      assembled = assemble(outputs);
+    }
+    finally {
+      //the component inputs share the atoms, restore their positions in the whole structure
+      List<InchiAtom> atoms = inchiInput.getAtoms();
+      for (int i = 0, len = atoms.size(); i < len; i++) {
+        atoms.get(i).setIndex(i);
+      }
+    }
+    if (assembled == null) {
+      fallbackCount.incrementAndGet();
+      return engine.toInchi(inchiInput, options);
+    }
+    assembledCount.incrementAndGet();
+    if (verify) {
+      InchiOutput whole = engine.toInchi(inchiInput, options);
+      if (!sameOutput(assembled, whole)) {
+        mismatchCount.incrementAndGet();
+        return whole;
+      }
+    }
+    return assembled;
+  }
+
+  private static boolean canAssemble(InchiOptions options) {
+    if (!options.getOutputFields().isEmpty()) {
+      return false;
+    }
+    for (InchiFlag flag : options.getFlags()) {
+      if (!SUPPORTED_FLAGS.contains(flag)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean sameOutput(InchiOutput a, InchiOutput b) {
+    return a.getStatus() == b.getStatus() && a.getInchi().equals(b.getInchi());
+  }
+
+  /**
+   * Splits the structure into its connected components, in order of their first atom.
+   * The components share the atoms, bonds and stereo of the input
+   * @param inchiInput
+   * @return
+   */
+  static List<InchiInput> splitComponents(InchiInput inchiInput) {
+    List<InchiAtom> atoms = inchiInput.getAtoms();
+    int atomCount = atoms.size();
+    int[] parent = new int[atomCount];
+    for (int i = 0; i < atomCount; i++) {
+      parent[i] = i;
+    }
+    int componentCount = atomCount;
+    List<InchiBond> bonds = inchiInput.getBonds();
+    for (int i = 0, len = bonds.size(); i < len; i++) {
+      InchiBond bond = bonds.get(i);
+      int start = inchiInput.indexOf(bond.getStart());
+      int end = inchiInput.indexOf(bond.getEnd());
+      if (start < 0 || end < 0) {
+        //invalid, left to the underlying engine to report
+        return Collections.singletonList(inchiInput);
+      }
+      int a = find(parent, start);
+      int b = find(parent, end);
+      if (a != b) {
+        parent[Math.max(a, b)] = Math.min(a, b);
+        componentCount--;
+      }
+    }
+    if (componentCount < 2) {
+      return Collections.singletonList(inchiInput);
+    }
+    //number components by the position of their first atom
+    int[] componentOfRoot = new int[atomCount];
+    int[] componentOfAtom = new int[atomCount];
+    List<InchiInput> components = new ArrayList<>(componentCount);
+    for (int i = 0; i < atomCount; i++) {
+      int root = find(parent, i);
+      if (root == i) {
+        componentOfRoot[i] = components.size();
+        components.add(new InchiInput());
+      }
+      componentOfAtom[i] = componentOfRoot[root];
+    }
+    for (int i = 0, len = bonds.size(); i < len; i++) {
+      InchiBond bond = bonds.get(i);
+      components.get(componentOfAtom[inchiInput.indexOf(bond.getStart())]).addBond(bond);
+    }
+    for (InchiStereo stereo : inchiInput.getStereos()) {
+      InchiAtom atom = stereo.getCentralAtom() != null ? stereo.getCentralAtom() : stereo.getAtoms()[1];
+      int idx = atom != null ? inchiInput.indexOf(atom) : -1;
+      if (idx < 0) {
+        return Collections.singletonList(inchiInput);
+      }
+      components.get(componentOfAtom[idx]).addStereo(stereo);
+    }
+    //adding the atoms last as this changes their index
+    for (int i = 0; i < atomCount; i++) {
+      components.get(componentOfAtom[i]).addAtom(atoms.get(i));
+    }
+    return components;
+  }
+
+  private static int find(int[] parent, int i) {
+    while (parent[i] != i) {
+      parent[i] = parent[parent[i]];
+      i = parent[i];
+    }
+    return i;
+  }
+
+  /**
+   * Assembles the output of a disconnected structure from the outputs of its components.
+   * Returns null if the output cannot be assembled
+   * @param outputs
+   * @return
+   */
+  static InchiOutput assemble(List<InchiOutput> outputs) {
+    InchiStatus status = InchiStatus.SUCCESS;
+    List<Component> components = new ArrayList<>(outputs.size());
+    for (InchiOutput output : outputs) {
+      if (output.getStatus() == InchiStatus.WARNING) {
+        status = InchiStatus.WARNING;
+      }
+      else if (output.getStatus() != InchiStatus.SUCCESS) {
+        return null;
+      }
+      Component component = Component.parse(output.getInchi());
+      if (component == null) {
+        return null;
+      }
+      components.add(component);
+    }
+    String inchi = assembleInchi(components);
+    if (inchi == null) {
+      return null;
+    }
+    return new InchiOutput(inchi, null, (String) null, null, status);
+  }
+
+  /**
+   * Sorts the components into the order InChI uses and joins their layers.
+   * Returns null if the InChI order cannot be determined from the formulae
+   * @param components
+   * @return
+   */
+  static String assembleInchi(List<Component> components) {
+    for (int i = 0; i < components.size(); i++) {
+      components.get(i).position = i;
+    }
+    Collections.sort(components, Component.INCHI_ORDER);
+    String prefix = components.get(0).prefix;
+    for (int i = 0; i < components.size(); i++) {
+      Component component = components.get(i);
+      if (!component.prefix.equals(prefix)) {
+        return null;
+      }
+      if (i > 0 && Component.INCHI_ORDER.compare(components.get(i - 1), component) == 0 && !components.get(i - 1).body.equals(component.body)) {
+        return null;
+      }
+    }
+
+    StringBuilder sb = new StringBuilder(prefix);
+    sb.append('/');
+    for (int i = 0; i < components.size();) {
+      String formula = components.get(i).formula;
+      int count = 1;
+      while (i + count < components.size() && components.get(i + count).formula.equals(formula)) {
+        count++;
+      }
+      if (i > 0) {
+        sb.append('.');
+      }
+      if (count > 1) {
+        sb.append(count);
+      }
+      sb.append(formula);
+      i += count;
+    }
+    for (int layer = 0; layer < LAYERS.length(); layer++) {
+      char layerChar = LAYERS.charAt(layer);
+      switch (layerChar) {
+      case 'p':
+        int protons = 0;
+        for (Component component : components) {
+          if (component.layers[layer] != null) {
+            protons += Integer.parseInt(component.layers[layer]);
+          }
+        }
+        if (protons != 0) {
+          sb.append("/p").append(protons > 0 ? "+" : "").append(protons);
+        }
+        break;
+      case 'm':
+        if (!appendEnantiomerLayer(sb, components, layer, LAYERS.indexOf('t'))) {
+          return null;
+        }
+        break;
+      case 's':
+        String stereoType = null;
+        for (Component component : components) {
+          String componentStereoType = component.layers[layer];
+          if (componentStereoType != null) {
+            if (stereoType != null && !stereoType.equals(componentStereoType)) {
+              return null;
+            }
+            stereoType = componentStereoType;
+          }
+        }
+        if (stereoType != null) {
+          sb.append("/s").append(stereoType);
+        }
+        break;
+      default:
+        appendComponentLayer(sb, components, layer, layerChar);
+        break;
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Appends a layer with a value per component, separated by semicolons. Runs of identical non-empty values are abbreviated e.g. 2*1H,
+   * although in the hydrogen layer only between components with the same number of atoms
+   */
+  private static void appendComponentLayer(StringBuilder sb, List<Component> components, int layer, char layerChar) {
+    boolean present = false;
+    for (Component component : components) {
+      present |= component.layers[layer] != null;
+    }
+    if (!present) {
+      return;
+    }
+    sb.append('/').append(layerChar);
+    for (int i = 0; i < components.size();) {
+      String value = components.get(i).layers[layer];
+      int count = 1;
+      if (value != null) {
+        while (i + count < components.size() && value.equals(components.get(i + count).layers[layer]) &&
+            (layerChar != 'h' || components.get(i).heavyAtoms == components.get(i + count).heavyAtoms)) {
+          count++;
+        }
+      }
+      if (i > 0) {
+        sb.append(';');
+      }
+      if (count > 1) {
+        sb.append(count).append('*');
+      }
+      if (value != null) {
+        sb.append(value);
+      }
+      i += count;
+    }
+  }
+
+  /**
+   * Appends the /m layer, which has a digit for each component with stereo and a full stop for each component without
+   */
+  private static boolean appendEnantiomerLayer(StringBuilder sb, List<Component> components, int layer, int stereoLayer) {
+    boolean present = false;
+    for (Component component : components) {
+      present |= component.layers[layer] != null;
+    }
+    if (!present) {
+      return true;
+    }
+    sb.append("/m");
+    for (Component component : components) {
+      String value = component.layers[layer];
+      if (value != null) {
+        if (value.length() != 1) {
+          return false;
+        }
+        sb.append(value);
+      }
+      else if (component.layers[stereoLayer] != null) {
+        //unknown how stereo without an enantiomer layer is represented alongside stereo with one
+        return false;
+      }
+      else {
+        sb.append('.');
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The InChI of a single connected component, split into its layers
+   */
+  static final class Component {
+
+    /**
+     * The order of components in an InChI with more than one component, as far as it can be determined from the formula:
+     * elements other than hydrogen are compared in Hill order, where the earlier element, or the greater number of atoms
+     * of the same element, comes first. Components that only differ in hydrogens are ordered by their connection tables, so compare as equal
+     */
+    static final Comparator<Component> INCHI_ORDER = (a, b) -> {
+      for (int i = 0; ; i++) {
+        boolean aEnded = i == a.elements.length;
+        boolean bEnded = i == b.elements.length;
+        if (aEnded || bEnded) {
+          if (aEnded && bEnded) {
+            return 0;
+          }
+          return aEnded ? 1 : -1;
+        }
+        int cmp = compareElements(a.elements[i], b.elements[i]);
+        if (cmp != 0) {
+          return cmp;
+        }
+        if (a.counts[i] != b.counts[i]) {
+          return Integer.compare(b.counts[i], a.counts[i]);
+        }
+      }
+    };
+
+    final String prefix;
+    final String formula;
+    final String body;
+    final String[] elements;
+    final int[] counts;
+    final int heavyAtoms;
+    final String[] layers = new String[LAYERS.length()];
+    int position;
+
+    private Component(String prefix, String formula, String body, String[] elements, int[] counts) {
+      this.prefix = prefix;
+      this.formula = formula;
+      this.body = body;
+      this.elements = elements;
+      this.counts = counts;
+      int heavyAtoms = 0;
+      for (int count : counts) {
+        heavyAtoms += count;
+      }
+      //InChI treats H2 as one atom with one hydrogen
+      this.heavyAtoms = Math.max(heavyAtoms, 1);
+    }
+
+    /**
+     * Returns null if the InChI is not of a single component, or has layers that cannot be assembled
+     * @param inchi
+     * @return
+     */
+    static Component parse(String inchi) {
+      if (inchi == null || !inchi.startsWith("InChI=")) {
+        return null;
+      }
+      int formulaStart = inchi.indexOf('/');
+      if (formulaStart < 0) {
+        return null;
+      }
+      String[] parts = inchi.substring(formulaStart + 1).split("/", -1);
+      String formula = parts[0];
+      if (formula.isEmpty() || formula.indexOf('.') >= 0 || !Character.isUpperCase(formula.charAt(0))) {
+        return null;
+      }
+      List<String> elements = new ArrayList<>();
+      List<Integer> counts = new ArrayList<>();
+      for (int i = 0, len = formula.length(); i < len;) {
+        int start = i++;
+        if (!Character.isUpperCase(formula.charAt(start))) {
+          return null;
+        }
+        while (i < len && Character.isLowerCase(formula.charAt(i))) {
+          i++;
+        }
+        String element = formula.substring(start, i);
+        int countStart = i;
+        while (i < len && Character.isDigit(formula.charAt(i))) {
+          i++;
+        }
+        if (!element.equals("H")) {
+          elements.add(element);
+          counts.add(countStart == i ? 1 : Integer.parseInt(formula.substring(countStart, i)));
+        }
+      }
+      int[] countArray = new int[counts.size()];
+      for (int i = 0; i < countArray.length; i++) {
+        countArray[i] = counts.get(i);
+      }
+      Component component = new Component(inchi.substring(0, formulaStart), formula, inchi.substring(formulaStart),
+          elements.toArray(new String[0]), countArray);
+      int lastLayer = -1;
+      for (int i = 1; i < parts.length; i++) {
+        String part = parts[i];
+        int layer = part.isEmpty() ? -1 : LAYERS.indexOf(part.charAt(0));
+        if (layer <= lastLayer || part.length() == 1 || part.indexOf(';') >= 0) {
+          return null;
+        }
+        component.layers[layer] = part.substring(1);
+        lastLayer = layer;
+      }
+      return component;
+    }
+
+    private static int compareElements(String a, String b) {
+      if (a.equals(b)) {
+        return 0;
+      }
+      //carbon is first in Hill order, then the other elements alphabetically
+      if (a.equals("C")) {
+        return -1;
+      }
+      if (b.equals("C")) {
+        return 1;
+      }
+      return a.compareTo(b);
+    }
+  }
+
+  /**
+   * Variants are passed to the underlying engine
+   */
+  @Override
+  public List<InchiOutput> toInchiVariants(InchiInput inchiInput, List<InchiOptions> variants) {
+    return engine.toInchiVariants(inchiInput, variants);
+  }
+
+  @Override
+  public InchiOutput molToInchi(String molText, InchiOptions options) {
+    return engine.molToInchi(molText, options);
+  }
+
+  @Override
+  public InchiOutput molToInchi(ByteBuffer molText, InchiOptions options) {
+    return engine.molToInchi(molText, options);
+  }
+
+  @Override
+  public List<InchiOutput> molToInchiVariants(String molText, List<InchiOptions> variants) {
+    return engine.molToInchiVariants(molText, variants);
+  }
+
+  @Override
+  public InchiOutput inchiToInchi(String inchi, InchiOptions options) {
+    return engine.inchiToInchi(inchi, options);
+  }
+
+  @Override
+  public InchiOutput inchiToInchi(ByteBuffer inchi, InchiOptions options) {
+    return engine.inchiToInchi(inchi, options);
+  }
+
+  @Override
+  public InchiKeyOutput inchiToInchiKey(String inchi) {
+    return engine.inchiToInchiKey(inchi);
+  }
+
+  @Override
+  public InchiKeyOutput inchiToInchiKey(ByteBuffer inchi) {
+    return engine.inchiToInchiKey(inchi);
+  }
+
+  @Override
+  public InchiKeyOutput molToInchiKey(String molText, InchiOptions options) {
+    return engine.molToInchiKey(molText, options);
+  }
+
+  @Override
+  public String toString() {
+    return "ComponentInchiEngine[assembled=" + assembledCount.get() + ", fallback=" + fallbackCount.get() +
+        (verify ? ", mismatches=" + mismatchCount.get() : "") + "]";
+  }
+
+}
@@ -29,6 +29,9 @@ public class InchiAtom {
   private int isotopicMass = 0;
   private InchiRadical radical = InchiRadical.NONE;
   private int charge = 0;
+
+  //position of this atom in the InchiInput it was most recently added to
+  private int index = -1;
   
   public InchiAtom(String elName) {
     this.elName = elName;
@@ -155,4 +158,12 @@ public class InchiAtom {
     }
     this.charge = charge;
   }
+
+  int getIndex() {
+    return index;
+  }
+
+  void setIndex(int index) {
+    this.index = index;
+  }
 }
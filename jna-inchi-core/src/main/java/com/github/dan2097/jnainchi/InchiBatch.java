@@ -0,0 +1,281 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Runs conversions on a fixed number of worker threads, returning results in input order.
+ * Each worker binds an {@link InchiConverter} to its thread, so the native handles are reused for all the items it converts,
+ * and releases it when the worker finishes.
+ * <p>
+ * {@link JnaInchi#toInchiAll(List, InchiOptions, int)} and similar methods cover the common conversions,
+ * {@link #convertAll(Stream, Conversion, int)} allows any conversion to be run in the same way, e.g. one that consults a cache first.
+ */
+public class InchiBatch {
+
+  /**
+   * The number of queued or running conversions per worker when streaming
+   */
+  static final int ITEMS_IN_FLIGHT_PER_WORKER = 4;
+
+  private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+  /**
+   * Converts one input. Any exception thrown is reported as the error of that input's result
+   */
+  public interface Conversion<T, R> {
+    R convert(T input) throws Exception;
+  }
+
+  /**
+   * Creates the result for one item from its output, or the exception thrown converting it
+   */
+  interface ResultFactory<R, B> {
+    B create(long index, R output, Exception error);
+  }
+
+  /**
+   * Converts the inputs using the given number of worker threads
+   * @param inputs
+   * @param conversion
+   * @param parallelism the number of worker threads
+   * @return the results, in input order
+   */
+  public static <T> List<InchiBatchResult> convertAll(List<T> inputs, Conversion<T, InchiOutput> conversion, int parallelism) {
+    return convertAll(inputs, conversion, InchiBatchResult::new, parallelism);
+  }
+
+  /**
+   * Streaming form of {@link #convertAll(List, Conversion, int)}. Inputs are read on the thread consuming the results, as they are needed,
+   * so only a bounded number are in memory at once. The stream should be closed to stop the workers
+   * @param inputs
+   * @param conversion
+   * @param parallelism the number of worker threads
+   * @return the results, in input order
+   */
+  public static <T> Stream<InchiBatchResult> convertAll(Stream<T> inputs, Conversion<T, InchiOutput> conversion, int parallelism) {
+    return convertAll(inputs, conversion, InchiBatchResult::new, parallelism);
+  }
+
+  static <T, R, B> List<B> convertAll(List<T> inputs, Conversion<T, R> conversion, ResultFactory<R, B> resultFactory, int parallelism) {
+    checkParallelism(parallelism);
+    int size = inputs.size();
+    @SuppressWarnings("unchecked")
+    B[] results = (B[]) new Object[size];
+    int workers = Math.min(parallelism, size);
+    if (workers == 0) {
+      return Arrays.asList(results);
+    }
+    ExecutorService executor = createExecutor(workers);
+    try {
+      AtomicInteger next = new AtomicInteger();
+      List<Future<?>> futures = new ArrayList<>(workers);
+      for (int i = 0; i < workers; i++) {
+        futures.add(executor.submit(() -> {
+          int idx;
+          while ((idx = next.getAndIncrement()) < size) {
+            results[idx] = convert(idx, inputs.get(idx), conversion, resultFactory);
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        await(future);
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+    return Arrays.asList(results);
+  }
+
+  static <T, R, B> Stream<B> convertAll(Stream<T> inputs, Conversion<T, R> conversion, ResultFactory<R, B> resultFactory, int parallelism) {
+    checkParallelism(parallelism);
+    ExecutorService executor = createExecutor(parallelism);
+    OrderedResultIterator<T, R, B> results = new OrderedResultIterator<>(inputs.iterator(), conversion, resultFactory, executor,
+        parallelism * ITEMS_IN_FLIGHT_PER_WORKER);
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(results, Spliterator.ORDERED | Spliterator.NONNULL), false)
+        .onClose(() -> {
+          executor.shutdownNow();
+          inputs.close();
+        });
+  }
+
+  /**
+   * Converts each distinct input once, as identified by the key function, and gives every input the result of its first occurrence.
+   * Keys are compared with equals, so the key function must identify inputs exactly, not just by a hash.
+   * Inputs whose key is null or cannot be computed, e.g. null inputs, are converted individually
+   */
+  static <T> InchiBatchReport convertAllDeduplicated(List<T> inputs, Function<T, ?> keyFunction, Conversion<T, InchiOutput> conversion, int parallelism) {
+    checkParallelism(parallelism);
+    long start = System.nanoTime();
+    int size = inputs.size();
+    int[] uniqueIndices = new int[size];
+    List<T> uniqueInputs = new ArrayList<>();
+    Map<Object, Integer> keyToUniqueIndex = new HashMap<>();
+    for (int i = 0; i < size; i++) {
+      T input = inputs.get(i);
+      Object key;
+      try {
+        key = keyFunction.apply(input);
+      }
+      catch (RuntimeException e) {
+        key = null;
+      }
+      Integer uniqueIndex = key != null ? keyToUniqueIndex.putIfAbsent(key, uniqueInputs.size()) : null;
+      if (uniqueIndex == null) {
+        uniqueIndices[i] = uniqueInputs.size();
+        uniqueInputs.add(input);
+      }
+      else {
+        uniqueIndices[i] = uniqueIndex;
+      }
+    }
+    long hashingNanos = System.nanoTime() - start;
+    List<InchiBatchResult> uniqueResults = convertAll(uniqueInputs, conversion, parallelism);
+    InchiBatchResult[] results = new InchiBatchResult[size];
+    for (int i = 0; i < size; i++) {
+      InchiBatchResult uniqueResult = uniqueResults.get(uniqueIndices[i]);
+      results[i] = new InchiBatchResult(i, uniqueResult.getOutput(), uniqueResult.getError());
+    }
+    return new InchiBatchReport(Arrays.asList(results), uniqueInputs.size(), hashingNanos);
+  }
+
+  private static void checkParallelism(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+    }
+  }
+
+  private static <T, R, B> B convert(long idx, T input, Conversion<T, R> conversion, ResultFactory<R, B> resultFactory) {
+    R output;
+    try {
+      output = conversion.convert(input);
+    }
+    catch (Exception e) {
+      return resultFactory.create(idx, null, e);
+    }
+    return resultFactory.create(idx, output, null);
+  }
+
+  private static <V> V await(Future<V> future) {
+    try {
+      return future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted whilst waiting for InChI conversion", e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  private static ExecutorService createExecutor(int workers) {
+    int poolNumber = POOL_NUMBER.incrementAndGet();
+    AtomicInteger threadNumber = new AtomicInteger();
+    ThreadFactory threadFactory = r -> {
+      Thread t = new Thread(() -> {
+        InchiConverter.threadLocal();
+        try {
+          r.run();
+        }
+        finally {
+          InchiConverter.releaseThreadLocal();
+        }
+      }, "jnainchi-batch-" + poolNumber + "-" + threadNumber.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    };
+    return Executors.newFixedThreadPool(workers, threadFactory);
+  }
+
+  /**
+   * Keeps a bounded window of conversions in flight, yielding their results in input order
+   */
+  private static class OrderedResultIterator<T, R, B> implements Iterator<B> {
+
+    private final Iterator<T> inputs;
+    private final Conversion<T, R> conversion;
+    private final ResultFactory<R, B> resultFactory;
+    private final ExecutorService executor;
+    private final int window;
+    private final Deque<Future<B>> pending = new ArrayDeque<>();
+    private long nextIndex = 0;
+
+    private OrderedResultIterator(Iterator<T> inputs, Conversion<T, R> conversion, ResultFactory<R, B> resultFactory, ExecutorService executor, int window) {
+      this.inputs = inputs;
+      this.conversion = conversion;
+      this.resultFactory = resultFactory;
+      this.executor = executor;
+      this.window = window;
+    }
+
+    @Override
+    public boolean hasNext() {
+      fill();
+      if (pending.isEmpty()) {
+        executor.shutdown();
+        return false;
+      }
+      return true;
+    }
+
+    @Override
+    public B next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      B result = await(pending.poll());
+      fill();
+      return result;
+    }
+
+    private void fill() {
+      while (pending.size() < window && inputs.hasNext()) {
+        T input = inputs.next();
+        long idx = nextIndex++;
+        pending.add(executor.submit(() -> convert(idx, input, conversion, resultFactory)));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,94 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The results of a deduplicated batch conversion, with statistics on how many inputs were duplicates.
+ * There is one result per input, in input order. Duplicate inputs were only converted once,
+ * so their results share the same {@link InchiOutput}, or exception.
+ */
+public class InchiBatchReport {
+
+  private final List<InchiBatchResult> results;
+  private final int uniqueCount;
+  private final long hashingNanos;
+
+  InchiBatchReport(List<InchiBatchResult> results, int uniqueCount, long hashingNanos) {
+    this.results = results;
+    this.uniqueCount = uniqueCount;
+    this.hashingNanos = hashingNanos;
+  }
+
+  /**
+   * One result per input, in input order
+   * @return
+   */
+  public List<InchiBatchResult> getResults() {
+    return results;
+  }
+
+  /**
+   * The number of inputs
+   * @return
+   */
+  public int getInputCount() {
+    return results.size();
+  }
+
+  /**
+   * The number of distinct inputs, i.e. the number of conversions performed
+   * @return
+   */
+  public int getUniqueCount() {
+    return uniqueCount;
+  }
+
+  /**
+   * The number of inputs whose result was taken from an earlier identical input
+   * @return
+   */
+  public int getDuplicateCount() {
+    return results.size() - uniqueCount;
+  }
+
+  /**
+   * The fraction of inputs that were duplicates, 0 for an empty batch
+   * @return
+   */
+  public double getDuplicateFraction() {
+    return results.isEmpty() ? 0 : (double) getDuplicateCount() / results.size();
+  }
+
+  /**
+   * The time spent hashing the inputs to find duplicates
+   * @return
+   */
+  public long getHashingNanos() {
+    return hashingNanos;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.ROOT, "InchiBatchReport[inputs=%d, unique=%d, duplicates=%d (%.1f%%), hashing=%dms]",
+        getInputCount(), uniqueCount, getDuplicateCount(), getDuplicateFraction() * 100, hashingNanos / 1_000_000);
+  }
+
+}
@@ -0,0 +1,69 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+/**
+ * The outcome of converting one item of a batch.
+ * Either the conversion produced an {@link InchiOutput} (which may itself have an error status),
+ * or an exception was thrown e.g. because the input could not be parsed.
+ */
+public class InchiBatchResult {
+
+  private final long index;
+  private final InchiOutput output;
+  private final Exception error;
+
+  InchiBatchResult(long index, InchiOutput output, Exception error) {
+    this.index = index;
+    this.output = output;
+    this.error = error;
+  }
+
+  /**
+   * The position of the input this result corresponds to, starting from 0
+   * @return
+   */
+  public long getIndex() {
+    return index;
+  }
+
+  /**
+   * The output of the conversion, or null if an exception was thrown
+   * @return
+   */
+  public InchiOutput getOutput() {
+    return output;
+  }
+
+  /**
+   * The exception thrown by the conversion, or null if it completed
+   * @return
+   */
+  public Exception getError() {
+    return error;
+  }
+
+  /**
+   * True if the conversion completed without an exception being thrown
+   * @return
+   */
+  public boolean isSuccess() {
+    return error == null;
+  }
+
+}
@@ -0,0 +1,788 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.dan2097.jnainchi.inchi.InchiLibrary;
+import com.github.dan2097.jnainchi.inchi.InchiLibrary.IXA_BOND_WEDGE;
+import com.github.dan2097.jnainchi.inchi.InchiLibrary.IXA_DBLBOND_CONFIG;
+import com.github.dan2097.jnainchi.inchi.InchiLibrary.IXA_INCHIBUILDER_OPTION;
+import com.github.dan2097.jnainchi.inchi.InchiLibrary.IXA_INCHIBUILDER_STEREOOPTION;
+import com.github.dan2097.jnainchi.inchi.IxaFunctions;
+import com.github.dan2097.jnainchi.inchi.IxaFunctions.IXA_ATOMID;
+import com.github.dan2097.jnainchi.inchi.IxaFunctions.IXA_BONDID;
+import com.github.dan2097.jnainchi.inchi.IxaFunctions.IXA_INCHIBUILDER_HANDLE;
+import com.github.dan2097.jnainchi.inchi.IxaFunctions.IXA_INCHIKEYBUILDER_HANDLE;
+import com.github.dan2097.jnainchi.inchi.IxaFunctions.IXA_MOL_HANDLE;
+import com.github.dan2097.jnainchi.inchi.IxaFunctions.IXA_STATUS_HANDLE;
+import com.github.dan2097.jnainchi.inchi.IxaFunctions.IXA_STEREOID;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+/**
+ * A conversion session that keeps the native InChI handles (status, molecule and InChI builder)
+ * alive between molecules, resetting them before each conversion.
+ * When converting many structures this avoids the cost of creating and destroying these handles for every molecule.
+ * <p>
+ * A converter must only be used by one thread at a time and should be closed when no longer required.
+ * {@link #threadLocal()} provides a converter bound to the calling thread.
+ */
+public class InchiConverter implements Closeable {
+
+  private static final ThreadLocal<InchiConverter> THREAD_LOCAL_CONVERTER = new ThreadLocal<>();
+
+  private static final int MAX_BUILDERS = 8;
+
+  private IXA_STATUS_HANDLE logger;
+  private IXA_MOL_HANDLE nativeMol;
+
+  //A builder is kept for each recently used options instance, as options cannot be reliably changed on an existing builder
+  private final Map<InchiOptions, IXA_INCHIBUILDER_HANDLE> builders = new IdentityHashMap<>();
+  //Builders for InChIKey generation, or when AuxInfo is not requested, additionally have AuxNone set
+  private final Map<InchiOptions, IXA_INCHIBUILDER_HANDLE> auxNoneBuilders = new IdentityHashMap<>();
+  private IXA_INCHIKEYBUILDER_HANDLE keyBuilder;
+
+  //Native copy of the current molfile or InChI, when read from a ByteBuffer
+  private Memory textMemory;
+  private ByteBuffer textBuffer;
+
+  private final byte[] inchiKey = new byte[28];
+  private final byte[] szXtra1 = new byte[65];
+  private final byte[] szXtra2 = new byte[65];
+
+  private final boolean threadLocal;
+
+  public InchiConverter() {
+    this(false);
+  }
+
+  private InchiConverter(boolean threadLocal) {
+    this.threadLocal = threadLocal;
+    this.logger = IxaFunctions.IXA_STATUS_Create();
+    this.nativeMol = IxaFunctions.IXA_MOL_Create(logger);
+  }
+
+  /**
+   * Returns the converter bound to the calling thread, creating it if necessary.
+   * The converter remains open until {@link #releaseThreadLocal()} (or {@link #close()}) is called from the same thread.
+   * @return the converter for the current thread
+   */
+  public static InchiConverter threadLocal() {
+    InchiConverter converter = THREAD_LOCAL_CONVERTER.get();
+    if (converter == null) {
+      converter = new InchiConverter(true);
+      THREAD_LOCAL_CONVERTER.set(converter);
+    }
+    return converter;
+  }
+
+  /**
+   * The converter bound to the calling thread by {@link #threadLocal()}, or null if there is none
+   * @return
+   */
+  static InchiConverter currentThreadLocal() {
+    return THREAD_LOCAL_CONVERTER.get();
+  }
+
+  /**
+   * Closes the converter bound to the calling thread, if there is one.
+   * A subsequent call to {@link #threadLocal()} will create a new converter.
+   */
+  public static void releaseThreadLocal() {
+    InchiConverter converter = THREAD_LOCAL_CONVERTER.get();
+    if (converter != null) {
+      converter.close();
+    }
+  }
+
+  public InchiOutput toInchi(InchiInput inchiInput) {
+    return toInchi(inchiInput, InchiOptions.DEFAULT_OPTIONS);
+  }
+
+  public InchiOutput toInchi(InchiInput inchiInput, InchiOptions options) {
+    readInput(inchiInput);
+    return buildInchi(options);
+  }
+
+  /**
+   * Generates an InChI for each of the given options, e.g. standard, FixedH and SNon variants of the same structure.
+   * The native molecule is only created once, with each variant generated from it by the builder for those options.
+   * The output is the same as calling {@link #toInchi(InchiInput, InchiOptions)} with each of the options.
+   * @param inchiInput
+   * @param variants
+   * @return one output per options, in the same order
+   */
+  public List<InchiOutput> toInchiVariants(InchiInput inchiInput, List<InchiOptions> variants) {
+    readInput(inchiInput);
+    return buildVariants(variants);
+  }
+
+  /**
+   * Molfile equivalent of {@link #toInchiVariants(InchiInput, List)}, the molfile is only parsed once
+   * @param molText
+   * @param variants
+   * @return one output per options, in the same order
+   */
+  public List<InchiOutput> molToInchiVariants(String molText, List<InchiOptions> variants) {
+    reset();
+    IxaFunctions.IXA_MOL_ReadMolfile(logger, nativeMol, molText);
+    return buildVariants(variants);
+  }
+
+  /**
+   * Generates just the InChIKey of the structure.
+   * AuxInfo is not generated and the InChI is passed to the InChIKey builder without being copied into Java.
+   * If no InChI could be generated the status is {@link InchiKeyStatus#EMPTY_INPUT}, use {@link #toInchi(InchiInput, InchiOptions)}
+   * to retrieve the reason.
+   * @param inchiInput
+   * @param options
+   * @return
+   */
+  public InchiKeyOutput toInchiKey(InchiInput inchiInput, InchiOptions options) {
+    readInput(inchiInput);
+    return buildInchiKey(options);
+  }
+
+  /**
+   * Molfile equivalent of {@link #toInchiKey(InchiInput, InchiOptions)}
+   * @param molText
+   * @param options
+   * @return
+   */
+  public InchiKeyOutput molToInchiKey(String molText, InchiOptions options) {
+    reset();
+    IxaFunctions.IXA_MOL_ReadMolfile(logger, nativeMol, molText);
+    return buildInchiKey(options);
+  }
+
+  private void readInput(InchiInput inchiInput) {
+    List<InchiAtom> atoms = inchiInput.getAtoms();
+    int atomCount = atoms.size();
+    if (atomCount > Short.MAX_VALUE) {
+      throw new IllegalStateException("InChI is limited to 32767 atoms, input contained " + atomCount + " atoms");
+    }
+    List<InchiBond> bonds = inchiInput.getBonds();
+    List<InchiStereo> stereos = inchiInput.getStereos();
+    if (stereos.size() > Short.MAX_VALUE) {
+      throw new IllegalStateException("Too many stereochemistry elements in input");
+    }
+    reset();
+    IxaFunctions.IXA_MOL_ReserveSpace(logger, nativeMol, atomCount, bonds.size(), stereos.size());
+    IXA_ATOMID[] nativeAtoms = addAtoms(atoms);
+    addBonds(inchiInput, bonds, nativeAtoms);
+    addStereos(inchiInput, stereos, nativeAtoms);
+  }
+
+  public InchiOutput molToInchi(String molText) {
+    return molToInchi(molText, InchiOptions.DEFAULT_OPTIONS);
+  }
+
+  public InchiOutput molToInchi(String molText, InchiOptions options) {
+    reset();
+    IxaFunctions.IXA_MOL_ReadMolfile(logger, nativeMol, molText);
+    return buildInchi(options);
+  }
+
+  /**
+   * Reads the molfile from the remaining bytes of the buffer (ASCII), e.g. a record of a memory-mapped SD file.
+   * A direct buffer whose last remaining byte is a null terminator is read in place, otherwise the bytes are copied into a
+   * native buffer that is reused between molecules. The position of the given buffer is not changed.
+   * @param molfile
+   * @param options
+   * @return
+   */
+  public InchiOutput molToInchi(ByteBuffer molfile, InchiOptions options) {
+    reset();
+    IxaFunctions.IXA_MOL_ReadMolfile(logger, nativeMol, toNativeText(molfile));
+    return buildInchi(options);
+  }
+
+  /**
+   * Reads the InChI from the remaining bytes of the buffer (ASCII), see {@link #molToInchi(ByteBuffer, InchiOptions)}
+   * @param inchi
+   * @param options
+   * @return
+   */
+  public InchiOutput inchiToInchi(ByteBuffer inchi, InchiOptions options) {
+    reset();
+    IxaFunctions.IXA_MOL_ReadInChI(logger, nativeMol, toNativeText(inchi));
+    return buildInchi(options);
+  }
+
+  /**
+   * Reads the InChI from the remaining bytes of the buffer (ASCII), see {@link #molToInchi(ByteBuffer, InchiOptions)}
+   * @param inchi
+   * @return
+   */
+  public InchiKeyOutput inchiToInchiKey(ByteBuffer inchi) {
+    checkOpen();
+    inchiKey[0] = '\0';
+    InchiKeyStatus ret = InchiKeyStatus.of(InchiLibrary.GetINCHIKeyFromINCHI(toNativeText(inchi), 1, 1, inchiKey, szXtra1, szXtra2));
+    return new InchiKeyOutput(JnaInchi.toString(inchiKey), ret);
+  }
+
+  /**
+   * The text in native memory, null terminated. The text is only copied if it is not already a null terminated direct buffer
+   * @param text
+   * @return
+   */
+  private Pointer toNativeText(ByteBuffer text) {
+    Pointer pointer = getNullTerminatedPointer(text);
+    if (pointer != null) {
+      return pointer;
+    }
+    int size = text.remaining();
+    if (textMemory == null || textMemory.size() <= size) {
+      long newSize = textMemory != null ? Math.max(size + 1, textMemory.size() * 2) : Math.max(size + 1, 8192);
+      textMemory = new Memory(newSize);
+      textBuffer = textMemory.getByteBuffer(0, newSize);
+    }
+    textBuffer.clear();
+    int position = text.position();
+    textBuffer.put(text);
+    text.position(position);
+    textBuffer.put((byte) 0);
+    return textMemory;
+  }
+
+  /**
+   * The address of the text, if it is a direct buffer whose last remaining byte is a null terminator
+   * @param text
+   * @return the pointer, or null if the text must be copied to be passed to native code
+   */
+  static Pointer getNullTerminatedPointer(ByteBuffer text) {
+    int limit = text.limit();
+    if (!text.isDirect() || limit == text.position() || text.get(limit - 1) != 0) {
+      return null;
+    }
+    return Native.getDirectBufferPointer(text).share(text.position());
+  }
+
+  /**
+   * The remaining bytes of the text followed by a null terminator.
+   * The backing array is returned if it already has this content, otherwise the bytes are copied
+   * @param text
+   * @return
+   */
+  static byte[] toNullTerminatedBytes(ByteBuffer text) {
+    int limit = text.limit();
+    if (text.hasArray() && text.arrayOffset() + text.position() == 0 && text.arrayOffset() + limit == text.array().length
+        && limit > 0 && text.get(limit - 1) == 0) {
+      return text.array();
+    }
+    byte[] bytes = new byte[text.remaining() + 1];
+    text.duplicate().get(bytes, 0, bytes.length - 1);
+    return bytes;
+  }
+
+  /**
+   * Converts InChI into InChI for validation purposes.
+   * It may also be used to filter out specific layers.
+   * For instance, SNon would remove the stereochemical layer.
+   * Omitting FixedH and/or RecMet would remove Fixed-H or Reconnected layers.
+   * @param inchi
+   * @param options
+   * @return
+   */
+  public InchiOutput inchiToInchi(String inchi, InchiOptions options) {
+    reset();
+    IxaFunctions.IXA_MOL_ReadInChI(logger, nativeMol, inchi);
+    return buildInchi(options);
+  }
+
+  public InchiKeyOutput inchiToInchiKey(String inchi) {
+    checkOpen();
+    //The buffer is reused, so ensure a failed call does not return the previous key
+    inchiKey[0] = '\0';
+    InchiKeyStatus ret = InchiKeyStatus.of(InchiLibrary.GetINCHIKeyFromINCHI(inchi, 1, 1, inchiKey, szXtra1, szXtra2));
+    return new InchiKeyOutput(JnaInchi.toString(inchiKey), ret);
+  }
+
+  /**
+   * Destroys the native handles held by this converter.
+   * The converter cannot be used after it has been closed.
+   */
+  @Override
+  public void close() {
+    if (logger == null) {
+      return;
+    }
+    destroyBuilders(builders);
+    destroyBuilders(auxNoneBuilders);
+    if (keyBuilder != null) {
+      IxaFunctions.IXA_INCHIKEYBUILDER_Destroy(logger, keyBuilder);
+      keyBuilder = null;
+    }
+    IxaFunctions.IXA_MOL_Destroy(logger, nativeMol);
+    IxaFunctions.IXA_STATUS_Destroy(logger);
+    nativeMol = null;
+    logger = null;
+    textMemory = null;
+    textBuffer = null;
+    if (threadLocal && THREAD_LOCAL_CONVERTER.get() == this) {
+      THREAD_LOCAL_CONVERTER.remove();
+    }
+  }
+
+  private void checkOpen() {
+    if (logger == null) {
+      throw new IllegalStateException("InchiConverter has been closed");
+    }
+  }
+
+  /**
+   * Clears any structure and messages left from the previous conversion
+   */
+  private void reset() {
+    checkOpen();
+    IxaFunctions.IXA_STATUS_Clear(logger);
+    IxaFunctions.IXA_MOL_Clear(logger, nativeMol);
+  }
+
+  /**
+   * Creates the native atoms, returning them in the same order as the input atoms
+   * @param atoms
+   * @return
+   */
+  private IXA_ATOMID[] addAtoms(List<InchiAtom> atoms) {
+    IXA_MOL_HANDLE mol = nativeMol;
+    IXA_ATOMID[] nativeAtoms = new IXA_ATOMID[atoms.size()];
+    for (int i = 0, len = nativeAtoms.length; i < len; i++) {
+      InchiAtom atom = atoms.get(i);
+      //For performance only call IxaFunctions when values differ from the defaults
+      IXA_ATOMID nativeAtom = IxaFunctions.IXA_MOL_CreateAtom(logger, mol);
+      nativeAtoms[i] = nativeAtom;
+
+      if (atom.getX() != 0) {
+        IxaFunctions.IXA_MOL_SetAtomX(logger, mol, nativeAtom, atom.getX());
+      }
+      if (atom.getY() != 0) {
+        IxaFunctions.IXA_MOL_SetAtomY(logger, mol, nativeAtom, atom.getY());
+      }
+      if (atom.getZ() != 0) {
+        IxaFunctions.IXA_MOL_SetAtomZ(logger, mol, nativeAtom, atom.getZ());
+      }
+      String elName = atom.getElName();
+      if (!elName.equals("C")) {
+        if (elName.length() > 5) {
+          throw new IllegalArgumentException("Element name was too long: " + elName);
+        }
+        IxaFunctions.IXA_MOL_SetAtomElement(logger, mol, nativeAtom, elName);
+      }
+      if (atom.getIsotopicMass() != 0) {
+        IxaFunctions.IXA_MOL_SetAtomMass(logger, mol, nativeAtom, atom.getIsotopicMass());
+      }
+      if (atom.getCharge() != 0) {
+        IxaFunctions.IXA_MOL_SetAtomCharge(logger, mol, nativeAtom, atom.getCharge());
+      }
+      if (atom.getRadical() != InchiRadical.NONE) {
+        IxaFunctions.IXA_MOL_SetAtomRadical(logger, mol, nativeAtom, atom.getRadical().getCode());
+      }
+      if (atom.getImplicitHydrogen() != 0) {
+        IxaFunctions.IXA_MOL_SetAtomHydrogens(logger, mol, nativeAtom, 0, atom.getImplicitHydrogen());
+      }
+      if (atom.getImplicitProtium() != 0) {
+         IxaFunctions.IXA_MOL_SetAtomHydrogens(logger, mol, nativeAtom, 1, atom.getImplicitProtium());
+      }
+      if (atom.getImplicitDeuterium() != 0) {
+         IxaFunctions.IXA_MOL_SetAtomHydrogens(logger, mol, nativeAtom, 2, atom.getImplicitDeuterium());
+      }
+      if (atom.getImplicitTritium() != 0) {
+          IxaFunctions.IXA_MOL_SetAtomHydrogens(logger, mol, nativeAtom, 3, atom.getImplicitTritium());
+      }
+    }
+    return nativeAtoms;
+  }
+
+  private static IXA_ATOMID getNativeAtom(InchiInput inchiInput, IXA_ATOMID[] nativeAtoms, InchiAtom atom) {
+    if (atom == null) {
+      return null;
+    }
+    int idx = inchiInput.indexOf(atom);
+    return idx >= 0 ? nativeAtoms[idx] : null;
+  }
+
+  private void addBonds(InchiInput inchiInput, List<InchiBond> bonds, IXA_ATOMID[] nativeAtoms) {
+    IXA_MOL_HANDLE mol = nativeMol;
+    for (InchiBond bond : bonds) {
+      IXA_ATOMID nativeAtom1 = getNativeAtom(inchiInput, nativeAtoms, bond.getStart());
+      IXA_ATOMID nativeAtom2 = getNativeAtom(inchiInput, nativeAtoms, bond.getEnd());
+      if (nativeAtom1 == null || nativeAtom2 == null) {
+        throw new IllegalStateException("Bond referenced an atom that was not part of the InchiInput");
+      }
+      IXA_BONDID nativeBond = IxaFunctions.IXA_MOL_CreateBond(logger, mol, nativeAtom1, nativeAtom2);
+      InchiBondType bondType = bond.getType();
+      if (bondType != InchiBondType.SINGLE) {
+        IxaFunctions.IXA_MOL_SetBondType(logger, mol, nativeBond, bondType.getCode());
+      }
+      switch (bond.getStereo()) {
+      case DOUBLE_EITHER:
+        //Default is to perceive configuration from 2D coordinates
+        IxaFunctions.IXA_MOL_SetDblBondConfig(logger, mol, nativeBond, IXA_DBLBOND_CONFIG.IXA_DBLBOND_CONFIG_EITHER);
+        break;
+      case SINGLE_1DOWN:
+        IxaFunctions.IXA_MOL_SetBondWedge(logger, mol, nativeBond, nativeAtom1, IXA_BOND_WEDGE.IXA_BOND_WEDGE_DOWN);
+        break;
+      case SINGLE_1EITHER:
+        IxaFunctions.IXA_MOL_SetBondWedge(logger, mol, nativeBond, nativeAtom1, IXA_BOND_WEDGE.IXA_BOND_WEDGE_EITHER);
+        break;
+      case SINGLE_1UP:
+        IxaFunctions.IXA_MOL_SetBondWedge(logger, mol, nativeBond, nativeAtom1, IXA_BOND_WEDGE.IXA_BOND_WEDGE_UP);
+        break;
+      case SINGLE_2DOWN:
+        IxaFunctions.IXA_MOL_SetBondWedge(logger, mol, nativeBond, nativeAtom2, IXA_BOND_WEDGE.IXA_BOND_WEDGE_DOWN);
+        break;
+      case SINGLE_2EITHER:
+        IxaFunctions.IXA_MOL_SetBondWedge(logger, mol, nativeBond, nativeAtom2, IXA_BOND_WEDGE.IXA_BOND_WEDGE_EITHER);
+        break;
+      case SINGLE_2UP:
+        IxaFunctions.IXA_MOL_SetBondWedge(logger, mol, nativeBond, nativeAtom2, IXA_BOND_WEDGE.IXA_BOND_WEDGE_UP);
+        break;
+      case NONE:
+        break;
+      }
+    }
+  }
+
+  private void addStereos(InchiInput inchiInput, List<InchiStereo> stereos, IXA_ATOMID[] nativeAtoms) {
+    IXA_MOL_HANDLE mol = nativeMol;
+    for (InchiStereo stereo : stereos) {
+      switch (stereo.getType()) {
+      case Tetrahedral:
+      {
+        IXA_ATOMID centralAtom = getNativeAtom(inchiInput, nativeAtoms, stereo.getCentralAtom());
+        InchiAtom[] atomsInCenter = stereo.getAtoms();
+        InchiAtom atomsInCenter1 = atomsInCenter[0];
+        InchiAtom atomsInCenter2 = atomsInCenter[1];
+        InchiAtom atomsInCenter3 = atomsInCenter[2];
+        InchiAtom atomsInCenter4 = atomsInCenter[3];
+
+        IXA_ATOMID vertex1 = getNativeAtom(inchiInput, nativeAtoms, atomsInCenter1);
+        IXA_ATOMID vertex2 = getNativeAtom(inchiInput, nativeAtoms, atomsInCenter2);
+        IXA_ATOMID vertex3 = getNativeAtom(inchiInput, nativeAtoms, atomsInCenter3);
+        IXA_ATOMID vertex4 = getNativeAtom(inchiInput, nativeAtoms, atomsInCenter4);
+
+        IXA_STEREOID center = IxaFunctions.IXA_MOL_CreateStereoTetrahedron(logger, mol, centralAtom, vertex1, vertex2, vertex3, vertex4);
+        byte parity = stereo.getParity().getCode();
+        IxaFunctions.IXA_MOL_SetStereoParity(logger, mol, center, parity);
+        break;
+      }
+      case Allene:
+      {
+        IXA_ATOMID centralAtom = getNativeAtom(inchiInput, nativeAtoms, stereo.getCentralAtom());
+        InchiAtom[] atomsInCenter = stereo.getAtoms();
+        InchiAtom atomsInCenter1 = atomsInCenter[0];
+        InchiAtom atomsInCenter2 = atomsInCenter[1];
+        InchiAtom atomsInCenter3 = atomsInCenter[2];
+        InchiAtom atomsInCenter4 = atomsInCenter[3];
+
+        IXA_ATOMID vertex1 = getNativeAtom(inchiInput, nativeAtoms, atomsInCenter1);
+        IXA_ATOMID vertex2 = getNativeAtom(inchiInput, nativeAtoms, atomsInCenter2);
+        IXA_ATOMID vertex3 = getNativeAtom(inchiInput, nativeAtoms, atomsInCenter3);
+        IXA_ATOMID vertex4 = getNativeAtom(inchiInput, nativeAtoms, atomsInCenter4);
+        IXA_STEREOID center = IxaFunctions.IXA_MOL_CreateStereoAntiRectangle(logger, mol, centralAtom, vertex1, vertex2, vertex3, vertex4);
+        byte parity = stereo.getParity().getCode();
+        IxaFunctions.IXA_MOL_SetStereoParity(logger, mol, center, parity);
+        break;
+      }
+      case DoubleBond:
+      {
+        InchiAtom[] atomsInCenter = stereo.getAtoms();
+        InchiAtom atomsInCenter1 = atomsInCenter[0];
+        InchiAtom atomsInCenter2 = atomsInCenter[1];
+        InchiAtom atomsInCenter3 = atomsInCenter[2];
+        InchiAtom atomsInCenter4 = atomsInCenter[3];
+
+        IXA_ATOMID vertex1 = getNativeAtom(inchiInput, nativeAtoms, atomsInCenter1);
+        IXA_ATOMID vertex2 = getNativeAtom(inchiInput, nativeAtoms, atomsInCenter2);
+        IXA_ATOMID vertex3 = getNativeAtom(inchiInput, nativeAtoms, atomsInCenter3);
+        IXA_ATOMID vertex4 = getNativeAtom(inchiInput, nativeAtoms, atomsInCenter4);
+        IXA_BONDID centralBond = IxaFunctions.IXA_MOL_GetCommonBond(logger, mol, vertex2, vertex3);
+        IXA_STEREOID center = IxaFunctions.IXA_MOL_CreateStereoRectangle(logger, mol, centralBond, vertex1, vertex2, vertex3, vertex4);
+        byte parity = stereo.getParity().getCode();
+        IxaFunctions.IXA_MOL_SetStereoParity(logger, mol, center, parity);
+        break;
+      }
+      default:
+        break;
+      }
+    }
+  }
+
+  private InchiOutput buildInchi(InchiOptions options) {
+    Set<InchiOutputField> fields = options.getOutputFields();
+    //IXA functions do nothing once an error has occurred, so the builder would return the result for the previous molecule
+    if (IxaFunctions.IXA_STATUS_HasError(logger)) {
+      return new InchiOutput(null, null, fields.contains(InchiOutputField.MESSAGE) ? getMessages() : null, null, InchiStatus.ERROR);
+    }
+    applyMoleculeOptions(options);
+    boolean auxInfoRequested = fields.contains(InchiOutputField.AUX_INFO);
+    IXA_INCHIBUILDER_HANDLE builder = auxInfoRequested ? getBuilder(builders, options, false) : getBuilder(auxNoneBuilders, options, true);
+    //Setting the molecule invalidates any result cached by the builder from the previous molecule
+    IxaFunctions.IXA_INCHIBUILDER_SetMolecule(logger, builder, nativeMol);
+
+    String inchi = IxaFunctions.IXA_INCHIBUILDER_GetInChI(logger, builder);
+    InchiStatus status = getStatus();
+    //On failure the builder does not replace the AuxInfo or log from the previous molecule
+    String auxInfo = null;
+    if (auxInfoRequested && inchi != null) {
+      auxInfo = IxaFunctions.IXA_INCHIBUILDER_GetAuxInfo(logger, builder);
+    }
+    String log = null;
+    if (fields.contains(InchiOutputField.LOG) && status != InchiStatus.ERROR) {
+      log = IxaFunctions.IXA_INCHIBUILDER_GetLog(logger, builder);
+    }
+    List<String> messages = fields.contains(InchiOutputField.MESSAGE) ? getMessages() : null;
+    return new InchiOutput(inchi, auxInfo, messages, log, status);
+  }
+
+  private InchiKeyOutput buildInchiKey(InchiOptions options) {
+    if (IxaFunctions.IXA_STATUS_HasError(logger)) {
+      return new InchiKeyOutput("", InchiKeyStatus.EMPTY_INPUT);
+    }
+    applyMoleculeOptions(options);
+    IXA_INCHIBUILDER_HANDLE builder = getBuilder(auxNoneBuilders, options, true);
+    IxaFunctions.IXA_INCHIBUILDER_SetMolecule(logger, builder, nativeMol);
+    //Owned by the builder, so only valid until the builder is next used
+    Pointer inchi = IxaFunctions.IXA_INCHIBUILDER_GetInChIPointer(logger, builder);
+    if (inchi == null) {
+      return new InchiKeyOutput("", InchiKeyStatus.EMPTY_INPUT);
+    }
+    if (keyBuilder == null) {
+      keyBuilder = IxaFunctions.IXA_INCHIKEYBUILDER_Create(logger);
+    }
+    IxaFunctions.IXA_INCHIKEYBUILDER_SetInChI(logger, keyBuilder, inchi);
+    String inchiKey = IxaFunctions.IXA_INCHIKEYBUILDER_GetInChIKey(logger, keyBuilder);
+    if (inchiKey == null) {
+      return new InchiKeyOutput("", InchiKeyStatus.UNKNOWN_ERROR);
+    }
+    return new InchiKeyOutput(inchiKey, InchiKeyStatus.OK);
+  }
+
+  private List<InchiOutput> buildVariants(List<InchiOptions> variants) {
+    List<InchiOutput> outputs = new ArrayList<>(variants.size());
+    //Messages from reading the molecule are cleared along with those of the previous variant, so are retained to be reported with every variant
+    InchiStatus moleculeStatus = getStatus();
+    List<String> moleculeMessages = getMessages();
+    boolean chiral = IxaFunctions.IXA_MOL_GetChiral(logger, nativeMol);
+    //If the molecule could not be read the builder does not run, so the status is left as is
+    boolean clearStatus = moleculeStatus != InchiStatus.ERROR;
+    for (int i = 0, len = variants.size(); i < len; i++) {
+      if (i > 0 && clearStatus) {
+        IxaFunctions.IXA_STATUS_Clear(logger);
+        //Undo any chiral flag option from the previous variant
+        IxaFunctions.IXA_MOL_SetChiral(logger, nativeMol, chiral);
+      }
+      InchiOutput output = buildInchi(variants.get(i));
+      if (i > 0 && clearStatus && !moleculeMessages.isEmpty()) {
+        List<String> messages = output.getMessages();
+        if (messages != null) {
+          List<String> merged = new ArrayList<>(moleculeMessages.size() + messages.size());
+          merged.addAll(moleculeMessages);
+          merged.addAll(messages);
+          messages = merged;
+        }
+        InchiStatus status = moleculeStatus.compareTo(output.getStatus()) > 0 ? moleculeStatus : output.getStatus();
+        output = new InchiOutput(output.getInchi(), output.getAuxInfo(), messages, output.getLog(), status);
+      }
+      outputs.add(output);
+    }
+    return outputs;
+  }
+
+  private InchiStatus getStatus() {
+    if (IxaFunctions.IXA_STATUS_HasError(logger)) {
+      return InchiStatus.ERROR;
+    }
+    if (IxaFunctions.IXA_STATUS_HasWarning(logger)) {
+      return InchiStatus.WARNING;
+    }
+    return InchiStatus.SUCCESS;
+  }
+
+  private List<String> getMessages() {
+    int messageCount = IxaFunctions.IXA_STATUS_GetCount(logger);
+    if (messageCount == 0) {
+      return Collections.emptyList();
+    }
+    List<String> messages = new ArrayList<>(messageCount);
+    for (int i = 0; i < messageCount; i++) {
+      messages.add(IxaFunctions.IXA_STATUS_GetMessage(logger, i));
+    }
+    return messages;
+  }
+
+  /**
+   * Options that are properties of the molecule, rather than the builder
+   * @param options
+   */
+  private void applyMoleculeOptions(InchiOptions options) {
+    for (InchiFlag flag : options.getFlags()) {
+      switch (flag) {
+      case ChiralFlagOFF:
+        IxaFunctions.IXA_MOL_SetChiral(logger, nativeMol, false);
+        break;
+      case ChiralFlagON:
+        IxaFunctions.IXA_MOL_SetChiral(logger, nativeMol, true);
+        break;
+      default:
+        break;
+      }
+    }
+  }
+
+  private IXA_INCHIBUILDER_HANDLE getBuilder(Map<InchiOptions, IXA_INCHIBUILDER_HANDLE> builders, InchiOptions options, boolean auxNone) {
+    IXA_INCHIBUILDER_HANDLE builder = builders.get(options);
+    if (builder != null) {
+      return builder;
+    }
+    if (builders.size() >= MAX_BUILDERS) {
+      destroyBuilders(builders);
+    }
+    IXA_INCHIBUILDER_HANDLE newBuilder = IxaFunctions.IXA_INCHIBUILDER_Create(logger);
+    try {
+      applyBuilderOptions(newBuilder, options);
+      if (auxNone) {
+        IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, newBuilder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_AuxNone, true);
+      }
+    }
+    catch (RuntimeException e) {
+      IxaFunctions.IXA_INCHIBUILDER_Destroy(logger, newBuilder);
+      throw e;
+    }
+    builders.put(options, newBuilder);
+    return newBuilder;
+  }
+
+  private void destroyBuilders(Map<InchiOptions, IXA_INCHIBUILDER_HANDLE> builders) {
+    for (IXA_INCHIBUILDER_HANDLE builder : builders.values()) {
+      IxaFunctions.IXA_INCHIBUILDER_Destroy(logger, builder);
+    }
+    builders.clear();
+  }
+
+  private void applyBuilderOptions(IXA_INCHIBUILDER_HANDLE builder, InchiOptions options) {
+    long timeoutMilliSecs = options.getTimeoutMilliSeconds();
+    if (timeoutMilliSecs != 0) {
+      IxaFunctions.IXA_INCHIBUILDER_SetOption_Timeout_MilliSeconds(logger, builder, timeoutMilliSecs);
+    }
+    for (InchiFlag flag : options.getFlags()) {
+      int option = toIxaBuilderOption(flag);
+      if (option >= 0) {
+        IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, option, true);
+        continue;
+      }
+      int stereoOption = toIxaStereoOption(flag);
+      if (stereoOption >= 0) {
+        IxaFunctions.IXA_INCHIBUILDER_SetOption_Stereo(logger, builder, stereoOption);
+      }
+      //else a molecule option, applied by applyMoleculeOptions
+    }
+  }
+
+  /**
+   * The IXA_INCHIBUILDER_OPTION corresponding to an InChI flag
+   * @param flag
+   * @return the option, or -1 if the flag is a stereo option or applies to the molecule
+   */
+  static int toIxaBuilderOption(InchiFlag flag) {
+    switch (flag) {
+    case AuxNone:
+      return IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_AuxNone;
+    case DoNotAddH:
+      return IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_DoNotAddH;
+    case FixedH:
+      return IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_FixedH;
+    case KET:
+      return IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_KET;
+    case LargeMolecules:
+      return IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_LargeMolecules;
+    case NEWPSOFF:
+      return IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_NewPsOff;
+    case OneFiveT:
+      return IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_15T;
+    case RecMet:
+      return IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_RecMet;
+    case SLUUD:
+      return IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_SLUUD;
+    case SUU:
+      return IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_SUU;
+    case SaveOpt:
+      return IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_SaveOpt;
+    case WarnOnEmptyStructure:
+      return IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_WarnOnEmptyStructure;
+    case NoWarnings:
+      return IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_NoWarnings;
+    case LooseTSACheck:
+      return IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_LooseTSACheck;
+    case Polymers:
+      return IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_Polymers;
+    case Polymers105:
+      return IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_Polymers105;
+    case FoldCRU:
+      return IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_FoldCRU;
+    case NoFrameShift:
+      return IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_NoFrameShift;
+    case NoEdits:
+      return IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_NoEdits;
+    case NPZz:
+      return IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_NPZZ;
+    case SAtZz:
+      return IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_SATZZ;
+    case ChiralFlagOFF:
+    case ChiralFlagON:
+    case SNon:
+    case SRac:
+    case SRel:
+    case SUCF:
+      return -1;
+    default:
+      throw new IllegalStateException("Unexpected InChI option flag: " + flag);
+    }
+  }
+
+  /**
+   * The IXA_INCHIBUILDER_STEREOOPTION corresponding to an InChI flag
+   * @param flag
+   * @return the stereo option, or -1 if the flag is not a stereo option
+   */
+  static int toIxaStereoOption(InchiFlag flag) {
+    switch (flag) {
+    case SNon:
+      return IXA_INCHIBUILDER_STEREOOPTION.IXA_INCHIBUILDER_STEREOOPTION_SNon;
+    case SRac:
+      return IXA_INCHIBUILDER_STEREOOPTION.IXA_INCHIBUILDER_STEREOOPTION_SRac;
+    case SRel:
+      return IXA_INCHIBUILDER_STEREOOPTION.IXA_INCHIBUILDER_STEREOOPTION_SRel;
+    case SUCF:
+      return IXA_INCHIBUILDER_STEREOOPTION.IXA_INCHIBUILDER_STEREOOPTION_SUCF;
+    default:
+      return -1;
+    }
+  }
+
+}
@@ -0,0 +1,132 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A means of calling InChI, e.g. through IXA, the classic struct based API, or a different native binding.
+ * Implementations must be thread-safe.
+ * <p>
+ * Additional engines can be registered by listing them in META-INF/services/com.github.dan2097.jnainchi.InchiEngine,
+ * they are then available from {@link InchiEngines#getEngine(String)}.
+ * Registered implementations must have a public no-argument constructor.
+ */
+public interface InchiEngine {
+
+  /**
+   * A short unique name for the engine e.g. "ixa"
+   * @return
+   */
+  String getName();
+
+  InchiOutput toInchi(InchiInput inchiInput, InchiOptions options);
+
+  InchiOutput molToInchi(String molText, InchiOptions options);
+
+  InchiOutput inchiToInchi(String inchi, InchiOptions options);
+
+  InchiKeyOutput inchiToInchiKey(String inchi);
+
+  /**
+   * Converts the molfile held in the remaining bytes of the buffer (ASCII, optionally null terminated).
+   * The position of the buffer is not changed.
+   * Engines that can pass the bytes to native code directly should override this
+   * @param molText
+   * @param options
+   * @return
+   */
+  default InchiOutput molToInchi(ByteBuffer molText, InchiOptions options) {
+    return molToInchi(JnaInchi.toString(molText), options);
+  }
+
+  /**
+   * Converts the InChI held in the remaining bytes of the buffer, see {@link #molToInchi(ByteBuffer, InchiOptions)}
+   * @param inchi
+   * @param options
+   * @return
+   */
+  default InchiOutput inchiToInchi(ByteBuffer inchi, InchiOptions options) {
+    return inchiToInchi(JnaInchi.toString(inchi), options);
+  }
+
+  /**
+   * Generates the InChIKey of the InChI held in the remaining bytes of the buffer, see {@link #molToInchi(ByteBuffer, InchiOptions)}
+   * @param inchi
+   * @return
+   */
+  default InchiKeyOutput inchiToInchiKey(ByteBuffer inchi) {
+    return inchiToInchiKey(JnaInchi.toString(inchi));
+  }
+
+  /**
+   * Generates just the InChIKey of the structure.
+   * If no InChI could be generated the status is {@link InchiKeyStatus#EMPTY_INPUT}.
+   * Engines that can pass the InChI to the InChIKey generator natively should override this
+   * @param inchiInput
+   * @param options
+   * @return
+   */
+  default InchiKeyOutput toInchiKey(InchiInput inchiInput, InchiOptions options) {
+    String inchi = toInchi(inchiInput, options).getInchi();
+    return inchi != null ? inchiToInchiKey(inchi) : new InchiKeyOutput("", InchiKeyStatus.EMPTY_INPUT);
+  }
+
+  /**
+   * Generates just the InChIKey of the molfile, see {@link #toInchiKey(InchiInput, InchiOptions)}
+   * @param molText
+   * @param options
+   * @return
+   */
+  default InchiKeyOutput molToInchiKey(String molText, InchiOptions options) {
+    String inchi = molToInchi(molText, options).getInchi();
+    return inchi != null ? inchiToInchiKey(inchi) : new InchiKeyOutput("", InchiKeyStatus.EMPTY_INPUT);
+  }
+
+  /**
+   * Generates an InChI for each of the given options.
+   * Engines that can reuse the native molecule between variants should override this
+   * @param inchiInput
+   * @param variants
+   * @return one output per options, in the same order
+   */
+  default List<InchiOutput> toInchiVariants(InchiInput inchiInput, List<InchiOptions> variants) {
+    List<InchiOutput> outputs = new ArrayList<>(variants.size());
+    for (InchiOptions options : variants) {
+      outputs.add(toInchi(inchiInput, options));
+    }
+    return outputs;
+  }
+
+  /**
+   * Generates an InChI for each of the given options.
+   * Engines that can reuse the parsed molfile between variants should override this
+   * @param molText
+   * @param variants
+   * @return one output per options, in the same order
+   */
+  default List<InchiOutput> molToInchiVariants(String molText, List<InchiOptions> variants) {
+    List<InchiOutput> outputs = new ArrayList<>(variants.size());
+    for (InchiOptions options : variants) {
+      outputs.add(molToInchi(molText, options));
+    }
+    return outputs;
+  }
+}
@@ -0,0 +1,230 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+/**
+ * Delegates each conversion to the engine of the first route whose condition matches, otherwise to the default engine.
+ * For example, to send small molecules without stereochemistry to the classic API:
+ * <pre>
+ * InchiEngine router = new InchiEngineRouter.InchiEngineRouterBuilder(InchiEngines.getEngine("ixa"))
+ *     .route(InchiEngineRouter.maxAtoms(64).and(InchiEngineRouter.hasStereo().negate()), InchiEngines.getEngine("classic"))
+ *     .build();
+ * InchiEngines.setDefaultEngine(router);
+ * </pre>
+ * Conditions are tested with a null {@link InchiInput} when the input is a molfile or InChI.
+ */
+public class InchiEngineRouter implements InchiEngine {
+
+  public static final String NAME = "router";
+
+  private final List<Route> routes;
+  private final InchiEngine defaultEngine;
+
+  private InchiEngineRouter(InchiEngineRouterBuilder builder) {
+    this.routes = new ArrayList<>(builder.routes);
+    this.defaultEngine = builder.defaultEngine;
+  }
+
+  private static class Route {
+    private final BiPredicate<InchiInput, InchiOptions> condition;
+    private final InchiEngine engine;
+
+    private Route(BiPredicate<InchiInput, InchiOptions> condition, InchiEngine engine) {
+      this.condition = condition;
+      this.engine = engine;
+    }
+  }
+
+  public static class InchiEngineRouterBuilder {
+
+    private final List<Route> routes = new ArrayList<>();
+    private final InchiEngine defaultEngine;
+
+    /**
+     * @param defaultEngine the engine used when no route matches
+     */
+    public InchiEngineRouterBuilder(InchiEngine defaultEngine) {
+      if (defaultEngine == null) {
+        throw new IllegalArgumentException("A default engine is required");
+      }
+      this.defaultEngine = defaultEngine;
+    }
+
+    /**
+     * Adds a route, routes are tested in the order they were added
+     * @param condition
+     * @param engine
+     * @return
+     */
+    public InchiEngineRouterBuilder route(BiPredicate<InchiInput, InchiOptions> condition, InchiEngine engine) {
+      if (condition == null || engine == null) {
+        throw new IllegalArgumentException("Route requires a condition and an engine");
+      }
+      routes.add(new Route(condition, engine));
+      return this;
+    }
+
+    public InchiEngineRouter build() {
+      return new InchiEngineRouter(this);
+    }
+  }
+
+  /**
+   * Matches structure input with at most the given number of atoms
+   * @param maxAtoms
+   * @return
+   */
+  public static BiPredicate<InchiInput, InchiOptions> maxAtoms(int maxAtoms) {
+    return (input, options) -> input != null && input.getAtoms().size() <= maxAtoms;
+  }
+
+  /**
+   * Matches structure input with stereo elements or wedge bonds
+   * @return
+   */
+  public static BiPredicate<InchiInput, InchiOptions> hasStereo() {
+    return (input, options) -> {
+      if (input == null) {
+        return false;
+      }
+      if (!input.getStereos().isEmpty()) {
+        return true;
+      }
+      for (InchiBond bond : input.getBonds()) {
+        if (bond.getStereo() != InchiBondStereo.NONE) {
+          return true;
+        }
+      }
+      return false;
+    };
+  }
+
+  /**
+   * Matches when the options include the given flag
+   * @param flag
+   * @return
+   */
+  public static BiPredicate<InchiInput, InchiOptions> hasFlag(InchiFlag flag) {
+    return (input, options) -> options.getFlags().contains(flag);
+  }
+
+  /**
+   * The engine that will be used to convert the given input
+   * @param inchiInput the structure, or null for molfile/InChI input
+   * @param options
+   * @return
+   */
+  public InchiEngine select(InchiInput inchiInput, InchiOptions options) {
+    for (Route route : routes) {
+      if (route.condition.test(inchiInput, options)) {
+        return route.engine;
+      }
+    }
+    return defaultEngine;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public InchiOutput toInchi(InchiInput inchiInput, InchiOptions options) {
+    return select(inchiInput, options).toInchi(inchiInput, options);
+  }
+
+  @Override
+  public InchiOutput molToInchi(String molText, InchiOptions options) {
+    return select(null, options).molToInchi(molText, options);
+  }
+
+  @Override
+  public InchiOutput inchiToInchi(String inchi, InchiOptions options) {
+    return select(null, options).inchiToInchi(inchi, options);
+  }
+
+  @Override
+  public InchiKeyOutput inchiToInchiKey(String inchi) {
+    return select(null, InchiOptions.DEFAULT_OPTIONS).inchiToInchiKey(inchi);
+  }
+
+  @Override
+  public InchiOutput molToInchi(ByteBuffer molText, InchiOptions options) {
+    return select(null, options).molToInchi(molText, options);
+  }
+
+  @Override
+  public InchiOutput inchiToInchi(ByteBuffer inchi, InchiOptions options) {
+    return select(null, options).inchiToInchi(inchi, options);
+  }
+
+  @Override
+  public InchiKeyOutput inchiToInchiKey(ByteBuffer inchi) {
+    return select(null, InchiOptions.DEFAULT_OPTIONS).inchiToInchiKey(inchi);
+  }
+
+  @Override
+  public InchiKeyOutput toInchiKey(InchiInput inchiInput, InchiOptions options) {
+    return select(inchiInput, options).toInchiKey(inchiInput, options);
+  }
+
+  @Override
+  public InchiKeyOutput molToInchiKey(String molText, InchiOptions options) {
+    return select(null, options).molToInchiKey(molText, options);
+  }
+
+  /**
+   * If every variant routes to the same engine they are all generated by that engine in one call,
+   * otherwise each variant is converted separately
+   */
+  @Override
+  public List<InchiOutput> toInchiVariants(InchiInput inchiInput, List<InchiOptions> variants) {
+    InchiEngine engine = selectCommon(inchiInput, variants);
+    if (engine != null) {
+      return engine.toInchiVariants(inchiInput, variants);
+    }
+    return InchiEngine.super.toInchiVariants(inchiInput, variants);
+  }
+
+  @Override
+  public List<InchiOutput> molToInchiVariants(String molText, List<InchiOptions> variants) {
+    InchiEngine engine = selectCommon(null, variants);
+    if (engine != null) {
+      return engine.molToInchiVariants(molText, variants);
+    }
+    return InchiEngine.super.molToInchiVariants(molText, variants);
+  }
+
+  private InchiEngine selectCommon(InchiInput inchiInput, List<InchiOptions> variants) {
+    InchiEngine common = null;
+    for (InchiOptions options : variants) {
+      InchiEngine engine = select(inchiInput, options);
+      if (common != null && common != engine) {
+        return null;
+      }
+      common = engine;
+    }
+    return common;
+  }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * The {@link InchiEngine}s registered through {@link ServiceLoader}, and the engine used by {@link JnaInchi}
+ */
+public class InchiEngines {
+
+  private static final Map<String, InchiEngine> ENGINES = loadEngines();
+
+  private static volatile InchiEngine defaultEngine = getEngine(IxaInchiEngine.NAME);
+
+  private static Map<String, InchiEngine> loadEngines() {
+    Map<String, InchiEngine> engines = new LinkedHashMap<>();
+    for (InchiEngine engine : ServiceLoader.load(InchiEngine.class, InchiEngines.class.getClassLoader())) {
+      engines.putIfAbsent(engine.getName(), engine);
+    }
+    //always available, even if the service file has been lost e.g. when repackaging
+    engines.putIfAbsent(IxaInchiEngine.NAME, new IxaInchiEngine());
+    return engines;
+  }
+
+  /**
+   * All registered engines, in the order they were discovered
+   * @return
+   */
+  public static List<InchiEngine> getEngines() {
+    return Collections.unmodifiableList(new ArrayList<>(ENGINES.values()));
+  }
+
+  /**
+   * The registered engine with the given name
+   * @param name
+   * @return
+   * @throws IllegalArgumentException if no such engine is registered
+   */
+  public static InchiEngine getEngine(String name) {
+    InchiEngine engine = ENGINES.get(name);
+    if (engine == null) {
+      throw new IllegalArgumentException("No InChI engine registered with name: " + name);
+    }
+    return engine;
+  }
+
+  /**
+   * The engine used by {@link JnaInchi}, by default the IXA engine
+   * @return
+   */
+  public static InchiEngine getDefaultEngine() {
+    return defaultEngine;
+  }
+
+  /**
+   * Sets the engine used by {@link JnaInchi}, typically an {@link InchiEngineRouter}
+   * @param engine
+   */
+  public static void setDefaultEngine(InchiEngine engine) {
+    if (engine == null) {
+      throw new IllegalArgumentException("Engine must not be null");
+    }
+    defaultEngine = engine;
+  }
+
+}
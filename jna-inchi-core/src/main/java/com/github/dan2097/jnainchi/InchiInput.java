@@ -28,6 +28,7 @@ public class InchiInput {
   private List<InchiStereo> stereos = new ArrayList<>();
 
   public void addAtom(InchiAtom atom) {
+    atom.setIndex(atoms.size());
     this.atoms.add(atom);
   }
 
@@ -43,6 +44,25 @@ public class InchiInput {
     return atoms.get(i);
   }
 
+  /**
+   * Returns the position of the given atom in this input, or -1 if it is not part of this input
+   * @param atom
+   * @return
+   */
+  int indexOf(InchiAtom atom) {
+    int idx = atom.getIndex();
+    if (idx >= 0 && idx < atoms.size() && atoms.get(idx) == atom) {
+      return idx;
+    }
+    //atom has since been added to a different InchiInput
+    for (int i = 0, len = atoms.size(); i < len; i++) {
+      if (atoms.get(i) == atom) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
   public InchiBond getBond(int i) {
     return bonds.get(i);
   }
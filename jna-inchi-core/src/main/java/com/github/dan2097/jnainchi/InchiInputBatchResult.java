@@ -0,0 +1,67 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+/**
+ * The outcome of converting one InChI of a batch to a structure, see {@link InchiBatchResult}
+ */
+public class InchiInputBatchResult {
+
+  private final long index;
+  private final InchiInputFromInchiOutput output;
+  private final Exception error;
+
+  InchiInputBatchResult(long index, InchiInputFromInchiOutput output, Exception error) {
+    this.index = index;
+    this.output = output;
+    this.error = error;
+  }
+
+  /**
+   * The position of the InChI this result corresponds to, starting from 0
+   * @return
+   */
+  public long getIndex() {
+    return index;
+  }
+
+  /**
+   * The output of the conversion, or null if an exception was thrown
+   * @return
+   */
+  public InchiInputFromInchiOutput getOutput() {
+    return output;
+  }
+
+  /**
+   * The exception thrown by the conversion, or null if it completed
+   * @return
+   */
+  public Exception getError() {
+    return error;
+  }
+
+  /**
+   * True if the conversion completed without an exception being thrown
+   * @return
+   */
+  public boolean isSuccess() {
+    return error == null;
+  }
+
+}
@@ -0,0 +1,441 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact, versioned binary form of {@link InchiInput}, for sending molecules between processes or caching them,
+ * which is much smaller and faster to read than a molfile.
+ * <p>
+ * The encoding is a magic byte and version, a flags byte, then the atoms, bonds and stereo elements, each preceded by their count.
+ * Counts, atom indices and isotopic masses are unsigned varints, so negative isotopic masses cannot be encoded. Atoms are an element code (the atomic number, or 0 followed by the symbol),
+ * a byte packing the implicit hydrogen count with flags for the less common charge, isotopic mass, radical and isotopic hydrogen fields,
+ * which follow only when present, and then the coordinates if the molecule has any.
+ * Bonds and stereo elements pack their types and parity into a single byte.
+ * Enumerated values are stored using the same codes as the InChI API.
+ * <p>
+ * {@link #write(InchiInput, OutputStream)} prefixes the encoding with its length, so multiple molecules may be written to a stream.
+ */
+public class InchiInputCodec {
+
+  public static final int VERSION = 1;
+
+  private static final byte MAGIC = (byte) 0xC1;
+
+  private static final int FLAG_COORDINATES = 1;
+  private static final int FLAG_3D = 2;
+
+  //atom field byte: bits 0-2 are implicit hydrogen + 1, with IMPLICIT_H_ESCAPE meaning the count follows as a signed byte
+  private static final int IMPLICIT_H_MASK = 0x07;
+  private static final int IMPLICIT_H_ESCAPE = 7;
+  private static final int ATOM_CHARGE = 0x08;
+  private static final int ATOM_ISOTOPIC_MASS = 0x10;
+  private static final int ATOM_RADICAL = 0x20;
+  private static final int ATOM_ISOTOPIC_H = 0x40;
+
+  //stereo byte: bits 0-1 type, bits 2-4 parity
+  private static final int STEREO_CENTRAL_ATOM = 0x20;
+
+  //bond stereo codes are between -6 and 6
+  private static final int BOND_STEREO_OFFSET = 6;
+
+  static final String[] ELEMENTS = {null,
+      "H", "He", "Li", "Be", "B", "C", "N", "O", "F", "Ne", "Na", "Mg", "Al", "Si", "P", "S", "Cl", "Ar",
+      "K", "Ca", "Sc", "Ti", "V", "Cr", "Mn", "Fe", "Co", "Ni", "Cu", "Zn", "Ga", "Ge", "As", "Se", "Br", "Kr",
+      "Rb", "Sr", "Y", "Zr", "Nb", "Mo", "Tc", "Ru", "Rh", "Pd", "Ag", "Cd", "In", "Sn", "Sb", "Te", "I", "Xe",
+      "Cs", "Ba", "La", "Ce", "Pr", "Nd", "Pm", "Sm", "Eu", "Gd", "Tb", "Dy", "Ho", "Er", "Tm", "Yb", "Lu",
+      "Hf", "Ta", "W", "Re", "Os", "Ir", "Pt", "Au", "Hg", "Tl", "Pb", "Bi", "Po", "At", "Rn",
+      "Fr", "Ra", "Ac", "Th", "Pa", "U", "Np", "Pu", "Am", "Cm", "Bk", "Cf", "Es", "Fm", "Md", "No", "Lr",
+      "Rf", "Db", "Sg", "Bh", "Hs", "Mt", "Ds", "Rg", "Cn", "Nh", "Fl", "Mc", "Lv", "Ts", "Og"};
+
+  private static final Map<String, Integer> ELEMENT_CODES = new HashMap<>();
+
+  static {
+    for (int i = 1; i < ELEMENTS.length; i++) {
+      ELEMENT_CODES.put(ELEMENTS[i], i);
+    }
+  }
+
+  //encoding buffer for encode(InchiInput), grown as needed
+  private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocate(4096));
+
+  private InchiInputCodec() {
+  }
+
+  /**
+   * Encodes the molecule at the buffer's position, advancing the position
+   * @param inchiInput
+   * @param buffer
+   * @throws BufferOverflowException if the buffer does not have enough space remaining
+   */
+  public static void encode(InchiInput inchiInput, ByteBuffer buffer) {
+    List<InchiAtom> atoms = inchiInput.getAtoms();
+    int flags = 0;
+    for (InchiAtom atom : atoms) {
+      if (atom.getZ() != 0) {
+        flags |= FLAG_COORDINATES | FLAG_3D;
+        break;
+      }
+      if (atom.getX() != 0 || atom.getY() != 0) {
+        flags |= FLAG_COORDINATES;
+      }
+    }
+    buffer.put(MAGIC);
+    buffer.put((byte) VERSION);
+    buffer.put((byte) flags);
+
+    putVarint(buffer, atoms.size());
+    for (InchiAtom atom : atoms) {
+      putAtom(buffer, atom, flags);
+    }
+
+    List<InchiBond> bonds = inchiInput.getBonds();
+    putVarint(buffer, bonds.size());
+    for (InchiBond bond : bonds) {
+      putVarint(buffer, atomIndex(inchiInput, bond.getStart()));
+      putVarint(buffer, atomIndex(inchiInput, bond.getEnd()));
+      buffer.put((byte) (bond.getType().getCode() | (bond.getStereo().getCode() + BOND_STEREO_OFFSET) << 3));
+    }
+
+    List<InchiStereo> stereos = inchiInput.getStereos();
+    putVarint(buffer, stereos.size());
+    for (InchiStereo stereo : stereos) {
+      InchiAtom centralAtom = stereo.getCentralAtom();
+      int packed = stereo.getType().getCode() | stereo.getParity().getCode() << 2;
+      if (centralAtom != null) {
+        packed |= STEREO_CENTRAL_ATOM;
+      }
+      buffer.put((byte) packed);
+      if (centralAtom != null) {
+        putVarint(buffer, atomIndex(inchiInput, centralAtom));
+      }
+      for (InchiAtom atom : stereo.getAtoms()) {
+        //0 is an absent atom
+        putVarint(buffer, atom != null ? atomIndex(inchiInput, atom) + 1 : 0);
+      }
+    }
+  }
+
+  /**
+   * @param inchiInput
+   * @return the encoded molecule
+   */
+  public static byte[] encode(InchiInput inchiInput) {
+    ByteBuffer buffer = BUFFERS.get();
+    while (true) {
+      buffer.clear();
+      try {
+        encode(inchiInput, buffer);
+        break;
+      }
+      catch (BufferOverflowException e) {
+        buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+        BUFFERS.set(buffer);
+      }
+    }
+    byte[] bytes = new byte[buffer.position()];
+    buffer.flip();
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * Decodes a molecule from the buffer's position, advancing the position to the end of the molecule
+   * @param buffer
+   * @return
+   * @throws IllegalArgumentException if the bytes are not an encoded molecule, or were encoded by a newer version
+   */
+  public static InchiInput decode(ByteBuffer buffer) {
+    try {
+      if (buffer.get() != MAGIC) {
+        throw new IllegalArgumentException("Not an encoded InchiInput");
+      }
+      int version = buffer.get() & 0xff;
+      if (version < 1 || version > VERSION) {
+        throw new IllegalArgumentException("Unsupported InchiInput encoding version: " + version);
+      }
+      int flags = buffer.get();
+
+      InchiInput inchiInput = new InchiInput();
+      int atomCount = getVarint(buffer);
+      for (int i = 0; i < atomCount; i++) {
+        inchiInput.addAtom(getAtom(buffer, flags));
+      }
+
+      int bondCount = getVarint(buffer);
+      for (int i = 0; i < bondCount; i++) {
+        InchiAtom start = getAtom(inchiInput, getVarint(buffer), atomCount);
+        InchiAtom end = getAtom(inchiInput, getVarint(buffer), atomCount);
+        int packed = buffer.get() & 0xff;
+        InchiBondType type = checkCode(InchiBondType.of((byte) (packed & 0x07)), packed);
+        InchiBondStereo stereo = checkCode(InchiBondStereo.of((byte) ((packed >> 3) - BOND_STEREO_OFFSET)), packed);
+        inchiInput.addBond(new InchiBond(start, end, type, stereo));
+      }
+
+      int stereoCount = getVarint(buffer);
+      for (int i = 0; i < stereoCount; i++) {
+        int packed = buffer.get() & 0xff;
+        InchiStereoType type = checkCode(InchiStereoType.of((byte) (packed & 0x03)), packed);
+        InchiStereoParity parity = checkCode(InchiStereoParity.of((byte) ((packed >> 2) & 0x07)), packed);
+        InchiAtom centralAtom = (packed & STEREO_CENTRAL_ATOM) != 0 ? getAtom(inchiInput, getVarint(buffer), atomCount) : null;
+        InchiAtom[] atoms = new InchiAtom[4];
+        for (int j = 0; j < 4; j++) {
+          int idx = getVarint(buffer);
+          atoms[j] = idx != 0 ? getAtom(inchiInput, idx - 1, atomCount) : null;
+        }
+        inchiInput.addStereo(new InchiStereo(atoms, centralAtom, type, parity));
+      }
+      return inchiInput;
+    }
+    catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Encoded InchiInput is truncated", e);
+    }
+  }
+
+  /**
+   * @param bytes
+   * @return
+   * @see #decode(ByteBuffer)
+   */
+  public static InchiInput decode(byte[] bytes) {
+    return decode(ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * Writes the length of the encoded molecule, as a varint, followed by the encoded molecule
+   * @param inchiInput
+   * @param out
+   * @throws IOException
+   */
+  public static void write(InchiInput inchiInput, OutputStream out) throws IOException {
+    byte[] bytes = encode(inchiInput);
+    int length = bytes.length;
+    while ((length & ~0x7f) != 0) {
+      out.write((length & 0x7f) | 0x80);
+      length >>>= 7;
+    }
+    out.write(length);
+    out.write(bytes);
+  }
+
+  /**
+   * Reads a molecule written by {@link #write(InchiInput, OutputStream)}
+   * @param in
+   * @return the molecule, or null if the stream is at its end
+   * @throws IOException if the stream ends part way through a molecule
+   * @throws IllegalArgumentException if the bytes are not an encoded molecule
+   */
+  public static InchiInput read(InputStream in) throws IOException {
+    int length = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = in.read();
+      if (b < 0) {
+        if (shift == 0) {
+          return null;
+        }
+        throw new EOFException("Truncated InchiInput length");
+      }
+      if (shift > 28) {
+        throw new IllegalArgumentException("Malformed InchiInput length");
+      }
+      length |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        break;
+      }
+    }
+    byte[] bytes = new byte[length];
+    int read = 0;
+    while (read < length) {
+      int n = in.read(bytes, read, length - read);
+      if (n < 0) {
+        throw new EOFException("Truncated InchiInput");
+      }
+      read += n;
+    }
+    return decode(bytes);
+  }
+
+  private static void putAtom(ByteBuffer buffer, InchiAtom atom, int flags) {
+    String elName = atom.getElName();
+    Integer elementCode = ELEMENT_CODES.get(elName);
+    if (elementCode != null) {
+      buffer.put((byte) elementCode.intValue());
+    }
+    else {
+      buffer.put((byte) 0);
+      byte[] symbol = elName.getBytes(StandardCharsets.US_ASCII);
+      putVarint(buffer, symbol.length);
+      buffer.put(symbol);
+    }
+
+    int implicitH = atom.getImplicitHydrogen();
+    if (implicitH < Byte.MIN_VALUE || implicitH > Byte.MAX_VALUE) {
+      throw new IllegalArgumentException("Implicit hydrogen count cannot be encoded: " + implicitH);
+    }
+    int packed = implicitH >= -1 && implicitH + 1 < IMPLICIT_H_ESCAPE ? implicitH + 1 : IMPLICIT_H_ESCAPE;
+    int charge = atom.getCharge();
+    int isotopicMass = atom.getIsotopicMass();
+    if (isotopicMass < 0) {
+      throw new IllegalArgumentException("Negative isotopic mass cannot be encoded: " + isotopicMass);
+    }
+    InchiRadical radical = atom.getRadical();
+    int protium = atom.getImplicitProtium();
+    int deuterium = atom.getImplicitDeuterium();
+    int tritium = atom.getImplicitTritium();
+    if (charge != 0) {
+      packed |= ATOM_CHARGE;
+    }
+    if (isotopicMass != 0) {
+      packed |= ATOM_ISOTOPIC_MASS;
+    }
+    if (radical != InchiRadical.NONE) {
+      packed |= ATOM_RADICAL;
+    }
+    if (protium != 0 || deuterium != 0 || tritium != 0) {
+      packed |= ATOM_ISOTOPIC_H;
+    }
+    buffer.put((byte) packed);
+    if ((packed & IMPLICIT_H_MASK) == IMPLICIT_H_ESCAPE) {
+      buffer.put((byte) implicitH);
+    }
+    if (charge != 0) {
+      buffer.put((byte) charge);
+    }
+    if (isotopicMass != 0) {
+      putVarint(buffer, isotopicMass);
+    }
+    if (radical != InchiRadical.NONE) {
+      buffer.put(radical.getCode());
+    }
+    if ((packed & ATOM_ISOTOPIC_H) != 0) {
+      buffer.put((byte) protium);
+      buffer.put((byte) deuterium);
+      buffer.put((byte) tritium);
+    }
+
+    if ((flags & FLAG_COORDINATES) != 0) {
+      buffer.putDouble(atom.getX());
+      buffer.putDouble(atom.getY());
+      if ((flags & FLAG_3D) != 0) {
+        buffer.putDouble(atom.getZ());
+      }
+    }
+  }
+
+  private static InchiAtom getAtom(ByteBuffer buffer, int flags) {
+    int elementCode = buffer.get() & 0xff;
+    String elName;
+    if (elementCode == 0) {
+      byte[] symbol = new byte[getVarint(buffer)];
+      buffer.get(symbol);
+      elName = new String(symbol, StandardCharsets.US_ASCII);
+    }
+    else if (elementCode < ELEMENTS.length) {
+      elName = ELEMENTS[elementCode];
+    }
+    else {
+      throw new IllegalArgumentException("Unknown element code: " + elementCode);
+    }
+    InchiAtom atom = new InchiAtom(elName);
+
+    int packed = buffer.get() & 0xff;
+    int implicitH = packed & IMPLICIT_H_MASK;
+    atom.setImplicitHydrogen(implicitH == IMPLICIT_H_ESCAPE ? buffer.get() : implicitH - 1);
+    if ((packed & ATOM_CHARGE) != 0) {
+      atom.setCharge(buffer.get());
+    }
+    if ((packed & ATOM_ISOTOPIC_MASS) != 0) {
+      atom.setIsotopicMass(getVarint(buffer));
+    }
+    if ((packed & ATOM_RADICAL) != 0) {
+      byte code = buffer.get();
+      atom.setRadical(checkCode(InchiRadical.of(code), code));
+    }
+    if ((packed & ATOM_ISOTOPIC_H) != 0) {
+      atom.setImplicitProtium(buffer.get());
+      atom.setImplicitDeuterium(buffer.get());
+      atom.setImplicitTritium(buffer.get());
+    }
+
+    if ((flags & FLAG_COORDINATES) != 0) {
+      atom.setX(buffer.getDouble());
+      atom.setY(buffer.getDouble());
+      if ((flags & FLAG_3D) != 0) {
+        atom.setZ(buffer.getDouble());
+      }
+    }
+    return atom;
+  }
+
+  private static int atomIndex(InchiInput inchiInput, InchiAtom atom) {
+    int idx = inchiInput.indexOf(atom);
+    if (idx < 0) {
+      throw new IllegalArgumentException("Bond or stereo element referenced an atom that was not part of the InchiInput");
+    }
+    return idx;
+  }
+
+  private static InchiAtom getAtom(InchiInput inchiInput, int idx, int atomCount) {
+    if (idx >= atomCount) {
+      throw new IllegalArgumentException("Atom index out of range: " + idx);
+    }
+    return inchiInput.getAtom(idx);
+  }
+
+  private static <T> T checkCode(T value, int code) {
+    if (value == null) {
+      throw new IllegalArgumentException("Unknown code in encoded InchiInput: " + code);
+    }
+    return value;
+  }
+
+  private static void putVarint(ByteBuffer buffer, int value) {
+    while ((value & ~0x7f) != 0) {
+      buffer.put((byte) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  private static int getVarint(ByteBuffer buffer) {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = buffer.get();
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        if (value < 0) {
+          break;
+        }
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint in encoded InchiInput");
+  }
+
+}
@@ -0,0 +1,64 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+public class InchiInputFromMolfileOutput {
+
+  private final InchiInput inchiInput;
+  private final boolean chiralFlag;
+
+  InchiInputFromMolfileOutput(InchiInput inchiInput, boolean chiralFlag) {
+    this.inchiInput = inchiInput;
+    this.chiralFlag = chiralFlag;
+  }
+
+  public InchiInput getInchiInput() {
+    return inchiInput;
+  }
+
+  /**
+   * True if the chiral flag of the molfile was set
+   * @return
+   */
+  public boolean getChiralFlag() {
+    return chiralFlag;
+  }
+
+  /**
+   * The native molfile reader applies the chiral flag of the molfile, which {@link InchiInput} does not hold.
+   * This returns the options with {@link InchiFlag#ChiralFlagON} added when the chiral flag is set and the options do not already
+   * specify {@link InchiFlag#ChiralFlagON} or {@link InchiFlag#ChiralFlagOFF}, so that converting the {@link InchiInput} gives the same
+   * InChI as converting the molfile
+   * @param options
+   * @return
+   */
+  public InchiOptions applyChiralFlag(InchiOptions options) {
+    if (!chiralFlag || options.getFlags().contains(InchiFlag.ChiralFlagON) || options.getFlags().contains(InchiFlag.ChiralFlagOFF)) {
+      return options;
+    }
+    InchiOptions.InchiOptionsBuilder builder = new InchiOptions.InchiOptionsBuilder();
+    for (InchiFlag flag : options.getFlags()) {
+      builder.withFlag(flag);
+    }
+    return builder.withFlag(InchiFlag.ChiralFlagON)
+        .withTimeoutMilliSeconds(options.getTimeoutMilliSeconds())
+        .withOutputFields(options.getOutputFields().toArray(new InchiOutputField[0]))
+        .build();
+  }
+
+}
@@ -0,0 +1,243 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Java implementation of the InChIKey algorithm, giving the same output as {@link JnaInchi#inchiToInchiKey(String)}
+ * without calling native code.
+ * <p>
+ * The first block of the key is derived from the SHA-256 hash of the formula, connectivity, hydrogen and charge layers;
+ * the second block from the hash of the remaining layers (excluding protonation); followed by the standard/non-standard flag,
+ * the version and a character encoding the number of protons added or removed.
+ * <p>
+ * This class is thread-safe, each thread reuses its own digest and buffers.
+ */
+public class InchiKeyGenerator {
+
+  private static final int MAJOR_HASH_BLOCK_LENGTH = 14;
+  private static final int MINOR_HASH_BLOCK_LENGTH = 8;
+  private static final int INCHIKEY_LENGTH = MAJOR_HASH_BLOCK_LENGTH + 1 + MINOR_HASH_BLOCK_LENGTH + 2 + 2;
+
+  //The minor part is hashed twice over when shorter than this
+  private static final int MINOR_REPEAT_THRESHOLD = 255;
+
+  private static final String INCHI_PREFIX = "InChI=1";
+
+  /**
+   * Base-26 letter triplets, indexed by 14-bit value.
+   * Triplets starting with E, and the first 516 starting with T, are not used
+   */
+  private static final char[] TRIPLETS = createTriplets();
+
+  private static final ThreadLocal<KeyBuffers> BUFFERS = ThreadLocal.withInitial(KeyBuffers::new);
+
+  private static class KeyBuffers {
+    private final MessageDigest sha256;
+    private final byte[] hash = new byte[32];
+    private final char[] key = new char[INCHIKEY_LENGTH];
+    private byte[] text = new byte[1024];
+
+    private KeyBuffers() {
+      try {
+        sha256 = MessageDigest.getInstance("SHA-256");
+      }
+      catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("SHA-256 is required to be supported by all Java platforms", e);
+      }
+    }
+  }
+
+  private static char[] createTriplets() {
+    char[] triplets = new char[3 * 16384];
+    int i = 0;
+    for (char a = 'A'; a <= 'Z'; a++) {
+      if (a == 'E') {
+        continue;
+      }
+      for (char b = 'A'; b <= 'Z'; b++) {
+        for (char c = 'A'; c <= 'Z'; c++) {
+          if (a == 'T' && (b < 'T' || (b == 'T' && c < 'W'))) {
+            continue;
+          }
+          if (i == triplets.length) {
+            return triplets;
+          }
+          triplets[i++] = a;
+          triplets[i++] = b;
+          triplets[i++] = c;
+        }
+      }
+    }
+    return triplets;
+  }
+
+  /**
+   * Generates the InChIKey for the given InChI.
+   * Validation matches {@link JnaInchi#inchiToInchiKey(String)}: the input is read up to the first whitespace character
+   * and the layers are not checked beyond what is needed to compute the key.
+   * Non-ASCII characters are rejected with {@link InchiKeyStatus#INVALID_INCHI}
+   * @param inchi
+   * @return
+   */
+  public static InchiKeyOutput inchiToInchiKey(String inchi) {
+    if (inchi == null || inchi.isEmpty()) {
+      return new InchiKeyOutput("", inchi == null ? InchiKeyStatus.EMPTY_INPUT : InchiKeyStatus.INVALID_INCHI_PREFIX);
+    }
+    int len = inchi.length();
+    if (len < INCHI_PREFIX.length() + 2 || !inchi.startsWith(INCHI_PREFIX)) {
+      return new InchiKeyOutput("", InchiKeyStatus.INVALID_INCHI_PREFIX);
+    }
+    boolean standard = inchi.charAt(INCHI_PREFIX.length()) == 'S';
+    int start = INCHI_PREFIX.length() + (standard ? 1 : 0);
+    if (inchi.charAt(start) != '/') {
+      return new InchiKeyOutput("", InchiKeyStatus.INVALID_INCHI_PREFIX);
+    }
+    start++;
+    int end = start;
+    while (end < len && inchi.charAt(end) > ' ') {
+      if (inchi.charAt(end) > '~') {
+        return new InchiKeyOutput("", InchiKeyStatus.INVALID_INCHI);
+      }
+      end++;
+    }
+    if (end == start) {
+      return new InchiKeyOutput("", InchiKeyStatus.INVALID_INCHI);
+    }
+
+    //The major part comprises the formula and the c, h, q layers. The last p layer before any other layer is the protonation
+    int minorStart = end;
+    int protonationStart = -1;
+    for (int i = start; i < end - 1; i++) {
+      if (inchi.charAt(i) == '/') {
+        char layer = inchi.charAt(i + 1);
+        if (layer == 'p') {
+          protonationStart = i;
+        }
+        else if (layer != 'c' && layer != 'h' && layer != 'q') {
+          minorStart = i;
+          break;
+        }
+      }
+    }
+    int majorEnd = protonationStart >= 0 ? protonationStart : minorStart;
+
+    char protonationFlag = 'N';
+    if (protonationStart >= 0) {
+      int protons = parseProtons(inchi, protonationStart + 2, minorStart);
+      if (protons == 0) {
+        return new InchiKeyOutput("", InchiKeyStatus.INVALID_STD_INCHI);
+      }
+      protonationFlag = protons > 12 || protons < -12 ? 'A' : (char) ('N' + protons);
+    }
+
+    KeyBuffers buffers = BUFFERS.get();
+    char[] key = buffers.key;
+    hash(buffers, inchi, start, majorEnd, 1);
+    byte[] hash = buffers.hash;
+    appendTriplet(key, 0, (hash[0] & 0xff) | (hash[1] & 0x3f) << 8);
+    appendTriplet(key, 3, ((hash[1] & 0xc0) | (hash[2] & 0xff) << 8 | (hash[3] & 0x0f) << 16) >> 6);
+    appendTriplet(key, 6, ((hash[3] & 0xf0) | (hash[4] & 0xff) << 8 | (hash[5] & 0x03) << 16) >> 4);
+    appendTriplet(key, 9, ((hash[5] & 0xfc) | (hash[6] & 0xff) << 8) >> 2);
+    appendDoublet(key, 12, (hash[7] & 0xff) | (hash[8] & 0x01) << 8);
+    key[14] = '-';
+
+    int minorLength = end - minorStart;
+    hash(buffers, inchi, minorStart, end, minorLength > 0 && minorLength < MINOR_REPEAT_THRESHOLD ? 2 : 1);
+    appendTriplet(key, 15, (hash[0] & 0xff) | (hash[1] & 0x3f) << 8);
+    appendTriplet(key, 18, ((hash[1] & 0xc0) | (hash[2] & 0xff) << 8 | (hash[3] & 0x0f) << 16) >> 6);
+    appendDoublet(key, 21, ((hash[3] & 0xf0) | (hash[4] & 0x1f) << 8) >> 4);
+    key[23] = standard ? 'S' : 'N';
+    key[24] = 'A';
+    key[25] = '-';
+    key[26] = protonationFlag;
+    return new InchiKeyOutput(new String(key), InchiKeyStatus.OK);
+  }
+
+  /**
+   * Parses the number of protons in the same way as the InChI library i.e. leading digits with an optional sign
+   * (saturating as a C long, then truncated to an int). If there are no digits the result is 0
+   */
+  private static int parseProtons(String inchi, int start, int end) {
+    int i = start;
+    boolean negative = false;
+    if (i < end && (inchi.charAt(i) == '+' || inchi.charAt(i) == '-')) {
+      negative = inchi.charAt(i) == '-';
+      i++;
+    }
+    long value = 0;
+    boolean saturated = false;
+    for (; i < end; i++) {
+      char ch = inchi.charAt(i);
+      if (ch < '0' || ch > '9') {
+        break;
+      }
+      if (!saturated) {
+        int digit = ch - '0';
+        if (value > (Long.MAX_VALUE - digit) / 10) {
+          saturated = true;
+        }
+        else {
+          value = value * 10 + digit;
+        }
+      }
+    }
+    if (saturated) {
+      return (int) (negative ? Long.MIN_VALUE : Long.MAX_VALUE);
+    }
+    return (int) (negative ? -value : value);
+  }
+
+  private static void hash(KeyBuffers buffers, String inchi, int start, int end, int repeats) {
+    int len = end - start;
+    byte[] text = buffers.text;
+    if (text.length < len) {
+      text = new byte[Math.max(len, text.length * 2)];
+      buffers.text = text;
+    }
+    for (int i = 0; i < len; i++) {
+      text[i] = (byte) inchi.charAt(start + i);
+    }
+    MessageDigest sha256 = buffers.sha256;
+    for (int i = 0; i < repeats; i++) {
+      sha256.update(text, 0, len);
+    }
+    try {
+      sha256.digest(buffers.hash, 0, buffers.hash.length);
+    }
+    catch (DigestException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void appendTriplet(char[] key, int offset, int value) {
+    int i = value * 3;
+    key[offset] = TRIPLETS[i];
+    key[offset + 1] = TRIPLETS[i + 1];
+    key[offset + 2] = TRIPLETS[i + 2];
+  }
+
+  private static void appendDoublet(char[] key, int offset, int value) {
+    key[offset] = (char) ('A' + value / 26);
+    key[offset + 1] = (char) ('A' + value % 26);
+  }
+
+}
@@ -51,6 +51,10 @@ public enum InchiKeyStatus {
     this.code = code;
   }
 
+  int getCode() {
+    return code;
+  }
+
   private static final Map<Integer, InchiKeyStatus> map = new HashMap<>();
   
   static {
@@ -0,0 +1,923 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.dan2097.jnainchi.inchi.InchiLibrary;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.Platform;
+
+/**
+ * A persistent store of conversion results, so that unchanged structures need not be converted again on later runs.
+ * Results are keyed by a 128-bit digest of the normalized input, the options, and the InChI native library in use,
+ * see {@link Key}. The InChI, InChIKey, status and message of each result are stored.
+ * <p>
+ * A store is a directory holding an append-only data file and a hash index, both accessed through memory mapping.
+ * Records are appended to the data file with positional writes, so the file is never longer than the data written
+ * and need not be truncated while mapped (which fails on Windows).
+ * The index is a chain of open addressing tables, each twice the size of the last, a new table being appended when the newest is half full,
+ * so entries never move and readers need no locking. Any number of processes may read a store while one process writes to it,
+ * readers see entries as they are added.
+ * <p>
+ * A store may be shared by the threads of a process. {@link MemoInchiEngine} checks a store before calling its underlying engine.
+ * <pre>
+ * try (InchiMemoStore memo = InchiMemoStore.openForWriting(Paths.get("memo"))) {
+ *   InchiOutput output = memo.getOrConvert(InchiMemoStore.Key.ofMolfile(molText, options), options, () -&gt; JnaInchi.molToInchi(molText, options));
+ * }
+ * </pre>
+ */
+public class InchiMemoStore implements Closeable {
+
+  static final String INDEX_FILE = "memo.index";
+  static final String DATA_FILE = "memo.data";
+
+  //"JNIMEMO1"
+  private static final long MAGIC = 0x4a4e494d454d4f31L;
+  private static final int VERSION = 2;
+
+  //index header: magic, version, number of tables, entries in the newest table, length of the data file
+  private static final int HEADER_SIZE = 64;
+  private static final int HEADER_VERSION = 8;
+  private static final int HEADER_TABLES = 12;
+  private static final int HEADER_NEWEST_TABLE_ENTRIES = 16;
+  private static final int HEADER_DATA_LENGTH = 24;
+
+  //slot: digest (16 bytes) then the record's offset in the data file + 1, 0 for an empty slot
+  private static final int SLOT_SIZE = 24;
+  private static final int INITIAL_TABLE_BITS = 16;
+  private static final int MAX_TABLES = 40;
+  private static final int SEGMENT_SLOT_BITS = 26;
+
+  //record: digest, status + 1 (0 if not written), InChIKey status + 1, InChI length, message length, InChIKey, InChI, message
+  private static final int RECORD_STATUS = 16;
+  private static final int RECORD_INCHI_LENGTH = 18;
+  private static final int RECORD_MESSAGE_LENGTH = 22;
+  private static final int RECORD_INCHIKEY = 26;
+  private static final int RECORD_HEADER_SIZE = RECORD_INCHIKEY + 27;
+
+  private static final long DATA_SEGMENT_SIZE = 1L << 30;
+
+  private static final InchiStatus[] INCHI_STATUSES = InchiStatus.values();
+
+  private final boolean writable;
+  private final FileChannel indexChannel;
+  private final FileChannel dataChannel;
+  private final FileLock lock;
+  private final MappedByteBuffer header;
+
+  private volatile Table[] tables = new Table[0];
+  //read-only view of the data file
+  private volatile ByteBuffer[] dataSegments = new ByteBuffer[0];
+  private volatile long dataMapped = 0;
+
+  //writer state
+  private long newestTableEntries;
+  private long dataLength;
+  private ByteBuffer recordBuffer = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private volatile boolean closed = false;
+
+  private InchiMemoStore(Path directory, boolean writable) throws IOException {
+    this.writable = writable;
+    StandardOpenOption[] openOptions = writable ?
+        new StandardOpenOption[] {StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE} :
+        new StandardOpenOption[] {StandardOpenOption.READ};
+    this.indexChannel = FileChannel.open(directory.resolve(INDEX_FILE), openOptions);
+    FileChannel data = null;
+    FileLock fileLock = null;
+    try {
+      data = FileChannel.open(directory.resolve(DATA_FILE), openOptions);
+      if (writable) {
+        try {
+          fileLock = indexChannel.tryLock();
+        }
+        catch (OverlappingFileLockException e) {
+          fileLock = null;
+        }
+        if (fileLock == null) {
+          throw new IOException("Memo store " + directory + " is already open for writing");
+        }
+        if (indexChannel.size() == 0) {
+          MappedByteBuffer newHeader = indexChannel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+          newHeader.order(ByteOrder.LITTLE_ENDIAN);
+          newHeader.putLong(0, MAGIC);
+          newHeader.putInt(HEADER_VERSION, VERSION);
+        }
+      }
+      if (indexChannel.size() < HEADER_SIZE) {
+        throw new IOException("Not a memo store: " + directory);
+      }
+      this.header = indexChannel.map(writable ? MapMode.READ_WRITE : MapMode.READ_ONLY, 0, HEADER_SIZE);
+      header.order(ByteOrder.LITTLE_ENDIAN);
+      if (header.getLong(0) != MAGIC) {
+        throw new IOException("Not a memo store: " + directory);
+      }
+      if (header.getInt(HEADER_VERSION) != VERSION) {
+        throw new IOException("Unsupported memo store version: " + header.getInt(HEADER_VERSION));
+      }
+    }
+    catch (IOException | RuntimeException e) {
+      if (fileLock != null) {
+        fileLock.release();
+      }
+      indexChannel.close();
+      if (data != null) {
+        data.close();
+      }
+      throw e;
+    }
+    this.dataChannel = data;
+    this.lock = fileLock;
+    if (writable) {
+      if (header.getInt(HEADER_TABLES) == 0) {
+        addTable();
+      }
+      newestTableEntries = header.getLong(HEADER_NEWEST_TABLE_ENTRIES);
+      dataLength = header.getLong(HEADER_DATA_LENGTH);
+    }
+    refreshTables();
+  }
+
+  /**
+   * Opens an existing store for reading, this process will see entries added by a writer
+   * @param directory
+   * @return
+   * @throws IOException if the directory does not hold a store
+   */
+  public static InchiMemoStore open(Path directory) throws IOException {
+    return new InchiMemoStore(directory, false);
+  }
+
+  /**
+   * Opens a store for reading and writing, creating it if necessary. Only one writer may have a store open at a time
+   * @param directory
+   * @return
+   * @throws IOException if the store is already open for writing, possibly by a different process
+   */
+  public static InchiMemoStore openForWriting(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    return new InchiMemoStore(directory, true);
+  }
+
+  /**
+   * Identifies a conversion: a 128-bit digest of the normalized input, the options that affect the InChI,
+   * the kind of input and the InChI native library.
+   * <p>
+   * Normalization makes the digest insensitive to differences that do not affect the result.
+   * Line endings are ignored and for molfiles the title and comment lines, the program/timestamp part of the second line,
+   * and anything after "M  END" are ignored. SMILES and InChI are trimmed.
+   * Option flags are order insensitive and {@link InchiOptions#getOutputFields()} is excluded.
+   */
+  public static final class Key {
+
+    private static final byte MOLFILE = 1;
+    private static final byte SMILES = 2;
+    private static final byte INCHI = 3;
+    private static final byte INCHI_INPUT = 4;
+
+    private static final ThreadLocal<KeyDigest> DIGESTS = ThreadLocal.withInitial(KeyDigest::new);
+
+    private final long hi;
+    private final long lo;
+
+    private Key(long hi, long lo) {
+      this.hi = hi;
+      this.lo = lo;
+    }
+
+    public static Key ofMolfile(String molText, InchiOptions options) {
+      KeyDigest digest = DIGESTS.get().start(MOLFILE, options);
+      int length = molText.length();
+      byte[] text = digest.text(length);
+      for (int i = 0; i < length; i++) {
+        char ch = molText.charAt(i);
+        if (ch >= 0x80) {
+          //not ASCII, so digest the UTF-8 encoding, as for a molfile given as bytes
+          byte[] utf8 = molText.getBytes(StandardCharsets.UTF_8);
+          length = utf8.length;
+          text = digest.text(length);
+          System.arraycopy(utf8, 0, text, 0, length);
+          break;
+        }
+        text[i] = (byte) ch;
+      }
+      return digest.finishMolfile(length);
+    }
+
+    /**
+     * @param molText the molfile in the buffer's remaining bytes, the position of the buffer is not changed
+     * @param options
+     * @return
+     */
+    public static Key ofMolfile(ByteBuffer molText, InchiOptions options) {
+      KeyDigest digest = DIGESTS.get().start(MOLFILE, options);
+      int length = molText.remaining();
+      byte[] text = digest.text(length);
+      molText.duplicate().get(text, 0, length);
+      return digest.finishMolfile(length);
+    }
+
+    public static Key ofSmiles(String smiles, InchiOptions options) {
+      return DIGESTS.get().start(SMILES, options).finish(smiles.trim().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Key ofInchi(String inchi, InchiOptions options) {
+      return DIGESTS.get().start(INCHI, options).finish(inchi.trim().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The molecule is digested in the form written by {@link InchiInputCodec}
+     * @param inchiInput
+     * @param options
+     * @return
+     */
+    public static Key ofInchiInput(InchiInput inchiInput, InchiOptions options) {
+      return DIGESTS.get().start(INCHI_INPUT, options).finish(InchiInputCodec.encode(inchiInput));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return hi == other.hi && lo == other.lo;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(hi);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%016x%016x", hi, lo);
+    }
+  }
+
+  private static class KeyDigest {
+    private final MessageDigest sha256;
+    private final byte[] hash = new byte[32];
+    private byte[] text = new byte[4096];
+
+    private KeyDigest() {
+      try {
+        sha256 = MessageDigest.getInstance("SHA-256");
+      }
+      catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("SHA-256 is required to be supported by all Java platforms", e);
+      }
+    }
+
+    private KeyDigest start(byte kind, InchiOptions options) {
+      sha256.reset();
+      sha256.update(NativeLibraryFingerprint.FINGERPRINT);
+      sha256.update(kind);
+      Set<InchiFlag> flags = options.getFlags().isEmpty() ? EnumSet.noneOf(InchiFlag.class) : EnumSet.copyOf(options.getFlags());
+      for (InchiFlag flag : flags) {
+        sha256.update(flag.name().getBytes(StandardCharsets.US_ASCII));
+        sha256.update((byte) ',');
+      }
+      long timeout = options.getTimeoutMilliSeconds();
+      for (int i = 0; i < 8; i++) {
+        sha256.update((byte) (timeout >>> (i * 8)));
+      }
+      return this;
+    }
+
+    private byte[] text(int length) {
+      if (text.length < length) {
+        text = new byte[Math.max(length, text.length * 2)];
+      }
+      return text;
+    }
+
+    /**
+     * Normalizes the molfile in the text buffer, in place, then finishes the digest
+     */
+    private Key finishMolfile(int length) {
+      byte[] text = this.text;
+      int out = 0;
+      int line = 0;
+      int lineStart = 0;
+      while (lineStart < length) {
+        int lineEnd = lineStart;
+        while (lineEnd < length && text[lineEnd] != '\n') {
+          lineEnd++;
+        }
+        int contentEnd = lineEnd;
+        if (contentEnd > lineStart && text[contentEnd - 1] == '\r') {
+          contentEnd--;
+        }
+        int from = lineStart;
+        if (line == 1) {
+          //skip user initials, program name and timestamp, keeping the dimensional code onwards
+          from = Math.min(lineStart + 20, contentEnd);
+        }
+        if (line != 0 && line != 2) {
+          for (int i = from; i < contentEnd; i++) {
+            text[out++] = text[i];
+          }
+          text[out++] = '\n';
+        }
+        if (line > 2 && contentEnd - lineStart >= 6 && text[lineStart] == 'M' && text[lineStart + 1] == ' ' && text[lineStart + 2] == ' '
+            && text[lineStart + 3] == 'E' && text[lineStart + 4] == 'N' && text[lineStart + 5] == 'D') {
+          break;
+        }
+        line++;
+        lineStart = lineEnd + 1;
+      }
+      sha256.update(text, 0, out);
+      return finish();
+    }
+
+    private Key finish(byte[] bytes) {
+      sha256.update(bytes);
+      return finish();
+    }
+
+    private Key finish() {
+      try {
+        sha256.digest(hash, 0, hash.length);
+      }
+      catch (DigestException e) {
+        throw new IllegalStateException(e);
+      }
+      return new Key(readLong(hash, 0), readLong(hash, 8));
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+      long value = 0;
+      for (int i = 0; i < 8; i++) {
+        value = value << 8 | (bytes[offset + i] & 0xff);
+      }
+      return value;
+    }
+  }
+
+  /**
+   * A digest of the native library, so results are not reused after the InChI library changes.
+   * JNA may have deleted the library it extracted from the classpath, in which case the classpath resource is digested
+   */
+  private static class NativeLibraryFingerprint {
+    private static final byte[] FINGERPRINT = createFingerprint();
+
+    private static byte[] createFingerprint() {
+      MessageDigest sha256;
+      try {
+        sha256 = MessageDigest.getInstance("SHA-256");
+      }
+      catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("SHA-256 is required to be supported by all Java platforms", e);
+      }
+      NativeLibrary library = InchiLibrary.JNA_NATIVE_LIB;
+      try {
+        File file = library.getFile();
+        if (file != null && file.isFile()) {
+          sha256.update(Files.readAllBytes(file.toPath()));
+          return sha256.digest();
+        }
+        String resource = Platform.RESOURCE_PREFIX + "/" + System.mapLibraryName(InchiLibrary.JNA_LIBRARY_NAME);
+        InputStream in = InchiLibrary.class.getClassLoader().getResourceAsStream(resource);
+        if (in != null) {
+          try (InputStream is = in) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+              sha256.update(buffer, 0, read);
+            }
+          }
+          return sha256.digest();
+        }
+      }
+      catch (IOException e) {
+        throw new IllegalStateException("Unable to read the InChI native library", e);
+      }
+      sha256.update(library.getName().getBytes(StandardCharsets.UTF_8));
+      return sha256.digest();
+    }
+  }
+
+  /**
+   * A stored result
+   */
+  public static class Entry {
+    private final String inchi;
+    private final String inchiKey;
+    private final String message;
+    private final InchiStatus status;
+    private final InchiKeyStatus inchiKeyStatus;
+
+    private Entry(String inchi, String inchiKey, String message, InchiStatus status, InchiKeyStatus inchiKeyStatus) {
+      this.inchi = inchi;
+      this.inchiKey = inchiKey;
+      this.message = message;
+      this.status = status;
+      this.inchiKeyStatus = inchiKeyStatus;
+    }
+
+    public String getInchi() {
+      return inchi;
+    }
+
+    /**
+     * @return the InChIKey, or null if no InChI was generated
+     */
+    public String getInchiKey() {
+      return inchiKey;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+
+    public InchiStatus getStatus() {
+      return status;
+    }
+
+    /**
+     * @return the status of generating the InChIKey, or null if no InChI was generated
+     */
+    public InchiKeyStatus getInchiKeyStatus() {
+      return inchiKeyStatus;
+    }
+
+    /**
+     * @param options
+     * @return the entry as an output, the message is included if requested by the options
+     */
+    InchiOutput toInchiOutput(InchiOptions options) {
+      boolean includeMessage = options.getOutputFields().contains(InchiOutputField.MESSAGE);
+      return new InchiOutput(inchi, null, includeMessage ? message : null, null, status);
+    }
+
+    InchiKeyOutput toInchiKeyOutput() {
+      return inchiKey != null ? new InchiKeyOutput(inchiKey, inchiKeyStatus) : new InchiKeyOutput("", InchiKeyStatus.EMPTY_INPUT);
+    }
+  }
+
+  /**
+   * The store does not hold AuxInfo or logs, so can only stand in for conversions that do not request them
+   * @param options
+   * @return
+   */
+  static boolean canServe(InchiOptions options) {
+    Set<InchiOutputField> fields = options.getOutputFields();
+    return !fields.contains(InchiOutputField.AUX_INFO) && !fields.contains(InchiOutputField.LOG);
+  }
+
+  public interface Conversion {
+    InchiOutput convert() throws IOException;
+  }
+
+  /**
+   * Returns the stored result if there is one and the options do not request AuxInfo or the log, which are not stored.
+   * Otherwise performs the conversion and, if the store is writable, stores its result.
+   * Errors are not stored when the options have a timeout, as the error may have been a timeout
+   * @param key
+   * @param options the options the key was created with
+   * @param conversion
+   * @return
+   * @throws IOException if the store could not be read or written, or thrown by the conversion
+   */
+  public InchiOutput getOrConvert(Key key, InchiOptions options, Conversion conversion) throws IOException {
+    if (canServe(options)) {
+      Entry entry = get(key);
+      if (entry != null) {
+        hits.incrementAndGet();
+        return entry.toInchiOutput(options);
+      }
+    }
+    misses.incrementAndGet();
+    InchiOutput output = conversion.convert();
+    if (writable && isStorable(options, output)) {
+      put(key, output);
+    }
+    return output;
+  }
+
+  /**
+   * As {@link #getOrConvert(Key, InchiOptions, Conversion)}, but returning just the InChIKey.
+   * The stored InChIKey is returned regardless of the output fields requested
+   * @param key
+   * @param options the options the key was created with
+   * @param conversion
+   * @return the InChIKey, with status {@link InchiKeyStatus#EMPTY_INPUT} if no InChI was generated
+   * @throws IOException if the store could not be read or written, or thrown by the conversion
+   */
+  public InchiKeyOutput getOrConvertInchiKey(Key key, InchiOptions options, Conversion conversion) throws IOException {
+    Entry entry = get(key);
+    if (entry != null) {
+      hits.incrementAndGet();
+      return entry.toInchiKeyOutput();
+    }
+    misses.incrementAndGet();
+    InchiOutput output = conversion.convert();
+    String inchi = output.getInchi();
+    InchiKeyOutput inchiKey = inchi != null && !inchi.isEmpty() ? InchiKeyGenerator.inchiToInchiKey(inchi) : null;
+    if (writable && isStorable(options, output)) {
+      put(key, output, inchiKey);
+    }
+    return inchiKey != null ? inchiKey : new InchiKeyOutput("", InchiKeyStatus.EMPTY_INPUT);
+  }
+
+  private static boolean isStorable(InchiOptions options, InchiOutput output) {
+    return output.getStatus() != InchiStatus.ERROR || options.getTimeoutMilliSeconds() == 0;
+  }
+
+  /**
+   * @param key
+   * @return the stored result, or null if there is none
+   * @throws IOException if the index or data file could not be mapped
+   */
+  public Entry get(Key key) throws IOException {
+    long offset = find(key);
+    if (offset < 0) {
+      return null;
+    }
+    return readEntry(offset, key);
+  }
+
+  /**
+   * Stores the result of a conversion, generating the InChIKey with {@link InchiKeyGenerator}.
+   * Results whose status is not known are not stored
+   * @param key
+   * @param output
+   * @return false if there was already a result for the key
+   * @throws IOException
+   */
+  public boolean put(Key key, InchiOutput output) throws IOException {
+    String inchi = output.getInchi();
+    InchiKeyOutput inchiKey = inchi != null && !inchi.isEmpty() ? InchiKeyGenerator.inchiToInchiKey(inchi) : null;
+    return put(key, output, inchiKey);
+  }
+
+  /**
+   * @param key
+   * @param output
+   * @param inchiKey the InChIKey of the output's InChI, or null if there is none
+   * @return false if there was already a result for the key
+   * @throws IOException
+   */
+  public synchronized boolean put(Key key, InchiOutput output, InchiKeyOutput inchiKey) throws IOException {
+    if (!writable) {
+      throw new IllegalStateException("Memo store was opened read-only");
+    }
+    if (closed) {
+      throw new IllegalStateException("Memo store has been closed");
+    }
+    if (output.getStatus() == null || find(key) >= 0) {
+      return false;
+    }
+    Table table = tables[tables.length - 1];
+    if (newestTableEntries >= table.capacity / 2) {
+      if (tables.length == MAX_TABLES) {
+        throw new IOException("Memo store is full");
+      }
+      table = addTable();
+    }
+
+    long offset = appendRecord(key, output, inchiKey);
+    header.putLong(HEADER_DATA_LENGTH, dataLength);
+
+    long slot = key.hi & table.mask;
+    while (table.getOffset(slot) != 0) {
+      slot = (slot + 1) & table.mask;
+    }
+    //the offset is written last, marking the slot as in use
+    table.publish(slot, key, offset);
+    header.putLong(HEADER_NEWEST_TABLE_ENTRIES, ++newestTableEntries);
+    return true;
+  }
+
+  /**
+   * The number of stored results
+   * @return
+   */
+  public long size() {
+    int tableCount = header.getInt(HEADER_TABLES);
+    if (tableCount == 0) {
+      return 0;
+    }
+    //tables before the newest are exactly half full
+    long size = 0;
+    for (int i = 0; i < tableCount - 1; i++) {
+      size += (1L << (INITIAL_TABLE_BITS + i)) / 2;
+    }
+    return size + header.getLong(HEADER_NEWEST_TABLE_ENTRIES);
+  }
+
+  public boolean isWritable() {
+    return writable;
+  }
+
+  /**
+   * The number of conversions that {@link #getOrConvert(Key, InchiOptions, Conversion)} and
+   * {@link #getOrConvertInchiKey(Key, InchiOptions, Conversion)} answered from the store
+   * @return
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * The number of conversions that {@link #getOrConvert(Key, InchiOptions, Conversion)} and
+   * {@link #getOrConvertInchiKey(Key, InchiOptions, Conversion)} performed
+   * @return
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * @param key
+   * @return the offset of the key's record in the data file, or -1 if not present
+   * @throws IOException
+   */
+  private long find(Key key) throws IOException {
+    if (closed) {
+      throw new IllegalStateException("Memo store has been closed");
+    }
+    Table[] tables = this.tables;
+    if (header.getInt(HEADER_TABLES) != tables.length) {
+      tables = refreshTables();
+    }
+    //newest tables are the largest, so most likely to hold the key
+    for (int i = tables.length - 1; i >= 0; i--) {
+      Table table = tables[i];
+      long slot = key.hi & table.mask;
+      long offset;
+      while ((offset = table.getOffset(slot)) != 0) {
+        if (table.matches(slot, key)) {
+          return offset - 1;
+        }
+        slot = (slot + 1) & table.mask;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Appends a new, empty, table to the index. The table is mapped, which extends the index file,
+   * before the header's table count is updated, so readers never see a table that they cannot map
+   * @return
+   * @throws IOException
+   */
+  private synchronized Table addTable() throws IOException {
+    Table[] current = this.tables;
+    Table table = new Table(indexChannel, current.length, true);
+    Table[] updated = Arrays.copyOf(current, current.length + 1);
+    updated[current.length] = table;
+    this.tables = updated;
+    header.putInt(HEADER_TABLES, updated.length);
+    header.putLong(HEADER_NEWEST_TABLE_ENTRIES, 0);
+    newestTableEntries = 0;
+    return table;
+  }
+
+  private synchronized Table[] refreshTables() throws IOException {
+    int tableCount = header.getInt(HEADER_TABLES);
+    Table[] current = this.tables;
+    if (tableCount == current.length) {
+      return current;
+    }
+    Table[] updated = new Table[tableCount];
+    System.arraycopy(current, 0, updated, 0, Math.min(current.length, tableCount));
+    for (int i = current.length; i < tableCount; i++) {
+      updated[i] = new Table(indexChannel, i, writable);
+    }
+    this.tables = updated;
+    return updated;
+  }
+
+  /**
+   * One open addressing table of the index, mapped in segments so tables larger than 2GB are supported
+   */
+  private static class Table {
+    private final long capacity;
+    private final long mask;
+    private final ByteBuffer[] segments;
+
+    private Table(FileChannel channel, int number, boolean writable) throws IOException {
+      this.capacity = 1L << (INITIAL_TABLE_BITS + number);
+      this.mask = capacity - 1;
+      //the tables before this one hold (2^number - 1) * initial capacity slots
+      long start = HEADER_SIZE + SLOT_SIZE * ((1L << INITIAL_TABLE_BITS) * ((1L << number) - 1));
+      long segmentSlots = Math.min(capacity, 1L << SEGMENT_SLOT_BITS);
+      this.segments = new ByteBuffer[(int) (capacity / segmentSlots)];
+      for (int i = 0; i < segments.length; i++) {
+        long offset = start + i * segmentSlots * SLOT_SIZE;
+        segments[i] = channel.map(writable ? MapMode.READ_WRITE : MapMode.READ_ONLY, offset, segmentSlots * SLOT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      }
+    }
+
+    private ByteBuffer segment(long slot) {
+      return segments[(int) (slot >>> SEGMENT_SLOT_BITS)];
+    }
+
+    private int position(long slot) {
+      return (int) (slot & ((1L << SEGMENT_SLOT_BITS) - 1)) * SLOT_SIZE;
+    }
+
+    private long getOffset(long slot) {
+      return segment(slot).getLong(position(slot) + 16);
+    }
+
+    private boolean matches(long slot, Key key) {
+      ByteBuffer segment = segment(slot);
+      int position = position(slot);
+      return segment.getLong(position) == key.hi && segment.getLong(position + 8) == key.lo;
+    }
+
+    private void publish(long slot, Key key, long offset) {
+      ByteBuffer segment = segment(slot);
+      int position = position(slot);
+      segment.putLong(position, key.hi);
+      segment.putLong(position + 8, key.lo);
+      segment.putLong(position + 16, offset + 1);
+    }
+  }
+
+  private long appendRecord(Key key, InchiOutput output, InchiKeyOutput inchiKey) throws IOException {
+    String inchi = output.getInchi();
+    String message = output.getMessage();
+    byte[] inchiBytes = inchi != null ? inchi.getBytes(StandardCharsets.US_ASCII) : new byte[0];
+    byte[] messageBytes = message != null ? message.getBytes(StandardCharsets.UTF_8) : new byte[0];
+    int length = RECORD_HEADER_SIZE + inchiBytes.length + messageBytes.length;
+    if (recordBuffer.capacity() < length) {
+      recordBuffer = ByteBuffer.allocate(Math.max(length, recordBuffer.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    ByteBuffer record = recordBuffer;
+    record.clear();
+    record.putLong(key.hi);
+    record.putLong(key.lo);
+    record.put((byte) (output.getStatus().ordinal() + 1));
+    String keyText = inchiKey != null ? inchiKey.getInchiKey() : null;
+    boolean hasKey = keyText != null && keyText.length() == 27 && inchiKey.getStatus() != null;
+    record.put((byte) (hasKey ? inchiKey.getStatus().getCode() + 1 : 0));
+    record.putInt(inchi != null ? inchiBytes.length : -1);
+    record.putInt(message != null ? messageBytes.length : -1);
+    for (int i = 0; i < 27; i++) {
+      record.put(hasKey ? (byte) keyText.charAt(i) : 0);
+    }
+    record.put(inchiBytes);
+    record.put(messageBytes);
+    record.flip();
+    long offset = dataLength;
+    long position = offset;
+    while (record.hasRemaining()) {
+      position += dataChannel.write(record, position);
+    }
+    dataLength += length;
+    return offset;
+  }
+
+  /**
+   * The index is not synchronised with the data file, so a reader may see a slot before its record has been written
+   * (or, after a writer crashed, a slot whose record was never written). Such records are treated as missing
+   * @param offset
+   * @param key
+   * @return the entry, or null if the record at the offset is not the key's
+   * @throws IOException
+   */
+  private Entry readEntry(long offset, Key key) throws IOException {
+    byte[] recordHeader = new byte[RECORD_HEADER_SIZE];
+    readData(offset, recordHeader);
+    ByteBuffer buf = ByteBuffer.wrap(recordHeader).order(ByteOrder.LITTLE_ENDIAN);
+    int statusCode = buf.get(RECORD_STATUS);
+    if (buf.getLong(0) != key.hi || buf.getLong(8) != key.lo || statusCode <= 0 || statusCode > INCHI_STATUSES.length) {
+      return null;
+    }
+    InchiStatus status = INCHI_STATUSES[statusCode - 1];
+    int keyCode = buf.get(RECORD_STATUS + 1);
+    int inchiLength = buf.getInt(RECORD_INCHI_LENGTH);
+    int messageLength = buf.getInt(RECORD_MESSAGE_LENGTH);
+    String inchiKey = keyCode != 0 ? new String(recordHeader, RECORD_INCHIKEY, 27, StandardCharsets.US_ASCII) : null;
+    InchiKeyStatus inchiKeyStatus = keyCode != 0 ? InchiKeyStatus.of(keyCode - 1) : null;
+    long position = offset + RECORD_HEADER_SIZE;
+    String inchi = null;
+    if (inchiLength >= 0) {
+      byte[] bytes = new byte[inchiLength];
+      readData(position, bytes);
+      inchi = new String(bytes, StandardCharsets.US_ASCII);
+      position += inchiLength;
+    }
+    String message = null;
+    if (messageLength >= 0) {
+      byte[] bytes = new byte[messageLength];
+      readData(position, bytes);
+      message = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return new Entry(inchi, inchiKey, message, status, inchiKeyStatus);
+  }
+
+  private void readData(long offset, byte[] dst) throws IOException {
+    if (offset + dst.length > dataMapped) {
+      mapData(offset + dst.length);
+    }
+    ByteBuffer[] segments = this.dataSegments;
+    int copied = 0;
+    while (copied < dst.length) {
+      long position = offset + copied;
+      ByteBuffer segment = segments[(int) (position / DATA_SEGMENT_SIZE)].duplicate();
+      segment.position((int) (position % DATA_SEGMENT_SIZE));
+      int length = Math.min(dst.length - copied, segment.remaining());
+      segment.get(dst, copied, length);
+      copied += length;
+    }
+  }
+
+  /**
+   * Maps the data file, which has grown since it was last mapped
+   * @param required
+   * @throws IOException
+   */
+  private synchronized void mapData(long required) throws IOException {
+    if (required <= dataMapped) {
+      return;
+    }
+    long size = dataChannel.size();
+    if (required > size) {
+      throw new IOException("Memo store index refers beyond the end of the data file");
+    }
+    ByteBuffer[] current = dataSegments;
+    ByteBuffer[] updated = new ByteBuffer[(int) ((size + DATA_SEGMENT_SIZE - 1) / DATA_SEGMENT_SIZE)];
+    for (int i = 0; i < updated.length; i++) {
+      long start = i * DATA_SEGMENT_SIZE;
+      long length = Math.min(DATA_SEGMENT_SIZE, size - start);
+      if (i < current.length && current[i].capacity() == length) {
+        updated[i] = current[i];
+      }
+      else {
+        updated[i] = dataChannel.map(MapMode.READ_ONLY, start, length);
+      }
+    }
+    dataSegments = updated;
+    dataMapped = size;
+  }
+
+  /**
+   * Closes the store, releasing the write lock if it was opened for writing
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    tables = new Table[0];
+    dataSegments = new ByteBuffer[0];
+    try {
+      if (writable) {
+        lock.release();
+      }
+    }
+    finally {
+      indexChannel.close();
+      dataChannel.close();
+    }
+  }
+
+}
@@ -19,27 +19,33 @@ package com.github.dan2097.jnainchi;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 public class InchiOptions {
   
   static final InchiOptions DEFAULT_OPTIONS = new InchiOptionsBuilder().build();
   
-  private static final boolean IS_WINDOWS = System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows");
+  static final boolean IS_WINDOWS = System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows");
 
   private final List<InchiFlag> flags;
   private final long timeoutMilliSecs;
+  private final Set<InchiOutputField> outputFields;
 
   private InchiOptions(InchiOptionsBuilder builder) {
-    this.flags = builder.flags;
+    //copied, as caches of native option state assume options do not change once built
+    this.flags = Collections.unmodifiableList(new ArrayList<>(builder.flags));
     this.timeoutMilliSecs = builder.timeoutMilliSecs;
+    this.outputFields = Collections.unmodifiableSet(EnumSet.copyOf(builder.outputFields));
   }
 
   public static class InchiOptionsBuilder {
 
     private final List<InchiFlag> flags = new ArrayList<>();
     private long timeoutMilliSecs = 0;
+    private EnumSet<InchiOutputField> outputFields = EnumSet.allOf(InchiOutputField.class);
 
     public InchiOptionsBuilder withFlag(InchiFlag... flags) {
       for (InchiFlag flag : flags) {
@@ -74,13 +80,29 @@ public class InchiOptions {
       return this;
     }
 
+    /**
+     * Limits the output to the given fields, by default all fields are provided.
+     * Fields that are not requested are null in the {@link InchiOutput}, e.g. for a workload that only needs the InChI
+     * this avoids generating the AuxInfo and copying the AuxInfo, log and messages into Java
+     * @param fields
+     * @return
+     */
+    public InchiOptionsBuilder withOutputFields(InchiOutputField... fields) {
+      EnumSet<InchiOutputField> outputFields = EnumSet.noneOf(InchiOutputField.class);
+      for (InchiOutputField field : fields) {
+        outputFields.add(field);
+      }
+      this.outputFields = outputFields;
+      return this;
+    }
+
     public InchiOptions build() {
       return new InchiOptions(this);
     }
   }
   
   public List<InchiFlag> getFlags() {
-    return Collections.unmodifiableList(flags);
+    return flags;
   } 
   
   public int getTimeout() {
@@ -91,6 +113,14 @@ public class InchiOptions {
     return timeoutMilliSecs;
   }
 
+  /**
+   * The parts of the output that will be provided, see {@link InchiOptionsBuilder#withOutputFields(InchiOutputField...)}
+   * @return
+   */
+  public Set<InchiOutputField> getOutputFields() {
+    return outputFields;
+  }
+
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
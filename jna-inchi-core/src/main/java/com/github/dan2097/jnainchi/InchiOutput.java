@@ -17,11 +17,15 @@
  */
 package com.github.dan2097.jnainchi;
 
+import java.util.List;
+
 public class InchiOutput {
   
   private final String inchi;
   private final String auxInfo;
-  private final String message;
+  private String message;
+  //Individual messages, joined when the message is first requested
+  private final List<String> messages;
   private final String log;
   private final InchiStatus status;
 
@@ -29,6 +33,15 @@ public class InchiOutput {
     this.inchi = inchi;
     this.auxInfo = auxInfo;
     this.message = message;
+    this.messages = null;
+    this.log = log;
+    this.status = status;
+  }
+
+  InchiOutput(String inchi, String auxInfo, List<String> messages, String log, InchiStatus status) {
+    this.inchi = inchi;
+    this.auxInfo = auxInfo;
+    this.messages = messages;
     this.log = log;
     this.status = status;
   }
@@ -37,14 +50,40 @@ public class InchiOutput {
     return inchi;
   }
 
+  /**
+   * The AuxInfo, null if no InChI was generated or {@link InchiOutputField#AUX_INFO} was not requested
+   * @return
+   */
   public String getAuxInfo() {
     return auxInfo;
   }
 
+  /**
+   * Errors and warnings, separated by "; ".
+   * Null if {@link InchiOutputField#MESSAGE} was not requested
+   * @return
+   */
   public String getMessage() {
+    String message = this.message;
+    if (message == null && messages != null) {
+      message = messages.isEmpty() ? "" : String.join("; ", messages);
+      this.message = message;
+    }
     return message;
   }
 
+  /**
+   * The individual errors and warnings, null if {@link InchiOutputField#MESSAGE} was not requested
+   * @return
+   */
+  List<String> getMessages() {
+    return messages;
+  }
+
+  /**
+   * The InChI log, null if the conversion failed or {@link InchiOutputField#LOG} was not requested
+   * @return
+   */
   public String getLog() {
     return log;
   }
@@ -0,0 +1,34 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+/**
+ * The optional parts of an {@link InchiOutput}, see {@link InchiOptions.InchiOptionsBuilder#withOutputFields(InchiOutputField...)}.
+ * The InChI and status are always provided.
+ */
+public enum InchiOutputField {
+  /** The AuxInfo, which is not generated at all if not requested */
+  AUX_INFO,
+
+  /** Errors and warnings from the conversion */
+  MESSAGE,
+
+  /** The InChI log */
+  LOG,
+
+}
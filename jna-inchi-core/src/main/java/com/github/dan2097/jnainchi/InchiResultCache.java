@@ -0,0 +1,670 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded in-memory cache of conversion results, keyed by a 128-bit hash of the input and its {@link InchiOptions}, see {@link Key}.
+ * Use it through {@link CachingInchiEngine}, or {@link SmilesToInchi} for SMILES.
+ * <p>
+ * The cache may be bounded by the number of entries, by their estimated size in bytes, or both, and entries may expire a fixed time after they were added.
+ * Keys are spread over independently locked segments, so a single cache can be shared by many threads.
+ * Each segment is a segmented LRU: new entries are admitted to a probationary area and are only moved to the protected area,
+ * which holds 80% of the segment, when hit again. Entries that are only seen once therefore cannot displace frequently used ones.
+ * The bounds are approximate, as they are divided evenly between the segments.
+ */
+public class InchiResultCache {
+
+  private static final int MAX_SEGMENTS = 64;
+  private static final int MIN_SEGMENT_SIZE = 16;
+  private static final long MIN_SEGMENT_WEIGHT = 64 * 1024;
+
+  //estimated bytes used by the key, map entry, cache entry and InchiOutput, and by each String
+  private static final long ENTRY_OVERHEAD = 200;
+  private static final long STRING_OVERHEAD = 40;
+
+  private final Segment[] segments;
+  private final int segmentMask;
+  private final long maximumSize;
+  private final long maximumWeight;
+  private final long expireAfterWriteNanos;
+  private final LongSupplier ticker;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder expirations = new LongAdder();
+
+  /**
+   * @param maximumSize the maximum number of results held
+   */
+  public InchiResultCache(long maximumSize) {
+    this(new InchiResultCacheBuilder().withMaximumSize(maximumSize));
+  }
+
+  /**
+   * @param maximumSize the maximum number of results held
+   * @param concurrencyLevel the expected number of threads using the cache, see {@link InchiResultCacheBuilder#withConcurrencyLevel(int)}
+   */
+  public InchiResultCache(long maximumSize, int concurrencyLevel) {
+    this(new InchiResultCacheBuilder().withMaximumSize(maximumSize).withConcurrencyLevel(concurrencyLevel));
+  }
+
+  private InchiResultCache(InchiResultCacheBuilder builder) {
+    this.maximumSize = builder.maximumSize;
+    this.maximumWeight = builder.maximumWeight;
+    this.expireAfterWriteNanos = builder.expireAfterWriteNanos;
+    this.ticker = builder.ticker;
+    int segmentCount = 1;
+    while (segmentCount < builder.concurrencyLevel && segmentCount < MAX_SEGMENTS
+        && maximumSize / (segmentCount * 2) >= MIN_SEGMENT_SIZE && maximumWeight / (segmentCount * 2) >= MIN_SEGMENT_WEIGHT) {
+      segmentCount *= 2;
+    }
+    this.segmentMask = segmentCount - 1;
+    this.segments = new Segment[segmentCount];
+    long segmentSize = maximumSize == Long.MAX_VALUE ? Long.MAX_VALUE : (maximumSize + segmentCount - 1) / segmentCount;
+    long segmentWeight = maximumWeight == Long.MAX_VALUE ? Long.MAX_VALUE : (maximumWeight + segmentCount - 1) / segmentCount;
+    for (int i = 0; i < segmentCount; i++) {
+      segments[i] = new Segment(segmentSize, segmentWeight);
+    }
+  }
+
+  public static class InchiResultCacheBuilder {
+
+    private long maximumSize = Long.MAX_VALUE;
+    private long maximumWeight = Long.MAX_VALUE;
+    private long expireAfterWriteNanos = 0;
+    private int concurrencyLevel = Runtime.getRuntime().availableProcessors() * 4;
+    private LongSupplier ticker = System::nanoTime;
+
+    /**
+     * The maximum number of results held
+     * @param maximumSize
+     * @return
+     */
+    public InchiResultCacheBuilder withMaximumSize(long maximumSize) {
+      if (maximumSize < 1) {
+        throw new IllegalArgumentException("maximumSize must be at least 1: " + maximumSize);
+      }
+      this.maximumSize = maximumSize;
+      return this;
+    }
+
+    /**
+     * The maximum total estimated size of the results held, in bytes.
+     * A result's size is estimated from the length of its InChI, AuxInfo, message and log, plus a fixed overhead
+     * @param maximumWeight
+     * @return
+     */
+    public InchiResultCacheBuilder withMaximumWeight(long maximumWeight) {
+      if (maximumWeight < 1) {
+        throw new IllegalArgumentException("maximumWeight must be at least 1: " + maximumWeight);
+      }
+      this.maximumWeight = maximumWeight;
+      return this;
+    }
+
+    /**
+     * Results are discarded once this long has passed since they were added (0 = never)
+     * @param duration
+     * @param unit
+     * @return
+     */
+    public InchiResultCacheBuilder withExpireAfterWrite(long duration, TimeUnit unit) {
+      if (duration < 0) {
+        throw new IllegalArgumentException("duration must not be negative: " + duration);
+      }
+      this.expireAfterWriteNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    /**
+     * The expected number of threads using the cache, the number of segments is the next power of two, up to 64.
+     * Small caches use fewer segments
+     * @param concurrencyLevel
+     * @return
+     */
+    public InchiResultCacheBuilder withConcurrencyLevel(int concurrencyLevel) {
+      if (concurrencyLevel < 1) {
+        throw new IllegalArgumentException("concurrencyLevel must be at least 1: " + concurrencyLevel);
+      }
+      this.concurrencyLevel = concurrencyLevel;
+      return this;
+    }
+
+    /**
+     * The source of time, in nanoseconds, for expiry
+     * @param ticker
+     * @return
+     */
+    InchiResultCacheBuilder withTicker(LongSupplier ticker) {
+      this.ticker = ticker;
+      return this;
+    }
+
+    public InchiResultCache build() {
+      if (maximumSize == Long.MAX_VALUE && maximumWeight == Long.MAX_VALUE) {
+        throw new IllegalArgumentException("A maximum size or weight is required");
+      }
+      return new InchiResultCache(this);
+    }
+  }
+
+  /**
+   * The cached result, or null if there is none. Counts as a hit or a miss
+   * @param key
+   * @return
+   */
+  public InchiOutput get(Key key) {
+    InchiOutput output = segmentFor(key).get(key);
+    if (output != null) {
+      hits.increment();
+    }
+    else {
+      misses.increment();
+    }
+    return output;
+  }
+
+  /**
+   * Caches the result, evicting the least recently used probationary entries if the segment is full.
+   * Errors are not cached when the options have a timeout, as the error may have been a timeout
+   * @param key
+   * @param options the options the result was generated with
+   * @param output
+   */
+  public void put(Key key, InchiOptions options, InchiOutput output) {
+    if (output.getStatus() == InchiStatus.ERROR && options.getTimeoutMilliSeconds() != 0) {
+      return;
+    }
+    segmentFor(key).put(key, output, weigh(output) + weigh(key.smiles));
+  }
+
+  /**
+   * Returns the cached result for the input and options, otherwise converts it with the given engine and caches the result
+   * @param inchiInput
+   * @param options
+   * @param engine
+   * @return
+   */
+  public InchiOutput getOrConvert(InchiInput inchiInput, InchiOptions options, InchiEngine engine) {
+    Key key = Key.of(inchiInput, options);
+    InchiOutput output = get(key);
+    if (output == null) {
+      output = engine.toInchi(inchiInput, options);
+      put(key, options, output);
+    }
+    return output;
+  }
+
+  public long size() {
+    long size = 0;
+    for (Segment segment : segments) {
+      size += segment.size();
+    }
+    return size;
+  }
+
+  /**
+   * The total estimated size of the results held, in bytes, see {@link InchiResultCacheBuilder#withMaximumWeight(long)}
+   * @return
+   */
+  public long weight() {
+    long weight = 0;
+    for (Segment segment : segments) {
+      weight += segment.weight();
+    }
+    return weight;
+  }
+
+  /**
+   * @return the maximum number of results, Long.MAX_VALUE if unbounded
+   */
+  public long getMaximumSize() {
+    return maximumSize;
+  }
+
+  /**
+   * @return the maximum total estimated size in bytes, Long.MAX_VALUE if unbounded
+   */
+  public long getMaximumWeight() {
+    return maximumWeight;
+  }
+
+  public void clear() {
+    for (Segment segment : segments) {
+      segment.clear();
+    }
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /**
+   * The number of results removed to stay within the maximum size or weight
+   * @return
+   */
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  /**
+   * The number of results removed because they had expired
+   * @return
+   */
+  public long getExpirationCount() {
+    return expirations.sum();
+  }
+
+  /**
+   * The fraction of lookups that were hits, 0 if there have been no lookups
+   * @return
+   */
+  public double getHitRate() {
+    long hitCount = hits.sum();
+    long lookups = hitCount + misses.sum();
+    return lookups == 0 ? 0 : (double) hitCount / lookups;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("size=%d weight=%d hits=%d misses=%d evictions=%d expirations=%d hitRate=%.3f", size(), weight(),
+        getHitCount(), getMissCount(), getEvictionCount(), getExpirationCount(), getHitRate());
+  }
+
+  private Segment segmentFor(Key key) {
+    //the low bits of lo are used by the segment's hash table
+    return segments[(int) (key.hi >>> 32) & segmentMask];
+  }
+
+  static long weigh(InchiOutput output) {
+    return ENTRY_OVERHEAD + weigh(output.getInchi()) + weigh(output.getAuxInfo()) + weigh(output.getMessage()) + weigh(output.getLog());
+  }
+
+  private static long weigh(String str) {
+    return str != null ? STRING_OVERHEAD + str.length() : 0;
+  }
+
+  private static class Entry {
+    private final InchiOutput output;
+    private final long weight;
+    private final long writeTime;
+
+    private Entry(InchiOutput output, long weight, long writeTime) {
+      this.output = output;
+      this.weight = weight;
+      this.writeTime = writeTime;
+    }
+  }
+
+  private class Segment {
+
+    private final long maximumSize;
+    private final long maximumWeight;
+    private final long protectedMaximumSize;
+    private final long protectedMaximumWeight;
+    //access ordered, the eldest entry is the least recently used
+    private final LinkedHashMap<Key, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Key, Entry> protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long probationWeight = 0;
+    private long protectedWeight = 0;
+
+    private Segment(long maximumSize, long maximumWeight) {
+      this.maximumSize = maximumSize;
+      this.maximumWeight = maximumWeight;
+      this.protectedMaximumSize = maximumSize >= 2 ? (long) (maximumSize * 0.8) : 0;
+      this.protectedMaximumWeight = (long) (maximumWeight * 0.8);
+    }
+
+    private synchronized InchiOutput get(Key key) {
+      Entry entry = protectedEntries.get(key);
+      if (entry != null) {
+        if (isExpired(entry)) {
+          protectedEntries.remove(key);
+          protectedWeight -= entry.weight;
+          expirations.increment();
+          return null;
+        }
+        return entry.output;
+      }
+      entry = probation.remove(key);
+      if (entry == null) {
+        return null;
+      }
+      probationWeight -= entry.weight;
+      if (isExpired(entry)) {
+        expirations.increment();
+        return null;
+      }
+      if (protectedMaximumSize == 0 || entry.weight > protectedMaximumWeight) {
+        probation.put(key, entry);
+        probationWeight += entry.weight;
+        return entry.output;
+      }
+      protectedEntries.put(key, entry);
+      protectedWeight += entry.weight;
+      demoteExcessProtected();
+      return entry.output;
+    }
+
+    private synchronized void put(Key key, InchiOutput output, long weight) {
+      if (weight > maximumWeight) {
+        return;
+      }
+      Entry entry = new Entry(output, weight, expireAfterWriteNanos != 0 ? ticker.getAsLong() : 0);
+      Entry previous = protectedEntries.get(key);
+      if (previous != null) {
+        protectedEntries.put(key, entry);
+        protectedWeight += weight - previous.weight;
+        demoteExcessProtected();
+      }
+      else {
+        previous = probation.put(key, entry);
+        probationWeight += weight - (previous != null ? previous.weight : 0);
+      }
+      while (probation.size() + protectedEntries.size() > maximumSize || probationWeight + protectedWeight > maximumWeight) {
+        if (!probation.isEmpty()) {
+          probationWeight -= removeEldest(probation).getValue().weight;
+        }
+        else {
+          protectedWeight -= removeEldest(protectedEntries).getValue().weight;
+        }
+        evictions.increment();
+      }
+    }
+
+    /**
+     * The least recently used protected entries become the most recently used probationary entries
+     */
+    private void demoteExcessProtected() {
+      while (protectedEntries.size() > protectedMaximumSize || protectedWeight > protectedMaximumWeight) {
+        Map.Entry<Key, Entry> eldest = removeEldest(protectedEntries);
+        Entry entry = eldest.getValue();
+        protectedWeight -= entry.weight;
+        probation.put(eldest.getKey(), entry);
+        probationWeight += entry.weight;
+      }
+    }
+
+    private boolean isExpired(Entry entry) {
+      return expireAfterWriteNanos != 0 && ticker.getAsLong() - entry.writeTime >= expireAfterWriteNanos;
+    }
+
+    private synchronized long size() {
+      return probation.size() + protectedEntries.size();
+    }
+
+    private synchronized long weight() {
+      return probationWeight + protectedWeight;
+    }
+
+    private synchronized void clear() {
+      probation.clear();
+      protectedEntries.clear();
+      probationWeight = 0;
+      protectedWeight = 0;
+    }
+
+    private Map.Entry<Key, Entry> removeEldest(LinkedHashMap<Key, Entry> map) {
+      Iterator<Map.Entry<Key, Entry>> it = map.entrySet().iterator();
+      Map.Entry<Key, Entry> eldest = it.next();
+      it.remove();
+      return eldest;
+    }
+  }
+
+  /**
+   * A 128-bit hash (MurmurHash3) of a structure, or SMILES, and the options it is converted with.
+   * <p>
+   * Every property of the atoms, bonds and stereo that is passed to InChI is hashed, in order.
+   * Atom coordinates are left out when they cannot affect the output: when stereo is not requested ({@link InchiFlag#SNon})
+   * and neither is the AuxInfo, which records the coordinates.
+   * For the options, flags are order insensitive, and the timeout and {@link InchiOptions#getOutputFields()} are included.
+   * <p>
+   * As the key is a hash, the cache does not hold on to (mutable) {@link InchiInput}s.
+   * SMILES keys also hold the SMILES, which is compared on lookup, so a hash collision cannot return the result of a different SMILES.
+   */
+  public static final class Key {
+
+    private static final long INCHI_INPUT = 1;
+    private static final long SMILES = 2;
+
+    private final long hi;
+    private final long lo;
+    //null for InchiInput keys
+    private final String smiles;
+
+    Key(long hi, long lo, String smiles) {
+      this.hi = hi;
+      this.lo = lo;
+      this.smiles = smiles;
+    }
+
+    public static Key of(InchiInput inchiInput, InchiOptions options) {
+      Murmur3 hash = start(INCHI_INPUT, options);
+      boolean coordinates = !options.getFlags().contains(InchiFlag.SNon) || options.getOutputFields().contains(InchiOutputField.AUX_INFO);
+
+      List<InchiAtom> atoms = inchiInput.getAtoms();
+      List<InchiBond> bonds = inchiInput.getBonds();
+      List<InchiStereo> stereos = inchiInput.getStereos();
+      hash.add(((long) atoms.size() << 40) ^ ((long) bonds.size() << 20) ^ stereos.size());
+      for (int i = 0, len = atoms.size(); i < len; i++) {
+        InchiAtom atom = atoms.get(i);
+        String elName = atom.getElName();
+        long packed = elName.length();
+        for (int j = 0; j < elName.length(); j++) {
+          if (j % 3 == 2) {
+            hash.add(packed);
+            packed = 0;
+          }
+          packed = (packed << 16) | elName.charAt(j);
+        }
+        hash.add(packed);
+        if (coordinates) {
+          //adding 0.0 normalizes -0.0
+          hash.add(Double.doubleToLongBits(atom.getX() + 0.0));
+          hash.add(Double.doubleToLongBits(atom.getY() + 0.0));
+          hash.add(Double.doubleToLongBits(atom.getZ() + 0.0));
+        }
+        hash.add(((long) atom.getImplicitHydrogen() << 32) ^ (atom.getImplicitProtium() & 0xffffffffL));
+        hash.add(((long) atom.getImplicitDeuterium() << 32) ^ (atom.getImplicitTritium() & 0xffffffffL));
+        hash.add(((long) atom.getIsotopicMass() << 32) ^ (atom.getCharge() & 0xffffffffL));
+        hash.add(atom.getRadical().ordinal());
+      }
+      for (int i = 0, len = bonds.size(); i < len; i++) {
+        InchiBond bond = bonds.get(i);
+        hash.add(((long) inchiInput.indexOf(bond.getStart()) << 32) ^ (inchiInput.indexOf(bond.getEnd()) & 0xffffffffL));
+        hash.add((bond.getType().ordinal() << 8) | bond.getStereo().ordinal());
+      }
+      for (int i = 0, len = stereos.size(); i < len; i++) {
+        InchiStereo stereo = stereos.get(i);
+        InchiAtom[] stereoAtoms = stereo.getAtoms();
+        hash.add(((long) stereoIndex(inchiInput, stereoAtoms[0]) << 32) ^ (stereoIndex(inchiInput, stereoAtoms[1]) & 0xffffffffL));
+        hash.add(((long) stereoIndex(inchiInput, stereoAtoms[2]) << 32) ^ (stereoIndex(inchiInput, stereoAtoms[3]) & 0xffffffffL));
+        hash.add(((long) stereoIndex(inchiInput, stereo.getCentralAtom()) << 32) ^ (stereo.getType().ordinal() << 8) ^ stereo.getParity().ordinal());
+      }
+      return hash.finish(null);
+    }
+
+    /**
+     * A key for the exact SMILES string, so that a cached result can be found without parsing the SMILES
+     * @param smiles
+     * @param options
+     * @return
+     */
+    public static Key ofSmiles(String smiles, InchiOptions options) {
+      Murmur3 hash = start(SMILES, options);
+      int length = smiles.length();
+      hash.add(length);
+      for (int i = 0; i < length; i += 4) {
+        long packed = 0;
+        for (int j = i, end = Math.min(i + 4, length); j < end; j++) {
+          packed = (packed << 16) | smiles.charAt(j);
+        }
+        hash.add(packed);
+      }
+      return hash.finish(smiles);
+    }
+
+    private static Murmur3 start(long kind, InchiOptions options) {
+      Murmur3 hash = new Murmur3();
+      hash.add(kind);
+      List<InchiFlag> flags = options.getFlags();
+      long flagBits = 0;
+      if (!flags.isEmpty()) {
+        for (InchiFlag flag : EnumSet.copyOf(flags)) {
+          if (flag.ordinal() < 64) {
+            flagBits |= 1L << flag.ordinal();
+          }
+          else {
+            //not expected, InchiFlag has fewer than 64 constants
+            hash.add(flag.ordinal());
+          }
+        }
+      }
+      hash.add(flagBits);
+      hash.add(options.getTimeoutMilliSeconds());
+      long outputFieldBits = 0;
+      for (InchiOutputField field : options.getOutputFields()) {
+        outputFieldBits |= 1L << field.ordinal();
+      }
+      hash.add(outputFieldBits);
+      return hash;
+    }
+
+    /**
+     * -1 for an implicit hydrogen (null), -2 for an atom that is not part of the input
+     */
+    private static int stereoIndex(InchiInput inchiInput, InchiAtom atom) {
+      if (atom == null) {
+        return -1;
+      }
+      int idx = inchiInput.indexOf(atom);
+      return idx >= 0 ? idx : -2;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return hi == other.hi && lo == other.lo && (smiles == null ? other.smiles == null : smiles.equals(other.smiles));
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) lo;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%016x%016x", hi, lo);
+    }
+  }
+
+  /**
+   * MurmurHash3 x64 128-bit, fed 64 bits at a time
+   */
+  private static final class Murmur3 {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private long h1 = 0;
+    private long h2 = 0;
+    private long pending;
+    private boolean hasPending = false;
+    private long length = 0;
+
+    private void add(long value) {
+      length += 8;
+      if (!hasPending) {
+        pending = value;
+        hasPending = true;
+        return;
+      }
+      hasPending = false;
+      h1 ^= mixK1(pending);
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+      h2 ^= mixK2(value);
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    /**
+     * @param smiles the SMILES held by the key, or null
+     * @return
+     */
+    private Key finish(String smiles) {
+      if (hasPending) {
+        h1 ^= mixK1(pending);
+      }
+      h1 ^= length;
+      h2 ^= length;
+      h1 += h2;
+      h2 += h1;
+      h1 = fmix(h1);
+      h2 = fmix(h2);
+      h1 += h2;
+      h2 += h1;
+      return new Key(h1, h2, smiles);
+    }
+
+    private static long mixK1(long k1) {
+      k1 *= C1;
+      k1 = Long.rotateLeft(k1, 31);
+      return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+      k2 *= C2;
+      k2 = Long.rotateLeft(k2, 33);
+      return k2 * C1;
+    }
+
+    private static long fmix(long k) {
+      k ^= k >>> 33;
+      k *= 0xff51afd7ed558ccdL;
+      k ^= k >>> 33;
+      k *= 0xc4ceb93fe53a87cdL;
+      k ^= k >>> 33;
+      return k;
+    }
+  }
+
+}
@@ -0,0 +1,200 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the column files written by {@link InchiResultWriter}.
+ * The files are memory-mapped, so any record can be read in constant time without reading the preceding records.
+ * A reader may be used by multiple threads.
+ */
+public class InchiResultReader implements Closeable {
+
+  //a multiple of every fixed column width (8 x 27 is also divisible by 2 and 12)
+  private static final long SEGMENT_SIZE = (1L << 30) - (1L << 30) % (InchiResultWriter.INDEX_WIDTH * InchiResultWriter.INCHIKEY_WIDTH);
+
+  private static final InchiStatus[] INCHI_STATUSES = InchiStatus.values();
+
+  private final long rows;
+  private final MappedFile keys;
+  private final MappedFile statuses;
+  private final MappedFile inchis;
+  private final MappedFile heap;
+
+  public InchiResultReader(Path directory) throws IOException {
+    MappedFile indexes = new MappedFile(directory.resolve(InchiResultWriter.INDEX_FILE));
+    this.keys = new MappedFile(directory.resolve(InchiResultWriter.INCHIKEY_FILE));
+    this.statuses = new MappedFile(directory.resolve(InchiResultWriter.STATUS_FILE));
+    this.inchis = new MappedFile(directory.resolve(InchiResultWriter.INCHI_FILE));
+    this.heap = new MappedFile(directory.resolve(InchiResultWriter.INCHI_HEAP_FILE));
+    this.rows = indexes.size / InchiResultWriter.INDEX_WIDTH;
+    if (indexes.size % InchiResultWriter.INDEX_WIDTH != 0
+        || keys.size != rows * InchiResultWriter.INCHIKEY_WIDTH
+        || statuses.size != rows * InchiResultWriter.STATUS_WIDTH
+        || inchis.size != rows * InchiResultWriter.INCHI_WIDTH) {
+      throw new IOException("Column files in " + directory + " have inconsistent lengths, the writer may not have been closed");
+    }
+  }
+
+  /**
+   * A read-only file mapped in segments, so files larger than 2GB are supported.
+   * Fixed-width values never span two segments
+   */
+  private static class MappedFile {
+    private final long size;
+    private final ByteBuffer[] segments;
+
+    private MappedFile(Path path) throws IOException {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        this.size = channel.size();
+        this.segments = new ByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+        for (int i = 0; i < segments.length; i++) {
+          long start = i * SEGMENT_SIZE;
+          segments[i] = channel.map(MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+      }
+    }
+
+    private ByteBuffer segment(long offset) {
+      return segments[(int) (offset / SEGMENT_SIZE)];
+    }
+
+    private byte get(long offset) {
+      return segment(offset).get((int) (offset % SEGMENT_SIZE));
+    }
+
+    private int getInt(long offset) {
+      return segment(offset).getInt((int) (offset % SEGMENT_SIZE));
+    }
+
+    private long getLong(long offset) {
+      return segment(offset).getLong((int) (offset % SEGMENT_SIZE));
+    }
+
+    private void get(long offset, byte[] dst) {
+      int copied = 0;
+      while (copied < dst.length) {
+        //absolute bulk get is Java 13+, so copy from a duplicate
+        ByteBuffer segment = segment(offset + copied).duplicate();
+        segment.position((int) ((offset + copied) % SEGMENT_SIZE));
+        int length = Math.min(dst.length - copied, segment.remaining());
+        segment.get(dst, copied, length);
+        copied += length;
+      }
+    }
+  }
+
+  /**
+   * The number of rows, one more than the largest record index written
+   * @return
+   */
+  public long getRowCount() {
+    return rows;
+  }
+
+  /**
+   * True if a result was written for the record index
+   * @param index
+   * @return
+   */
+  public boolean contains(long index) {
+    checkIndex(index);
+    long offset = index * InchiResultWriter.STATUS_WIDTH;
+    return statuses.get(offset) != 0 || statuses.get(offset + 1) != 0;
+  }
+
+  /**
+   * @param index
+   * @return the status of the InChI, or null if the row has no InChI status
+   */
+  public InchiStatus getStatus(long index) {
+    checkIndex(index);
+    int code = statuses.get(index * InchiResultWriter.STATUS_WIDTH);
+    return code > 0 ? INCHI_STATUSES[code - 1] : null;
+  }
+
+  /**
+   * @param index
+   * @return the status of the InChIKey, or null if the row has no InChIKey status
+   */
+  public InchiKeyStatus getInchiKeyStatus(long index) {
+    checkIndex(index);
+    int code = statuses.get(index * InchiResultWriter.STATUS_WIDTH + 1);
+    return code != 0 ? InchiKeyStatus.of(code - 1) : null;
+  }
+
+  /**
+   * @param index
+   * @return the InChIKey, or null if the row has none
+   */
+  public String getInchiKey(long index) {
+    checkIndex(index);
+    long offset = index * InchiResultWriter.INCHIKEY_WIDTH;
+    if (keys.get(offset) == 0) {
+      return null;
+    }
+    byte[] key = new byte[InchiResultWriter.INCHIKEY_WIDTH];
+    keys.get(offset, key);
+    return new String(key, StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * @param index
+   * @return the InChI, or null if the row has none
+   */
+  public String getInchi(long index) {
+    checkIndex(index);
+    long offset = index * InchiResultWriter.INCHI_WIDTH;
+    long heapOffset = inchis.getLong(offset);
+    int length = inchis.getInt(offset + 8);
+    if (length < 0 || !contains(index)) {
+      return null;
+    }
+    byte[] inchi = new byte[length];
+    heap.get(heapOffset, inchi);
+    return new String(inchi, StandardCharsets.US_ASCII);
+  }
+
+  private void checkIndex(long index) {
+    if (index < 0 || index >= rows) {
+      throw new IndexOutOfBoundsException("Record index " + index + " is outside 0-" + (rows - 1));
+    }
+  }
+
+  /**
+   * Releases the mappings, which are unmapped when garbage collected
+   */
+  @Override
+  public void close() {
+    for (MappedFile file : new MappedFile[] {keys, statuses, inchis, heap}) {
+      for (int i = 0; i < file.segments.length; i++) {
+        file.segments[i] = null;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,361 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Writes conversion results to a directory of binary column files, which can be read with {@link InchiResultReader}
+ * or by other tools, avoiding the cost of writing and reparsing text.
+ * All numbers are little-endian. Each row is stored at the position of its record index,
+ * so results may be written in any order. The columns are:
+ * <ul>
+ * <li>index.col: the record index as a long</li>
+ * <li>inchikey.col: the 27 character InChIKey in ASCII, zero filled if there is no InChIKey</li>
+ * <li>status.col: two bytes, {@link InchiStatus} ordinal + 1 and {@link InchiKeyStatus} code + 1. Zero if not known.
+ * A row whose status bytes are both zero was not written</li>
+ * <li>inchi.col: the offset (long) and length (int) of the InChI in inchi.heap, the InChI's ASCII bytes. The length is -1 if there is no InChI</li>
+ * </ul>
+ * Files are written through memory-mapped regions and truncated to their final length on {@link #close()}.
+ * Regions are unmapped explicitly when no longer needed, as a file with a mapped region cannot be truncated on Windows.
+ * A writer must only be used by one thread at a time.
+ * <pre>
+ * try (InchiResultWriter writer = new InchiResultWriter(Paths.get("results"));
+ *     Stream&lt;InchiBatchResult&gt; results = pipeline.results()) {
+ *   for (InchiBatchResult result : (Iterable&lt;InchiBatchResult&gt;) results::iterator) {
+ *     writer.write(result);
+ *   }
+ * }
+ * </pre>
+ */
+public class InchiResultWriter implements Closeable {
+
+  static final String INDEX_FILE = "index.col";
+  static final String INCHIKEY_FILE = "inchikey.col";
+  static final String STATUS_FILE = "status.col";
+  static final String INCHI_FILE = "inchi.col";
+  static final String INCHI_HEAP_FILE = "inchi.heap";
+
+  static final int INDEX_WIDTH = 8;
+  static final int INCHIKEY_WIDTH = 27;
+  static final int STATUS_WIDTH = 2;
+  static final int INCHI_WIDTH = 12;
+
+  private static final int DEFAULT_REGION_SIZE = 64 * 1024 * 1024;
+
+  private static final Consumer<ByteBuffer> UNMAPPER = createUnmapper();
+
+  private final Column indexColumn;
+  private final Column inchiKeyColumn;
+  private final Column statusColumn;
+  private final Column inchiColumn;
+  private final FileChannel heap;
+  private final int regionSize;
+
+  private MappedByteBuffer heapRegion;
+  private long heapRegionStart;
+  private long heapEnd = 0;
+
+  private long rows = 0;
+  private boolean closed = false;
+
+  /**
+   * Creates the directory if necessary, existing column files are overwritten
+   * @param directory
+   * @throws IOException
+   */
+  public InchiResultWriter(Path directory) throws IOException {
+    this(directory, DEFAULT_REGION_SIZE);
+  }
+
+  InchiResultWriter(Path directory, int regionSize) throws IOException {
+    if (regionSize < INCHIKEY_WIDTH) {
+      throw new IllegalArgumentException("Region size is too small: " + regionSize);
+    }
+    this.regionSize = regionSize;
+    Files.createDirectories(directory);
+    Column[] columns = new Column[4];
+    FileChannel heapChannel = null;
+    try {
+      columns[0] = new Column(directory.resolve(INDEX_FILE), INDEX_WIDTH, regionSize);
+      columns[1] = new Column(directory.resolve(INCHIKEY_FILE), INCHIKEY_WIDTH, regionSize);
+      columns[2] = new Column(directory.resolve(STATUS_FILE), STATUS_WIDTH, regionSize);
+      columns[3] = new Column(directory.resolve(INCHI_FILE), INCHI_WIDTH, regionSize);
+      heapChannel = open(directory.resolve(INCHI_HEAP_FILE));
+    }
+    catch (IOException e) {
+      for (Column column : columns) {
+        if (column != null) {
+          column.channel.close();
+        }
+      }
+      throw e;
+    }
+    this.indexColumn = columns[0];
+    this.inchiKeyColumn = columns[1];
+    this.statusColumn = columns[2];
+    this.inchiColumn = columns[3];
+    this.heap = heapChannel;
+  }
+
+  /**
+   * A fixed-width column, mapped one region of rows at a time
+   */
+  private static class Column {
+    private final FileChannel channel;
+    private final int width;
+    private final long regionRows;
+    private MappedByteBuffer region;
+    private long regionStartRow = -1;
+
+    private Column(Path path, int width, int regionSize) throws IOException {
+      this.channel = open(path);
+      this.width = width;
+      this.regionRows = regionSize / width;
+    }
+
+    /**
+     * @param row
+     * @return the mapped region, positioned at the row
+     * @throws IOException
+     */
+    private MappedByteBuffer at(long row) throws IOException {
+      if (region == null || row < regionStartRow || row >= regionStartRow + regionRows) {
+        unmap(region);
+        region = null;
+        regionStartRow = row - row % regionRows;
+        region = channel.map(MapMode.READ_WRITE, regionStartRow * width, regionRows * width);
+        region.order(ByteOrder.LITTLE_ENDIAN);
+      }
+      region.position((int) ((row - regionStartRow) * width));
+      return region;
+    }
+
+    private void close(long rows) throws IOException {
+      unmap(region);
+      region = null;
+      try {
+        channel.truncate(rows * width);
+      }
+      finally {
+        channel.close();
+      }
+    }
+  }
+
+  private static FileChannel open(Path path) throws IOException {
+    return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+  }
+
+  /**
+   * Finds the JDK internal method that unmaps a mapped buffer: Unsafe.invokeCleaner on Java 9+, or the buffer's Cleaner on Java 8
+   * @return the unmapper, or null if it is not available on this JVM
+   */
+  private static Consumer<ByteBuffer> createUnmapper() {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      Object unsafe = theUnsafe.get(null);
+      return buffer -> invoke(invokeCleaner, unsafe, buffer);
+    }
+    catch (ReflectiveOperationException | RuntimeException e) {
+      //not Java 9+
+    }
+    try {
+      Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+      Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+      cleaner.setAccessible(true);
+      clean.setAccessible(true);
+      return buffer -> invoke(clean, invoke(cleaner, buffer));
+    }
+    catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  private static Object invoke(Method method, Object target, Object... args) {
+    try {
+      return method.invoke(target, args);
+    }
+    catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+    catch (InvocationTargetException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Unmaps the region rather than waiting for it to be garbage collected. The region must not be used afterwards
+   * @param region
+   */
+  private static void unmap(MappedByteBuffer region) {
+    if (region != null && UNMAPPER != null) {
+      UNMAPPER.accept(region);
+    }
+  }
+
+  /**
+   * Writes the result of a batch conversion. If the conversion threw an exception the row has an {@link InchiStatus#ERROR} status
+   * @param result
+   * @throws IOException
+   */
+  public void write(InchiBatchResult result) throws IOException {
+    if (result.isSuccess()) {
+      write(result.getIndex(), result.getOutput());
+    }
+    else {
+      write(result.getIndex(), null, InchiStatus.ERROR, null);
+    }
+  }
+
+  /**
+   * Writes the output of a conversion, the InChIKey is generated from the InChI by {@link InchiKeyGenerator}
+   * @param index
+   * @param output
+   * @throws IOException
+   */
+  public void write(long index, InchiOutput output) throws IOException {
+    String inchi = output.getInchi();
+    InchiKeyOutput key = inchi != null && !inchi.isEmpty() ? InchiKeyGenerator.inchiToInchiKey(inchi) : null;
+    write(index, inchi, output.getStatus(), key);
+  }
+
+  public void write(long index, InchiOutput output, InchiKeyOutput key) throws IOException {
+    write(index, output.getInchi(), output.getStatus(), key);
+  }
+
+  /**
+   * Writes just an InChIKey e.g. from {@link JnaInchi#toInchiKey(InchiInput)}, the row has no InChI or InChI status
+   * @param index
+   * @param key
+   * @throws IOException
+   */
+  public void write(long index, InchiKeyOutput key) throws IOException {
+    write(index, null, null, key);
+  }
+
+  private void write(long index, String inchi, InchiStatus status, InchiKeyOutput key) throws IOException {
+    if (closed) {
+      throw new IllegalStateException("Writer has been closed");
+    }
+    if (index < 0) {
+      throw new IllegalArgumentException("Record index must not be negative: " + index);
+    }
+    indexColumn.at(index).putLong(index);
+
+    MappedByteBuffer keys = inchiKeyColumn.at(index);
+    String inchiKey = key != null ? key.getInchiKey() : null;
+    if (inchiKey != null && inchiKey.length() == INCHIKEY_WIDTH) {
+      for (int i = 0; i < INCHIKEY_WIDTH; i++) {
+        keys.put((byte) inchiKey.charAt(i));
+      }
+    }
+    else {
+      for (int i = 0; i < INCHIKEY_WIDTH; i++) {
+        keys.put((byte) 0);
+      }
+    }
+
+    MappedByteBuffer statuses = statusColumn.at(index);
+    statuses.put((byte) (status != null ? status.ordinal() + 1 : 0));
+    statuses.put((byte) (key != null && key.getStatus() != null ? key.getStatus().getCode() + 1 : 0));
+
+    long offset = heapEnd;
+    int length = -1;
+    if (inchi != null) {
+      byte[] bytes = inchi.getBytes(StandardCharsets.US_ASCII);
+      length = bytes.length;
+      appendToHeap(bytes);
+    }
+    inchiColumn.at(index).putLong(offset).putInt(length);
+
+    rows = Math.max(rows, index + 1);
+  }
+
+  private void appendToHeap(byte[] bytes) throws IOException {
+    if (heapRegion == null || heapEnd + bytes.length > heapRegionStart + heapRegion.capacity()) {
+      unmap(heapRegion);
+      heapRegion = null;
+      heapRegionStart = heapEnd;
+      heapRegion = heap.map(MapMode.READ_WRITE, heapRegionStart, Math.max(regionSize, bytes.length));
+    }
+    heapRegion.position((int) (heapEnd - heapRegionStart));
+    heapRegion.put(bytes);
+    heapEnd += bytes.length;
+  }
+
+  /**
+   * The number of rows, one more than the largest record index written
+   * @return
+   */
+  public long getRowCount() {
+    return rows;
+  }
+
+  /**
+   * Truncates the files to the size of the data written and closes them
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    unmap(heapRegion);
+    heapRegion = null;
+    IOException failure = null;
+    for (Column column : new Column[] {indexColumn, inchiKeyColumn, statusColumn, inchiColumn}) {
+      try {
+        column.close(rows);
+      }
+      catch (IOException e) {
+        failure = e;
+      }
+    }
+    try {
+      heap.truncate(heapEnd);
+    }
+    catch (IOException e) {
+      failure = e;
+    }
+    finally {
+      heap.close();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+}
@@ -0,0 +1,128 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent conversions of the same input: while a conversion is in flight, other callers with the same key
+ * wait for it and share its output, rather than repeating the native computation. Use it through {@link CoalescingInchiEngine}.
+ * <p>
+ * Only conversions that overlap in time are coalesced, nothing is retained once a conversion completes (see {@link InchiResultCache} for that).
+ * If the conversion throws, every caller waiting on it receives the same exception, and the key is released either way,
+ * so a failed conversion is retried by the next caller. Interrupting a waiting caller does not abandon the conversion:
+ * it continues to wait, and its interrupt status is restored when it returns.
+ */
+public class InchiSingleFlight {
+
+  private final ConcurrentHashMap<InchiResultCache.Key, CompletableFuture<InchiOutput>> inFlight = new ConcurrentHashMap<>();
+
+  private final LongAdder executed = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+
+  /**
+   * Runs the conversion, unless a conversion with the same key is already running, in which case its output is returned
+   * @param key identifies the input and options, e.g. {@link InchiResultCache.Key#of(InchiInput, InchiOptions)}
+   * @param conversion
+   * @return
+   */
+  public InchiOutput execute(InchiResultCache.Key key, Supplier<InchiOutput> conversion) {
+    CompletableFuture<InchiOutput> future = new CompletableFuture<>();
+    CompletableFuture<InchiOutput> existing = inFlight.putIfAbsent(key, future);
+    if (existing != null) {
+      coalesced.increment();
+      return await(existing);
+    }
+    executed.increment();
+    try {
+      InchiOutput output = conversion.get();
+      future.complete(output);
+      return output;
+    }
+    catch (RuntimeException | Error e) {
+      future.completeExceptionally(e);
+      throw e;
+    }
+    finally {
+      inFlight.remove(key, future);
+    }
+  }
+
+  /**
+   * The number of calls that waited for another caller's conversion rather than converting
+   * @return
+   */
+  public long getCoalescedCount() {
+    return coalesced.sum();
+  }
+
+  /**
+   * The number of calls that performed the conversion
+   * @return
+   */
+  public long getExecutedCount() {
+    return executed.sum();
+  }
+
+  /**
+   * The number of conversions currently running
+   * @return
+   */
+  public int getInFlightCount() {
+    return inFlight.size();
+  }
+
+  @Override
+  public String toString() {
+    return "executed=" + getExecutedCount() + " coalesced=" + getCoalescedCount() + " inFlight=" + getInFlightCount();
+  }
+
+  private static InchiOutput await(CompletableFuture<InchiOutput> future) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return future.get();
+        }
+        catch (InterruptedException e) {
+          interrupted = true;
+        }
+        catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw new IllegalStateException(cause);
+        }
+      }
+    }
+    finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,242 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import static com.github.dan2097.jnainchi.ClassicInchiConverter.LAYOUT;
+import static com.github.dan2097.jnainchi.ClassicInchiConverter.POINTER_SIZE;
+import static com.github.dan2097.jnainchi.ClassicInchiLayout.ATOM_BOND_STEREO;
+import static com.github.dan2097.jnainchi.ClassicInchiLayout.ATOM_BOND_TYPE;
+import static com.github.dan2097.jnainchi.ClassicInchiLayout.ATOM_CHARGE;
+import static com.github.dan2097.jnainchi.ClassicInchiLayout.ATOM_ELNAME;
+import static com.github.dan2097.jnainchi.ClassicInchiLayout.ATOM_ISOTOPIC_MASS;
+import static com.github.dan2097.jnainchi.ClassicInchiLayout.ATOM_NEIGHBOR;
+import static com.github.dan2097.jnainchi.ClassicInchiLayout.ATOM_NUM_BONDS;
+import static com.github.dan2097.jnainchi.ClassicInchiLayout.ATOM_NUM_ISO_H;
+import static com.github.dan2097.jnainchi.ClassicInchiLayout.ATOM_RADICAL;
+import static com.github.dan2097.jnainchi.ClassicInchiLayout.ATOM_SIZE;
+import static com.github.dan2097.jnainchi.ClassicInchiLayout.ATOM_X;
+import static com.github.dan2097.jnainchi.ClassicInchiLayout.ATOM_Y;
+import static com.github.dan2097.jnainchi.ClassicInchiLayout.ATOM_Z;
+import static com.github.dan2097.jnainchi.ClassicInchiLayout.STEREO_CENTRAL_ATOM;
+import static com.github.dan2097.jnainchi.ClassicInchiLayout.STEREO_NEIGHBOR;
+import static com.github.dan2097.jnainchi.ClassicInchiLayout.STEREO_PARITY;
+import static com.github.dan2097.jnainchi.ClassicInchiLayout.STEREO_SIZE;
+import static com.github.dan2097.jnainchi.ClassicInchiLayout.STEREO_TYPE;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import com.github.dan2097.jnainchi.inchi.InchiLibrary;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+/**
+ * Converts InChI to a structure using GetStructFromINCHI, giving the same output as {@link JnaInchi#getInchiInputFromInchi(String, InchiOptions)}.
+ * <p>
+ * The inchi_InputINCHI and inchi_OutputStruct are held in native memory that is reused between InChIs,
+ * and the atoms and 0D stereo returned by InChI are each read with a single bulk copy rather than a JNA Structure per atom.
+ * A decoder must only be used by one thread at a time.
+ */
+public class InchiStructDecoder {
+
+  //inchi_OutputStruct is two pointers, two shorts, two char pointers then unsigned long WarningFlags[2][2]
+  private static final int OUTPUT_STEREO = POINTER_SIZE;
+  private static final int OUTPUT_NUM_ATOMS = 2 * POINTER_SIZE;
+  private static final int OUTPUT_NUM_STEREO = OUTPUT_NUM_ATOMS + 2;
+  private static final int OUTPUT_MESSAGE = ((OUTPUT_NUM_STEREO + 2 + POINTER_SIZE - 1) / POINTER_SIZE) * POINTER_SIZE;
+  private static final int OUTPUT_LOG = OUTPUT_MESSAGE + POINTER_SIZE;
+  private static final int OUTPUT_WARNING_FLAGS = OUTPUT_LOG + POINTER_SIZE;
+  private static final int OUTPUT_SIZE = OUTPUT_WARNING_FLAGS + 4 * Native.LONG_SIZE;
+
+  //inchi_InputINCHI is two char pointers, the strings are written after it
+  private static final int INPUT_SIZE = 2 * POINTER_SIZE;
+
+  private Memory input;
+  private ByteBuffer inputBuffer;
+
+  private final Memory output = new Memory(OUTPUT_SIZE);
+
+  private InchiOptions lastOptions;
+  private byte[] optionBytes;
+
+  private byte[] inchiBytes = new byte[256];
+
+  public InchiInputFromInchiOutput getInchiInputFromInchi(String inchi) {
+    return getInchiInputFromInchi(inchi, InchiOptions.DEFAULT_OPTIONS);
+  }
+
+  public InchiInputFromInchiOutput getInchiInputFromInchi(String inchi, InchiOptions options) {
+    if (options != lastOptions) {
+      byte[] ascii = options.toString().getBytes(StandardCharsets.US_ASCII);
+      optionBytes = new byte[ascii.length + 1];
+      System.arraycopy(ascii, 0, optionBytes, 0, ascii.length);
+      lastOptions = options;
+    }
+    writeInput(inchi);
+    output.clear();
+    InchiStatus status = JnaInchi.getInchiStatus(InchiLibrary.GetStructFromINCHI(input, output));
+    try {
+      InchiInput inchiInput = new InchiInput();
+      int numAtoms = output.getShort(OUTPUT_NUM_ATOMS);
+      if (numAtoms > 0) {
+        ByteBuffer atoms = output.getPointer(0).getByteBuffer(0, (long) numAtoms * ATOM_SIZE).order(ByteOrder.nativeOrder());
+        readAtoms(inchiInput, atoms, numAtoms);
+        readBonds(inchiInput, atoms, numAtoms);
+      }
+      int numStereo = output.getShort(OUTPUT_NUM_STEREO);
+      if (numStereo > 0) {
+        ByteBuffer stereos = output.getPointer(OUTPUT_STEREO).getByteBuffer(0, (long) numStereo * STEREO_SIZE).order(ByteOrder.nativeOrder());
+        readStereos(inchiInput, stereos, numStereo);
+      }
+      String message = getString(OUTPUT_MESSAGE);
+      String log = getString(OUTPUT_LOG);
+      long[][] warningFlags = new long[2][2];
+      for (int i = 0; i < 4; i++) {
+        long offset = OUTPUT_WARNING_FLAGS + (long) i * Native.LONG_SIZE;
+        warningFlags[i / 2][i % 2] = Native.LONG_SIZE == 8 ? output.getLong(offset) : output.getInt(offset);
+      }
+      return new InchiInputFromInchiOutput(inchiInput, message, log, status, warningFlags);
+    }
+    finally {
+      InchiLibrary.FreeStructFromINCHI(output);
+    }
+  }
+
+  /**
+   * Writes the inchi_InputINCHI followed by the null terminated InChI and options strings, growing the native block if needed
+   * @param inchi
+   */
+  private void writeInput(String inchi) {
+    byte[] bytes = toAscii(inchi);
+    if (bytes == null) {
+      //not ASCII, encoded as JNA would encode a String
+      bytes = Native.toByteArray(inchi);
+    }
+    //as with a String passed through JNA, the InChI ends at the first null
+    int inchiLength = 0;
+    while (bytes[inchiLength] != 0) {
+      inchiLength++;
+    }
+    int size = INPUT_SIZE + inchiLength + 1 + optionBytes.length;
+    if (input == null || input.size() < size) {
+      long newSize = input != null ? Math.max(size, input.size() * 2) : Math.max(size, 4096);
+      input = new Memory(newSize);
+      inputBuffer = input.getByteBuffer(0, newSize).order(ByteOrder.nativeOrder());
+    }
+    long address = Pointer.nativeValue(input);
+    LAYOUT.putPointer(inputBuffer, 0, address + INPUT_SIZE);
+    LAYOUT.putPointer(inputBuffer, POINTER_SIZE, address + INPUT_SIZE + inchiLength + 1);
+    inputBuffer.position(INPUT_SIZE);
+    inputBuffer.put(bytes, 0, inchiLength);
+    inputBuffer.put((byte) 0);
+    inputBuffer.put(optionBytes);
+  }
+
+  /**
+   * The InChI as null terminated ASCII, in a reused array, or null if it contains other characters
+   * @param inchi
+   * @return
+   */
+  private byte[] toAscii(String inchi) {
+    int length = inchi.length();
+    if (inchiBytes.length < length + 1) {
+      inchiBytes = new byte[Math.max(length + 1, inchiBytes.length * 2)];
+    }
+    for (int i = 0; i < length; i++) {
+      char ch = inchi.charAt(i);
+      if (ch >= 128) {
+        return null;
+      }
+      inchiBytes[i] = (byte) ch;
+    }
+    inchiBytes[length] = 0;
+    return inchiBytes;
+  }
+
+  private String getString(long offset) {
+    Pointer p = output.getPointer(offset);
+    return p != null ? p.getString(0) : null;
+  }
+
+  private static void readAtoms(InchiInput inchiInput, ByteBuffer atoms, int numAtoms) {
+    byte[] elName = new byte[6];
+    for (int i = 0; i < numAtoms; i++) {
+      int offset = i * ATOM_SIZE;
+      atoms.position(offset + ATOM_ELNAME);
+      atoms.get(elName);
+      InchiAtom atom = new InchiAtom(JnaInchi.toString(elName));
+      atom.setX(atoms.getDouble(offset + ATOM_X));
+      atom.setY(atoms.getDouble(offset + ATOM_Y));
+      atom.setZ(atoms.getDouble(offset + ATOM_Z));
+      atom.setImplicitHydrogen(atoms.get(offset + ATOM_NUM_ISO_H));
+      atom.setImplicitProtium(atoms.get(offset + ATOM_NUM_ISO_H + 1));
+      atom.setImplicitDeuterium(atoms.get(offset + ATOM_NUM_ISO_H + 2));
+      atom.setImplicitTritium(atoms.get(offset + ATOM_NUM_ISO_H + 3));
+      atom.setIsotopicMass(atoms.getShort(offset + ATOM_ISOTOPIC_MASS));
+      atom.setRadical(InchiRadical.of(atoms.get(offset + ATOM_RADICAL)));
+      atom.setCharge(atoms.get(offset + ATOM_CHARGE));
+      inchiInput.addAtom(atom);
+    }
+  }
+
+  /**
+   * Each bond appears in the neighbor list of both its atoms, it is added when first encountered
+   * @param inchiInput
+   * @param atoms
+   * @param numAtoms
+   */
+  private static void readBonds(InchiInput inchiInput, ByteBuffer atoms, int numAtoms) {
+    for (int i = 0; i < numAtoms; i++) {
+      int offset = i * ATOM_SIZE;
+      int numBonds = atoms.getShort(offset + ATOM_NUM_BONDS);
+      if (numBonds > 0) {
+        InchiAtom atom = inchiInput.getAtom(i);
+        for (int j = 0; j < numBonds; j++) {
+          int neighborIdx = atoms.getShort(offset + ATOM_NEIGHBOR + j * 2);
+          if (neighborIdx < i) {
+            //Only add each bond once
+            continue;
+          }
+          InchiBondType bondType = InchiBondType.of(atoms.get(offset + ATOM_BOND_TYPE + j));
+          InchiBondStereo bondStereo = InchiBondStereo.of(atoms.get(offset + ATOM_BOND_STEREO + j));
+          inchiInput.addBond(new InchiBond(atom, inchiInput.getAtom(neighborIdx), bondType, bondStereo));
+        }
+      }
+    }
+  }
+
+  private static void readStereos(InchiInput inchiInput, ByteBuffer stereos, int numStereo) {
+    for (int i = 0; i < numStereo; i++) {
+      int offset = i * STEREO_SIZE;
+      InchiAtom[] atoms = new InchiAtom[4];
+      //-1 is an implicit hydrogen
+      for (int j = 0; j < 4; j++) {
+        int idx = stereos.getShort(offset + STEREO_NEIGHBOR + j * 2);
+        atoms[j] = idx >= 0 ? inchiInput.getAtom(idx) : null;
+      }
+      int centralIdx = stereos.getShort(offset + STEREO_CENTRAL_ATOM);
+      InchiAtom centralAtom = centralIdx >= 0 ? inchiInput.getAtom(centralIdx) : null;
+      InchiStereoType stereoType = InchiStereoType.of(stereos.get(offset + STEREO_TYPE));
+      InchiStereoParity parity = InchiStereoParity.of(stereos.get(offset + STEREO_PARITY));
+      inchiInput.addStereo(new InchiStereo(atoms, centralAtom, stereoType, parity));
+    }
+  }
+
+}
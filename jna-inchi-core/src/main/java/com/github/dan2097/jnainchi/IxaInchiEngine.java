@@ -0,0 +1,129 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.Function;
+
+import com.github.dan2097.jnainchi.inchi.InchiLibrary;
+import com.sun.jna.Pointer;
+
+/**
+ * The default engine, structures are converted using the IXA API via an {@link InchiConverter}.
+ * If the calling thread has a converter bound by {@link InchiConverter#threadLocal()} it is reused,
+ * otherwise a converter is created for each call.
+ */
+public class IxaInchiEngine implements InchiEngine {
+
+  public static final String NAME = "ixa";
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public InchiOutput toInchi(InchiInput inchiInput, InchiOptions options) {
+    return withConverter(converter -> converter.toInchi(inchiInput, options));
+  }
+
+  @Override
+  public InchiOutput molToInchi(String molText, InchiOptions options) {
+    return withConverter(converter -> converter.molToInchi(molText, options));
+  }
+
+  @Override
+  public InchiOutput molToInchi(ByteBuffer molText, InchiOptions options) {
+    return withConverter(converter -> converter.molToInchi(molText, options));
+  }
+
+  @Override
+  public InchiOutput inchiToInchi(ByteBuffer inchi, InchiOptions options) {
+    return withConverter(converter -> converter.inchiToInchi(inchi, options));
+  }
+
+  @Override
+  public InchiOutput inchiToInchi(String inchi, InchiOptions options) {
+    return withConverter(converter -> converter.inchiToInchi(inchi, options));
+  }
+
+  @Override
+  public List<InchiOutput> toInchiVariants(InchiInput inchiInput, List<InchiOptions> variants) {
+    return withConverter(converter -> converter.toInchiVariants(inchiInput, variants));
+  }
+
+  @Override
+  public List<InchiOutput> molToInchiVariants(String molText, List<InchiOptions> variants) {
+    return withConverter(converter -> converter.molToInchiVariants(molText, variants));
+  }
+
+  @Override
+  public InchiKeyOutput toInchiKey(InchiInput inchiInput, InchiOptions options) {
+    return withConverter(converter -> converter.toInchiKey(inchiInput, options));
+  }
+
+  @Override
+  public InchiKeyOutput molToInchiKey(String molText, InchiOptions options) {
+    return withConverter(converter -> converter.molToInchiKey(molText, options));
+  }
+
+  @Override
+  public InchiKeyOutput inchiToInchiKey(String inchi) {
+    InchiConverter threadConverter = InchiConverter.currentThreadLocal();
+    if (threadConverter != null) {
+      return threadConverter.inchiToInchiKey(inchi);
+    }
+    byte[] inchiKey = new byte[28];
+    byte[] szXtra1 = new byte[65];
+    byte[] szXtra2 = new byte[65];
+    InchiKeyStatus ret = InchiKeyStatus.of(InchiLibrary.GetINCHIKeyFromINCHI(inchi, 1, 1, inchiKey, szXtra1, szXtra2));
+    return new InchiKeyOutput(JnaInchi.toString(inchiKey), ret);
+  }
+
+  @Override
+  public InchiKeyOutput inchiToInchiKey(ByteBuffer inchi) {
+    InchiConverter threadConverter = InchiConverter.currentThreadLocal();
+    if (threadConverter != null) {
+      return threadConverter.inchiToInchiKey(inchi);
+    }
+    byte[] inchiKey = new byte[28];
+    byte[] szXtra1 = new byte[65];
+    byte[] szXtra2 = new byte[65];
+    Pointer pointer = InchiConverter.getNullTerminatedPointer(inchi);
+    int ret = pointer != null ? InchiLibrary.GetINCHIKeyFromINCHI(pointer, 1, 1, inchiKey, szXtra1, szXtra2) :
+      InchiLibrary.GetINCHIKeyFromINCHI(InchiConverter.toNullTerminatedBytes(inchi), 1, 1, inchiKey, szXtra1, szXtra2);
+    return new InchiKeyOutput(JnaInchi.toString(inchiKey), InchiKeyStatus.of(ret));
+  }
+
+  /**
+   * Applies the function to the converter bound to this thread, or to a new converter that is closed afterwards
+   * @param function
+   * @return
+   */
+  private static <T> T withConverter(Function<InchiConverter, T> function) {
+    InchiConverter threadConverter = InchiConverter.currentThreadLocal();
+    if (threadConverter != null) {
+      return function.apply(threadConverter);
+    }
+    try (InchiConverter converter = new InchiConverter()) {
+      return function.apply(converter);
+    }
+  }
+
+}
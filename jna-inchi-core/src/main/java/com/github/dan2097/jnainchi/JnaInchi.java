@@ -17,358 +17,220 @@
  */
 package com.github.dan2097.jnainchi;
 
-import java.io.UnsupportedEncodingException;
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
-import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import com.github.dan2097.jnainchi.inchi.InchiLibrary;
 import com.github.dan2097.jnainchi.inchi.tagINCHIStereo0D;
 import com.github.dan2097.jnainchi.inchi.tagINCHI_Input;
-import com.github.dan2097.jnainchi.inchi.tagINCHI_InputINCHI;
-import com.github.dan2097.jnainchi.inchi.tagINCHI_OutputStruct;
 import com.github.dan2097.jnainchi.inchi.tagInchiAtom;
 import com.github.dan2097.jnainchi.inchi.tagInchiInpData;
-import com.github.dan2097.jnainchi.inchi.InchiLibrary.IXA_BOND_WEDGE;
-import com.github.dan2097.jnainchi.inchi.InchiLibrary.IXA_DBLBOND_CONFIG;
-import com.github.dan2097.jnainchi.inchi.InchiLibrary.IXA_INCHIBUILDER_OPTION;
-import com.github.dan2097.jnainchi.inchi.InchiLibrary.IXA_INCHIBUILDER_STEREOOPTION;
 import com.github.dan2097.jnainchi.inchi.InchiLibrary.tagRetValGetINCHI;
-import com.github.dan2097.jnainchi.inchi.IxaFunctions;
-import com.github.dan2097.jnainchi.inchi.IxaFunctions.IXA_ATOMID;
-import com.github.dan2097.jnainchi.inchi.IxaFunctions.IXA_BONDID;
-import com.github.dan2097.jnainchi.inchi.IxaFunctions.IXA_INCHIBUILDER_HANDLE;
-import com.github.dan2097.jnainchi.inchi.IxaFunctions.IXA_MOL_HANDLE;
-import com.github.dan2097.jnainchi.inchi.IxaFunctions.IXA_STATUS_HANDLE;
-import com.github.dan2097.jnainchi.inchi.IxaFunctions.IXA_STEREOID;
-import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
 
+/**
+ * Static entry points for calling InChI. Conversions are delegated to {@link InchiEngines#getDefaultEngine()}
+ */
 public class JnaInchi {
-    
+
+  private static final ThreadLocal<InchiStructDecoder> STRUCT_DECODER = ThreadLocal.withInitial(InchiStructDecoder::new);
+
   public static InchiOutput toInchi(InchiInput inchiInput) {
     return toInchi(inchiInput, InchiOptions.DEFAULT_OPTIONS);
   }
   
   public static InchiOutput toInchi(InchiInput inchiInput, InchiOptions options) {
-    List<InchiAtom> atoms = inchiInput.getAtoms();
-    int atomCount = atoms.size();
-    if (atomCount > Short.MAX_VALUE) {
-      throw new IllegalStateException("InChI is limited to 32767 atoms, input contained " + atomCount + " atoms");
-    }
-    List<InchiBond> bonds = inchiInput.getBonds();
-    List<InchiStereo> stereos = inchiInput.getStereos();
-    if (stereos.size() > Short.MAX_VALUE) {
-      throw new IllegalStateException("Too many stereochemistry elements in input");
-    }
-
-    IXA_STATUS_HANDLE logger = IxaFunctions.IXA_STATUS_Create();
-    IXA_MOL_HANDLE nativeMol = IxaFunctions.IXA_MOL_Create(logger);
-    IxaFunctions.IXA_MOL_ReserveSpace(logger, nativeMol, atomCount, bonds.size(), stereos.size());
-    try {
-      Map<InchiAtom, IXA_ATOMID> atomToNativeAtom = addAtoms(nativeMol, logger, atoms);
-      addBonds(nativeMol, logger, bonds, atomToNativeAtom);
-      addStereos(nativeMol, logger, stereos, atomToNativeAtom);
-      return buildInchi(logger, nativeMol, options);
-    }
-    finally {
-      IxaFunctions.IXA_MOL_Destroy(logger, nativeMol);
-      IxaFunctions.IXA_STATUS_Destroy(logger);
-    }
+    return InchiEngines.getDefaultEngine().toInchi(inchiInput, options);
   }
 
-  private static Map<InchiAtom, IXA_ATOMID> addAtoms(IXA_MOL_HANDLE mol, IXA_STATUS_HANDLE logger, List<InchiAtom> atoms) {
-    Map<InchiAtom, IXA_ATOMID> atomToNativeAtom = new HashMap<>();
-    for (InchiAtom atom : atoms) {
-      //For performance only call IxaFunctions when values differ from the defaults
-      IXA_ATOMID nativeAtom = IxaFunctions.IXA_MOL_CreateAtom(logger, mol);
-      atomToNativeAtom.put(atom, nativeAtom);
-      
-      if (atom.getX() != 0) {
-        IxaFunctions.IXA_MOL_SetAtomX(logger, mol, nativeAtom, atom.getX());
-      }
-      if (atom.getY() != 0) {
-        IxaFunctions.IXA_MOL_SetAtomY(logger, mol, nativeAtom, atom.getY());
-      }
-      if (atom.getZ() != 0) {
-        IxaFunctions.IXA_MOL_SetAtomZ(logger, mol, nativeAtom, atom.getZ());
-      }
-      String elName = atom.getElName();
-      if (!elName.equals("C")) {
-        if (elName.length() > 5) {
-          throw new IllegalArgumentException("Element name was too long: " + elName);
-        }
-        IxaFunctions.IXA_MOL_SetAtomElement(logger, mol, nativeAtom, elName);
-      }
-      if (atom.getIsotopicMass() != 0) {
-        IxaFunctions.IXA_MOL_SetAtomMass(logger, mol, nativeAtom, atom.getIsotopicMass());
-      }
-      if (atom.getCharge() != 0) {
-        IxaFunctions.IXA_MOL_SetAtomCharge(logger, mol, nativeAtom, atom.getCharge());
-      }
-      if (atom.getRadical() != InchiRadical.NONE) {
-        IxaFunctions.IXA_MOL_SetAtomRadical(logger, mol, nativeAtom, atom.getRadical().getCode());
-      }
-      if (atom.getImplicitHydrogen() != 0) {
-        IxaFunctions.IXA_MOL_SetAtomHydrogens(logger, mol, nativeAtom, 0, atom.getImplicitHydrogen());
-      }
-      if (atom.getImplicitProtium() != 0) {
-         IxaFunctions.IXA_MOL_SetAtomHydrogens(logger, mol, nativeAtom, 1, atom.getImplicitProtium());
-      }
-      if (atom.getImplicitDeuterium() != 0) {
-         IxaFunctions.IXA_MOL_SetAtomHydrogens(logger, mol, nativeAtom, 2, atom.getImplicitDeuterium());
-      }
-      if (atom.getImplicitTritium() != 0) {
-          IxaFunctions.IXA_MOL_SetAtomHydrogens(logger, mol, nativeAtom, 3, atom.getImplicitTritium());
-      }
-    }
-    return atomToNativeAtom;
+  public static InchiOutput molToInchi(String molText) {
+    return molToInchi(molText, InchiOptions.DEFAULT_OPTIONS);
   }
   
-  private static void addBonds(IXA_MOL_HANDLE mol, IXA_STATUS_HANDLE logger, List<InchiBond> bonds, Map<InchiAtom, IXA_ATOMID> atomToNativeAtom) {
-    for (InchiBond bond : bonds) {
-      IXA_ATOMID nativeAtom1 = atomToNativeAtom.get(bond.getStart());
-      IXA_ATOMID nativeAtom2 = atomToNativeAtom.get(bond.getEnd());
-      if (nativeAtom1 == null || nativeAtom2 == null) {
-        throw new IllegalStateException("Bond referenced an atom that was not part of the InchiInput");
-      }
-      IXA_BONDID nativeBond = IxaFunctions.IXA_MOL_CreateBond(logger, mol, nativeAtom1, nativeAtom2);
-      InchiBondType bondType = bond.getType();
-      if (bondType != InchiBondType.SINGLE) {
-        IxaFunctions.IXA_MOL_SetBondType(logger, mol, nativeBond, bondType.getCode());
-      }
-      switch (bond.getStereo()) {
-      case DOUBLE_EITHER:
-        //Default is to perceive configuration from 2D coordinates
-        IxaFunctions.IXA_MOL_SetDblBondConfig(logger, mol, nativeBond, IXA_DBLBOND_CONFIG.IXA_DBLBOND_CONFIG_EITHER);
-        break;
-      case SINGLE_1DOWN:
-        IxaFunctions.IXA_MOL_SetBondWedge(logger, mol, nativeBond, nativeAtom1, IXA_BOND_WEDGE.IXA_BOND_WEDGE_DOWN);
-        break;
-      case SINGLE_1EITHER:
-        IxaFunctions.IXA_MOL_SetBondWedge(logger, mol, nativeBond, nativeAtom1, IXA_BOND_WEDGE.IXA_BOND_WEDGE_EITHER);
-        break;
-      case SINGLE_1UP:
-        IxaFunctions.IXA_MOL_SetBondWedge(logger, mol, nativeBond, nativeAtom1, IXA_BOND_WEDGE.IXA_BOND_WEDGE_UP);
-        break;
-      case SINGLE_2DOWN:
-        IxaFunctions.IXA_MOL_SetBondWedge(logger, mol, nativeBond, nativeAtom2, IXA_BOND_WEDGE.IXA_BOND_WEDGE_DOWN);
-        break;
-      case SINGLE_2EITHER:
-        IxaFunctions.IXA_MOL_SetBondWedge(logger, mol, nativeBond, nativeAtom2, IXA_BOND_WEDGE.IXA_BOND_WEDGE_EITHER);
-        break;
-      case SINGLE_2UP:
-        IxaFunctions.IXA_MOL_SetBondWedge(logger, mol, nativeBond, nativeAtom2, IXA_BOND_WEDGE.IXA_BOND_WEDGE_UP);
-        break;
-      case NONE:
-        break;
-      }  
-    }
+  public static InchiOutput molToInchi(String molText, InchiOptions options) {
+    return InchiEngines.getDefaultEngine().molToInchi(molText, options);
   }
-  private static void addStereos(IXA_MOL_HANDLE nativeMol, IXA_STATUS_HANDLE logger, List<InchiStereo> stereos, Map<InchiAtom, IXA_ATOMID> atomToNativeAtom) {
-    for (InchiStereo stereo : stereos) {
-      switch (stereo.getType()) {
-      case Tetrahedral:
-      {
-        IXA_ATOMID centralAtom = atomToNativeAtom.get(stereo.getCentralAtom());
-        InchiAtom[] atomsInCenter = stereo.getAtoms();
-        InchiAtom atomsInCenter1 = atomsInCenter[0];
-        InchiAtom atomsInCenter2 = atomsInCenter[1];
-        InchiAtom atomsInCenter3 = atomsInCenter[2];
-        InchiAtom atomsInCenter4 = atomsInCenter[3];
-        
-        IXA_ATOMID vertex1 = atomsInCenter1 != null ? atomToNativeAtom.get(atomsInCenter1) : null;
-        IXA_ATOMID vertex2 = atomsInCenter2 != null ? atomToNativeAtom.get(atomsInCenter2) : null;
-        IXA_ATOMID vertex3 = atomsInCenter3 != null ? atomToNativeAtom.get(atomsInCenter3) : null;
-        IXA_ATOMID vertex4 = atomsInCenter4 != null ? atomToNativeAtom.get(atomsInCenter4) : null;
-  
-        IXA_STEREOID center = IxaFunctions.IXA_MOL_CreateStereoTetrahedron(logger, nativeMol, centralAtom, vertex1, vertex2, vertex3, vertex4);
-        byte parity = stereo.getParity().getCode();
-        IxaFunctions.IXA_MOL_SetStereoParity(logger, nativeMol, center, parity);
-        break;
-      }
-      case Allene:
-      {
-        IXA_ATOMID centralAtom = atomToNativeAtom.get(stereo.getCentralAtom());
-        InchiAtom[] atomsInCenter = stereo.getAtoms();
-        InchiAtom atomsInCenter1 = atomsInCenter[0];
-        InchiAtom atomsInCenter2 = atomsInCenter[1];
-        InchiAtom atomsInCenter3 = atomsInCenter[2];
-        InchiAtom atomsInCenter4 = atomsInCenter[3];
-        
-        IXA_ATOMID vertex1 = atomToNativeAtom.get(atomsInCenter1);
-        IXA_ATOMID vertex2 = atomToNativeAtom.get(atomsInCenter2);
-        IXA_ATOMID vertex3 = atomToNativeAtom.get(atomsInCenter3);
-        IXA_ATOMID vertex4 = atomToNativeAtom.get(atomsInCenter4);
-        IXA_STEREOID center = IxaFunctions.IXA_MOL_CreateStereoAntiRectangle(logger, nativeMol, centralAtom, vertex1, vertex2, vertex3, vertex4);
-        byte parity = stereo.getParity().getCode();
-        IxaFunctions.IXA_MOL_SetStereoParity(logger, nativeMol, center, parity);
-        break;
-      }
-      case DoubleBond:
-      {
-        InchiAtom[] atomsInCenter = stereo.getAtoms();
-        InchiAtom atomsInCenter1 = atomsInCenter[0];
-        InchiAtom atomsInCenter2 = atomsInCenter[1];
-        InchiAtom atomsInCenter3 = atomsInCenter[2];
-        InchiAtom atomsInCenter4 = atomsInCenter[3];
   
-        IXA_ATOMID vertex1 = atomToNativeAtom.get(atomsInCenter1);
-        IXA_ATOMID vertex2 = atomToNativeAtom.get(atomsInCenter2);
-        IXA_ATOMID vertex3 = atomToNativeAtom.get(atomsInCenter3);
-        IXA_ATOMID vertex4 = atomToNativeAtom.get(atomsInCenter4);
-        IXA_BONDID centralBond = IxaFunctions.IXA_MOL_GetCommonBond(logger, nativeMol, vertex2, vertex3);
-        IXA_STEREOID center = IxaFunctions.IXA_MOL_CreateStereoRectangle(logger, nativeMol, centralBond, vertex1, vertex2, vertex3, vertex4);
-        byte parity = stereo.getParity().getCode();
-        IxaFunctions.IXA_MOL_SetStereoParity(logger, nativeMol, center, parity);
-        break;
-      }
-      default:
-        break;
-      }
-    }
+  /**
+   * Converts a molfile held as ASCII bytes, without creating a String
+   * @param molText
+   * @param offset
+   * @param length
+   * @param options
+   * @return
+   */
+  public static InchiOutput molToInchi(byte[] molText, int offset, int length, InchiOptions options) {
+    return molToInchi(ByteBuffer.wrap(molText, offset, length), options);
   }
 
-  private static InchiOutput buildInchi(IXA_STATUS_HANDLE logger, IXA_MOL_HANDLE nativeMol, InchiOptions options) {
-    IXA_INCHIBUILDER_HANDLE builder = IxaFunctions.IXA_INCHIBUILDER_Create(logger);
-    try {
-      IxaFunctions.IXA_INCHIBUILDER_SetMolecule(logger, builder, nativeMol);
-      
-      long timeoutMilliSecs = options.getTimeoutMilliSeconds();
-      if (timeoutMilliSecs != 0) {
-        IxaFunctions.IXA_INCHIBUILDER_SetOption_Timeout_MilliSeconds(logger, builder, timeoutMilliSecs);
-      }
-      for (InchiFlag flag : options.getFlags()) {
-        switch (flag) {
-        case AuxNone:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_AuxNone, true);
-          break;
-        case ChiralFlagOFF:
-          IxaFunctions.IXA_MOL_SetChiral(logger, nativeMol, false);
-          break;
-        case ChiralFlagON:
-          IxaFunctions.IXA_MOL_SetChiral(logger, nativeMol, true);
-          break;
-        case DoNotAddH:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_DoNotAddH, true);
-          break;
-        case FixedH:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_FixedH, true);
-          break;
-        case KET:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_KET, true);
-          break;
-        case LargeMolecules:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_LargeMolecules, true);
-          break;
-        case NEWPSOFF:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_NewPsOff, true);
-          break;
-        case OneFiveT:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_15T, true);
-          break;
-        case RecMet:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_RecMet, true);
-          break;
-        case SLUUD:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_SLUUD, true);
-          break;
-        case SNon:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption_Stereo(logger, builder, IXA_INCHIBUILDER_STEREOOPTION.IXA_INCHIBUILDER_STEREOOPTION_SNon);
-          break;
-        case SRac:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption_Stereo(logger, builder, IXA_INCHIBUILDER_STEREOOPTION.IXA_INCHIBUILDER_STEREOOPTION_SRac);
-          break;
-        case SRel:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption_Stereo(logger, builder, IXA_INCHIBUILDER_STEREOOPTION.IXA_INCHIBUILDER_STEREOOPTION_SRel);
-          break;
-        case SUCF:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption_Stereo(logger, builder, IXA_INCHIBUILDER_STEREOOPTION.IXA_INCHIBUILDER_STEREOOPTION_SUCF);
-          break;
-        case SUU:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_SUU, true);
-          break;
-        case SaveOpt:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_SaveOpt, true);
-          break;
-        case WarnOnEmptyStructure:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_WarnOnEmptyStructure, true);
-          break;
-        case NoWarnings:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_NoWarnings, true);
-          break;
-        case LooseTSACheck:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_LooseTSACheck, true);
-          break;
-        case Polymers:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_Polymers, true);
-          break;
-        case Polymers105:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_Polymers105, true);
-          break;
-        case FoldCRU:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_FoldCRU, true);
-          break;
-        case NoFrameShift:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_NoFrameShift, true);
-          break;
-        case NoEdits:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_NoEdits, true);
-          break;
-        case NPZz:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_NPZZ, true);
-          break;
-        case SAtZz:
-          IxaFunctions.IXA_INCHIBUILDER_SetOption(logger, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_SATZZ, true);
-          break;
-        default:
-          throw new IllegalStateException("Unexpected InChI option flag: " + flag);
-        }
-      }
+  /**
+   * Converts the molfile held in the remaining bytes of the buffer (ASCII).
+   * A direct buffer whose last remaining byte is a null terminator is passed to native code without being copied.
+   * The position of the buffer is not changed.
+   * @param molText
+   * @param options
+   * @return
+   */
+  public static InchiOutput molToInchi(ByteBuffer molText, InchiOptions options) {
+    return InchiEngines.getDefaultEngine().molToInchi(molText, options);
+  }
 
-      String inchi = IxaFunctions.IXA_INCHIBUILDER_GetInChI(logger, builder);
-      String auxInfo = IxaFunctions.IXA_INCHIBUILDER_GetAuxInfo(logger, builder);
-      String log = IxaFunctions.IXA_INCHIBUILDER_GetLog(logger, builder);
-      
-      InchiStatus status = InchiStatus.SUCCESS;
-      if (IxaFunctions.IXA_STATUS_HasError(logger)) {
-        status = InchiStatus.ERROR;
-      }
-      else if (IxaFunctions.IXA_STATUS_HasWarning(logger)) {
-        status = InchiStatus.WARNING;
-      }
-      
-      StringBuilder sb = new StringBuilder();
-      int messageCount = IxaFunctions.IXA_STATUS_GetCount(logger);
-      for (int i = 0; i < messageCount; i++) {
-        if (i > 0) {
-          sb.append("; ");
-        }
-        sb.append(IxaFunctions.IXA_STATUS_GetMessage(logger, i));
-      }
-      return new InchiOutput(inchi, auxInfo, sb.toString(), log, status);
-    }
-    finally {
-      IxaFunctions.IXA_INCHIBUILDER_Destroy(logger, builder); 
+  /**
+   * Converts a molfile, which is memory-mapped rather than read into a String
+   * @param molFile
+   * @param options
+   * @return
+   * @throws IOException
+   */
+  public static InchiOutput molToInchi(Path molFile, InchiOptions options) throws IOException {
+    try (FileChannel channel = FileChannel.open(molFile, StandardOpenOption.READ)) {
+      return molToInchi(channel.map(MapMode.READ_ONLY, 0, channel.size()), options);
     }
   }
 
-  public static InchiOutput molToInchi(String molText) {
-    return molToInchi(molText, InchiOptions.DEFAULT_OPTIONS);
+  public static InchiKeyOutput toInchiKey(InchiInput inchiInput) {
+    return toInchiKey(inchiInput, InchiOptions.DEFAULT_OPTIONS);
   }
-  
-  public static InchiOutput molToInchi(String molText, InchiOptions options) {
-    IXA_STATUS_HANDLE logger = IxaFunctions.IXA_STATUS_Create();
-    IXA_MOL_HANDLE nativeMol = IxaFunctions.IXA_MOL_Create(logger);
-    try {
-      IxaFunctions.IXA_MOL_ReadMolfile(logger, nativeMol, molText);
-      return buildInchi(logger, nativeMol, options);
-    }
-    finally {
-      IxaFunctions.IXA_MOL_Destroy(logger, nativeMol);
-      IxaFunctions.IXA_STATUS_Destroy(logger);
-    }
+
+  /**
+   * Generates just the InChIKey of the structure, avoiding generating AuxInfo and copying the InChI into Java.
+   * If no InChI could be generated the status is {@link InchiKeyStatus#EMPTY_INPUT}, use {@link #toInchi(InchiInput, InchiOptions)}
+   * to retrieve the reason.
+   * @param inchiInput
+   * @param options
+   * @return
+   */
+  public static InchiKeyOutput toInchiKey(InchiInput inchiInput, InchiOptions options) {
+    return InchiEngines.getDefaultEngine().toInchiKey(inchiInput, options);
   }
-  
+
+  public static InchiKeyOutput molToInchiKey(String molText) {
+    return molToInchiKey(molText, InchiOptions.DEFAULT_OPTIONS);
+  }
+
+  /**
+   * Generates just the InChIKey of the molfile, see {@link #toInchiKey(InchiInput, InchiOptions)}
+   * @param molText
+   * @param options
+   * @return
+   */
+  public static InchiKeyOutput molToInchiKey(String molText, InchiOptions options) {
+    return InchiEngines.getDefaultEngine().molToInchiKey(molText, options);
+  }
+
+  /**
+   * Generates an InChI for each of the given options, e.g. standard, FixedH and SNon variants of the same structure.
+   * The native molecule is created once and reused for each variant.
+   * @param inchiInput
+   * @param variants
+   * @return one output per options, in the same order
+   */
+  public static List<InchiOutput> toInchiVariants(InchiInput inchiInput, List<InchiOptions> variants) {
+    return InchiEngines.getDefaultEngine().toInchiVariants(inchiInput, variants);
+  }
+
+  /**
+   * Generates an InChI for each of the given options, the molfile is only parsed once
+   * @param molText
+   * @param variants
+   * @return one output per options, in the same order
+   */
+  public static List<InchiOutput> molToInchiVariants(String molText, List<InchiOptions> variants) {
+    return InchiEngines.getDefaultEngine().molToInchiVariants(molText, variants);
+  }
+
+  /**
+   * Converts the inputs using the given number of worker threads, each reusing its own native InChI session.
+   * Results are in the same order as the inputs. An exception thrown whilst converting one input is reported
+   * in its result rather than aborting the batch.
+   * @param inchiInputs
+   * @param options
+   * @param parallelism the number of worker threads e.g. Runtime.getRuntime().availableProcessors()
+   * @return
+   */
+  public static List<InchiBatchResult> toInchiAll(List<InchiInput> inchiInputs, InchiOptions options, int parallelism) {
+    return InchiBatch.convertAll(inchiInputs, input -> toInchi(input, options), parallelism);
+  }
+
+  /**
+   * As {@link #toInchiAll(List, InchiOptions, int)}, but the inputs are consumed lazily with only a bounded number of
+   * conversions in flight. The returned stream should be closed if it is not fully consumed.
+   * @param inchiInputs
+   * @param options
+   * @param parallelism the number of worker threads
+   * @return
+   */
+  public static Stream<InchiBatchResult> toInchiAll(Stream<InchiInput> inchiInputs, InchiOptions options, int parallelism) {
+    return InchiBatch.convertAll(inchiInputs, input -> toInchi(input, options), parallelism);
+  }
+
+  /**
+   * As {@link #toInchiAll(List, InchiOptions, int)}, but identical structures are only converted once.
+   * Inputs are compared by their atoms, bonds and stereo, as encoded by {@link InchiInputCodec#encode(InchiInput)},
+   * so separately built copies of a structure are recognised as duplicates.
+   * @param inchiInputs
+   * @param options
+   * @param parallelism the number of worker threads
+   * @return the results, in input order, and deduplication statistics
+   */
+  public static InchiBatchReport toInchiAllDeduplicated(List<InchiInput> inchiInputs, InchiOptions options, int parallelism) {
+    return InchiBatch.convertAllDeduplicated(inchiInputs, input -> ByteBuffer.wrap(InchiInputCodec.encode(input)), input -> toInchi(input, options), parallelism);
+  }
+
+  /**
+   * Batch form of {@link #molToInchi(String, InchiOptions)}, see {@link #toInchiAll(List, InchiOptions, int)}
+   * @param molTexts
+   * @param options
+   * @param parallelism the number of worker threads
+   * @return
+   */
+  public static List<InchiBatchResult> molToInchiAll(List<String> molTexts, InchiOptions options, int parallelism) {
+    return InchiBatch.convertAll(molTexts, molText -> molToInchi(molText, options), parallelism);
+  }
+
+  /**
+   * Streaming form of {@link #molToInchi(String, InchiOptions)}, see {@link #toInchiAll(Stream, InchiOptions, int)}
+   * @param molTexts
+   * @param options
+   * @param parallelism the number of worker threads
+   * @return
+   */
+  public static Stream<InchiBatchResult> molToInchiAll(Stream<String> molTexts, InchiOptions options, int parallelism) {
+    return InchiBatch.convertAll(molTexts, molText -> molToInchi(molText, options), parallelism);
+  }
+
+  /**
+   * As {@link #molToInchiAll(List, InchiOptions, int)}, but molfiles with exactly the same text are only converted once
+   * @param molTexts
+   * @param options
+   * @param parallelism the number of worker threads
+   * @return the results, in input order, and deduplication statistics
+   */
+  public static InchiBatchReport molToInchiAllDeduplicated(List<String> molTexts, InchiOptions options, int parallelism) {
+    return InchiBatch.convertAllDeduplicated(molTexts, Function.identity(), molText -> molToInchi(molText, options), parallelism);
+  }
+
+  /**
+   * Converts each record of an SD file, in order. The file is memory-mapped and each record passed to the native molfile reader
+   * without being decoded into a String, see {@link SdfReader}.
+   * Conversion happens on the consuming thread, using IXA regardless of the default engine.
+   * The returned stream must be closed to release the file and native handles.
+   * @param sdf
+   * @param options
+   * @return
+   * @throws IOException if the file cannot be opened, errors whilst reading are thrown as {@link java.io.UncheckedIOException}
+   */
+  public static Stream<InchiOutput> sdfToInchi(Path sdf, InchiOptions options) throws IOException {
+    return SdfReader.molToInchi(sdf, options);
+  }
+
   /**
    * Converts InChI into InChI for validation purposes.
    * It may also be used to filter out specific layers.
@@ -379,29 +241,46 @@ public class JnaInchi {
    * @return
    */
   public static InchiOutput inchiToInchi(String inchi, InchiOptions options) {
-    IXA_STATUS_HANDLE logger = IxaFunctions.IXA_STATUS_Create();
-    IXA_MOL_HANDLE nativeMol = IxaFunctions.IXA_MOL_Create(logger);
-    try {
-      IxaFunctions.IXA_MOL_ReadInChI(logger, nativeMol, inchi);
-      return buildInchi(logger, nativeMol, options);
-    }
-    finally {
-      IxaFunctions.IXA_MOL_Destroy(logger, nativeMol);
-      IxaFunctions.IXA_STATUS_Destroy(logger);
-    }
+    return InchiEngines.getDefaultEngine().inchiToInchi(inchi, options);
+  }
+
+  /**
+   * Converts an InChI held as ASCII bytes, see {@link #inchiToInchi(String, InchiOptions)}
+   * @param inchi
+   * @param offset
+   * @param length
+   * @param options
+   * @return
+   */
+  public static InchiOutput inchiToInchi(byte[] inchi, int offset, int length, InchiOptions options) {
+    return inchiToInchi(ByteBuffer.wrap(inchi, offset, length), options);
+  }
+
+  /**
+   * Converts the InChI held in the remaining bytes of the buffer, see {@link #molToInchi(ByteBuffer, InchiOptions)}
+   * @param inchi
+   * @param options
+   * @return
+   */
+  public static InchiOutput inchiToInchi(ByteBuffer inchi, InchiOptions options) {
+    return InchiEngines.getDefaultEngine().inchiToInchi(inchi, options);
   }
 
   public static InchiKeyOutput inchiToInchiKey(String inchi){
-    byte[] inchiKey = new byte[28];
-    byte[] szXtra1 = new byte[65];
-    byte[] szXtra2 = new byte[65];
-    InchiKeyStatus ret = InchiKeyStatus.of(InchiLibrary.GetINCHIKeyFromINCHI(inchi, 1, 1, inchiKey, szXtra1, szXtra2));
-    try {
-      return new InchiKeyOutput(new String(inchiKey, "UTF-8"), ret);
-    } catch (UnsupportedEncodingException e) {
-      // broken VM
-      throw new RuntimeException(e);
-    }
+    return InchiEngines.getDefaultEngine().inchiToInchiKey(inchi);
+  }
+
+  public static InchiKeyOutput inchiToInchiKey(byte[] inchi, int offset, int length) {
+    return inchiToInchiKey(ByteBuffer.wrap(inchi, offset, length));
+  }
+
+  /**
+   * Generates the InChIKey of the InChI held in the remaining bytes of the buffer, see {@link #molToInchi(ByteBuffer, InchiOptions)}
+   * @param inchi
+   * @return
+   */
+  public static InchiKeyOutput inchiToInchiKey(ByteBuffer inchi) {
+    return InchiEngines.getDefaultEngine().inchiToInchiKey(inchi);
   }
   
   /**
@@ -415,6 +294,25 @@ public class JnaInchi {
   public static InchiCheckStatus checkInchi(String inchi, boolean strict) {
     return InchiCheckStatus.of(InchiLibrary.CheckINCHI(inchi, strict));
   }
+
+  public static InchiCheckStatus checkInchi(byte[] inchi, int offset, int length, boolean strict) {
+    return checkInchi(ByteBuffer.wrap(inchi, offset, length), strict);
+  }
+
+  /**
+   * Checks the InChI held in the remaining bytes of the buffer, see {@link #checkInchi(String, boolean)}.
+   * A direct buffer whose last remaining byte is a null terminator is passed to native code without being copied.
+   * @param inchi
+   * @param strict
+   * @return
+   */
+  public static InchiCheckStatus checkInchi(ByteBuffer inchi, boolean strict) {
+    Pointer pointer = InchiConverter.getNullTerminatedPointer(inchi);
+    if (pointer != null) {
+      return InchiCheckStatus.of(InchiLibrary.CheckINCHI(pointer, strict));
+    }
+    return InchiCheckStatus.of(InchiLibrary.CheckINCHI(InchiConverter.toNullTerminatedBytes(inchi), strict));
+  }
   
   /**
    * Check if the string represents valid InChIKey
@@ -473,53 +371,39 @@ public class JnaInchi {
     return getInchiInputFromInchi(inchi, InchiOptions.DEFAULT_OPTIONS);
   }
   
+  /**
+   * Converts an InChI to a structure. Each thread reuses its own {@link InchiStructDecoder}
+   * @param inchi
+   * @param options
+   * @return
+   */
   public static InchiInputFromInchiOutput getInchiInputFromInchi(String inchi, InchiOptions options) {
-    tagINCHI_InputINCHI input = new tagINCHI_InputINCHI(inchi, options.toString());
-    tagINCHI_OutputStruct output = new tagINCHI_OutputStruct();
-    try {
-      InchiStatus status = getInchiStatus(InchiLibrary.GetStructFromINCHI(input, output));
-      InchiInput inchiInput = new InchiInput();
-      
-      if (output.num_atoms > 0) {
-        tagInchiAtom[] nativeAtoms = new tagInchiAtom[output.num_atoms];
-        output.atom.toArray(nativeAtoms);
-        nativeToJavaAtoms(inchiInput, nativeAtoms);
-        nativeToJavaBonds(inchiInput, nativeAtoms);
-      }
-      if (output.num_stereo0D > 0) {
-        tagINCHIStereo0D[] nativeStereos = new tagINCHIStereo0D[output.num_stereo0D];
-        output.stereo0D.toArray(nativeStereos);
-        nativeToJavaStereos(inchiInput, nativeStereos);
-      }
-      String message = output.szMessage;
-      String log = output.szLog;
-      NativeLong[] nativeFlags = output.WarningFlags;//This is a flattened multi-dimensional array, unflatten as we convert
-      long[][] warningFlags = new long[2][2];
-      for (int i = 0; i < nativeFlags.length; i++) {
-        long val = nativeFlags[i].longValue();
-        switch (i) {
-        case 0:
-          warningFlags[0][0] = val;
-          break;
-        case 1:
-          warningFlags[0][1] = val;
-          break;
-        case 2:
-          warningFlags[1][0] = val;
-          break;
-        case 3:
-          warningFlags[1][1] = val;
-          break;
-        default:
-          break;
-        }
-      }
-      return new InchiInputFromInchiOutput(inchiInput, message, log, status, warningFlags);
-    }
-    finally {
-      InchiLibrary.FreeStructFromINCHI(output);
-      input.clear();
-    }
+    return STRUCT_DECODER.get().getInchiInputFromInchi(inchi, options);
+  }
+
+  /**
+   * Batch form of {@link #getInchiInputFromInchi(String, InchiOptions)}, converting the InChIs using the given number of worker threads,
+   * each reusing its own native structures. Results are in the same order as the InChIs.
+   * An exception thrown whilst converting one InChI is reported in its result rather than aborting the batch.
+   * @param inchis
+   * @param options
+   * @param parallelism the number of worker threads e.g. Runtime.getRuntime().availableProcessors()
+   * @return
+   */
+  public static List<InchiInputBatchResult> getInchiInputFromInchiAll(List<String> inchis, InchiOptions options, int parallelism) {
+    return InchiBatch.convertAll(inchis, inchi -> getInchiInputFromInchi(inchi, options), InchiInputBatchResult::new, parallelism);
+  }
+
+  /**
+   * Streaming form of {@link #getInchiInputFromInchiAll(List, InchiOptions, int)}, the InChIs are consumed lazily
+   * with only a bounded number of conversions in flight. The returned stream should be closed if it is not fully consumed.
+   * @param inchis
+   * @param options
+   * @param parallelism the number of worker threads
+   * @return
+   */
+  public static Stream<InchiInputBatchResult> getInchiInputFromInchiAll(Stream<String> inchis, InchiOptions options, int parallelism) {
+    return InchiBatch.convertAll(inchis, inchi -> getInchiInputFromInchi(inchi, options), InchiInputBatchResult::new, parallelism);
   }
 
   private static void nativeToJavaAtoms(InchiInput inchiInput, tagInchiAtom[] nativeAtoms) {
@@ -581,7 +465,7 @@ public class JnaInchi {
     }
   }
 
-  private static InchiStatus getInchiStatus(int ret) {
+  static InchiStatus getInchiStatus(int ret) {
     switch (ret) {
     case tagRetValGetINCHI.inchi_Ret_OKAY:/* Success; no errors or warnings*/
       return InchiStatus.SUCCESS;
@@ -598,7 +482,25 @@ public class JnaInchi {
     }
   }
 
-  private static String toString(byte[] cstr) {
+  /**
+   * The remaining bytes of the buffer as an ASCII string, up to the first null terminator if present
+   * @param cstr
+   * @return
+   */
+  static String toString(ByteBuffer cstr) {
+    int limit = cstr.limit();
+    StringBuilder sb = new StringBuilder(cstr.remaining());
+    for (int i = cstr.position(); i < limit; i++) {
+      char ch = (char) cstr.get(i);
+      if (ch == '\0') {
+        break;
+      }
+      sb.append(ch);
+    }
+    return sb.toString();
+  }
+
+  static String toString(byte[] cstr) {
     StringBuilder sb = new StringBuilder(cstr.length);
     for (int i = 0; i < cstr.length; i++) {
       char ch = (char) cstr[i];
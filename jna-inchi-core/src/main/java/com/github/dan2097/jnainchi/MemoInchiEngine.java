@@ -0,0 +1,123 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Answers conversions from an {@link InchiMemoStore} where possible, otherwise calls the underlying engine,
+ * storing its result if the store is writable.
+ * Results are only taken from the store when the options do not request AuxInfo or the log, as these are not stored,
+ * see {@link InchiOptions.InchiOptionsBuilder#withOutputFields(InchiOutputField...)}. InChIKeys are always taken from the store.
+ * <p>
+ * Setting this as the default engine applies the store to all conversions, including batch conversions and SMILES:
+ * <pre>
+ * InchiEngines.setDefaultEngine(new MemoInchiEngine(InchiEngines.getDefaultEngine(), memo));
+ * </pre>
+ */
+public class MemoInchiEngine implements InchiEngine {
+
+  public static final String NAME = "memo";
+
+  private final InchiEngine engine;
+  private final InchiMemoStore store;
+
+  /**
+   * @param engine the engine that performs conversions not found in the store
+   * @param store
+   */
+  public MemoInchiEngine(InchiEngine engine, InchiMemoStore store) {
+    if (engine == null || store == null) {
+      throw new IllegalArgumentException("An engine and store are required");
+    }
+    this.engine = engine;
+    this.store = store;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public InchiOutput toInchi(InchiInput inchiInput, InchiOptions options) {
+    return getOrConvert(InchiMemoStore.Key.ofInchiInput(inchiInput, options), options, () -> engine.toInchi(inchiInput, options));
+  }
+
+  @Override
+  public InchiOutput molToInchi(String molText, InchiOptions options) {
+    return getOrConvert(InchiMemoStore.Key.ofMolfile(molText, options), options, () -> engine.molToInchi(molText, options));
+  }
+
+  @Override
+  public InchiOutput molToInchi(ByteBuffer molText, InchiOptions options) {
+    return getOrConvert(InchiMemoStore.Key.ofMolfile(molText, options), options, () -> engine.molToInchi(molText, options));
+  }
+
+  @Override
+  public InchiOutput inchiToInchi(String inchi, InchiOptions options) {
+    return getOrConvert(InchiMemoStore.Key.ofInchi(inchi, options), options, () -> engine.inchiToInchi(inchi, options));
+  }
+
+  @Override
+  public InchiOutput inchiToInchi(ByteBuffer inchi, InchiOptions options) {
+    String text = JnaInchi.toString(inchi);
+    return getOrConvert(InchiMemoStore.Key.ofInchi(text, options), options, () -> engine.inchiToInchi(text, options));
+  }
+
+  @Override
+  public InchiKeyOutput inchiToInchiKey(String inchi) {
+    return engine.inchiToInchiKey(inchi);
+  }
+
+  @Override
+  public InchiKeyOutput inchiToInchiKey(ByteBuffer inchi) {
+    return engine.inchiToInchiKey(inchi);
+  }
+
+  @Override
+  public InchiKeyOutput toInchiKey(InchiInput inchiInput, InchiOptions options) {
+    return getOrConvertInchiKey(InchiMemoStore.Key.ofInchiInput(inchiInput, options), options, () -> engine.toInchi(inchiInput, options));
+  }
+
+  @Override
+  public InchiKeyOutput molToInchiKey(String molText, InchiOptions options) {
+    return getOrConvertInchiKey(InchiMemoStore.Key.ofMolfile(molText, options), options, () -> engine.molToInchi(molText, options));
+  }
+
+  private InchiOutput getOrConvert(InchiMemoStore.Key key, InchiOptions options, InchiMemoStore.Conversion conversion) {
+    try {
+      return store.getOrConvert(key, options, conversion);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private InchiKeyOutput getOrConvertInchiKey(InchiMemoStore.Key key, InchiOptions options, InchiMemoStore.Conversion conversion) {
+    try {
+      return store.getOrConvertInchiKey(key, options, conversion);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+}
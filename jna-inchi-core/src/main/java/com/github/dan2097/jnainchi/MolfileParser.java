@@ -0,0 +1,821 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.github.dan2097.jnainchi.inchi.InchiLibrary;
+
+/**
+ * Reads V2000 and V3000 molfiles into an {@link InchiInput} in Java, without calling InChI.
+ * The interpretation follows the native molfile reader used by {@link JnaInchi#molToInchi(String, InchiOptions)}, so that
+ * converting the resulting {@link InchiInput} (with {@link InchiInputFromMolfileOutput#applyChiralFlag(InchiOptions)}) gives the same InChI:
+ * <ul>
+ * <li>atoms are given coordinates, charges, radicals and isotopic masses from the atom block, M  CHG/M  RAD replace the charges and radicals
+ * of the atom block, M  ISO replaces its mass differences</li>
+ * <li>implicit hydrogens are left to InChI unless the atom has a valence, in which case they make up that valence</li>
+ * <li>wedge bonds have their narrow end at the first atom of the bond, double bonds may be marked as either cis or trans</li>
+ * </ul>
+ * Only the first molfile is read, anything after the M  END line e.g. SD file data is ignored.
+ * <p>
+ * Query features (atom lists, R-groups, pseudo atoms and query bond types) cannot be represented as an {@link InchiInput}.
+ * An {@link IllegalArgumentException} is thrown for these and for malformed molfiles, the native reader would also reject these.
+ * The native reader could be used to give the InChI error message.
+ * <p>
+ * This class is thread-safe.
+ */
+public class MolfileParser {
+
+  //isotopes are given to InChI as a difference from the element's average mass
+  private static final int ISOTOPIC_SHIFT_FLAG = InchiLibrary.ISOTOPIC_SHIFT_FLAG;
+
+  //M  ISO masses further than this from the average mass are ignored by the native reader
+  private static final int MAX_ISO_MASS_DIFFERENCE = 19;
+
+  private static final int NO_MASS = Integer.MIN_VALUE;
+
+  private static final int V2000_ZERO_VALENCE = 15;
+  private static final int V3000_ZERO_VALENCE = -1;
+
+  private static final int MAX_ALIAS_LENGTH = 5;
+
+  //the rounded average atomic masses used by InChI, indexed as InchiInputCodec.ELEMENTS
+  private static final int[] AVERAGE_MASSES = {0,
+      1, 4, 7, 9, 11, 12, 14, 16, 19, 20, 23, 24, 27, 28, 31, 32, 35, 40,
+      39, 40, 45, 48, 51, 52, 55, 56, 59, 59, 64, 65, 70, 73, 75, 79, 80, 84,
+      85, 88, 89, 91, 93, 96, 98, 101, 103, 106, 108, 112, 115, 119, 122, 128, 127, 131,
+      133, 137, 139, 140, 141, 144, 145, 150, 152, 157, 159, 163, 165, 167, 169, 173, 175,
+      178, 181, 184, 186, 190, 192, 195, 197, 201, 204, 207, 209, 209, 210, 222,
+      223, 226, 227, 232, 231, 238, 237, 244, 243, 247, 247, 251, 252, 257, 258, 259, 260,
+      261, 270, 269, 270, 270, 278, 281, 281, 285, 278, 289, 289, 293, 297, 294};
+
+  //element symbols and their average masses, indexed by the first (upper case) letter and second (lower case) letter, or no second letter
+  private static final String[] SYMBOLS = new String[26 * 27];
+  private static final int[] SYMBOL_MASSES = new int[26 * 27];
+
+  static {
+    for (int i = 1; i < InchiInputCodec.ELEMENTS.length; i++) {
+      addSymbol(InchiInputCodec.ELEMENTS[i], AVERAGE_MASSES[i]);
+    }
+    //the native reader does not apply isotopic masses to these consistently, so isotopic D and T are not supported
+    addSymbol("D", 0);
+    addSymbol("T", 0);
+  }
+
+  private final byte[] text;
+  private final int end;
+  //start of the next line
+  private int pos;
+  private int lineStart;
+  private int lineEnd;
+  private int lineNumber;
+
+  private MolfileParser(byte[] text, int offset, int length) {
+    this.text = text;
+    int end = offset + length;
+    //optionally null terminated
+    for (int i = offset; i < end; i++) {
+      if (text[i] == 0) {
+        end = i;
+        break;
+      }
+    }
+    this.end = end;
+    this.pos = offset;
+  }
+
+  public static InchiInputFromMolfileOutput parse(String molText) {
+    byte[] bytes = molText.getBytes(StandardCharsets.ISO_8859_1);
+    return parse(bytes, 0, bytes.length);
+  }
+
+  public static InchiInputFromMolfileOutput parse(byte[] molText, int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > molText.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    return new MolfileParser(molText, offset, length).parse();
+  }
+
+  /**
+   * Reads the molfile held in the remaining bytes of the buffer (ASCII, optionally null terminated).
+   * The position of the buffer is not changed
+   * @param molText
+   * @return
+   */
+  public static InchiInputFromMolfileOutput parse(ByteBuffer molText) {
+    if (molText.hasArray()) {
+      return parse(molText.array(), molText.arrayOffset() + molText.position(), molText.remaining());
+    }
+    byte[] bytes = new byte[molText.remaining()];
+    molText.duplicate().get(bytes);
+    return parse(bytes, 0, bytes.length);
+  }
+
+  private InchiInputFromMolfileOutput parse() {
+    //name, program/timestamp and comment lines
+    for (int i = 0; i < 3; i++) {
+      nextLine("header");
+    }
+    nextLine("counts");
+    if (field(34, 5).equals("V3000")) {
+      return parseV3000();
+    }
+    return parseV2000();
+  }
+
+  private InchiInputFromMolfileOutput parseV2000() {
+    int atomCount = intField(0, 3);
+    int bondCount = intField(3, 3);
+    boolean chiral = intField(12, 3) == 1;
+
+    InchiAtom[] atoms = new InchiAtom[atomCount];
+    int[] symbols = new int[atomCount];
+    int[] massDiffs = new int[atomCount];
+    int[] blockCharges = new int[atomCount];
+    int[] valences = new int[atomCount];
+    for (int i = 0; i < atomCount; i++) {
+      nextLine("atom block");
+      symbols[i] = symbol(31, 3);
+      atoms[i] = new InchiAtom(SYMBOLS[symbols[i]], doubleField(0, 10), doubleField(10, 10), doubleField(20, 10));
+      massDiffs[i] = intField(34, 2);
+      blockCharges[i] = intField(36, 3);
+      valences[i] = intField(48, 3);
+    }
+
+    InchiInput inchiInput = new InchiInput();
+    for (InchiAtom atom : atoms) {
+      inchiInput.addAtom(atom);
+    }
+    int[] bondOrderSums = new int[atomCount];
+    for (int i = 0; i < bondCount; i++) {
+      nextLine("bond block");
+      int start = intField(0, 3) - 1;
+      int end = intField(3, 3) - 1;
+      if (start < 0 || start >= atomCount || end < 0 || end >= atomCount) {
+        throw error("Bond to non-existent atom");
+      }
+      InchiBondType type = bondType(intField(6, 3));
+      InchiBondStereo stereo = bondStereo(type, intField(9, 3), 1, 6, 4, 3);
+      addBond(inchiInput, atoms[start], atoms[end], type, stereo, bondOrderSums, start, end);
+    }
+
+    //M  CHG and M  RAD supersede all charges and radicals from the atom block, M  ISO all mass differences
+    boolean propertyCharges = false;
+    boolean propertyMasses = false;
+    int[] charges = new int[atomCount];
+    InchiRadical[] radicals = new InchiRadical[atomCount];
+    int[] masses = new int[atomCount];
+    Arrays.fill(masses, NO_MASS);
+    int[] aliases = new int[atomCount];
+    Arrays.fill(aliases, -1);
+    while (true) {
+      nextLine("properties block");
+      if (startsWith("M  END")) {
+        break;
+      }
+      if (startsWith("M  CHG") || startsWith("M  RAD")) {
+        propertyCharges = true;
+        boolean charge = startsWith("M  CHG");
+        int[] values = propertyValues(atomCount);
+        for (int j = 0; j < values.length; j += 2) {
+          if (charge) {
+            charges[values[j]] = values[j + 1];
+          }
+          else {
+            radicals[values[j]] = radical(values[j + 1]);
+          }
+        }
+      }
+      else if (startsWith("M  ISO")) {
+        propertyMasses = true;
+        int[] values = propertyValues(atomCount);
+        for (int j = 0; j < values.length; j += 2) {
+          //masses far from the average mass are ignored, rather than replacing an earlier mass for the atom
+          if (Math.abs(values[j + 1] - SYMBOL_MASSES[symbols[values[j]]]) <= MAX_ISO_MASS_DIFFERENCE) {
+            masses[values[j]] = values[j + 1];
+          }
+        }
+      }
+      else if (startsWith("A  ")) {
+        int atom = intField(3, 3) - 1;
+        nextLine("properties block");
+        //as with the native reader, short aliases replace the element
+        String alias = field(0, lineEnd - lineStart).trim();
+        if (atom >= 0 && atom < atomCount && alias.length() > 0 && alias.length() <= MAX_ALIAS_LENGTH) {
+          aliases[atom] = aliasSymbol(alias);
+        }
+      }
+      else if (startsWith("G  ")) {
+        //group abbreviation text
+        nextLine("properties block");
+      }
+      else if (startsWith("S  SKP")) {
+        for (int j = intField(6, 3); j > 0; j--) {
+          nextLine("properties block");
+        }
+      }
+    }
+
+    for (int i = 0; i < atomCount; i++) {
+      InchiAtom atom = atoms[i];
+      int symbol = symbols[i];
+      int valence = valences[i];
+      if (aliases[i] >= 0) {
+        //aliased atoms have no charge, radical or mass difference, and no implicit hydrogens unless they have a valence
+        symbol = aliases[i];
+        if (SYMBOL_MASSES[symbol] == 0) {
+          //D or T
+          atom.setElName("H");
+          atom.setIsotopicMass(ISOTOPIC_SHIFT_FLAG + (SYMBOLS[symbol].equals("D") ? 1 : 2));
+        }
+        else {
+          atom.setElName(SYMBOLS[symbol]);
+          if (masses[i] != NO_MASS && Math.abs(masses[i] - SYMBOL_MASSES[symbol]) <= MAX_ISO_MASS_DIFFERENCE) {
+            setMassDifference(atom, symbol, masses[i] - SYMBOL_MASSES[symbol]);
+          }
+        }
+        setImplicitHydrogen(atom, valence == 0 ? 0 : implicitHydrogen(valence, V2000_ZERO_VALENCE, bondOrderSums[i]));
+        continue;
+      }
+      if (propertyCharges) {
+        setCharge(atom, charges[i]);
+        if (radicals[i] != null) {
+          atom.setRadical(radicals[i]);
+        }
+      }
+      else if (blockCharges[i] == 4) {
+        atom.setRadical(InchiRadical.DOUBLET);
+      }
+      else if (blockCharges[i] != 0) {
+        setCharge(atom, 4 - blockCharges[i]);
+      }
+      if (propertyMasses) {
+        if (masses[i] != NO_MASS) {
+          setMassDifference(atom, symbol, masses[i] - SYMBOL_MASSES[symbol]);
+        }
+      }
+      else if (massDiffs[i] != 0) {
+        setMassDifference(atom, symbol, massDiffs[i]);
+      }
+      setImplicitHydrogen(atom, valence == 0 ? -1 : implicitHydrogen(valence, V2000_ZERO_VALENCE, bondOrderSums[i]));
+    }
+    return new InchiInputFromMolfileOutput(inchiInput, chiral);
+  }
+
+  private InchiInputFromMolfileOutput parseV3000() {
+    List<String> tokens = new ArrayList<>();
+    nextV3000Line(tokens);
+    if (!isBlock(tokens, "BEGIN", "CTAB")) {
+      throw error("Expected BEGIN CTAB");
+    }
+    nextV3000Line(tokens);
+    if (tokens.size() < 3 || !tokens.get(0).equals("COUNTS")) {
+      throw error("Expected COUNTS");
+    }
+    int atomCount = parseInt(tokens.get(1));
+    boolean chiral = tokens.size() > 5 && parseInt(tokens.get(5)) == 1;
+
+    InchiInput inchiInput = new InchiInput();
+    int[] atomIds = new int[atomCount];
+    int[] valences = new int[atomCount];
+    int[] bondOrderSums = new int[atomCount];
+    boolean atomsRead = false;
+    while (true) {
+      nextV3000Line(tokens);
+      if (tokens.isEmpty()) {
+        continue;
+      }
+      if (isBlock(tokens, "END", "CTAB")) {
+        break;
+      }
+      if (!tokens.get(0).equals("BEGIN") || tokens.size() < 2) {
+        throw error("Expected BEGIN or END CTAB");
+      }
+      String block = tokens.get(1);
+      if (block.equals("ATOM")) {
+        if (atomsRead) {
+          throw error("Duplicate atom block");
+        }
+        atomsRead = true;
+        for (int i = 0; ; i++) {
+          nextV3000Line(tokens);
+          if (isBlock(tokens, "END", block)) {
+            if (i != atomCount) {
+              throw error("Expected " + atomCount + " atoms but found " + i);
+            }
+            break;
+          }
+          if (tokens.size() < 5 || i >= atomCount) {
+            throw error("Malformed atom");
+          }
+          atomIds[i] = parseInt(tokens.get(0));
+          int symbol = symbol(tokens.get(1));
+          InchiAtom atom = new InchiAtom(SYMBOLS[symbol], parseDouble(tokens.get(2)), parseDouble(tokens.get(3)), parseDouble(tokens.get(4)));
+          for (int j = 6; j < tokens.size(); j++) {
+            String property = tokens.get(j);
+            int eq = property.indexOf('=');
+            if (eq < 0) {
+              continue;
+            }
+            String key = property.substring(0, eq);
+            String value = property.substring(eq + 1);
+            switch (key) {
+            case "CHG":
+              setCharge(atom, parseInt(value));
+              break;
+            case "RAD":
+              atom.setRadical(radical(parseInt(value)));
+              break;
+            case "MASS":
+              //the native reader holds the difference from the average mass in a signed byte
+              setMassDifference(atom, symbol, (byte) (parseInt(value) - SYMBOL_MASSES[symbol]));
+              break;
+            case "VAL":
+              valences[i] = parseInt(value);
+              break;
+            default:
+              break;
+            }
+          }
+          inchiInput.addAtom(atom);
+        }
+      }
+      else if (block.equals("BOND")) {
+        if (!atomsRead) {
+          throw error("Bond block before atom block");
+        }
+        while (true) {
+          nextV3000Line(tokens);
+          if (isBlock(tokens, "END", block)) {
+            break;
+          }
+          if (tokens.size() < 4) {
+            throw error("Malformed bond");
+          }
+          InchiBondType type = bondType(parseInt(tokens.get(1)));
+          int start = atomPosition(atomIds, atomCount, parseInt(tokens.get(2)));
+          int end = atomPosition(atomIds, atomCount, parseInt(tokens.get(3)));
+          int config = 0;
+          for (int j = 4; j < tokens.size(); j++) {
+            if (tokens.get(j).startsWith("CFG=")) {
+              config = parseInt(tokens.get(j).substring(4));
+            }
+          }
+          //the native reader ignores CFG=2 (either) on V3000 double bonds
+          InchiBondStereo stereo = bondStereo(type, config, 1, 3, 2, -1);
+          addBond(inchiInput, inchiInput.getAtom(start), inchiInput.getAtom(end), type, stereo, bondOrderSums, start, end);
+        }
+      }
+      else {
+        //e.g. SGROUP, COLLECTION and OBJ3D, which do not affect the InChI
+        while (true) {
+          nextV3000Line(tokens);
+          if (isBlock(tokens, "END", block)) {
+            break;
+          }
+        }
+      }
+    }
+    if (!atomsRead) {
+      throw error("No atom block");
+    }
+    while (true) {
+      nextLine("properties block");
+      if (startsWith("M  END")) {
+        break;
+      }
+    }
+    for (int i = 0; i < atomCount; i++) {
+      int valence = valences[i];
+      setImplicitHydrogen(inchiInput.getAtom(i), valence == 0 ? -1 : implicitHydrogen(valence, V3000_ZERO_VALENCE, bondOrderSums[i]));
+    }
+    return new InchiInputFromMolfileOutput(inchiInput, chiral);
+  }
+
+  /**
+   * The implicit hydrogens that make up the given valence.
+   * As with the native reader zero valence only applies to atoms without bonds, otherwise it is taken as a valence of 15
+   * @param valence
+   * @param zeroValence
+   * @param bondOrderSum
+   * @return
+   */
+  private static int implicitHydrogen(int valence, int zeroValence, int bondOrderSum) {
+    if (valence == zeroValence) {
+      if (bondOrderSum == 0) {
+        return 0;
+      }
+      valence = V2000_ZERO_VALENCE;
+    }
+    return Math.max(0, valence - bondOrderSum);
+  }
+
+  private static boolean isBlock(List<String> tokens, String keyword, String block) {
+    return tokens.size() == 2 && tokens.get(0).equals(keyword) && tokens.get(1).equals(block);
+  }
+
+  private int atomPosition(int[] atomIds, int atomCount, int atomId) {
+    //atoms are almost always numbered from 1
+    if (atomId >= 1 && atomId <= atomCount && atomIds[atomId - 1] == atomId) {
+      return atomId - 1;
+    }
+    for (int i = 0; i < atomCount; i++) {
+      if (atomIds[i] == atomId) {
+        return i;
+      }
+    }
+    throw error("Bond to non-existent atom");
+  }
+
+  private void addBond(InchiInput inchiInput, InchiAtom startAtom, InchiAtom endAtom, InchiBondType type, InchiBondStereo stereo,
+      int[] bondOrderSums, int start, int end) {
+    if (start == end) {
+      throw error("Bond from an atom to itself");
+    }
+    inchiInput.addBond(new InchiBond(startAtom, endAtom, type, stereo));
+    int order = type == InchiBondType.ALTERN ? 0 : type.getCode();
+    bondOrderSums[start] += order;
+    bondOrderSums[end] += order;
+  }
+
+  private InchiBondType bondType(int type) {
+    switch (type) {
+    case 1:
+      return InchiBondType.SINGLE;
+    case 2:
+      return InchiBondType.DOUBLE;
+    case 3:
+      return InchiBondType.TRIPLE;
+    case 4:
+      return InchiBondType.ALTERN;
+    default:
+      throw error("Bond type " + type + " is not supported");
+    }
+  }
+
+  private static InchiBondStereo bondStereo(InchiBondType type, int stereo, int up, int down, int either, int doubleEither) {
+    if (type == InchiBondType.SINGLE) {
+      if (stereo == up) {
+        return InchiBondStereo.SINGLE_1UP;
+      }
+      if (stereo == down) {
+        return InchiBondStereo.SINGLE_1DOWN;
+      }
+      if (stereo == either) {
+        return InchiBondStereo.SINGLE_1EITHER;
+      }
+    }
+    else if (type == InchiBondType.DOUBLE && stereo == doubleEither) {
+      return InchiBondStereo.DOUBLE_EITHER;
+    }
+    return InchiBondStereo.NONE;
+  }
+
+  private InchiRadical radical(int radical) {
+    InchiRadical inchiRadical = radical >= 0 && radical <= 3 ? InchiRadical.of((byte) radical) : null;
+    if (inchiRadical == null) {
+      throw error("Unsupported radical: " + radical);
+    }
+    return inchiRadical;
+  }
+
+  private void setCharge(InchiAtom atom, int charge) {
+    try {
+      atom.setCharge(charge);
+    }
+    catch (IllegalArgumentException e) {
+      throw error(e.getMessage());
+    }
+  }
+
+  private void setMassDifference(InchiAtom atom, int symbol, int massDifference) {
+    if (SYMBOL_MASSES[symbol] == 0) {
+      throw error("Isotopic " + SYMBOLS[symbol] + " is not supported");
+    }
+    if (SYMBOLS[symbol].equals("H") && (massDifference < 0 || massDifference > 2)) {
+      throw error("Unacceptable isotope of hydrogen");
+    }
+    atom.setIsotopicMass(ISOTOPIC_SHIFT_FLAG + massDifference);
+  }
+
+  private void setImplicitHydrogen(InchiAtom atom, int implicitHydrogen) {
+    try {
+      atom.setImplicitHydrogen(implicitHydrogen);
+    }
+    catch (IllegalArgumentException e) {
+      throw error(e.getMessage());
+    }
+  }
+
+  /**
+   * Reads the atom/value pairs of an M  CHG, M  RAD or M  ISO line, converting the atom numbers to positions
+   * @param atomCount
+   * @return
+   */
+  private int[] propertyValues(int atomCount) {
+    int count = intField(6, 3);
+    int[] values = new int[count * 2];
+    int col = 9;
+    for (int i = 0; i < values.length; i++) {
+      values[i] = intField(col, 4);
+      col += 4;
+    }
+    for (int i = 0; i < values.length; i += 2) {
+      if (values[i] < 1 || values[i] > atomCount) {
+        throw error("Property for non-existent atom");
+      }
+      values[i]--;
+    }
+    return values;
+  }
+
+  private static void addSymbol(String symbol, int averageMass) {
+    int idx = (symbol.charAt(0) - 'A') * 27 + (symbol.length() > 1 ? symbol.charAt(1) - 'a' + 1 : 0);
+    SYMBOLS[idx] = symbol;
+    SYMBOL_MASSES[idx] = averageMass;
+  }
+
+  /**
+   * The element symbol in the given columns, as an index into {@link #SYMBOLS}.
+   * As with the native reader an upper case second letter is accepted e.g. CL
+   * @param col
+   * @param width
+   * @return
+   */
+  private int symbol(int col, int width) {
+    int from = Math.min(lineStart + col, lineEnd);
+    int to = Math.min(from + width, lineEnd);
+    while (from < to && text[from] == ' ') {
+      from++;
+    }
+    while (to > from && text[to - 1] == ' ') {
+      to--;
+    }
+    int length = to - from;
+    int idx = length == 1 || length == 2 ? symbolIndex(text[from], length == 2 ? text[from + 1] : 0) : -1;
+    if (idx < 0) {
+      throw error("Unsupported atom symbol: " + new String(text, from, length, StandardCharsets.ISO_8859_1));
+    }
+    return idx;
+  }
+
+  /**
+   * Unlike atom symbols aliases must be in the normal case
+   * @param alias
+   * @return
+   */
+  private int aliasSymbol(String alias) {
+    int idx = symbol(alias);
+    if (!SYMBOLS[idx].equals(alias)) {
+      throw error("Unsupported atom symbol: " + alias);
+    }
+    return idx;
+  }
+
+  private int symbol(String symbol) {
+    int length = symbol.length();
+    int idx = length == 1 || length == 2 ? symbolIndex(symbol.charAt(0), length == 2 ? symbol.charAt(1) : 0) : -1;
+    if (idx < 0) {
+      throw error("Unsupported atom symbol: " + symbol);
+    }
+    return idx;
+  }
+
+  /**
+   * The index of the element symbol in {@link #SYMBOLS}, or -1 if it is not an element
+   * @param first
+   * @param second 0 if the symbol is one letter
+   * @return
+   */
+  private static int symbolIndex(int first, int second) {
+    if (first < 'A' || first > 'Z') {
+      return -1;
+    }
+    int idx = (first - 'A') * 27;
+    if (second != 0) {
+      second = Character.toLowerCase(second);
+      if (second < 'a' || second > 'z') {
+        return -1;
+      }
+      idx += second - 'a' + 1;
+    }
+    return SYMBOLS[idx] != null ? idx : -1;
+  }
+
+  private void nextLine(String section) {
+    if (pos >= end) {
+      throw error("Molfile ended in the " + section);
+    }
+    lineNumber++;
+    lineStart = pos;
+    int i = pos;
+    while (i < end && text[i] != '\n') {
+      i++;
+    }
+    pos = i + 1;
+    if (i > lineStart && text[i - 1] == '\r') {
+      i--;
+    }
+    lineEnd = i;
+  }
+
+  /**
+   * Reads the next V3000 line, joining continuation lines, and splits it into tokens.
+   * Parenthesised lists and quoted strings are kept as one token
+   * @param tokens
+   */
+  private void nextV3000Line(List<String> tokens) {
+    tokens.clear();
+    StringBuilder sb = new StringBuilder();
+    while (true) {
+      nextLine("V3000 connection table");
+      if (!startsWith("M  V30 ")) {
+        throw error("Expected M  V30");
+      }
+      int from = lineStart + 7;
+      if (lineEnd > from && text[lineEnd - 1] == '-') {
+        sb.append(new String(text, from, lineEnd - 1 - from, StandardCharsets.ISO_8859_1));
+        continue;
+      }
+      sb.append(new String(text, from, lineEnd - from, StandardCharsets.ISO_8859_1));
+      break;
+    }
+    int depth = 0;
+    boolean quoted = false;
+    int tokenStart = -1;
+    for (int i = 0, len = sb.length(); i <= len; i++) {
+      char c = i < len ? sb.charAt(i) : ' ';
+      if (c == '"') {
+        quoted = !quoted;
+      }
+      else if (!quoted && c == '(') {
+        depth++;
+      }
+      else if (!quoted && c == ')') {
+        depth--;
+      }
+      if (c == ' ' && depth <= 0 && !quoted) {
+        if (tokenStart >= 0) {
+          tokens.add(sb.substring(tokenStart, i));
+          tokenStart = -1;
+        }
+      }
+      else if (tokenStart < 0) {
+        tokenStart = i;
+      }
+    }
+  }
+
+  private boolean startsWith(String prefix) {
+    int len = prefix.length();
+    if (lineEnd - lineStart < len) {
+      return false;
+    }
+    for (int i = 0; i < len; i++) {
+      if (text[lineStart + i] != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String field(int col, int width) {
+    int from = Math.min(lineStart + col, lineEnd);
+    int to = Math.min(from + width, lineEnd);
+    return new String(text, from, to - from, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * The integer in the given columns, 0 if the columns are blank or beyond the end of the line
+   * @param col
+   * @param width
+   * @return
+   */
+  private int intField(int col, int width) {
+    int from = Math.min(lineStart + col, lineEnd);
+    int to = Math.min(from + width, lineEnd);
+    while (from < to && text[from] == ' ') {
+      from++;
+    }
+    while (to > from && text[to - 1] == ' ') {
+      to--;
+    }
+    if (from == to) {
+      return 0;
+    }
+    boolean negative = false;
+    if (text[from] == '-' || text[from] == '+') {
+      negative = text[from] == '-';
+      from++;
+    }
+    if (from == to) {
+      throw error("Malformed number");
+    }
+    int value = 0;
+    for (int i = from; i < to; i++) {
+      int digit = text[i] - '0';
+      if (digit < 0 || digit > 9) {
+        throw error("Malformed number");
+      }
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
+  }
+
+  private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+  /**
+   * The decimal number in the given columns.
+   * Plain decimals with up to 15 significant digits, i.e. all normal molfile coordinates, are parsed directly.
+   * This gives the same, correctly rounded, value as {@link Double#parseDouble(String)} as both the digits and the power of ten are exact doubles
+   * @param col
+   * @param width
+   * @return
+   */
+  private double doubleField(int col, int width) {
+    int from = Math.min(lineStart + col, lineEnd);
+    int to = Math.min(from + width, lineEnd);
+    while (from < to && text[from] == ' ') {
+      from++;
+    }
+    while (to > from && text[to - 1] == ' ') {
+      to--;
+    }
+    if (from == to) {
+      throw error("Missing coordinate");
+    }
+    int i = from;
+    boolean negative = false;
+    if (text[i] == '-' || text[i] == '+') {
+      negative = text[i] == '-';
+      i++;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int fractionDigits = -1;
+    for (; i < to; i++) {
+      byte c = text[i];
+      if (c >= '0' && c <= '9') {
+        mantissa = mantissa * 10 + (c - '0');
+        digits++;
+        if (fractionDigits >= 0) {
+          fractionDigits++;
+        }
+      }
+      else if (c == '.' && fractionDigits < 0) {
+        fractionDigits = 0;
+      }
+      else {
+        break;
+      }
+    }
+    if (i == to && digits > 0 && digits <= 15) {
+      double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+      return negative ? -value : value;
+    }
+    return parseDouble(new String(text, from, to - from, StandardCharsets.ISO_8859_1));
+  }
+
+  private double parseDouble(String value) {
+    try {
+      return Double.parseDouble(value);
+    }
+    catch (NumberFormatException e) {
+      throw error("Malformed number: " + value);
+    }
+  }
+
+  private int parseInt(String value) {
+    try {
+      return Integer.parseInt(value);
+    }
+    catch (NumberFormatException e) {
+      throw error("Malformed number: " + value);
+    }
+  }
+
+  private IllegalArgumentException error(String message) {
+    return new IllegalArgumentException(message + " (molfile line " + lineNumber + ")");
+  }
+
+}
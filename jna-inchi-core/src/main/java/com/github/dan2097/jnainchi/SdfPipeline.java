@@ -0,0 +1,724 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Converts an SD file, optionally gzip compressed, using separate stages for decompression, record splitting and conversion.
+ * The stages run concurrently and are connected by bounded queues, so a large file is never held in memory
+ * and a slow stage applies back-pressure to the stages before it.
+ * <ul>
+ * <li>inflate: reads the file. BGZF files (gzip members carrying their compressed size in a BC extra field, as written by bgzip)
+ * have each member inflated on a pool of threads. Other gzip files are inflated by a single thread, plain files are read as is.</li>
+ * <li>split: a single thread that splits the decompressed bytes into records at lines starting with $$$$</li>
+ * <li>convert: converts the records on a pool of threads, each reusing its own native InChI handles</li>
+ * </ul>
+ * Results are returned in file order. {@link #getMetrics()} reports the progress and queue depth of each stage,
+ * which shows whether conversion or I/O is the bottleneck. {@link #records()} runs just the inflate and split stages,
+ * for callers that convert the records themselves.
+ * <pre>
+ * try (SdfPipeline pipeline = new SdfPipeline.SdfPipelineBuilder(Paths.get("compounds.sdf.gz")).withConversionThreads(32).build()) {
+ *   pipeline.results().forEach(result -&gt; ...);
+ * }
+ * </pre>
+ */
+public class SdfPipeline implements Closeable {
+
+  private static final int UNCOMPRESSED_CHUNK_SIZE = 64 * 1024;
+
+  private static final AtomicInteger PIPELINE_NUMBER = new AtomicInteger();
+
+  //marks the end of the chunk and record queues
+  private static final Future<byte[]> END_OF_CHUNKS = CompletableFuture.completedFuture(new byte[0]);
+  private static final byte[] END_OF_RECORDS = new byte[0];
+
+  private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+  private final Path sdf;
+  private final InputStream input;
+  private final InchiOptions options;
+  private final int inflateThreads;
+  private final int conversionThreads;
+  private final int pipelineNumber = PIPELINE_NUMBER.incrementAndGet();
+
+  private final BlockingQueue<Future<byte[]>> chunks;
+  private final BlockingQueue<byte[]> records;
+
+  private final Stage inflateStage;
+  private final Stage splitStage;
+  private final Stage convertStage;
+  private final AtomicLong resultsConsumed = new AtomicLong();
+
+  private ExecutorService inflater;
+  private Thread readThread;
+  private Thread splitThread;
+  private boolean started;
+  private volatile Exception failure;
+
+  private SdfPipeline(SdfPipelineBuilder builder) {
+    this.sdf = builder.sdf;
+    this.input = builder.input;
+    this.options = builder.options;
+    this.inflateThreads = builder.inflateThreads;
+    this.conversionThreads = builder.conversionThreads;
+    this.chunks = new ArrayBlockingQueue<>(builder.chunkQueueDepth);
+    this.records = new ArrayBlockingQueue<>(builder.recordQueueDepth);
+    this.inflateStage = new Stage("inflate", builder.chunkQueueDepth);
+    this.splitStage = new Stage("split", builder.recordQueueDepth);
+    this.convertStage = new Stage("convert", conversionThreads * InchiBatch.ITEMS_IN_FLIGHT_PER_WORKER);
+  }
+
+  public static class SdfPipelineBuilder {
+
+    private final Path sdf;
+    private final InputStream input;
+    private InchiOptions options = InchiOptions.DEFAULT_OPTIONS;
+    private int inflateThreads = Runtime.getRuntime().availableProcessors();
+    private int conversionThreads = Runtime.getRuntime().availableProcessors();
+    private int chunkQueueDepth = 256;
+    private int recordQueueDepth = 4096;
+
+    /**
+     * @param sdf an SD file, which may be gzip compressed
+     */
+    public SdfPipelineBuilder(Path sdf) {
+      if (sdf == null) {
+        throw new IllegalArgumentException("An SD file is required");
+      }
+      this.sdf = sdf;
+      this.input = null;
+    }
+
+    /**
+     * @param input the contents of an SD file, which may be gzip compressed. It is closed once it has been read
+     */
+    public SdfPipelineBuilder(InputStream input) {
+      if (input == null) {
+        throw new IllegalArgumentException("An SD file is required");
+      }
+      this.sdf = null;
+      this.input = input;
+    }
+
+    public SdfPipelineBuilder withOptions(InchiOptions options) {
+      this.options = options;
+      return this;
+    }
+
+    /**
+     * The number of threads inflating the members of a BGZF file, other files are read by a single thread
+     * @param threads
+     * @return
+     */
+    public SdfPipelineBuilder withInflateThreads(int threads) {
+      this.inflateThreads = checkPositive(threads, "inflate threads");
+      return this;
+    }
+
+    public SdfPipelineBuilder withConversionThreads(int threads) {
+      this.conversionThreads = checkPositive(threads, "conversion threads");
+      return this;
+    }
+
+    /**
+     * The maximum number of decompressed (or inflating) chunks waiting to be split into records
+     * @param depth
+     * @return
+     */
+    public SdfPipelineBuilder withChunkQueueDepth(int depth) {
+      this.chunkQueueDepth = checkPositive(depth, "chunk queue depth");
+      return this;
+    }
+
+    /**
+     * The maximum number of records waiting to be converted
+     * @param depth
+     * @return
+     */
+    public SdfPipelineBuilder withRecordQueueDepth(int depth) {
+      this.recordQueueDepth = checkPositive(depth, "record queue depth");
+      return this;
+    }
+
+    public SdfPipeline build() {
+      return new SdfPipeline(this);
+    }
+
+    private static int checkPositive(int value, String name) {
+      if (value < 1) {
+        throw new IllegalArgumentException(name + " must be at least 1: " + value);
+      }
+      return value;
+    }
+  }
+
+  /**
+   * A snapshot of the progress of one stage of the pipeline
+   */
+  public static class StageMetrics {
+
+    private final String name;
+    private final int parallelism;
+    private final long processed;
+    private final int queueDepth;
+    private final int queueCapacity;
+    private final long inputWaitNanos;
+    private final long outputWaitNanos;
+
+    StageMetrics(String name, int parallelism, long processed, int queueDepth, int queueCapacity, long inputWaitNanos, long outputWaitNanos) {
+      this.name = name;
+      this.parallelism = parallelism;
+      this.processed = processed;
+      this.queueDepth = queueDepth;
+      this.queueCapacity = queueCapacity;
+      this.inputWaitNanos = inputWaitNanos;
+      this.outputWaitNanos = outputWaitNanos;
+    }
+
+    /**
+     * inflate, split or convert
+     * @return
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * The number of threads running the stage
+     * @return
+     */
+    public int getParallelism() {
+      return parallelism;
+    }
+
+    /**
+     * The number of items the stage has produced: chunks, records or conversions
+     * @return
+     */
+    public long getProcessed() {
+      return processed;
+    }
+
+    /**
+     * The number of items produced by the stage that are waiting for the next stage (or the caller) to take them
+     * @return
+     */
+    public int getQueueDepth() {
+      return queueDepth;
+    }
+
+    public int getQueueCapacity() {
+      return queueCapacity;
+    }
+
+    /**
+     * The time the stage spent waiting for input: reading the file for the inflate stage,
+     * and waiting on the previous stage's queue otherwise
+     * @return
+     */
+    public long getInputWaitNanos() {
+      return inputWaitNanos;
+    }
+
+    /**
+     * The time the stage spent blocked because its queue was full
+     * @return
+     */
+    public long getOutputWaitNanos() {
+      return outputWaitNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "%s: threads=%d processed=%d queue=%d/%d inputWait=%.1fs outputWait=%.1fs",
+          name, parallelism, processed, queueDepth, queueCapacity, inputWaitNanos / 1e9, outputWaitNanos / 1e9);
+    }
+  }
+
+  private static class Stage {
+    private final String name;
+    private final int queueCapacity;
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong inputWaitNanos = new AtomicLong();
+    private final AtomicLong outputWaitNanos = new AtomicLong();
+    private volatile int parallelism;
+
+    private Stage(String name, int queueCapacity) {
+      this.name = name;
+      this.queueCapacity = queueCapacity;
+    }
+
+    private StageMetrics snapshot(int queueDepth) {
+      return new StageMetrics(name, parallelism, processed.get(), queueDepth, queueCapacity, inputWaitNanos.get(), outputWaitNanos.get());
+    }
+  }
+
+  /**
+   * Starts the pipeline. The results are in file order, the stream should be closed, or the pipeline closed, when done.
+   * May only be called once
+   * @return
+   * @throws IOException if the file cannot be opened
+   */
+  public synchronized Stream<InchiBatchResult> results() throws IOException {
+    Stream<byte[]> recordStream = records();
+    convertStage.parallelism = conversionThreads;
+    //closing the results closes the records, and so the pipeline
+    return InchiBatch.convertAll(recordStream, record -> {
+      InchiOutput output = JnaInchi.molToInchi(record, 0, record.length, options);
+      convertStage.processed.incrementAndGet();
+      return output;
+    }, conversionThreads)
+        .peek(result -> resultsConsumed.incrementAndGet());
+  }
+
+  /**
+   * Starts the inflate and split stages only. The records exclude their $$$$ line and are in file order,
+   * the stream should be closed, or the pipeline closed, when done.
+   * May only be called once, and not as well as {@link #results()}
+   * @return
+   * @throws IOException if the file cannot be opened
+   */
+  public synchronized Stream<byte[]> records() throws IOException {
+    if (started) {
+      throw new IllegalStateException("The pipeline has already been started");
+    }
+    started = true;
+    InputStream in = new BufferedInputStream(sdf != null ? Files.newInputStream(sdf) : input, UNCOMPRESSED_CHUNK_SIZE);
+    boolean bgzf;
+    boolean gzip;
+    try {
+      //enough for the largest possible gzip header extra field
+      in.mark(1 << 17);
+      int b1 = in.read();
+      int b2 = in.read();
+      in.read();
+      int flags = in.read();
+      in.reset();
+      gzip = b1 == 0x1f && b2 == 0x8b;
+      bgzf = gzip && (flags & 0x04) != 0 && readBgzfBlock(in, true) != null;
+      in.reset();
+    }
+    catch (IOException e) {
+      in.close();
+      throw e;
+    }
+
+    String prefix = "jnainchi-sdf-" + pipelineNumber;
+    Runnable reader;
+    if (bgzf) {
+      inflateStage.parallelism = inflateThreads;
+      AtomicInteger threadNumber = new AtomicInteger();
+      inflater = Executors.newFixedThreadPool(inflateThreads, r -> {
+        Thread t = new Thread(r, prefix + "-inflate-" + threadNumber.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      });
+      reader = () -> readBgzf(in);
+    }
+    else {
+      inflateStage.parallelism = 1;
+      reader = () -> readSequential(in, gzip);
+    }
+    splitStage.parallelism = 1;
+
+    readThread = new Thread(reader, prefix + "-read");
+    readThread.setDaemon(true);
+    splitThread = new Thread(this::split, prefix + "-split");
+    splitThread.setDaemon(true);
+    readThread.start();
+    splitThread.start();
+
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new RecordIterator(), Spliterator.ORDERED | Spliterator.NONNULL), false)
+        .onClose(this::close);
+  }
+
+  /**
+   * The current state of the inflate, split and convert stages
+   * @return
+   */
+  public List<StageMetrics> getMetrics() {
+    int converted = (int) (convertStage.processed.get() - resultsConsumed.get());
+    return Arrays.asList(inflateStage.snapshot(chunks.size()), splitStage.snapshot(records.size()), convertStage.snapshot(Math.max(converted, 0)));
+  }
+
+  /**
+   * Stops the threads of the pipeline
+   */
+  @Override
+  public void close() {
+    if (readThread != null) {
+      readThread.interrupt();
+    }
+    if (splitThread != null) {
+      splitThread.interrupt();
+    }
+    if (inflater != null) {
+      inflater.shutdownNow();
+    }
+  }
+
+  private void readSequential(InputStream raw, boolean gzip) {
+    try (InputStream in = gzip ? new GZIPInputStream(raw, UNCOMPRESSED_CHUNK_SIZE) : raw) {
+      while (true) {
+        byte[] chunk = new byte[UNCOMPRESSED_CHUNK_SIZE];
+        int length = 0;
+        long start = System.nanoTime();
+        int read;
+        while (length < chunk.length && (read = in.read(chunk, length, chunk.length - length)) > 0) {
+          length += read;
+        }
+        inflateStage.inputWaitNanos.addAndGet(System.nanoTime() - start);
+        if (length == 0) {
+          break;
+        }
+        putChunk(CompletableFuture.completedFuture(length == chunk.length ? chunk : Arrays.copyOf(chunk, length)));
+        if (length < chunk.length) {
+          break;
+        }
+      }
+      putChunk(END_OF_CHUNKS);
+    }
+    catch (InterruptedException e) {
+      //pipeline closed
+    }
+    catch (IOException e) {
+      failChunks(e);
+    }
+  }
+
+  private void readBgzf(InputStream raw) {
+    try (InputStream in = raw) {
+      while (true) {
+        long start = System.nanoTime();
+        byte[] block = readBgzfBlock(in, false);
+        inflateStage.inputWaitNanos.addAndGet(System.nanoTime() - start);
+        if (block == null) {
+          break;
+        }
+        putChunk(inflater.submit(() -> inflateBgzfBlock(block)));
+      }
+      putChunk(END_OF_CHUNKS);
+    }
+    catch (InterruptedException e) {
+      //pipeline closed
+    }
+    catch (IOException e) {
+      failChunks(e);
+    }
+  }
+
+  private void failChunks(IOException e) {
+    CompletableFuture<byte[]> failed = new CompletableFuture<>();
+    failed.completeExceptionally(e);
+    try {
+      putChunk(failed);
+    }
+    catch (InterruptedException e1) {
+      //pipeline closed
+    }
+  }
+
+  private void putChunk(Future<byte[]> chunk) throws InterruptedException {
+    long start = System.nanoTime();
+    chunks.put(chunk);
+    inflateStage.outputWaitNanos.addAndGet(System.nanoTime() - start);
+    if (chunk != END_OF_CHUNKS) {
+      inflateStage.processed.incrementAndGet();
+    }
+  }
+
+  /**
+   * Reads the next gzip member of a BGZF file
+   * @param in
+   * @param peek if true only the header is read, to test whether the file is BGZF
+   * @return the compressed member, or null at the end of the file. When peeking non-null if the header has a BC extra field
+   * @throws IOException if the file is truncated or a member is not BGZF
+   */
+  private static byte[] readBgzfBlock(InputStream in, boolean peek) throws IOException {
+    //fixed header (10 bytes) then XLEN
+    byte[] header = new byte[12];
+    int read = readFully(in, header, 0, header.length);
+    if (read == 0 && !peek) {
+      return null;
+    }
+    if (read < header.length) {
+      if (peek) {
+        return null;
+      }
+      throw new EOFException("Truncated BGZF block header");
+    }
+    if ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || header[2] != 8 || (header[3] & 0x04) == 0) {
+      if (peek) {
+        return null;
+      }
+      throw new IOException("Not a BGZF block, the file must be entirely BGZF or ordinary gzip");
+    }
+    int xlen = (header[10] & 0xff) | (header[11] & 0xff) << 8;
+    byte[] extra = new byte[xlen];
+    if (readFully(in, extra, 0, xlen) < xlen) {
+      if (peek) {
+        return null;
+      }
+      throw new EOFException("Truncated BGZF block header");
+    }
+    int blockSize = -1;
+    for (int i = 0; i + 4 <= xlen; ) {
+      int length = (extra[i + 2] & 0xff) | (extra[i + 3] & 0xff) << 8;
+      if (extra[i] == 'B' && extra[i + 1] == 'C' && length == 2 && i + 6 <= xlen) {
+        blockSize = ((extra[i + 4] & 0xff) | (extra[i + 5] & 0xff) << 8) + 1;
+        break;
+      }
+      i += 4 + length;
+    }
+    if (peek) {
+      return blockSize > 0 ? header : null;
+    }
+    if (blockSize < header.length + xlen + 8) {
+      throw new IOException("Not a BGZF block, the file must be entirely BGZF or ordinary gzip");
+    }
+    byte[] block = new byte[blockSize];
+    System.arraycopy(header, 0, block, 0, header.length);
+    System.arraycopy(extra, 0, block, header.length, xlen);
+    int offset = header.length + xlen;
+    if (readFully(in, block, offset, blockSize - offset) < blockSize - offset) {
+      throw new EOFException("Truncated BGZF block");
+    }
+    return block;
+  }
+
+  private static byte[] inflateBgzfBlock(byte[] block) throws IOException {
+    int xlen = (block[10] & 0xff) | (block[11] & 0xff) << 8;
+    int dataStart = 12 + xlen;
+    int trailer = block.length - 8;
+    int crc = readIntLE(block, trailer);
+    int size = readIntLE(block, trailer + 4);
+    byte[] data = new byte[size];
+    Inflater inflater = INFLATERS.get();
+    inflater.reset();
+    inflater.setInput(block, dataStart, trailer - dataStart);
+    try {
+      int length = 0;
+      while (length < size && !inflater.finished()) {
+        int n = inflater.inflate(data, length, size - length);
+        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        length += n;
+      }
+      if (length != size) {
+        throw new IOException("Corrupt BGZF block, expected " + size + " bytes but inflated " + length);
+      }
+    }
+    catch (DataFormatException e) {
+      throw new IOException("Corrupt BGZF block", e);
+    }
+    CRC32 crc32 = new CRC32();
+    crc32.update(data, 0, size);
+    if ((int) crc32.getValue() != crc) {
+      throw new IOException("Corrupt BGZF block, CRC mismatch");
+    }
+    return data;
+  }
+
+  private static int readIntLE(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8 | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+  }
+
+  private static int readFully(InputStream in, byte[] bytes, int offset, int length) throws IOException {
+    int total = 0;
+    int read;
+    while (total < length && (read = in.read(bytes, offset + total, length - total)) > 0) {
+      total += read;
+    }
+    return total;
+  }
+
+  /**
+   * Splits the chunks into records, which exclude their $$$$ line, as {@link SdfReader#nextRecord()} does
+   */
+  private void split() {
+    byte[] buffer = new byte[UNCOMPRESSED_CHUNK_SIZE * 2];
+    //unsplit bytes are buffer[start, end), lines before scan have been checked for $$$$
+    int start = 0;
+    int scan = 0;
+    int end = 0;
+    try {
+      while (true) {
+        long waitStart = System.nanoTime();
+        Future<byte[]> future = chunks.take();
+        byte[] chunk;
+        try {
+          chunk = future.get();
+        }
+        finally {
+          splitStage.inputWaitNanos.addAndGet(System.nanoTime() - waitStart);
+        }
+        if (future == END_OF_CHUNKS) {
+          break;
+        }
+        if (end + chunk.length > buffer.length) {
+          //compact, growing if a record does not fit
+          int pending = end - start;
+          byte[] target = pending + chunk.length > buffer.length ? new byte[Math.max(buffer.length * 2, pending + chunk.length)] : buffer;
+          System.arraycopy(buffer, start, target, 0, pending);
+          buffer = target;
+          scan -= start;
+          start = 0;
+          end = pending;
+        }
+        System.arraycopy(chunk, 0, buffer, end, chunk.length);
+        end += chunk.length;
+
+        int lineStart = scan;
+        int newline;
+        while ((newline = indexOf(buffer, (byte) '\n', lineStart, end)) >= 0) {
+          if (newline - lineStart >= 4 && buffer[lineStart] == '$' && buffer[lineStart + 1] == '$' && buffer[lineStart + 2] == '$' && buffer[lineStart + 3] == '$') {
+            putRecord(Arrays.copyOfRange(buffer, start, lineStart));
+            start = newline + 1;
+          }
+          lineStart = newline + 1;
+        }
+        scan = lineStart;
+      }
+      //a final $$$$ without a newline, or a final record without a terminating $$$$
+      if (end - scan >= 4 && buffer[scan] == '$' && buffer[scan + 1] == '$' && buffer[scan + 2] == '$' && buffer[scan + 3] == '$') {
+        putRecord(Arrays.copyOfRange(buffer, start, scan));
+      }
+      else if (!isBlank(buffer, start, end)) {
+        putRecord(Arrays.copyOfRange(buffer, start, end));
+      }
+      putRecord(END_OF_RECORDS);
+    }
+    catch (InterruptedException e) {
+      //pipeline closed
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      failure = cause instanceof Exception ? (Exception) cause : e;
+      try {
+        putRecord(END_OF_RECORDS);
+      }
+      catch (InterruptedException e1) {
+        //pipeline closed
+      }
+    }
+  }
+
+  private void putRecord(byte[] record) throws InterruptedException {
+    long start = System.nanoTime();
+    records.put(record);
+    splitStage.outputWaitNanos.addAndGet(System.nanoTime() - start);
+    if (record != END_OF_RECORDS) {
+      splitStage.processed.incrementAndGet();
+    }
+  }
+
+  private static int indexOf(byte[] bytes, byte b, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (bytes[i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isBlank(byte[] bytes, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (bytes[i] > ' ') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Takes records from the split stage's queue, on the thread consuming the results
+   */
+  private class RecordIterator implements Iterator<byte[]> {
+
+    private byte[] next;
+    private boolean finished;
+
+    @Override
+    public boolean hasNext() {
+      if (next == null && !finished) {
+        long start = System.nanoTime();
+        try {
+          next = records.take();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted whilst waiting for SD file records", e);
+        }
+        finally {
+          convertStage.inputWaitNanos.addAndGet(System.nanoTime() - start);
+        }
+        if (next == END_OF_RECORDS) {
+          next = null;
+          finished = true;
+          Exception e = failure;
+          if (e != null) {
+            throw e instanceof IOException ? new UncheckedIOException((IOException) e) : new IllegalStateException(e);
+          }
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public byte[] next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      byte[] record = next;
+      next = null;
+      return record;
+    }
+  }
+
+}
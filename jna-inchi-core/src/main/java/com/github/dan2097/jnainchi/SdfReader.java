@@ -0,0 +1,253 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads the records of an SD file by memory-mapping it, without decoding the records into Strings.
+ * Records are separated by lines starting with $$$$, this is found by scanning the bytes directly.
+ * The file is mapped in windows, so files larger than 2GB are supported.
+ * <p>
+ * {@link #nextRecord()} returns a view of the mapped file, which may be passed to {@link InchiConverter#molToInchi(ByteBuffer, InchiOptions)}.
+ * A reader must only be used by one thread at a time.
+ */
+public class SdfReader implements Closeable {
+
+  private static final int DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024;
+
+  private final FileChannel channel;
+  private final long fileSize;
+  private int windowSize;
+
+  private long windowStart;
+  private MappedByteBuffer window;
+  //view of the window, returned by nextRecord
+  private ByteBuffer record;
+
+  //start of the next record in the file
+  private long position = 0;
+  private long recordIndex = -1;
+
+  public SdfReader(Path sdf) throws IOException {
+    this(sdf, DEFAULT_WINDOW_SIZE);
+  }
+
+  SdfReader(Path sdf, int windowSize) throws IOException {
+    if (windowSize < 8) {
+      throw new IllegalArgumentException("Window size is too small: " + windowSize);
+    }
+    this.channel = FileChannel.open(sdf, StandardOpenOption.READ);
+    this.windowSize = windowSize;
+    try {
+      this.fileSize = channel.size();
+    }
+    catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * The next record, excluding its $$$$ line. The buffer is reused, so is only valid until the next call
+   * @return the record's bytes (position to limit) or null if there are no more records
+   * @throws IOException
+   */
+  public ByteBuffer nextRecord() throws IOException {
+    while (position < fileSize) {
+      long windowEnd = windowStart + (window != null ? window.limit() : 0);
+      if (window == null || position >= windowEnd) {
+        map(position);
+        continue;
+      }
+      int start = (int) (position - windowStart);
+      int limit = window.limit();
+      boolean endOfFile = windowEnd == fileSize;
+      int end = findRecordEnd(start, limit, endOfFile);
+      if (end < 0) {
+        if (!endOfFile) {
+          if (start == 0) {
+            //Record is larger than the window
+            if (windowSize > Integer.MAX_VALUE / 2) {
+              throw new IOException("SD file record at offset " + position + " is too large");
+            }
+            windowSize *= 2;
+          }
+          map(position);
+          continue;
+        }
+        //final record without a terminating $$$$
+        if (isBlank(start, limit)) {
+          position = fileSize;
+          return null;
+        }
+        end = limit;
+        position = fileSize;
+      }
+      else {
+        int newline = findNewline(end, limit);
+        position = newline >= 0 ? windowStart + newline + 1 : fileSize;
+      }
+      recordIndex++;
+      record.limit(end);
+      record.position(start);
+      return record;
+    }
+    return null;
+  }
+
+  /**
+   * Lazily converts the records of the SD file, see {@link JnaInchi#sdfToInchi(Path, InchiOptions)}
+   * @param sdf
+   * @param options
+   * @return
+   * @throws IOException
+   */
+  static Stream<InchiOutput> molToInchi(Path sdf, InchiOptions options) throws IOException {
+    SdfReader reader = new SdfReader(sdf);
+    InchiConverter converter;
+    try {
+      converter = new InchiConverter();
+    }
+    catch (RuntimeException e) {
+      reader.close();
+      throw e;
+    }
+    Iterator<InchiOutput> outputs = new Iterator<InchiOutput>() {
+      private ByteBuffer next;
+
+      @Override
+      public boolean hasNext() {
+        if (next == null) {
+          try {
+            next = reader.nextRecord();
+          }
+          catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+        return next != null;
+      }
+
+      @Override
+      public InchiOutput next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        ByteBuffer record = next;
+        next = null;
+        return converter.molToInchi(record, options);
+      }
+    };
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(outputs, Spliterator.ORDERED | Spliterator.NONNULL), false)
+        .onClose(() -> {
+          converter.close();
+          try {
+            reader.close();
+          }
+          catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+
+  /**
+   * The zero-based index of the record most recently returned by {@link #nextRecord()}
+   * @return
+   */
+  public long getRecordIndex() {
+    return recordIndex;
+  }
+
+  @Override
+  public void close() throws IOException {
+    window = null;
+    record = null;
+    channel.close();
+  }
+
+  private void map(long start) throws IOException {
+    long size = Math.min(windowSize, fileSize - start);
+    window = channel.map(MapMode.READ_ONLY, start, size);
+    windowStart = start;
+    record = window.duplicate();
+  }
+
+  /**
+   * Finds the start of the $$$$ line that ends the record starting at start.
+   * The line must be terminated within the window, unless the window extends to the end of the file
+   * @param start
+   * @param limit
+   * @param endOfFile
+   * @return the index of the $$$$ line, or -1 if not found
+   */
+  private int findRecordEnd(int start, int limit, boolean endOfFile) {
+    MappedByteBuffer window = this.window;
+    int lineStart = start;
+    while (lineStart < limit) {
+      if (window.get(lineStart) == '$') {
+        if (lineStart + 4 > limit) {
+          return -1;
+        }
+        if (window.get(lineStart + 1) == '$' && window.get(lineStart + 2) == '$' && window.get(lineStart + 3) == '$') {
+          return endOfFile || findNewline(lineStart, limit) >= 0 ? lineStart : -1;
+        }
+      }
+      int newline = findNewline(lineStart, limit);
+      if (newline < 0) {
+        return -1;
+      }
+      lineStart = newline + 1;
+    }
+    return -1;
+  }
+
+  private int findNewline(int from, int limit) {
+    MappedByteBuffer window = this.window;
+    for (int i = from; i < limit; i++) {
+      if (window.get(i) == '\n') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private boolean isBlank(int start, int limit) {
+    for (int i = start; i < limit; i++) {
+      if (window.get(i) > ' ') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
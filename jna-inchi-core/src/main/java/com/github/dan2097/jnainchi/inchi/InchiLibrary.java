@@ -242,6 +242,11 @@ public class InchiLibrary implements Library {
    * Original signature : <code>int GetINCHIEx(inchi_InputEx*, inchi_Output*)</code><br>
    */
   public static native int GetINCHIEx(inchi_InputEx inp, tagINCHI_Output out);
+  /**
+   * As {@link #GetINCHIEx(inchi_InputEx, tagINCHI_Output)} but taking pointers to an inchi_InputEx and inchi_Output laid out directly in native memory<br>
+   * Original signature : <code>int GetINCHIEx(inchi_InputEx*, inchi_Output*)</code><br>
+   */
+  public static native int GetINCHIEx(Pointer inp, Pointer out);
   /**
    * ^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^<br>
    * FreeINCHI / FreeStdINCHI<br>
@@ -251,6 +256,10 @@ public class InchiLibrary implements Library {
    * Original signature : <code>void FreeINCHI(inchi_Output*)</code><br>
    */
   public static native void FreeINCHI(tagINCHI_Output out);
+  /**
+   * Original signature : <code>void FreeINCHI(inchi_Output*)</code><br>
+   */
+  public static native void FreeINCHI(Pointer out);
   /**
    * Original signature : <code>void FreeStdINCHI(inchi_Output*)</code><br>
    */
@@ -265,6 +274,11 @@ public class InchiLibrary implements Library {
    * Original signature : <code>int GetStructFromINCHI(inchi_InputINCHI*, inchi_OutputStruct*)</code><br>
    */
   public static native int GetStructFromINCHI(tagINCHI_InputINCHI inpInChI, tagINCHI_OutputStruct outStruct);
+  /**
+   * As {@link #GetStructFromINCHI(tagINCHI_InputINCHI, tagINCHI_OutputStruct)} but taking pointers to an inchi_InputINCHI and inchi_OutputStruct laid out directly in native memory<br>
+   * Original signature : <code>int GetStructFromINCHI(inchi_InputINCHI*, inchi_OutputStruct*)</code><br>
+   */
+  public static native int GetStructFromINCHI(Pointer inpInChI, Pointer outStruct);
   /**
    * Original signature : <code>int GetStructFromStdINCHI(inchi_InputINCHI*, inchi_OutputStruct*)</code><br>
    */
@@ -282,6 +296,10 @@ public class InchiLibrary implements Library {
    * Original signature : <code>void FreeStructFromINCHI(inchi_OutputStruct*)</code><br>
    */
   public static native void FreeStructFromINCHI(tagINCHI_OutputStruct out);
+  /**
+   * Original signature : <code>void FreeStructFromINCHI(inchi_OutputStruct*)</code><br>
+   */
+  public static native void FreeStructFromINCHI(Pointer out);
   /**
    * Original signature : <code>void FreeStructFromStdINCHI(inchi_OutputStruct*)</code><br>
    */
@@ -357,6 +375,8 @@ public class InchiLibrary implements Library {
    * Original signature : <code>int CheckINCHI(const char*, const int)</code><br>
    */
   public static native int CheckINCHI(String szINCHI, boolean strict);
+  public static native int CheckINCHI(byte[] szINCHI, boolean strict);
+  public static native int CheckINCHI(Pointer szINCHI, boolean strict);
   /**
    * ^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^<br>
    * GetINCHIKeyFromINCHI<br>
@@ -384,6 +404,8 @@ public class InchiLibrary implements Library {
    * Original signature : <code>int GetINCHIKeyFromINCHI(const char*, const int, const int, char*, char*, char*)</code><br>
    */
   public static native int GetINCHIKeyFromINCHI(String szINCHISource, int xtra1, int xtra2, byte[] szINCHIKey, byte[] szXtra1, byte[] szXtra2);
+  public static native int GetINCHIKeyFromINCHI(byte[] szINCHISource, int xtra1, int xtra2, byte[] szINCHIKey, byte[] szXtra1, byte[] szXtra2);
+  public static native int GetINCHIKeyFromINCHI(Pointer szINCHISource, int xtra1, int xtra2, byte[] szINCHIKey, byte[] szXtra1, byte[] szXtra2);
   /**
    * ^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^<br>
    * GetStdINCHIKeyFromStdINCHI<br>
@@ -643,10 +665,12 @@ public class InchiLibrary implements Library {
    * Original signature : <code>INCHI_DECL IXA_MOL_ReadMolfile(Pointer, Pointer, const char*)</code><br>
    */
   static native void IXA_MOL_ReadMolfile(Pointer hStatus, Pointer hMolecule, byte[] pBytes);
+  static native void IXA_MOL_ReadMolfile(Pointer hStatus, Pointer hMolecule, Pointer pBytes);
   /**
    * Original signature : <code>INCHI_DECL IXA_MOL_ReadInChI(Pointer, Pointer, const char*)</code><br>
    */
   static native void IXA_MOL_ReadInChI(Pointer hStatus, Pointer hMolecule, byte[] pInChI);
+  static native void IXA_MOL_ReadInChI(Pointer hStatus, Pointer hMolecule, Pointer pInChI);
   /**
    * Original signature : <code>INCHI_DECL IXA_MOL_SetChiral(Pointer, Pointer, IXA_BOOL)</code><br>
    */
@@ -978,6 +1002,10 @@ public class InchiLibrary implements Library {
    * Original signature : <code>INCHI_DECL IXA_INCHIKEYBUILDER_SetInChI(Pointer, Pointer, const char*)</code><br>
    */
   static native void IXA_INCHIKEYBUILDER_SetInChI(Pointer hStatus, Pointer hInChIKeyBuilder, byte[] pInChI);
+  /**
+   * Original signature : <code>INCHI_DECL IXA_INCHIKEYBUILDER_SetInChI(Pointer, Pointer, const char*)</code><br>
+   */
+  static native void IXA_INCHIKEYBUILDER_SetInChI(Pointer hStatus, Pointer hInChIKeyBuilder, Pointer pInChI);
   /**
    * Original signature : <code>INCHI_DECL IXA_INCHIKEYBUILDER_GetInChIKey(Pointer, Pointer)</code><br>
    */
@@ -987,4 +1015,18 @@ public class InchiLibrary implements Library {
    */
   static native void IXA_INCHIKEYBUILDER_Destroy(Pointer hStatus, Pointer hInChIKeyBuilder);
 
+  /**
+   * Functions mapped to return the native string rather than a copy as a Java String,
+   * these cannot be declared on InchiLibrary as they differ only in return type
+   */
+  static class PointerFunctions {
+    static {
+      Native.register(PointerFunctions.class, InchiLibrary.JNA_NATIVE_LIB);
+    }
+    /**
+     * Original signature : <code>INCHI_DECL IXA_INCHIBUILDER_GetInChI(Pointer, Pointer)</code><br>
+     */
+    static native Pointer IXA_INCHIBUILDER_GetInChI(Pointer hStatus, Pointer hInChIBuilder);
+  }
+
 }
@@ -142,10 +142,24 @@ public class IxaFunctions {
     InchiLibrary.IXA_MOL_ReadMolfile(hStatus.getPointer(), hMolecule.getPointer(), fromString(pBytes));
   }
 
+  /**
+   * As {@link #IXA_MOL_ReadMolfile(IXA_STATUS_HANDLE, IXA_MOL_HANDLE, String)} but reading a null terminated molfile from native memory
+   */
+  public static void IXA_MOL_ReadMolfile(IXA_STATUS_HANDLE hStatus, IXA_MOL_HANDLE hMolecule, Pointer pBytes) {
+    InchiLibrary.IXA_MOL_ReadMolfile(hStatus.getPointer(), hMolecule.getPointer(), pBytes);
+  }
+
   public static void IXA_MOL_ReadInChI(IXA_STATUS_HANDLE hStatus, IXA_MOL_HANDLE hMolecule, String pInChI) {
     InchiLibrary.IXA_MOL_ReadInChI(hStatus.getPointer(), hMolecule.getPointer(), fromString(pInChI));
   }
 
+  /**
+   * As {@link #IXA_MOL_ReadInChI(IXA_STATUS_HANDLE, IXA_MOL_HANDLE, String)} but reading a null terminated InChI from native memory
+   */
+  public static void IXA_MOL_ReadInChI(IXA_STATUS_HANDLE hStatus, IXA_MOL_HANDLE hMolecule, Pointer pInChI) {
+    InchiLibrary.IXA_MOL_ReadInChI(hStatus.getPointer(), hMolecule.getPointer(), pInChI);
+  }
+
   public static void IXA_MOL_SetChiral(IXA_STATUS_HANDLE hStatus, IXA_MOL_HANDLE hMolecule, boolean vChiral) {
     InchiLibrary.IXA_MOL_SetChiral(hStatus.getPointer(), hMolecule.getPointer(), vChiral);
   }
@@ -391,6 +405,14 @@ public class IxaFunctions {
     return InchiLibrary.IXA_INCHIBUILDER_GetInChI(hStatus.getPointer(), hInChIBuilder.getPointer());
   }
 
+  /**
+   * As {@link #IXA_INCHIBUILDER_GetInChI(IXA_STATUS_HANDLE, IXA_INCHIBUILDER_HANDLE)} but returning the builder's native string,
+   * which remains valid until the builder is next used
+   */
+  public static Pointer IXA_INCHIBUILDER_GetInChIPointer(IXA_STATUS_HANDLE hStatus, IXA_INCHIBUILDER_HANDLE hInChIBuilder) {
+    return InchiLibrary.PointerFunctions.IXA_INCHIBUILDER_GetInChI(hStatus.getPointer(), hInChIBuilder.getPointer());
+  }
+
   public static String IXA_INCHIBUILDER_GetInChIEx(IXA_STATUS_HANDLE hStatus, IXA_INCHIBUILDER_HANDLE hBuilder) {
     return InchiLibrary.IXA_INCHIBUILDER_GetInChIEx(hStatus.getPointer(), hBuilder.getPointer());
   }
@@ -444,6 +466,10 @@ public class IxaFunctions {
     InchiLibrary.IXA_INCHIKEYBUILDER_SetInChI(hStatus.getPointer(), hInChIKeyBuilder.getPointer(), fromString(pInChI));
   }
 
+  public static void IXA_INCHIKEYBUILDER_SetInChI(IXA_STATUS_HANDLE hStatus, IXA_INCHIKEYBUILDER_HANDLE hInChIKeyBuilder, Pointer pInChI) {
+    InchiLibrary.IXA_INCHIKEYBUILDER_SetInChI(hStatus.getPointer(), hInChIKeyBuilder.getPointer(), pInChI);
+  }
+
   public static String IXA_INCHIKEYBUILDER_GetInChIKey(IXA_STATUS_HANDLE hStatus, IXA_INCHIKEYBUILDER_HANDLE hInChIKeyBuilder) {
     return InchiLibrary.IXA_INCHIKEYBUILDER_GetInChIKey(hStatus.getPointer(), hInChIKeyBuilder.getPointer());
   }
@@ -0,0 +1,276 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.util.Set;
+
+import com.github.dan2097.jnainchi.inchi.FfmInchiLibrary;
+import com.github.dan2097.jnainchi.inchi.InchiLibrary.IXA_INCHIBUILDER_OPTION;
+
+/**
+ * Equivalent of {@link JnaInchi} that calls InChI using the Foreign Function and Memory API rather than JNA.
+ * Native structures are allocated in a confined {@link Arena} that is freed when each call returns.
+ * <p>
+ * Requires Java 22 or later, or Java 21 with --enable-preview (when built on Java 21).
+ * Native access should be enabled to avoid a warning, e.g. --enable-native-access=ALL-UNNAMED
+ * <p>
+ * JNA is not initialised, the InChI library is loaded with a {@link java.lang.foreign.SymbolLookup}.
+ * jna-inchi-core, and so JNA, remains a dependency as it provides {@link InchiInput}, {@link InchiOptions} and the other model classes.
+ * <p>
+ * Only InChI/InChIKey generation and checking are provided. Reading InChI or AuxInfo back into an {@link InchiInput}
+ * ({@link JnaInchi#getInchiInputFromInchi(String)}, {@link JnaInchi#getInchiInputFromAuxInfo(String, boolean, boolean)})
+ * is not, use {@link JnaInchi} for these.
+ */
+public class FfmInchi {
+
+  //inchi_Output is four char pointers
+  private static final MemoryLayout INCHI_OUTPUT = MemoryLayout.sequenceLayout(4, ValueLayout.ADDRESS);
+
+  private static final ClassicInchiLayout LAYOUT = new ClassicInchiLayout((int) ValueLayout.ADDRESS.byteSize());
+
+  public static InchiOutput toInchi(InchiInput inchiInput) {
+    return toInchi(inchiInput, InchiOptions.DEFAULT_OPTIONS);
+  }
+
+  /**
+   * The molecule is laid out as an inchi_InputEx in a single native segment and converted with one call to GetINCHIEx.
+   * The output is the same as {@link JnaInchi#toInchi(InchiInput, InchiOptions)}
+   * @param inchiInput
+   * @param options
+   * @return
+   */
+  public static InchiOutput toInchi(InchiInput inchiInput, InchiOptions options) {
+    byte[] optionBytes = ClassicInchiLayout.toOptionBytes(options);
+    int size = LAYOUT.inputSize(inchiInput, optionBytes);
+    try (Arena arena = Arena.ofConfined()) {
+      //allocated memory is zeroed
+      MemorySegment input = arena.allocate(size, 8);
+      LAYOUT.writeInput(input.asByteBuffer().order(ByteOrder.nativeOrder()), input.address(), inchiInput, optionBytes);
+      MemorySegment output = arena.allocate(INCHI_OUTPUT);
+      int ret = FfmInchiLibrary.GetINCHIEx(input, output);
+      try {
+        Set<InchiOutputField> fields = options.getOutputFields();
+        return ClassicInchiLayout.toInchiOutput(ret, getOutputString(output, 0), fields.contains(InchiOutputField.AUX_INFO) ? getOutputString(output, 1) : null,
+            fields.contains(InchiOutputField.MESSAGE) ? getOutputString(output, 2) : null, fields.contains(InchiOutputField.LOG) ? getOutputString(output, 3) : null, fields);
+      }
+      finally {
+        FfmInchiLibrary.FreeINCHI(output);
+      }
+    }
+  }
+
+  public static InchiKeyOutput toInchiKey(InchiInput inchiInput) {
+    return toInchiKey(inchiInput, InchiOptions.DEFAULT_OPTIONS);
+  }
+
+  /**
+   * Generates just the InChIKey of the structure, AuxInfo is not generated.
+   * If no InChI could be generated the status is {@link InchiKeyStatus#EMPTY_INPUT}
+   * @param inchiInput
+   * @param options
+   * @return
+   */
+  public static InchiKeyOutput toInchiKey(InchiInput inchiInput, InchiOptions options) {
+    return inchiToInchiKeyOrEmpty(toInchi(inchiInput, withoutOutputFields(options)).getInchi());
+  }
+
+  public static InchiOutput molToInchi(String molText) {
+    return molToInchi(molText, InchiOptions.DEFAULT_OPTIONS);
+  }
+
+  public static InchiOutput molToInchi(String molText, InchiOptions options) {
+    return ixaToInchi(molText, true, options);
+  }
+
+  public static InchiKeyOutput molToInchiKey(String molText) {
+    return molToInchiKey(molText, InchiOptions.DEFAULT_OPTIONS);
+  }
+
+  /**
+   * Generates just the InChIKey of the molfile, see {@link #toInchiKey(InchiInput, InchiOptions)}
+   * @param molText
+   * @param options
+   * @return
+   */
+  public static InchiKeyOutput molToInchiKey(String molText, InchiOptions options) {
+    return inchiToInchiKeyOrEmpty(molToInchi(molText, withoutOutputFields(options)).getInchi());
+  }
+
+  /**
+   * Converts InChI into InChI for validation purposes.
+   * It may also be used to filter out specific layers.
+   * For instance, SNon would remove the stereochemical layer.
+   * Omitting FixedH and/or RecMet would remove Fixed-H or Reconnected layers.
+   * @param inchi
+   * @param options
+   * @return
+   */
+  public static InchiOutput inchiToInchi(String inchi, InchiOptions options) {
+    return ixaToInchi(inchi, false, options);
+  }
+
+  public static InchiKeyOutput inchiToInchiKey(String inchi) {
+    try (Arena arena = Arena.ofConfined()) {
+      MemorySegment inchiKey = arena.allocate(28);
+      MemorySegment szXtra1 = arena.allocate(65);
+      MemorySegment szXtra2 = arena.allocate(65);
+      InchiKeyStatus ret = InchiKeyStatus.of(FfmInchiLibrary.GetINCHIKeyFromINCHI(FfmInchiLibrary.toCString(arena, inchi), 1, 1, inchiKey, szXtra1, szXtra2));
+      return new InchiKeyOutput(FfmInchiLibrary.toJavaString(inchiKey), ret);
+    }
+  }
+
+  public static InchiCheckStatus checkInchi(String inchi, boolean strict) {
+    try (Arena arena = Arena.ofConfined()) {
+      return InchiCheckStatus.of(FfmInchiLibrary.CheckINCHI(FfmInchiLibrary.toCString(arena, inchi), strict));
+    }
+  }
+
+  public static InchiKeyCheckStatus checkInchiKey(String inchiKey) {
+    try (Arena arena = Arena.ofConfined()) {
+      return InchiKeyCheckStatus.of(FfmInchiLibrary.CheckINCHIKey(FfmInchiLibrary.toCString(arena, inchiKey)));
+    }
+  }
+
+  private static InchiKeyOutput inchiToInchiKeyOrEmpty(String inchi) {
+    return inchi != null ? inchiToInchiKey(inchi) : new InchiKeyOutput("", InchiKeyStatus.EMPTY_INPUT);
+  }
+
+  /**
+   * The same options with no optional output fields, so that only the InChI is generated
+   * @param options
+   * @return
+   */
+  private static InchiOptions withoutOutputFields(InchiOptions options) {
+    if (options.getOutputFields().isEmpty()) {
+      return options;
+    }
+    InchiOptions.InchiOptionsBuilder builder = new InchiOptions.InchiOptionsBuilder()
+        .withTimeoutMilliSeconds(options.getTimeoutMilliSeconds())
+        .withOutputFields();
+    for (InchiFlag flag : options.getFlags()) {
+      builder.withFlag(flag);
+    }
+    return builder.build();
+  }
+
+  private static String getOutputString(MemorySegment output, int field) {
+    return FfmInchiLibrary.toJavaString(output.getAtIndex(ValueLayout.ADDRESS, field));
+  }
+
+  /**
+   * Reads a molfile or InChI into an IXA molecule and builds its InChI, as {@link InchiConverter} does
+   * @param text
+   * @param molfile
+   * @param options
+   * @return
+   */
+  private static InchiOutput ixaToInchi(String text, boolean molfile, InchiOptions options) {
+    try (Arena arena = Arena.ofConfined()) {
+      MemorySegment status = FfmInchiLibrary.IXA_STATUS_Create();
+      MemorySegment mol = FfmInchiLibrary.IXA_MOL_Create(status);
+      MemorySegment builder = null;
+      try {
+        if (molfile) {
+          FfmInchiLibrary.IXA_MOL_ReadMolfile(status, mol, FfmInchiLibrary.toCString(arena, text));
+        }
+        else {
+          FfmInchiLibrary.IXA_MOL_ReadInChI(status, mol, FfmInchiLibrary.toCString(arena, text));
+        }
+        Set<InchiOutputField> fields = options.getOutputFields();
+        //IXA functions do nothing once an error has occurred
+        if (FfmInchiLibrary.IXA_STATUS_HasError(status)) {
+          return new InchiOutput(null, null, fields.contains(InchiOutputField.MESSAGE) ? getMessages(status) : null, null, InchiStatus.ERROR);
+        }
+        for (InchiFlag flag : options.getFlags()) {
+          if (flag == InchiFlag.ChiralFlagON || flag == InchiFlag.ChiralFlagOFF) {
+            FfmInchiLibrary.IXA_MOL_SetChiral(status, mol, flag == InchiFlag.ChiralFlagON);
+          }
+        }
+        builder = FfmInchiLibrary.IXA_INCHIBUILDER_Create(status);
+        applyBuilderOptions(status, builder, options);
+        boolean auxInfoRequested = fields.contains(InchiOutputField.AUX_INFO);
+        if (!auxInfoRequested) {
+          FfmInchiLibrary.IXA_INCHIBUILDER_SetOption(status, builder, IXA_INCHIBUILDER_OPTION.IXA_INCHIBUILDER_OPTION_AuxNone, true);
+        }
+        FfmInchiLibrary.IXA_INCHIBUILDER_SetMolecule(status, builder, mol);
+
+        String inchi = FfmInchiLibrary.IXA_INCHIBUILDER_GetInChI(status, builder);
+        InchiStatus inchiStatus = InchiStatus.SUCCESS;
+        if (FfmInchiLibrary.IXA_STATUS_HasError(status)) {
+          inchiStatus = InchiStatus.ERROR;
+        }
+        else if (FfmInchiLibrary.IXA_STATUS_HasWarning(status)) {
+          inchiStatus = InchiStatus.WARNING;
+        }
+        String auxInfo = null;
+        if (auxInfoRequested && inchi != null) {
+          auxInfo = FfmInchiLibrary.IXA_INCHIBUILDER_GetAuxInfo(status, builder);
+        }
+        String log = null;
+        if (fields.contains(InchiOutputField.LOG) && inchiStatus != InchiStatus.ERROR) {
+          log = FfmInchiLibrary.IXA_INCHIBUILDER_GetLog(status, builder);
+        }
+        String message = fields.contains(InchiOutputField.MESSAGE) ? getMessages(status) : null;
+        return new InchiOutput(inchi, auxInfo, message, log, inchiStatus);
+      }
+      finally {
+        if (builder != null) {
+          FfmInchiLibrary.IXA_INCHIBUILDER_Destroy(status, builder);
+        }
+        FfmInchiLibrary.IXA_MOL_Destroy(status, mol);
+        FfmInchiLibrary.IXA_STATUS_Destroy(status);
+      }
+    }
+  }
+
+  private static String getMessages(MemorySegment status) {
+    StringBuilder sb = new StringBuilder();
+    int messageCount = FfmInchiLibrary.IXA_STATUS_GetCount(status);
+    for (int i = 0; i < messageCount; i++) {
+      if (i > 0) {
+        sb.append("; ");
+      }
+      sb.append(FfmInchiLibrary.IXA_STATUS_GetMessage(status, i));
+    }
+    return sb.toString();
+  }
+
+  private static void applyBuilderOptions(MemorySegment status, MemorySegment builder, InchiOptions options) {
+    long timeoutMilliSecs = options.getTimeoutMilliSeconds();
+    if (timeoutMilliSecs != 0) {
+      FfmInchiLibrary.IXA_INCHIBUILDER_SetOption_Timeout_MilliSeconds(status, builder, timeoutMilliSecs);
+    }
+    for (InchiFlag flag : options.getFlags()) {
+      int option = InchiConverter.toIxaBuilderOption(flag);
+      if (option >= 0) {
+        FfmInchiLibrary.IXA_INCHIBUILDER_SetOption(status, builder, option, true);
+        continue;
+      }
+      int stereoOption = InchiConverter.toIxaStereoOption(flag);
+      if (stereoOption >= 0) {
+        FfmInchiLibrary.IXA_INCHIBUILDER_SetOption_Stereo(status, builder, stereoOption);
+      }
+    }
+  }
+
+}
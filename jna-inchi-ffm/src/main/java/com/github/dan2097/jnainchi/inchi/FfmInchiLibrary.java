@@ -0,0 +1,452 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi.inchi;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+
+/**
+ * Binds the InChI library (the same native library as {@link InchiLibrary}) using downcall handles from the Foreign Function and Memory API.
+ * Pointers, including the opaque IXA handles, are passed as {@link MemorySegment}s.
+ * Only the functions used by {@link com.github.dan2097.jnainchi.FfmInchi} are bound.
+ * <p>
+ * Only API present in both Java 21 (as a preview) and Java 22 is used, e.g. strings are copied with {@link #toCString(SegmentAllocator, String)}
+ * and {@link #toJavaString(MemorySegment)} rather than the methods that were renamed in Java 22.
+ */
+public class FfmInchiLibrary {
+
+  private static final Linker LINKER = Linker.nativeLinker();
+  private static final SymbolLookup LIBRARY = loadLibrary();
+
+  //C long is 32-bit on Windows, and 64-bit on the other platforms supported by the linker
+  private static final MemoryLayout C_LONG = System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows") ? JAVA_INT : JAVA_LONG;
+
+  private static final MethodHandle GET_INCHI_EX = downcall("GetINCHIEx", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
+  private static final MethodHandle FREE_INCHI = downcall("FreeINCHI", FunctionDescriptor.ofVoid(ADDRESS));
+  private static final MethodHandle GET_INCHIKEY_FROM_INCHI = downcall("GetINCHIKeyFromINCHI", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT, ADDRESS, ADDRESS, ADDRESS));
+  private static final MethodHandle CHECK_INCHI = downcall("CheckINCHI", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT));
+  private static final MethodHandle CHECK_INCHIKEY = downcall("CheckINCHIKey", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+
+  private static final MethodHandle IXA_STATUS_CREATE = downcall("IXA_STATUS_Create", FunctionDescriptor.of(ADDRESS));
+  private static final MethodHandle IXA_STATUS_DESTROY = downcall("IXA_STATUS_Destroy", FunctionDescriptor.ofVoid(ADDRESS));
+  private static final MethodHandle IXA_STATUS_HAS_ERROR = downcall("IXA_STATUS_HasError", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+  private static final MethodHandle IXA_STATUS_HAS_WARNING = downcall("IXA_STATUS_HasWarning", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+  private static final MethodHandle IXA_STATUS_GET_COUNT = downcall("IXA_STATUS_GetCount", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+  private static final MethodHandle IXA_STATUS_GET_MESSAGE = downcall("IXA_STATUS_GetMessage", FunctionDescriptor.of(ADDRESS, ADDRESS, JAVA_INT));
+
+  private static final MethodHandle IXA_MOL_CREATE = downcall("IXA_MOL_Create", FunctionDescriptor.of(ADDRESS, ADDRESS));
+  private static final MethodHandle IXA_MOL_DESTROY = downcall("IXA_MOL_Destroy", FunctionDescriptor.ofVoid(ADDRESS, ADDRESS));
+  private static final MethodHandle IXA_MOL_READ_MOLFILE = downcall("IXA_MOL_ReadMolfile", FunctionDescriptor.ofVoid(ADDRESS, ADDRESS, ADDRESS));
+  private static final MethodHandle IXA_MOL_READ_INCHI = downcall("IXA_MOL_ReadInChI", FunctionDescriptor.ofVoid(ADDRESS, ADDRESS, ADDRESS));
+  private static final MethodHandle IXA_MOL_SET_CHIRAL = downcall("IXA_MOL_SetChiral", FunctionDescriptor.ofVoid(ADDRESS, ADDRESS, JAVA_INT));
+
+  private static final MethodHandle IXA_INCHIBUILDER_CREATE = downcall("IXA_INCHIBUILDER_Create", FunctionDescriptor.of(ADDRESS, ADDRESS));
+  private static final MethodHandle IXA_INCHIBUILDER_DESTROY = downcall("IXA_INCHIBUILDER_Destroy", FunctionDescriptor.ofVoid(ADDRESS, ADDRESS));
+  private static final MethodHandle IXA_INCHIBUILDER_SET_MOLECULE = downcall("IXA_INCHIBUILDER_SetMolecule", FunctionDescriptor.ofVoid(ADDRESS, ADDRESS, ADDRESS));
+  private static final MethodHandle IXA_INCHIBUILDER_SET_OPTION = downcall("IXA_INCHIBUILDER_SetOption", FunctionDescriptor.ofVoid(ADDRESS, ADDRESS, JAVA_INT, JAVA_INT));
+  private static final MethodHandle IXA_INCHIBUILDER_SET_OPTION_STEREO = downcall("IXA_INCHIBUILDER_SetOption_Stereo", FunctionDescriptor.ofVoid(ADDRESS, ADDRESS, JAVA_INT));
+  private static final MethodHandle IXA_INCHIBUILDER_SET_OPTION_TIMEOUT_MILLISECONDS = MethodHandles.explicitCastArguments(
+      downcall("IXA_INCHIBUILDER_SetOption_Timeout_MilliSeconds", FunctionDescriptor.ofVoid(ADDRESS, ADDRESS, C_LONG)),
+      MethodType.methodType(void.class, MemorySegment.class, MemorySegment.class, long.class));
+  private static final MethodHandle IXA_INCHIBUILDER_GET_INCHI = downcall("IXA_INCHIBUILDER_GetInChI", FunctionDescriptor.of(ADDRESS, ADDRESS, ADDRESS));
+  private static final MethodHandle IXA_INCHIBUILDER_GET_AUXINFO = downcall("IXA_INCHIBUILDER_GetAuxInfo", FunctionDescriptor.of(ADDRESS, ADDRESS, ADDRESS));
+  private static final MethodHandle IXA_INCHIBUILDER_GET_LOG = downcall("IXA_INCHIBUILDER_GetLog", FunctionDescriptor.of(ADDRESS, ADDRESS, ADDRESS));
+
+  /**
+   * Loads the library bundled for this platform in jna-inchi-core (extracting it from the jar if necessary),
+   * falling back to the system library path
+   * @return
+   */
+  private static SymbolLookup loadLibrary() {
+    String libName = System.mapLibraryName(InchiLibrary.JNA_LIBRARY_NAME);
+    URL resource = FfmInchiLibrary.class.getResource("/" + getResourcePrefix() + "/" + libName);
+    if (resource == null) {
+      return SymbolLookup.libraryLookup(libName, Arena.global());
+    }
+    try {
+      Path libPath;
+      if ("file".equals(resource.getProtocol())) {
+        libPath = Path.of(resource.toURI());
+      }
+      else {
+        libPath = Files.createTempFile("jnainchi", libName);
+        libPath.toFile().deleteOnExit();
+        try (InputStream is = resource.openStream()) {
+          Files.copy(is, libPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+      return SymbolLookup.libraryLookup(libPath, Arena.global());
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException("Failed to extract " + resource, e);
+    }
+    catch (Exception e) {
+      throw new IllegalStateException("Failed to load " + resource, e);
+    }
+  }
+
+  /**
+   * The directory of jna-inchi-core that holds the library for this platform, as named by JNA's Platform.RESOURCE_PREFIX.
+   * Computed here so that JNA is not initialised
+   * @return
+   */
+  public static String getResourcePrefix() {
+    String osName = System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
+    String os;
+    if (osName.startsWith("windows")) {
+      os = "win32";
+    }
+    else if (osName.startsWith("mac") || osName.startsWith("darwin")) {
+      os = "darwin";
+    }
+    else {
+      os = osName.replaceAll("\\s", "");
+    }
+    String arch = System.getProperty("os.arch", "").toLowerCase(Locale.ROOT);
+    switch (arch) {
+    case "amd64":
+    case "x86_64":
+      arch = "x86-64";
+      break;
+    case "i386":
+    case "i486":
+    case "i586":
+    case "i686":
+      arch = "x86";
+      break;
+    case "arm64":
+      arch = "aarch64";
+      break;
+    default:
+      break;
+    }
+    return os + "-" + arch;
+  }
+
+  private static MethodHandle downcall(String name, FunctionDescriptor descriptor) {
+    MemorySegment symbol = LIBRARY.find(name).orElseThrow(() -> new UnsatisfiedLinkError("InChI library does not contain " + name));
+    return LINKER.downcallHandle(symbol, descriptor);
+  }
+
+  private static RuntimeException rethrow(Throwable e) {
+    if (e instanceof RuntimeException) {
+      return (RuntimeException) e;
+    }
+    if (e instanceof Error) {
+      throw (Error) e;
+    }
+    return new IllegalStateException(e);
+  }
+
+  /**
+   * Original signature : <code>int GetINCHIEx(inchi_InputEx*, inchi_Output*)</code><br>
+   */
+  public static int GetINCHIEx(MemorySegment inp, MemorySegment out) {
+    try {
+      return (int) GET_INCHI_EX.invokeExact(inp, out);
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * Original signature : <code>void FreeINCHI(inchi_Output*)</code><br>
+   */
+  public static void FreeINCHI(MemorySegment out) {
+    try {
+      FREE_INCHI.invokeExact(out);
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * Original signature : <code>int GetINCHIKeyFromINCHI(const char*, const int, const int, char*, char*, char*)</code><br>
+   */
+  public static int GetINCHIKeyFromINCHI(MemorySegment szINCHISource, int xtra1, int xtra2, MemorySegment szINCHIKey, MemorySegment szXtra1, MemorySegment szXtra2) {
+    try {
+      return (int) GET_INCHIKEY_FROM_INCHI.invokeExact(szINCHISource, xtra1, xtra2, szINCHIKey, szXtra1, szXtra2);
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * Original signature : <code>int CheckINCHI(const char*, const int)</code><br>
+   */
+  public static int CheckINCHI(MemorySegment szINCHI, boolean strict) {
+    try {
+      return (int) CHECK_INCHI.invokeExact(szINCHI, strict ? 1 : 0);
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * Original signature : <code>int CheckINCHIKey(const char*)</code><br>
+   */
+  public static int CheckINCHIKey(MemorySegment szINCHIKey) {
+    try {
+      return (int) CHECK_INCHIKEY.invokeExact(szINCHIKey);
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public static MemorySegment IXA_STATUS_Create() {
+    try {
+      return (MemorySegment) IXA_STATUS_CREATE.invokeExact();
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public static void IXA_STATUS_Destroy(MemorySegment hStatus) {
+    try {
+      IXA_STATUS_DESTROY.invokeExact(hStatus);
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public static boolean IXA_STATUS_HasError(MemorySegment hStatus) {
+    try {
+      return (int) IXA_STATUS_HAS_ERROR.invokeExact(hStatus) != 0;
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public static boolean IXA_STATUS_HasWarning(MemorySegment hStatus) {
+    try {
+      return (int) IXA_STATUS_HAS_WARNING.invokeExact(hStatus) != 0;
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public static int IXA_STATUS_GetCount(MemorySegment hStatus) {
+    try {
+      return (int) IXA_STATUS_GET_COUNT.invokeExact(hStatus);
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public static String IXA_STATUS_GetMessage(MemorySegment hStatus, int vIndex) {
+    try {
+      return toJavaString((MemorySegment) IXA_STATUS_GET_MESSAGE.invokeExact(hStatus, vIndex));
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public static MemorySegment IXA_MOL_Create(MemorySegment hStatus) {
+    try {
+      return (MemorySegment) IXA_MOL_CREATE.invokeExact(hStatus);
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public static void IXA_MOL_Destroy(MemorySegment hStatus, MemorySegment hMolecule) {
+    try {
+      IXA_MOL_DESTROY.invokeExact(hStatus, hMolecule);
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public static void IXA_MOL_ReadMolfile(MemorySegment hStatus, MemorySegment hMolecule, MemorySegment pBytes) {
+    try {
+      IXA_MOL_READ_MOLFILE.invokeExact(hStatus, hMolecule, pBytes);
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public static void IXA_MOL_ReadInChI(MemorySegment hStatus, MemorySegment hMolecule, MemorySegment pInChI) {
+    try {
+      IXA_MOL_READ_INCHI.invokeExact(hStatus, hMolecule, pInChI);
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public static void IXA_MOL_SetChiral(MemorySegment hStatus, MemorySegment hMolecule, boolean vChiral) {
+    try {
+      IXA_MOL_SET_CHIRAL.invokeExact(hStatus, hMolecule, vChiral ? 1 : 0);
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public static MemorySegment IXA_INCHIBUILDER_Create(MemorySegment hStatus) {
+    try {
+      return (MemorySegment) IXA_INCHIBUILDER_CREATE.invokeExact(hStatus);
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public static void IXA_INCHIBUILDER_Destroy(MemorySegment hStatus, MemorySegment hInChIBuilder) {
+    try {
+      IXA_INCHIBUILDER_DESTROY.invokeExact(hStatus, hInChIBuilder);
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public static void IXA_INCHIBUILDER_SetMolecule(MemorySegment hStatus, MemorySegment hInChIBuilder, MemorySegment hMolecule) {
+    try {
+      IXA_INCHIBUILDER_SET_MOLECULE.invokeExact(hStatus, hInChIBuilder, hMolecule);
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public static void IXA_INCHIBUILDER_SetOption(MemorySegment hStatus, MemorySegment hInChIBuilder, int vOption, boolean vValue) {
+    try {
+      IXA_INCHIBUILDER_SET_OPTION.invokeExact(hStatus, hInChIBuilder, vOption, vValue ? 1 : 0);
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public static void IXA_INCHIBUILDER_SetOption_Stereo(MemorySegment hStatus, MemorySegment hInChIBuilder, int vValue) {
+    try {
+      IXA_INCHIBUILDER_SET_OPTION_STEREO.invokeExact(hStatus, hInChIBuilder, vValue);
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public static void IXA_INCHIBUILDER_SetOption_Timeout_MilliSeconds(MemorySegment hStatus, MemorySegment hInChIBuilder, long vValue) {
+    try {
+      IXA_INCHIBUILDER_SET_OPTION_TIMEOUT_MILLISECONDS.invokeExact(hStatus, hInChIBuilder, vValue);
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public static String IXA_INCHIBUILDER_GetInChI(MemorySegment hStatus, MemorySegment hInChIBuilder) {
+    try {
+      return toJavaString((MemorySegment) IXA_INCHIBUILDER_GET_INCHI.invokeExact(hStatus, hInChIBuilder));
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public static String IXA_INCHIBUILDER_GetAuxInfo(MemorySegment hStatus, MemorySegment hInChIBuilder) {
+    try {
+      return toJavaString((MemorySegment) IXA_INCHIBUILDER_GET_AUXINFO.invokeExact(hStatus, hInChIBuilder));
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public static String IXA_INCHIBUILDER_GetLog(MemorySegment hStatus, MemorySegment hInChIBuilder) {
+    try {
+      return toJavaString((MemorySegment) IXA_INCHIBUILDER_GET_LOG.invokeExact(hStatus, hInChIBuilder));
+    }
+    catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * Copies a string into native memory as a null terminated UTF-8 string
+   * @param allocator
+   * @param str
+   * @return
+   */
+  public static MemorySegment toCString(SegmentAllocator allocator, String str) {
+    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+    MemorySegment cstr = allocator.allocate(bytes.length + 1L);
+    MemorySegment.copy(bytes, 0, cstr, JAVA_BYTE, 0, bytes.length);
+    cstr.set(JAVA_BYTE, bytes.length, (byte) 0);
+    return cstr;
+  }
+
+  /**
+   * Reads a null terminated string returned by the InChI library
+   * @param cstr
+   * @return the string, or null for a NULL pointer
+   */
+  public static String toJavaString(MemorySegment cstr) {
+    if (cstr.address() == 0) {
+      return null;
+    }
+    //pointers returned by native code are zero length segments
+    MemorySegment str = cstr.reinterpret(Long.MAX_VALUE);
+    long length = 0;
+    while (str.get(JAVA_BYTE, length) != 0) {
+      length++;
+    }
+    byte[] bytes = new byte[Math.toIntExact(length)];
+    MemorySegment.copy(str, JAVA_BYTE, 0, bytes, 0, bytes.length);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,93 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.github.dan2097.jnainchi.inchi.FfmInchiLibrary;
+import com.sun.jna.Platform;
+
+public class FfmInchiTest {
+
+  private static final String[] INCHIS = {
+      "InChI=1S/CH4/h1H4",
+      "InChI=1S/C2H6O/c1-2-3/h3H,2H2,1H3",
+      "InChI=1S/C4H8/c1-3-4-2/h3-4H,1-2H3/b4-3+",
+      "InChI=1S/C4H10O/c1-3-4(2)5/h4-5H,3H2,1-2H3/t4-/m0/s1",
+      "InChI=1S/C3H2Cl2/c4-2-1-3-5/h2-3H/t1-/m1/s1",
+      "InChI=1S/C2H4O2/c1-2(3)4/h1H3,(H,3,4)/p-1",
+      "InChI=1S/invalid"
+  };
+
+  private static final String MOLFILE = "\n  test\n\n"
+      + "  3  2  0  0  0  0  0  0  0  0999 V2000\n"
+      + "    0.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    1.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    2.0000    0.0000    0.0000 O   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "  1  2  1  0\n"
+      + "  2  3  1  0\n"
+      + "M  END\n";
+
+  private static final InchiOptions FIXEDH = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH, InchiFlag.SUU).build();
+
+  private static final InchiOptions INCHI_ONLY = new InchiOptions.InchiOptionsBuilder().withOutputFields().build();
+
+  @Test
+  public void testMatchesJnaInchi() {
+    for (InchiOptions options : new InchiOptions[] {InchiOptions.DEFAULT_OPTIONS, FIXEDH, INCHI_ONLY}) {
+      for (String inchi : INCHIS) {
+        assertSameOutput(JnaInchi.inchiToInchi(inchi, options), FfmInchi.inchiToInchi(inchi, options));
+        InchiInput input = JnaInchi.getInchiInputFromInchi(inchi).getInchiInput();
+        assertSameOutput(JnaInchi.toInchi(input, options), FfmInchi.toInchi(input, options));
+      }
+      assertSameOutput(JnaInchi.molToInchi(MOLFILE, options), FfmInchi.molToInchi(MOLFILE, options));
+    }
+  }
+
+  @Test
+  public void testInchiKey() {
+    for (String inchi : INCHIS) {
+      InchiKeyOutput expected = JnaInchi.inchiToInchiKey(inchi);
+      InchiKeyOutput actual = FfmInchi.inchiToInchiKey(inchi);
+      assertEquals(expected.getInchiKey(), actual.getInchiKey());
+      assertEquals(expected.getStatus(), actual.getStatus());
+      assertEquals(JnaInchi.checkInchi(inchi, true), FfmInchi.checkInchi(inchi, true));
+      assertEquals(JnaInchi.checkInchiKey(expected.getInchiKey()), FfmInchi.checkInchiKey(expected.getInchiKey()));
+      InchiInput input = JnaInchi.getInchiInputFromInchi(inchi).getInchiInput();
+      assertEquals(JnaInchi.toInchiKey(input).getInchiKey(), FfmInchi.toInchiKey(input).getInchiKey());
+    }
+    assertEquals(JnaInchi.molToInchiKey(MOLFILE).getInchiKey(), FfmInchi.molToInchiKey(MOLFILE).getInchiKey());
+    assertEquals(InchiKeyStatus.EMPTY_INPUT, FfmInchi.molToInchiKey("invalid").getStatus());
+  }
+
+  @Test
+  public void testResourcePrefixMatchesJna() {
+    assertEquals(Platform.RESOURCE_PREFIX, FfmInchiLibrary.getResourcePrefix());
+  }
+
+  private static void assertSameOutput(InchiOutput expected, InchiOutput actual) {
+    assertEquals(expected.getInchi(), actual.getInchi());
+    assertEquals(expected.getAuxInfo(), actual.getAuxInfo());
+    assertEquals(expected.getMessage(), actual.getMessage());
+    assertEquals(expected.getLog(), actual.getLog());
+    assertEquals(expected.getStatus(), actual.getStatus());
+  }
+
+}
@@ -0,0 +1,353 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Converts a SMILES file, one SMILES per line optionally followed by whitespace and an identifier,
+ * writing id&lt;TAB&gt;InChI&lt;TAB&gt;InChIKey&lt;TAB&gt;status lines in input order.
+ * If a line has no identifier its line number is used.
+ * <p>
+ * Lines are parsed and converted on a pool of worker threads, each with its own native InChI session,
+ * with only a bounded number of lines in memory at once. The InChIKey is generated by {@link InchiKeyGenerator}.
+ * Lines that could not be converted have an empty InChI and InChIKey and the status {@link InchiStatus#ERROR}.
+ * <p>
+ * The counts may be read whilst processing is in progress, e.g. from a monitoring thread.
+ * <p>
+ * {@link #process(Stream, InchiBatch.Conversion, LineFormatter, Writer)} applies the same processing to other records,
+ * e.g. InChI files or SD file records, with a caller supplied conversion and output format.
+ */
+public class SmilesFileProcessor {
+
+  private final InchiOptions options;
+  private final int parallelism;
+
+  private Consumer<Counts> progressListener;
+  private long progressInterval;
+
+  private final AtomicLong records = new AtomicLong();
+  private final AtomicLong successes = new AtomicLong();
+  private final AtomicLong warnings = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicLong parseErrors = new AtomicLong();
+  private volatile long startNanos;
+  private volatile long endNanos;
+
+  /**
+   * @param options options to use, {@link InchiOptions.InchiOptionsBuilder#withOutputFields(InchiOutputField...)} with no fields is recommended
+   * @param parallelism the number of worker threads
+   */
+  public SmilesFileProcessor(InchiOptions options, int parallelism) {
+    if (options == null) {
+      throw new IllegalArgumentException("options must not be null");
+    }
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+    }
+    this.options = options;
+    this.parallelism = parallelism;
+    resetCounts();
+  }
+
+  /**
+   * A record to convert, with its identifier
+   */
+  public static class Record {
+
+    private final String id;
+    private final String text;
+
+    public Record(String id, String text) {
+      this.id = id;
+      this.text = text;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public String getText() {
+      return text;
+    }
+  }
+
+  /**
+   * Formats the output line of a record
+   */
+  public interface LineFormatter {
+
+    /**
+     * Appends the output line for the result, excluding the line terminator
+     * @param sb
+     * @param id
+     * @param result
+     */
+    void append(StringBuilder sb, String id, InchiBatchResult result);
+  }
+
+  /**
+   * Calls the listener, on the processing thread, each time the given number of records have been written
+   * @param listener
+   * @param interval
+   */
+  public void setProgressListener(Consumer<Counts> listener, long interval) {
+    if (interval < 1) {
+      throw new IllegalArgumentException("interval must be at least 1: " + interval);
+    }
+    this.progressListener = listener;
+    this.progressInterval = interval;
+  }
+
+  public Counts process(Path input, Path output) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+        BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+      return process(reader, writer);
+    }
+  }
+
+  /**
+   * Converts the SMILES read from input, writing the results to output. Neither is closed
+   * @param input
+   * @param output
+   * @return the final counts
+   * @throws IOException
+   */
+  public Counts process(BufferedReader input, Writer output) throws IOException {
+    resetCounts();
+    return process(readLines(input), smiles -> SmilesToInchi.toInchi(smiles, options), SmilesFileProcessor::appendDefault, output);
+  }
+
+  /**
+   * Converts the records with the given conversion, writing a line for each, as formatted by the formatter, to output in input order.
+   * Output is not closed. Records are read on the calling thread as they are needed.
+   * <p>
+   * Unlike {@link #process(BufferedReader, Writer)} the counts are not reset, so they accumulate over calls, e.g. for several files.
+   * Records whose conversion threw an IOException, e.g. unparseable SMILES, are counted as parse errors
+   * @param records
+   * @param conversion
+   * @param formatter
+   * @param output
+   * @return the counts since they were last reset
+   * @throws IOException
+   */
+  public Counts process(Stream<Record> records, InchiBatch.Conversion<String, InchiOutput> conversion, LineFormatter formatter, Writer output) throws IOException {
+    endNanos = 0;
+    //Records are read on this thread as the batch requests them, so their ids are queued in input order
+    Deque<String> ids = new ArrayDeque<>();
+    Stream<String> texts = records.map(record -> {
+      ids.add(record.getId());
+      return record.getText();
+    });
+    StringBuilder sb = new StringBuilder();
+    try (Stream<InchiBatchResult> results = InchiBatch.convertAll(texts, conversion, parallelism)) {
+      Iterator<InchiBatchResult> it = results.iterator();
+      while (it.hasNext()) {
+        InchiBatchResult result = it.next();
+        sb.setLength(0);
+        formatter.append(sb, ids.poll(), result);
+        sb.append('\n');
+        output.append(sb);
+        count(result);
+      }
+    }
+    catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    finally {
+      endNanos = System.nanoTime();
+    }
+    output.flush();
+    return getCounts();
+  }
+
+  /**
+   * Reads records that are one per line, optionally followed by whitespace and an identifier, e.g. SMILES or InChI.
+   * If a line has no identifier its line number is used. Blank lines are skipped
+   * @param input
+   * @return
+   */
+  public static Stream<Record> readLines(BufferedReader input) {
+    long[] lineNumber = new long[1];
+    return input.lines()
+        .map(line -> {
+          lineNumber[0]++;
+          return line.trim();
+        })
+        .filter(line -> !line.isEmpty())
+        .map(line -> {
+          int idx = indexOfWhitespace(line);
+          if (idx < 0) {
+            return new Record(String.valueOf(lineNumber[0]), line);
+          }
+          return new Record(line.substring(idx + 1).trim(), line.substring(0, idx));
+        });
+  }
+
+  /**
+   * Resets the counts to zero and restarts the elapsed time
+   */
+  public void resetCounts() {
+    records.set(0);
+    successes.set(0);
+    warnings.set(0);
+    errors.set(0);
+    parseErrors.set(0);
+    startNanos = System.nanoTime();
+    endNanos = 0;
+  }
+
+  /**
+   * id, InChI, InChIKey and status
+   */
+  private static void appendDefault(StringBuilder sb, String id, InchiBatchResult result) {
+    sb.append(id).append('\t');
+    InchiOutput inchiOutput = result.getOutput();
+    String inchi = inchiOutput != null ? inchiOutput.getInchi() : null;
+    if (inchi != null) {
+      sb.append(inchi).append('\t').append(InchiKeyGenerator.inchiToInchiKey(inchi).getInchiKey()).append('\t');
+    }
+    else {
+      sb.append('\t').append('\t');
+    }
+    sb.append(inchiOutput != null ? inchiOutput.getStatus() : InchiStatus.ERROR);
+  }
+
+  private void count(InchiBatchResult result) {
+    InchiOutput inchiOutput = result.getOutput();
+    InchiStatus status = inchiOutput != null ? inchiOutput.getStatus() : InchiStatus.ERROR;
+    if (result.getError() instanceof IOException) {
+      parseErrors.incrementAndGet();
+    }
+    switch (status) {
+    case SUCCESS:
+      successes.incrementAndGet();
+      break;
+    case WARNING:
+      warnings.incrementAndGet();
+      break;
+    case ERROR:
+      errors.incrementAndGet();
+      break;
+    }
+    long count = records.incrementAndGet();
+    if (progressListener != null && count % progressInterval == 0) {
+      progressListener.accept(getCounts());
+    }
+  }
+
+  /**
+   * The counts since they were last reset, see {@link #resetCounts()}
+   * @return
+   */
+  public Counts getCounts() {
+    long end = endNanos;
+    long elapsed = (end != 0 ? end : System.nanoTime()) - startNanos;
+    return new Counts(records.get(), successes.get(), warnings.get(), errors.get(), parseErrors.get(), elapsed);
+  }
+
+  private static int indexOfWhitespace(String line) {
+    for (int i = 0, len = line.length(); i < len; i++) {
+      char ch = line.charAt(i);
+      if (ch == ' ' || ch == '\t') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public static class Counts {
+
+    private final long records;
+    private final long successes;
+    private final long warnings;
+    private final long errors;
+    private final long parseErrors;
+    private final long elapsedNanos;
+
+    Counts(long records, long successes, long warnings, long errors, long parseErrors, long elapsedNanos) {
+      this.records = records;
+      this.successes = successes;
+      this.warnings = warnings;
+      this.errors = errors;
+      this.parseErrors = parseErrors;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * The number of records written, including those that could not be converted
+     * @return
+     */
+    public long getRecords() {
+      return records;
+    }
+
+    public long getSuccesses() {
+      return successes;
+    }
+
+    public long getWarnings() {
+      return warnings;
+    }
+
+    /**
+     * The number of records for which no InChI was generated, including those that could not be parsed
+     * @return
+     */
+    public long getErrors() {
+      return errors;
+    }
+
+    /**
+     * The number of records that could not be parsed
+     * @return
+     */
+    public long getParseErrors() {
+      return parseErrors;
+    }
+
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    public double getRecordsPerSecond() {
+      return elapsedNanos > 0 ? records * 1e9 / elapsedNanos : 0;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "%d records (%d success, %d warning, %d error of which %d unparseable) in %.1fs, %.0f records/s",
+          records, successes, warnings, errors, parseErrors, elapsedNanos / 1e9, getRecordsPerSecond());
+    }
+  }
+
+}
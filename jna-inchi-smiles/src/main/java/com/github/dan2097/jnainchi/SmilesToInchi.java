@@ -20,6 +20,8 @@ package com.github.dan2097.jnainchi;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import uk.ac.ebi.beam.Atom;
 import uk.ac.ebi.beam.Bond;
@@ -63,7 +65,122 @@ public class SmilesToInchi {
     return JnaInchi.toInchi(input, options);
   }
 
-  private static InchiInput graphToInput(Graph g) throws IOException {
+  /**
+   * Convert a SMILES string to InChI using the given options, returning the stored result if the SMILES has been converted before,
+   * see {@link InchiMemoStore#getOrConvert(InchiMemoStore.Key, InchiOptions, InchiMemoStore.Conversion)}.
+   * The store is checked before the SMILES is parsed.
+   * Throws an IOException if there is an issue with the SMILES string or the store
+   * or IllegalArgumentException if given null input
+   * @param smiles
+   * @param options
+   * @param memo
+   * @return
+   * @throws IOException
+   */
+  public static InchiOutput toInchi(String smiles, InchiOptions options, InchiMemoStore memo) throws IOException {
+    if (smiles == null) {
+      throw new IllegalArgumentException("SMILES should not be null");
+    }
+    if (options == null) {
+      throw new IllegalArgumentException("options must not be null");
+    }
+    return memo.getOrConvert(InchiMemoStore.Key.ofSmiles(smiles, options), options, () -> toInchi(smiles, options));
+  }
+
+  /**
+   * Convert a SMILES string to InChI using the given options, returning the cached result if the same SMILES string
+   * has been converted with the same options, see {@link InchiResultCache.Key#ofSmiles(String, InchiOptions)}.
+   * A cache hit skips parsing the SMILES. Results are keyed by the exact string, so equivalent SMILES are cached separately.
+   * Throws an IOException if there is an issue with the SMILES string
+   * or IllegalArgumentException if given null input
+   * @param smiles
+   * @param options
+   * @param cache
+   * @return
+   * @throws IOException
+   */
+  public static InchiOutput toInchi(String smiles, InchiOptions options, InchiResultCache cache) throws IOException {
+    if (smiles == null) {
+      throw new IllegalArgumentException("SMILES should not be null");
+    }
+    if (options == null) {
+      throw new IllegalArgumentException("options must not be null");
+    }
+    InchiResultCache.Key key = InchiResultCache.Key.ofSmiles(smiles, options);
+    InchiOutput output = cache.get(key);
+    if (output == null) {
+      output = toInchi(smiles, options);
+      cache.put(key, options, output);
+    }
+    return output;
+  }
+
+  /**
+   * Convert a SMILES string to an InChIKey using the default options
+   * Throws an IOException if there is an issue with the SMILES string
+   * or IllegalArgumentException if given null input
+   * @param smiles
+   * @return
+   * @throws IOException
+   */
+  public static InchiKeyOutput toInchiKey(String smiles) throws IOException {
+    return toInchiKey(smiles, InchiOptions.DEFAULT_OPTIONS);
+  }
+
+  /**
+   * Convert a SMILES string to an InChIKey using the given options, see {@link JnaInchi#toInchiKey(InchiInput, InchiOptions)}
+   * Throws an IOException if there is an issue with the SMILES string
+   * or IllegalArgumentException if given null input
+   * @param smiles
+   * @param options
+   * @return
+   * @throws IOException
+   */
+  public static InchiKeyOutput toInchiKey(String smiles, InchiOptions options) throws IOException {
+    if (smiles == null) {
+      throw new IllegalArgumentException("SMILES should not be null");
+    }
+    if (options == null) {
+      throw new IllegalArgumentException("options must not be null");
+    }
+    return JnaInchi.toInchiKey(graphToInput(Graph.fromSmiles(smiles)), options);
+  }
+
+  /**
+   * Converts the SMILES using the given number of worker threads, see {@link JnaInchi#toInchiAll(List, InchiOptions, int)}.
+   * SMILES that cannot be parsed are reported as a failed result with the IOException as the error
+   * @param smiles
+   * @param options
+   * @param parallelism the number of worker threads
+   * @return
+   */
+  public static List<InchiBatchResult> toInchiAll(List<String> smiles, InchiOptions options, int parallelism) {
+    return InchiBatch.convertAll(smiles, smi -> toInchi(smi, options), parallelism);
+  }
+
+  /**
+   * Streaming form of {@link #toInchiAll(List, InchiOptions, int)}, see {@link JnaInchi#toInchiAll(Stream, InchiOptions, int)}
+   * @param smiles
+   * @param options
+   * @param parallelism the number of worker threads
+   * @return
+   */
+  public static Stream<InchiBatchResult> toInchiAll(Stream<String> smiles, InchiOptions options, int parallelism) {
+    return InchiBatch.convertAll(smiles, smi -> toInchi(smi, options), parallelism);
+  }
+
+  /**
+   * As {@link #toInchiAll(List, InchiOptions, int)}, but each distinct SMILES string is only parsed and converted once
+   * @param smiles
+   * @param options
+   * @param parallelism the number of worker threads
+   * @return the results, in input order, and deduplication statistics
+   */
+  public static InchiBatchReport toInchiAllDeduplicated(List<String> smiles, InchiOptions options, int parallelism) {
+    return InchiBatch.convertAllDeduplicated(smiles, Function.identity(), smi -> toInchi(smi, options), parallelism);
+  }
+
+  static InchiInput graphToInput(Graph g) throws IOException {
     g = g.kekule();
     InchiInput input = new InchiInput();
     for (int i = 0, len = g.order(); i < len; i++) {
@@ -0,0 +1,103 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.ac.ebi.beam.Graph;
+
+public class ClassicInchiConverterTest {
+
+  private static final InchiOptions FIXEDH = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH, InchiFlag.RecMet).build();
+  private static final InchiOptions CHIRAL_FLAG_ON = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.ChiralFlagON).build();
+  private static final InchiOptions NPZZ = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.NPZz).build();
+
+  @Test
+  public void testMatchesIxaOnSmilesCorpus() throws IOException {
+    List<InchiInput> inputs = new ArrayList<>();
+    try (BufferedReader input = new BufferedReader(new InputStreamReader(ClassicInchiConverterTest.class.getResourceAsStream("smilesintegrationtests.smi"), "UTF-8"))) {
+      String line = null;
+      while ((line = input.readLine()) != null) {
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] smilesAndInchi = line.split("\t");
+        inputs.add(SmilesToInchi.graphToInput(Graph.fromSmiles(smilesAndInchi[0])));
+        //InChI derived input lists allene stereo in the classic rather than IXA form
+        inputs.add(JnaInchi.getInchiInputFromInchi(smilesAndInchi[1]).getInchiInput());
+      }
+    }
+    inputs.add(SmilesToInchi.graphToInput(Graph.fromSmiles("*C")));
+    inputs.add(new InchiInput());
+
+    ClassicInchiConverter converter = new ClassicInchiConverter();
+    for (InchiOptions options : new InchiOptions[] {InchiOptions.DEFAULT_OPTIONS, FIXEDH, CHIRAL_FLAG_ON, NPZZ}) {
+      for (InchiInput input : inputs) {
+        assertSameOutput(JnaInchi.toInchi(input, options), converter.toInchi(input, options));
+      }
+    }
+  }
+
+  @Test
+  public void testWedgeBonds() {
+    InchiBondStereo[] wedges = {InchiBondStereo.SINGLE_1UP, InchiBondStereo.SINGLE_1DOWN, InchiBondStereo.SINGLE_2UP, InchiBondStereo.SINGLE_2DOWN};
+    ClassicInchiConverter converter = new ClassicInchiConverter();
+    for (InchiBondStereo wedge : wedges) {
+      InchiInput input = new InchiInput();
+      InchiAtom c = new InchiAtom("C", 0, 0, 0);
+      InchiAtom cl = new InchiAtom("Cl", 1, 0, 0);
+      InchiAtom br = new InchiAtom("Br", -0.5, 0.866, 0);
+      InchiAtom f = new InchiAtom("F", -0.5, -0.866, 0);
+      input.addAtom(c);
+      input.addAtom(cl);
+      input.addAtom(br);
+      input.addAtom(f);
+      input.addBond(new InchiBond(c, cl, InchiBondType.SINGLE));
+      if (wedge == InchiBondStereo.SINGLE_1UP || wedge == InchiBondStereo.SINGLE_1DOWN) {
+        input.addBond(new InchiBond(c, br, InchiBondType.SINGLE, wedge));
+      }
+      else {
+        input.addBond(new InchiBond(br, c, InchiBondType.SINGLE, wedge));
+      }
+      input.addBond(new InchiBond(c, f, InchiBondType.SINGLE));
+      for (InchiAtom atom : input.getAtoms()) {
+        atom.setImplicitHydrogen(-1);
+      }
+      InchiOutput output = converter.toInchi(input);
+      assertSameOutput(JnaInchi.toInchi(input), output);
+      assertEquals(InchiStatus.SUCCESS, output.getStatus());
+    }
+  }
+
+  private static void assertSameOutput(InchiOutput expected, InchiOutput actual) {
+    assertEquals(expected.getInchi(), actual.getInchi());
+    assertEquals(expected.getAuxInfo(), actual.getAuxInfo());
+    assertEquals(expected.getMessage(), actual.getMessage());
+    assertEquals(expected.getLog(), actual.getLog());
+    assertEquals(expected.getStatus(), actual.getStatus());
+  }
+
+}
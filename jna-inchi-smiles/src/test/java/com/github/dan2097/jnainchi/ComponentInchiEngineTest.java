@@ -0,0 +1,150 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.ac.ebi.beam.Graph;
+
+public class ComponentInchiEngineTest {
+
+  private static final InchiOptions INCHI_ONLY = new InchiOptions.InchiOptionsBuilder().withOutputFields().build();
+
+  private static InchiInput input(String smiles) throws IOException {
+    return SmilesToInchi.graphToInput(Graph.fromSmiles(smiles));
+  }
+
+  private static void assertSameAsNative(ComponentInchiEngine engine, String smiles, InchiOptions options) throws IOException {
+    InchiOutput expected = JnaInchi.toInchi(input(smiles), options);
+    InchiOutput actual = engine.toInchi(input(smiles), options);
+    assertEquals(smiles, expected.getInchi(), actual.getInchi());
+    assertEquals(smiles, expected.getStatus(), actual.getStatus());
+  }
+
+  @Test
+  public void testAssembled() throws IOException {
+    ComponentInchiEngine engine = new ComponentInchiEngine(InchiEngines.getDefaultEngine(), new InchiResultCache(1000));
+    String[] smiles = {
+        "CC(=O)[O-].[Na+]",
+        "[Cl-].[Cl-].[Ca+2]",
+        "C[C@H](N)C(=O)O.Cl",
+        "C[C@H](N)C(=O)O.C[C@H](N)C(=O)O",
+        "CCCCCC.C[C@H](O)F",
+        "O.O.CC(=O)O",
+        "C/C=C/C.Cl",
+        "[NH4+].[Cl-]",
+        "O.[Na+].[Cl-]",
+        "C[N+](C)(C)C.[Na+]",
+        "CCN.CCO",
+        "C[C@H](O)CC.C[C@H](N)CC",
+        "[Cl-].[H][H]",
+        "C(=O)O.[O-][N+]([O-])=O.[Br-]"
+    };
+    for (String smi : smiles) {
+      assertSameAsNative(engine, smi, INCHI_ONLY);
+    }
+    assertEquals(smiles.length, engine.getAssembledCount());
+    assertEquals(0, engine.getFallbackCount());
+    for (String smi : new String[] {"C[C@H](N)C(=O)O.Cl", "C[C@H](O)CC.C[C@@H](O)CC"}) {
+      assertSameAsNative(engine, smi, new InchiOptions.InchiOptionsBuilder().withOutputFields().withFlag(InchiFlag.SRel).build());
+      assertSameAsNative(engine, smi, new InchiOptions.InchiOptionsBuilder().withOutputFields().withFlag(InchiFlag.SNon).build());
+    }
+  }
+
+  @Test
+  public void testParentConvertedOnce() throws IOException {
+    InchiResultCache cache = new InchiResultCache(1000);
+    ComponentInchiEngine engine = new ComponentInchiEngine(InchiEngines.getDefaultEngine(), cache);
+    String parent = "COC1=CC2=C(N=C(N2)S(=O)CC2=NC=C(C(=C2C)OC)C)C=C1";
+    String[] salts = {"Cl", "[Na+]", "O.O", "CS(O)(=O)=O", "[K+]", "Cl"};
+    for (String salt : salts) {
+      assertSameAsNative(engine, parent + "." + salt, INCHI_ONLY);
+    }
+    //the parent, and each distinct counter-ion or solvent
+    assertEquals(6, cache.getMissCount());
+    assertEquals(salts.length, engine.getAssembledCount());
+  }
+
+  @Test
+  public void testFallback() throws IOException {
+    ComponentInchiEngine engine = new ComponentInchiEngine(InchiEngines.getDefaultEngine(), new InchiResultCache(1000));
+    //ordered by their connection tables, stereo or isotopes
+    assertSameAsNative(engine, "CCO.COC", INCHI_ONLY);
+    assertSameAsNative(engine, "C[C@H](N)C(=O)O.C[C@@H](N)C(=O)O", INCHI_ONLY);
+    assertSameAsNative(engine, "CC.C=C", INCHI_ONLY);
+    assertSameAsNative(engine, "[2H]C.C", INCHI_ONLY);
+    //the metal is disconnected by InChI
+    assertSameAsNative(engine, "CC(=O)O[Na].Cl", INCHI_ONLY);
+    assertEquals(5, engine.getFallbackCount());
+    assertEquals(0, engine.getAssembledCount());
+
+    //options that are never assembled
+    assertSameAsNative(engine, "CC(=O)O[Na].Cl", new InchiOptions.InchiOptionsBuilder().withOutputFields().withFlag(InchiFlag.RecMet).build());
+    assertSameAsNative(engine, "CC(=O)[O-].[Na+]", new InchiOptions.InchiOptionsBuilder().withOutputFields().withFlag(InchiFlag.FixedH).build());
+    assertSameAsNative(engine, "CC(=O)[O-].[Na+]", InchiOptions.DEFAULT_OPTIONS);
+    assertEquals(0, engine.getAssembledCount());
+    assertNotNull(engine.toInchi(input("CC(=O)[O-].[Na+]"), InchiOptions.DEFAULT_OPTIONS).getAuxInfo());
+  }
+
+  @Test
+  public void testVerify() throws IOException {
+    ComponentInchiEngine engine = new ComponentInchiEngine(InchiEngines.getDefaultEngine(), new InchiResultCache(1000), true);
+    for (String smi : new String[] {"CC(=O)[O-].[Na+]", "C[C@H](N)C(=O)O.Cl", "[NH4+].[Cl-]"}) {
+      assertSameAsNative(engine, smi, INCHI_ONLY);
+    }
+    assertEquals(3, engine.getAssembledCount());
+    assertEquals(0, engine.getMismatchCount());
+  }
+
+  @Test
+  public void testSplitComponents() throws IOException {
+    InchiInput input = input("C[C@H](N)C(=O)O.Cl.O");
+    List<InchiInput> components = ComponentInchiEngine.splitComponents(input);
+    assertEquals(3, components.size());
+    assertEquals(6, components.get(0).getAtoms().size());
+    assertEquals(5, components.get(0).getBonds().size());
+    assertEquals(1, components.get(0).getStereos().size());
+    assertEquals(1, components.get(1).getAtoms().size());
+    assertEquals(1, components.get(2).getAtoms().size());
+    assertEquals(1, ComponentInchiEngine.splitComponents(input("CCO")).size());
+
+    //positions in the whole structure are restored after conversion
+    ComponentInchiEngine engine = new ComponentInchiEngine(InchiEngines.getDefaultEngine(), new InchiResultCache(1000));
+    engine.toInchi(input, INCHI_ONLY);
+    for (int i = 0; i < input.getAtoms().size(); i++) {
+      assertEquals(i, input.getAtom(i).getIndex());
+    }
+  }
+
+  @Test
+  public void testUnsupportedLayers() {
+    assertNull(ComponentInchiEngine.Component.parse("InChI=1S/CH4/h1H4/i1D"));
+    assertNull(ComponentInchiEngine.Component.parse("InChI=1S/C2H4O2.Na/c1-2(3)4;/h1H3,(H,3,4);/q;+1/p-1"));
+    assertNull(ComponentInchiEngine.Component.parse("InChI=1/C2H4O2/c1-2(3)4/h1H3,(H,3,4)/f/h3H"));
+    assertNull(ComponentInchiEngine.Component.parse("InChI=1S/p+1"));
+    assertNotNull(ComponentInchiEngine.Component.parse("InChI=1S/C3H7NO2/c1-2(4)3(5)6/h2H,4H2,1H3,(H,5,6)/t2-/m0/s1"));
+  }
+
+}
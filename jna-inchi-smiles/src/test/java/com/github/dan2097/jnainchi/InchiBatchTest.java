@@ -0,0 +1,234 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import uk.ac.ebi.beam.Graph;
+
+public class InchiBatchTest {
+
+  private static List<String> readSmiles() throws IOException {
+    List<String> smiles = new ArrayList<>();
+    try (BufferedReader input = new BufferedReader(new InputStreamReader(InchiBatchTest.class.getResourceAsStream("smilesintegrationtests.smi"), "UTF-8"))) {
+      String line = null;
+      while ((line = input.readLine()) != null) {
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        smiles.add(line.split("\t")[0]);
+      }
+    }
+    return smiles;
+  }
+
+  @Test
+  public void testSmilesListMatchesSequential() throws IOException {
+    List<String> smiles = readSmiles();
+    smiles.add(3, "C1CC");
+    List<InchiBatchResult> results = SmilesToInchi.toInchiAll(smiles, InchiOptions.DEFAULT_OPTIONS, 4);
+    assertEquals(smiles.size(), results.size());
+    for (int i = 0; i < smiles.size(); i++) {
+      InchiBatchResult result = results.get(i);
+      assertEquals(i, result.getIndex());
+      if (i == 3) {
+        assertFalse(result.isSuccess());
+        assertNull(result.getOutput());
+        assertTrue(result.getError() instanceof IOException);
+        continue;
+      }
+      assertTrue(result.isSuccess());
+      assertEquals(SmilesToInchi.toInchi(smiles.get(i)).getInchi(), result.getOutput().getInchi());
+    }
+  }
+
+  @Test
+  public void testStreamPreservesOrder() throws IOException {
+    List<String> smiles = readSmiles();
+    List<String> expected = new ArrayList<>();
+    for (String smi : smiles) {
+      expected.add(SmilesToInchi.toInchi(smi).getInchi());
+    }
+    try (Stream<InchiBatchResult> results = SmilesToInchi.toInchiAll(smiles.stream(), InchiOptions.DEFAULT_OPTIONS, 3)) {
+      List<String> actual = results.map(r -> r.getOutput().getInchi()).collect(Collectors.toList());
+      assertEquals(expected, actual);
+    }
+  }
+
+  @Test
+  public void testInchiInputBatch() throws IOException {
+    List<InchiInput> inputs = new ArrayList<>();
+    for (String smi : readSmiles()) {
+      inputs.add(JnaInchi.getInchiInputFromInchi(SmilesToInchi.toInchi(smi).getInchi()).getInchiInput());
+    }
+    List<InchiBatchResult> results = JnaInchi.toInchiAll(inputs, InchiOptions.DEFAULT_OPTIONS, 2);
+    try (Stream<InchiBatchResult> streamed = JnaInchi.toInchiAll(inputs.stream(), InchiOptions.DEFAULT_OPTIONS, 2)) {
+      List<InchiBatchResult> streamedResults = streamed.collect(Collectors.toList());
+      for (int i = 0; i < inputs.size(); i++) {
+        String expected = JnaInchi.toInchi(inputs.get(i)).getInchi();
+        assertEquals(expected, results.get(i).getOutput().getInchi());
+        assertEquals(expected, streamedResults.get(i).getOutput().getInchi());
+      }
+    }
+  }
+
+  @Test
+  public void testMolfileBatch() {
+    String molfile = "\n  test\n\n"
+        + "  2  1  0  0  0  0  0  0  0  0999 V2000\n"
+        + "    0.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+        + "    1.0000    0.0000    0.0000 O   0  0  0  0  0  0  0  0  0  0  0  0\n"
+        + "  1  2  1  0\n"
+        + "M  END\n";
+    List<String> molfiles = Collections.nCopies(20, molfile);
+    for (InchiBatchResult result : JnaInchi.molToInchiAll(molfiles, InchiOptions.DEFAULT_OPTIONS, 4)) {
+      assertEquals("InChI=1S/CH4O/c1-2/h2H,1H3", result.getOutput().getInchi());
+    }
+    assertEquals(0, JnaInchi.molToInchiAll(Collections.emptyList(), InchiOptions.DEFAULT_OPTIONS, 4).size());
+  }
+
+  @Test
+  public void testInchiToStructureBatch() throws IOException {
+    List<String> inchis = new ArrayList<>();
+    for (String smi : readSmiles()) {
+      inchis.add(SmilesToInchi.toInchi(smi).getInchi());
+    }
+    inchis.add(1, null);
+    inchis.add(2, "InChI=1S/invalid");
+    List<InchiInputBatchResult> results = JnaInchi.getInchiInputFromInchiAll(inchis, InchiOptions.DEFAULT_OPTIONS, 3);
+    try (Stream<InchiInputBatchResult> streamed = JnaInchi.getInchiInputFromInchiAll(inchis.stream(), InchiOptions.DEFAULT_OPTIONS, 3)) {
+      List<InchiInputBatchResult> streamedResults = streamed.collect(Collectors.toList());
+      assertEquals(inchis.size(), results.size());
+      assertEquals(inchis.size(), streamedResults.size());
+      for (int i = 0; i < inchis.size(); i++) {
+        InchiInputBatchResult result = results.get(i);
+        assertEquals(i, result.getIndex());
+        assertEquals(i, streamedResults.get(i).getIndex());
+        if (i == 1) {
+          assertFalse(result.isSuccess());
+          assertTrue(result.getError() instanceof NullPointerException);
+          continue;
+        }
+        if (i == 2) {
+          assertEquals(InchiStatus.ERROR, result.getOutput().getStatus());
+          continue;
+        }
+        String inchi = inchis.get(i);
+        assertEquals(inchi, JnaInchi.toInchi(result.getOutput().getInchiInput()).getInchi());
+        assertEquals(inchi, JnaInchi.toInchi(streamedResults.get(i).getOutput().getInchiInput()).getInchi());
+      }
+    }
+  }
+
+  @Test
+  public void testSmilesDeduplicated() throws IOException {
+    List<String> distinct = readSmiles();
+    List<String> smiles = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      smiles.addAll(distinct);
+    }
+    smiles.add(5, "C1CC");
+    smiles.add(7, "C1CC");
+    InchiBatchReport report = SmilesToInchi.toInchiAllDeduplicated(smiles, InchiOptions.DEFAULT_OPTIONS, 4);
+    assertEquals(smiles.size(), report.getInputCount());
+    assertEquals(new HashSet<>(smiles).size(), report.getUniqueCount());
+    assertEquals(smiles.size() - report.getUniqueCount(), report.getDuplicateCount());
+    List<InchiBatchResult> results = report.getResults();
+    assertEquals(smiles.size(), results.size());
+    for (int i = 0; i < smiles.size(); i++) {
+      InchiBatchResult result = results.get(i);
+      assertEquals(i, result.getIndex());
+      if (smiles.get(i).equals("C1CC")) {
+        assertTrue(result.getError() instanceof IOException);
+        continue;
+      }
+      assertEquals(SmilesToInchi.toInchi(smiles.get(i)).getInchi(), result.getOutput().getInchi());
+    }
+    //duplicates share the output of the first occurrence
+    assertSame(results.get(0).getOutput(), results.get(distinct.size() + 2).getOutput());
+    assertSame(results.get(5).getError(), results.get(7).getError());
+  }
+
+  @Test
+  public void testInchiInputDeduplicated() throws IOException {
+    List<InchiInput> inputs = new ArrayList<>();
+    for (String smi : new String[] {"CCO", "OCC", "C(C)O", "CC[O-]", "CCO"}) {
+      inputs.add(SmilesToInchi.graphToInput(Graph.fromSmiles(smi)));
+    }
+    inputs.add(null);
+    inputs.add(null);
+    InchiBatchReport report = JnaInchi.toInchiAllDeduplicated(inputs, InchiOptions.DEFAULT_OPTIONS, 2);
+    //atom order differs for OCC and C(C)O, so only the repeated CCO is recognised as a duplicate
+    assertEquals(6, report.getUniqueCount());
+    assertEquals(1, report.getDuplicateCount());
+    List<InchiBatchResult> results = report.getResults();
+    for (int i = 0; i < 5; i++) {
+      assertEquals(JnaInchi.toInchi(inputs.get(i)).getInchi(), results.get(i).getOutput().getInchi());
+    }
+    assertSame(results.get(0).getOutput(), results.get(4).getOutput());
+    assertFalse(results.get(5).isSuccess());
+    assertFalse(results.get(6).isSuccess());
+  }
+
+  @Test
+  public void testMolfileDeduplicated() {
+    String molfile = "\n  test\n\n"
+        + "  2  1  0  0  0  0  0  0  0  0999 V2000\n"
+        + "    0.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+        + "    1.0000    0.0000    0.0000 O   0  0  0  0  0  0  0  0  0  0  0  0\n"
+        + "  1  2  1  0\n"
+        + "M  END\n";
+    InchiBatchReport report = JnaInchi.molToInchiAllDeduplicated(Collections.nCopies(20, molfile), InchiOptions.DEFAULT_OPTIONS, 4);
+    assertEquals(1, report.getUniqueCount());
+    assertEquals(0.95, report.getDuplicateFraction(), 1e-9);
+    for (InchiBatchResult result : report.getResults()) {
+      assertEquals("InChI=1S/CH4O/c1-2/h2H,1H3", result.getOutput().getInchi());
+    }
+    //null inputs are not grouped together
+    InchiBatchReport withNulls = JnaInchi.molToInchiAllDeduplicated(Arrays.asList(molfile, null, molfile, null), InchiOptions.DEFAULT_OPTIONS, 2);
+    assertEquals(3, withNulls.getUniqueCount());
+    assertNotSame(withNulls.getResults().get(1).getError(), withNulls.getResults().get(3).getError());
+    InchiBatchReport empty = JnaInchi.molToInchiAllDeduplicated(Collections.emptyList(), InchiOptions.DEFAULT_OPTIONS, 4);
+    assertEquals(0, empty.getInputCount());
+    assertEquals(0, empty.getDuplicateFraction(), 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidParallelism() {
+    JnaInchi.toInchiAll(Collections.emptyList(), InchiOptions.DEFAULT_OPTIONS, 0);
+  }
+
+}
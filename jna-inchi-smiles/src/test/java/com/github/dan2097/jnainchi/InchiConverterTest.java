@@ -0,0 +1,335 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.ac.ebi.beam.Graph;
+
+public class InchiConverterTest {
+
+  @Test
+  public void testReusedConverterMatchesStaticApi() throws IOException {
+    InchiOptions fixedH = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH).build();
+    try (InchiConverter converter = new InchiConverter()) {
+      int i = 0;
+      for (String inchi : readReferenceInchis()) {
+        //alternate options to check the builder is recreated correctly
+        InchiOptions options = (i++ % 3 == 0) ? fixedH : InchiOptions.DEFAULT_OPTIONS;
+        InchiOutput expected = JnaInchi.inchiToInchi(inchi, options);
+        InchiOutput actual = converter.inchiToInchi(inchi, options);
+        assertEquals(expected.getInchi(), actual.getInchi());
+        assertEquals(expected.getAuxInfo(), actual.getAuxInfo());
+        assertEquals(expected.getMessage(), actual.getMessage());
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertEquals(JnaInchi.inchiToInchiKey(actual.getInchi()).getInchiKey(), converter.inchiToInchiKey(actual.getInchi()).getInchiKey());
+      }
+    }
+  }
+
+  @Test
+  public void testErrorDoesNotAffectNextMolecule() {
+    try (InchiConverter converter = new InchiConverter()) {
+      InchiOutput error = converter.inchiToInchi("InChI=1S/invalid", InchiOptions.DEFAULT_OPTIONS);
+      assertEquals(InchiStatus.ERROR, error.getStatus());
+      InchiOutput methane = converter.inchiToInchi("InChI=1S/CH4/h1H4", InchiOptions.DEFAULT_OPTIONS);
+      assertEquals(InchiStatus.SUCCESS, methane.getStatus());
+      assertEquals("InChI=1S/CH4/h1H4", methane.getInchi());
+      assertEquals("", methane.getMessage());
+
+      assertEquals(InchiKeyStatus.INVALID_INCHI_PREFIX, converter.inchiToInchiKey("invalid").getStatus());
+      assertEquals("", converter.inchiToInchiKey("invalid").getInchiKey());
+      assertEquals("VNWKTOKETHGBQD-UHFFFAOYSA-N", converter.inchiToInchiKey("InChI=1S/CH4/h1H4").getInchiKey());
+    }
+  }
+
+  @Test
+  public void testErrorDoesNotReturnPreviousMolecule() {
+    try (InchiConverter converter = new InchiConverter()) {
+      assertEquals("InChI=1S/CH4/h1H4", converter.inchiToInchi("InChI=1S/CH4/h1H4", InchiOptions.DEFAULT_OPTIONS).getInchi());
+      InchiOutput error = converter.inchiToInchi("InChI=1S/invalid", InchiOptions.DEFAULT_OPTIONS);
+      assertEquals(InchiStatus.ERROR, error.getStatus());
+      assertFalse("InChI=1S/CH4/h1H4".equals(error.getInchi()));
+      error = converter.molToInchi("invalid", InchiOptions.DEFAULT_OPTIONS);
+      assertEquals(InchiStatus.ERROR, error.getStatus());
+      assertFalse("InChI=1S/CH4/h1H4".equals(error.getInchi()));
+      InchiOutput water = converter.inchiToInchi("InChI=1S/H2O/h1H2", InchiOptions.DEFAULT_OPTIONS);
+      assertEquals(InchiStatus.SUCCESS, water.getStatus());
+      assertEquals("InChI=1S/H2O/h1H2", water.getInchi());
+    }
+  }
+
+  @Test
+  public void testAtomsSharedBetweenInputs() {
+    InchiAtom c1 = new InchiAtom("C");
+    InchiAtom o = new InchiAtom("O");
+    InchiInput ethanol = new InchiInput();
+    InchiAtom c2 = new InchiAtom("C");
+    ethanol.addAtom(c2);
+    ethanol.addAtom(c1);
+    ethanol.addAtom(o);
+    ethanol.addBond(new InchiBond(c2, c1, InchiBondType.SINGLE));
+    ethanol.addBond(new InchiBond(c1, o, InchiBondType.SINGLE));
+    for (InchiAtom atom : ethanol.getAtoms()) {
+      atom.setImplicitHydrogen(-1);
+    }
+
+    //c1 and o are now at different positions in methanol
+    InchiInput methanol = new InchiInput();
+    methanol.addAtom(c1);
+    methanol.addAtom(o);
+    methanol.addBond(new InchiBond(c1, o, InchiBondType.SINGLE));
+
+    try (InchiConverter converter = new InchiConverter()) {
+      assertEquals("InChI=1S/C2H6O/c1-2-3/h3H,2H2,1H3", converter.toInchi(ethanol).getInchi());
+      assertEquals("InChI=1S/CH4O/c1-2/h2H,1H3", converter.toInchi(methanol).getInchi());
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testBondToAtomNotInInput() {
+    InchiAtom c = new InchiAtom("C");
+    InchiInput input = new InchiInput();
+    input.addAtom(c);
+    input.addBond(new InchiBond(c, new InchiAtom("O"), InchiBondType.SINGLE));
+    JnaInchi.toInchi(input);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testClosedConverter() {
+    InchiConverter converter = new InchiConverter();
+    converter.close();
+    converter.inchiToInchi("InChI=1S/CH4/h1H4", InchiOptions.DEFAULT_OPTIONS);
+  }
+
+  @Test
+  public void testThreadLocalConverter() {
+    InchiConverter converter = InchiConverter.threadLocal();
+    assertSame(converter, InchiConverter.threadLocal());
+    assertEquals("InChI=1S/CH4/h1H4", converter.inchiToInchi("InChI=1S/CH4/h1H4", InchiOptions.DEFAULT_OPTIONS).getInchi());
+    //the engine uses the bound converter's buffers
+    IxaInchiEngine engine = new IxaInchiEngine();
+    assertEquals(InchiKeyStatus.INVALID_INCHI_PREFIX, engine.inchiToInchiKey("invalid").getStatus());
+    assertEquals("VNWKTOKETHGBQD-UHFFFAOYSA-N", engine.inchiToInchiKey("InChI=1S/CH4/h1H4").getInchiKey());
+    InchiConverter.releaseThreadLocal();
+    InchiConverter newConverter = InchiConverter.threadLocal();
+    assertNotSame(converter, newConverter);
+    InchiConverter.releaseThreadLocal();
+  }
+
+  @Test
+  public void testVariantsMatchSeparateConversions() throws Exception {
+    List<InchiOptions> variants = Arrays.asList(InchiOptions.DEFAULT_OPTIONS,
+        new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH).build(),
+        new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.SNon).build(),
+        new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.ChiralFlagON).build(),
+        new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH, InchiFlag.RecMet).build());
+    List<InchiInput> inputs = new ArrayList<>();
+    for (String inchi : readReferenceInchis()) {
+      inputs.add(JnaInchi.getInchiInputFromInchi(inchi).getInchiInput());
+    }
+    inputs.add(SmilesToInchi.graphToInput(Graph.fromSmiles("[Na+].[O-]C(=O)C")));
+    inputs.add(new InchiInput());
+    try (InchiConverter converter = new InchiConverter()) {
+      for (InchiInput input : inputs) {
+        List<InchiOutput> outputs = converter.toInchiVariants(input, variants);
+        assertEquals(variants.size(), outputs.size());
+        for (int i = 0; i < variants.size(); i++) {
+          assertSameOutput(JnaInchi.toInchi(input, variants.get(i)), outputs.get(i));
+        }
+      }
+      for (String molfile : new String[] {CHIRAL_MOLFILE, "invalid"}) {
+        List<InchiOutput> outputs = JnaInchi.molToInchiVariants(molfile, variants);
+        for (int i = 0; i < variants.size(); i++) {
+          assertSameOutput(JnaInchi.molToInchi(molfile, variants.get(i)), outputs.get(i));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testInchiKeyMatchesTwoStepConversion() throws Exception {
+    InchiOptions fixedH = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH).build();
+    List<String> smiles = new ArrayList<>();
+    try (BufferedReader input = new BufferedReader(new InputStreamReader(InchiConverterTest.class.getResourceAsStream("smilesintegrationtests.smi"), "UTF-8"))) {
+      String line = null;
+      while ((line = input.readLine()) != null) {
+        if (!line.isEmpty() && !line.startsWith("#")) {
+          smiles.add(line.split("\t")[0]);
+        }
+      }
+    }
+    try (InchiConverter converter = new InchiConverter()) {
+      for (String smi : smiles) {
+        InchiInput input = SmilesToInchi.graphToInput(Graph.fromSmiles(smi));
+        for (InchiOptions options : new InchiOptions[] {InchiOptions.DEFAULT_OPTIONS, fixedH}) {
+          String expected = JnaInchi.inchiToInchiKey(JnaInchi.toInchi(input, options).getInchi()).getInchiKey();
+          InchiKeyOutput actual = converter.toInchiKey(input, options);
+          assertEquals(InchiKeyStatus.OK, actual.getStatus());
+          assertEquals(expected, actual.getInchiKey());
+        }
+        assertEquals(JnaInchi.inchiToInchiKey(SmilesToInchi.toInchi(smi).getInchi()).getInchiKey(), SmilesToInchi.toInchiKey(smi).getInchiKey());
+      }
+      assertEquals(InchiKeyStatus.EMPTY_INPUT, converter.toInchiKey(new InchiInput(), InchiOptions.DEFAULT_OPTIONS).getStatus());
+      assertEquals("", converter.toInchiKey(new InchiInput(), InchiOptions.DEFAULT_OPTIONS).getInchiKey());
+      //a molfile that cannot be read must not give the key of the previous molecule
+      assertEquals("VNWKTOKETHGBQD-UHFFFAOYSA-N", converter.molToInchiKey("\n\n\n  1  0  0  0  0  0  0  0  0  0999 V2000\n"
+          + "    0.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\nM  END\n", InchiOptions.DEFAULT_OPTIONS).getInchiKey());
+      assertEquals(InchiKeyStatus.EMPTY_INPUT, converter.molToInchiKey("invalid", InchiOptions.DEFAULT_OPTIONS).getStatus());
+      assertEquals("", converter.molToInchiKey("invalid", InchiOptions.DEFAULT_OPTIONS).getInchiKey());
+    }
+    String expected = JnaInchi.inchiToInchiKey(JnaInchi.molToInchi(CHIRAL_MOLFILE).getInchi()).getInchiKey();
+    assertEquals(expected, JnaInchi.molToInchiKey(CHIRAL_MOLFILE).getInchiKey());
+    assertEquals(InchiKeyStatus.EMPTY_INPUT, JnaInchi.molToInchiKey("invalid").getStatus());
+  }
+
+  @Test
+  public void testOutputFields() throws Exception {
+    InchiOptions inchiOnly = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH).withOutputFields().build();
+    InchiOptions messageOnly = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH).withOutputFields(InchiOutputField.MESSAGE).build();
+    InchiOptions all = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH).build();
+    ClassicInchiConverter classic = new ClassicInchiConverter();
+    try (InchiConverter converter = new InchiConverter()) {
+      for (String inchi : readReferenceInchis()) {
+        InchiOutput expected = converter.inchiToInchi(inchi, all);
+        InchiOutput actual = converter.inchiToInchi(inchi, inchiOnly);
+        assertEquals(expected.getInchi(), actual.getInchi());
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertNull(actual.getAuxInfo());
+        assertNull(actual.getMessage());
+        assertNull(actual.getLog());
+        actual = converter.inchiToInchi(inchi, messageOnly);
+        assertEquals(expected.getInchi(), actual.getInchi());
+        assertEquals(expected.getMessage(), actual.getMessage());
+        assertNull(actual.getAuxInfo());
+
+        InchiInput input = JnaInchi.getInchiInputFromInchi(inchi).getInchiInput();
+        expected = classic.toInchi(input, all);
+        actual = classic.toInchi(input, inchiOnly);
+        assertEquals(expected.getInchi(), actual.getInchi());
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertNull(actual.getAuxInfo());
+        assertNull(actual.getMessage());
+        assertNull(actual.getLog());
+      }
+      List<InchiOutput> outputs = converter.molToInchiVariants(CHIRAL_MOLFILE, Arrays.asList(messageOnly, InchiOptions.DEFAULT_OPTIONS));
+      assertEquals(JnaInchi.molToInchi(CHIRAL_MOLFILE, all).getInchi(), outputs.get(0).getInchi());
+      assertNull(outputs.get(0).getAuxInfo());
+      assertSameOutput(JnaInchi.molToInchi(CHIRAL_MOLFILE), outputs.get(1));
+    }
+  }
+
+  @Test
+  public void testByteInput() throws Exception {
+    InchiOptions fixedH = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH).build();
+    for (String inchi : readReferenceInchis()) {
+      byte[] bytes = inchi.getBytes(StandardCharsets.US_ASCII);
+      byte[] padded = new byte[bytes.length + 4];
+      System.arraycopy(bytes, 0, padded, 2, bytes.length);
+      ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 1);
+      direct.put(bytes).put((byte) 0).flip();
+      ByteBuffer directUnterminated = ByteBuffer.allocateDirect(bytes.length);
+      directUnterminated.put(bytes).flip();
+
+      InchiOutput expected = JnaInchi.inchiToInchi(inchi, fixedH);
+      assertSameOutput(expected, JnaInchi.inchiToInchi(padded, 2, bytes.length, fixedH));
+      assertSameOutput(expected, JnaInchi.inchiToInchi(direct, fixedH));
+      assertSameOutput(expected, JnaInchi.inchiToInchi(directUnterminated, fixedH));
+      assertEquals(0, direct.position());
+
+      String expectedKey = JnaInchi.inchiToInchiKey(inchi).getInchiKey();
+      assertEquals(expectedKey, JnaInchi.inchiToInchiKey(padded, 2, bytes.length).getInchiKey());
+      assertEquals(expectedKey, JnaInchi.inchiToInchiKey(direct).getInchiKey());
+      assertEquals(expectedKey, JnaInchi.inchiToInchiKey(directUnterminated).getInchiKey());
+      try (InchiConverter converter = new InchiConverter()) {
+        assertEquals(expectedKey, converter.inchiToInchiKey(direct).getInchiKey());
+        assertEquals(expectedKey, converter.inchiToInchiKey(directUnterminated).getInchiKey());
+      }
+
+      InchiCheckStatus expectedCheck = JnaInchi.checkInchi(inchi, false);
+      assertEquals(expectedCheck, JnaInchi.checkInchi(padded, 2, bytes.length, false));
+      assertEquals(expectedCheck, JnaInchi.checkInchi(direct, false));
+      assertEquals(expectedCheck, JnaInchi.checkInchi(directUnterminated, false));
+    }
+
+    byte[] molfile = CHIRAL_MOLFILE.getBytes(StandardCharsets.US_ASCII);
+    InchiOutput expected = JnaInchi.molToInchi(CHIRAL_MOLFILE, fixedH);
+    assertSameOutput(expected, JnaInchi.molToInchi(molfile, 0, molfile.length, fixedH));
+    Path file = Files.createTempFile("jnainchi", ".mol");
+    try {
+      Files.write(file, molfile);
+      assertSameOutput(expected, JnaInchi.molToInchi(file, fixedH));
+    }
+    finally {
+      Files.delete(file);
+    }
+  }
+
+  private static final String CHIRAL_MOLFILE = "\n  test\n\n"
+      + "  5  4  0  0  1  0  0  0  0  0999 V2000\n"
+      + "    0.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    1.0000    0.0000    0.0000 F   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "   -0.5000    0.8660    0.0000 Cl  0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "   -0.5000   -0.8660    0.0000 Br  0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    0.0000    0.0000    1.0000 I   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "  1  2  1  0\n"
+      + "  1  3  1  0\n"
+      + "  1  4  1  0\n"
+      + "  1  5  1  1\n"
+      + "M  END\n";
+
+  private static void assertSameOutput(InchiOutput expected, InchiOutput actual) {
+    assertEquals(expected.getInchi(), actual.getInchi());
+    assertEquals(expected.getAuxInfo(), actual.getAuxInfo());
+    assertEquals(expected.getMessage(), actual.getMessage());
+    assertEquals(expected.getLog(), actual.getLog());
+    assertEquals(expected.getStatus(), actual.getStatus());
+  }
+
+  static List<String> readReferenceInchis() throws IOException {
+    List<String> inchis = new ArrayList<>();
+    try (BufferedReader input = new BufferedReader(new InputStreamReader(InchiConverterTest.class.getResourceAsStream("smilesintegrationtests.smi"), "UTF-8"))) {
+      String line = null;
+      while ((line = input.readLine()) != null) {
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        inchis.add(line.split("\t")[1]);
+      }
+    }
+    return inchis;
+  }
+
+}
@@ -0,0 +1,89 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.ac.ebi.beam.Graph;
+
+public class InchiEngineTest {
+
+  @Test
+  public void testRegisteredEngines() {
+    List<String> names = new ArrayList<>();
+    for (InchiEngine engine : InchiEngines.getEngines()) {
+      names.add(engine.getName());
+    }
+    assertTrue(names.contains(IxaInchiEngine.NAME));
+    assertTrue(names.contains(ClassicInchiEngine.NAME));
+    assertEquals(IxaInchiEngine.NAME, InchiEngines.getDefaultEngine().getName());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownEngine() {
+    InchiEngines.getEngine("unknown");
+  }
+
+  @Test
+  public void testRouting() throws Exception {
+    InchiEngine ixa = InchiEngines.getEngine(IxaInchiEngine.NAME);
+    InchiEngine classic = InchiEngines.getEngine(ClassicInchiEngine.NAME);
+    InchiEngineRouter router = new InchiEngineRouter.InchiEngineRouterBuilder(ixa)
+        .route(InchiEngineRouter.maxAtoms(10).and(InchiEngineRouter.hasStereo().negate()), classic)
+        .build();
+
+    InchiInput ethanol = SmilesToInchi.graphToInput(Graph.fromSmiles("CCO"));
+    InchiInput alanine = SmilesToInchi.graphToInput(Graph.fromSmiles("C[C@@H](C(=O)O)N"));
+    InchiInput undecane = SmilesToInchi.graphToInput(Graph.fromSmiles("CCCCCCCCCCC"));
+    assertSame(classic, router.select(ethanol, InchiOptions.DEFAULT_OPTIONS));
+    assertSame(ixa, router.select(alanine, InchiOptions.DEFAULT_OPTIONS));
+    assertSame(ixa, router.select(undecane, InchiOptions.DEFAULT_OPTIONS));
+    assertSame(ixa, router.select(null, InchiOptions.DEFAULT_OPTIONS));
+
+    for (InchiInput input : new InchiInput[] {ethanol, alanine, undecane}) {
+      InchiOutput expected = ixa.toInchi(input, InchiOptions.DEFAULT_OPTIONS);
+      InchiOutput actual = router.toInchi(input, InchiOptions.DEFAULT_OPTIONS);
+      assertEquals(expected.getInchi(), actual.getInchi());
+      assertEquals(expected.getAuxInfo(), actual.getAuxInfo());
+    }
+  }
+
+  @Test
+  public void testDefaultEngineUsedByJnaInchi() throws Exception {
+    InchiEngine previous = InchiEngines.getDefaultEngine();
+    InchiEngine classic = InchiEngines.getEngine(ClassicInchiEngine.NAME);
+    InchiInput input = SmilesToInchi.graphToInput(Graph.fromSmiles("OC(=O)CC"));
+    InchiOutput expected = JnaInchi.toInchi(input);
+    try {
+      InchiEngines.setDefaultEngine(classic);
+      assertSame(classic, InchiEngines.getDefaultEngine());
+      assertEquals(expected.getInchi(), JnaInchi.toInchi(input).getInchi());
+    }
+    finally {
+      InchiEngines.setDefaultEngine(previous);
+    }
+  }
+
+}
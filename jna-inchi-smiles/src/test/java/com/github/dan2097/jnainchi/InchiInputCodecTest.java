@@ -0,0 +1,207 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class InchiInputCodecTest {
+
+  private static final String[] INCHIS = {
+      "InChI=1S/CH4/h1H4",
+      "InChI=1S/C4H8/c1-3-4-2/h3-4H,1-2H3/b4-3+",
+      "InChI=1S/C4H10O/c1-3-4(2)5/h4-5H,3H2,1-2H3/t4-/m0/s1",
+      "InChI=1S/C3H2Cl2/c4-2-1-3-5/h2-3H/t1-/m1/s1",
+      "InChI=1S/C2H4O2/c1-2(3)4/h1H3,(H,3,4)/p-1",
+      "InChI=1S/C2H6O/c1-2-3/h3H,2H2,1H3/i1D,2+1",
+      "InChI=1S/C12H22O11/c13-1-4-6(16)8(18)9(19)11(21-4)23-12(3-15)10(20)7(17)5(2-14)22-12/h4-11,13-20H,1-3H2/t4-,5-,6-,7-,8+,9-,10+,11-,12+/m1/s1"
+  };
+
+  @Test
+  public void testRoundTripFromInchi() {
+    for (String inchi : INCHIS) {
+      InchiInput input = JnaInchi.getInchiInputFromInchi(inchi).getInchiInput();
+      InchiInput decoded = InchiInputCodec.decode(InchiInputCodec.encode(input));
+      assertSameInput(input, decoded);
+      assertEquals(inchi, JnaInchi.toInchi(decoded).getInchi());
+    }
+  }
+
+  @Test
+  public void testAtomFields() {
+    InchiInput input = new InchiInput();
+    InchiAtom c = new InchiAtom("C", 1.5, -2.25, 0.125);
+    c.setImplicitHydrogen(-1);
+    c.setIsotopicMass(13);
+    c.setRadical(InchiRadical.DOUBLET);
+    InchiAtom n = new InchiAtom("N", 0, 1, 0);
+    n.setCharge(-100);
+    n.setImplicitHydrogen(12);
+    n.setImplicitDeuterium(1);
+    n.setImplicitTritium(2);
+    InchiAtom pseudo = new InchiAtom("Zz");
+    input.addAtom(c);
+    input.addAtom(n);
+    input.addAtom(pseudo);
+    input.addBond(new InchiBond(c, n, InchiBondType.DOUBLE, InchiBondStereo.DOUBLE_EITHER));
+    input.addBond(new InchiBond(n, pseudo, InchiBondType.SINGLE, InchiBondStereo.SINGLE_2DOWN));
+    input.addStereo(new InchiStereo(new InchiAtom[] {c, n, pseudo, null}, null, InchiStereoType.DoubleBond, InchiStereoParity.UNDEFINED));
+    assertSameInput(input, InchiInputCodec.decode(InchiInputCodec.encode(input)));
+  }
+
+  @Test
+  public void testAtomFieldLimits() {
+    InchiInput input = new InchiInput();
+    int[] implicitHs = {-1, 0, 5, 6, Byte.MAX_VALUE};
+    int[] isotopicMasses = {0, 1, 127, 128, Short.MAX_VALUE};
+    for (int i = 0; i < implicitHs.length; i++) {
+      InchiAtom atom = new InchiAtom("C");
+      atom.setImplicitHydrogen(implicitHs[i]);
+      atom.setIsotopicMass(isotopicMasses[i]);
+      input.addAtom(atom);
+    }
+    InchiInput decoded = InchiInputCodec.decode(InchiInputCodec.encode(input));
+    assertSameInput(input, decoded);
+    for (int i = 0; i < implicitHs.length; i++) {
+      assertEquals(implicitHs[i], decoded.getAtom(i).getImplicitHydrogen());
+      assertEquals(isotopicMasses[i], decoded.getAtom(i).getIsotopicMass());
+      assertEquals(0, decoded.getAtom(i).getCharge());
+      assertEquals(InchiRadical.NONE, decoded.getAtom(i).getRadical());
+    }
+  }
+
+  @Test
+  public void testUnencodableAtomFieldsRejected() {
+    //the codec relies on atoms not holding values below these limits
+    InchiAtom atom = new InchiAtom("C");
+    try {
+      atom.setImplicitHydrogen(-2);
+      fail("Implicit hydrogen below -1 should be rejected");
+    }
+    catch (IllegalArgumentException e) {
+      //expected
+    }
+    try {
+      atom.setIsotopicMass(-1);
+      fail("Negative isotopic mass should be rejected");
+    }
+    catch (IllegalArgumentException e) {
+      //expected
+    }
+  }
+
+  @Test
+  public void testCompact() {
+    InchiInput input = JnaInchi.getInchiInputFromInchi(INCHIS[INCHIS.length - 1]).getInchiInput();
+    byte[] encoded = InchiInputCodec.encode(input);
+    //sucrose without coordinates, as a molfile (with 69 byte atom lines) this would be over 3KB
+    assertTrue("Encoding was " + encoded.length + " bytes", encoded.length < 256);
+  }
+
+  @Test
+  public void testStream() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (String inchi : INCHIS) {
+      InchiInputCodec.write(JnaInchi.getInchiInputFromInchi(inchi).getInchiInput(), out);
+    }
+    ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+    for (String inchi : INCHIS) {
+      assertEquals(inchi, JnaInchi.toInchi(InchiInputCodec.read(in)).getInchi());
+    }
+    assertNull(InchiInputCodec.read(in));
+  }
+
+  @Test
+  public void testByteBufferPosition() {
+    InchiInput first = JnaInchi.getInchiInputFromInchi(INCHIS[1]).getInchiInput();
+    InchiInput second = JnaInchi.getInchiInputFromInchi(INCHIS[2]).getInchiInput();
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+    InchiInputCodec.encode(first, buffer);
+    InchiInputCodec.encode(second, buffer);
+    buffer.flip();
+    assertSameInput(first, InchiInputCodec.decode(buffer));
+    assertSameInput(second, InchiInputCodec.decode(buffer));
+    assertEquals(0, buffer.remaining());
+  }
+
+  @Test
+  public void testCorrupt() {
+    byte[] encoded = InchiInputCodec.encode(JnaInchi.getInchiInputFromInchi(INCHIS[2]).getInchiInput());
+    for (byte[] corrupt : new byte[][] {Arrays.copyOf(encoded, encoded.length - 3), Arrays.copyOfRange(encoded, 1, encoded.length), new byte[0]}) {
+      try {
+        InchiInputCodec.decode(corrupt);
+        fail("Corrupt encoding should be rejected");
+      }
+      catch (IllegalArgumentException e) {
+        //expected
+      }
+    }
+  }
+
+  private static void assertSameInput(InchiInput expected, InchiInput actual) {
+    assertEquals(expected.getAtoms().size(), actual.getAtoms().size());
+    for (int i = 0; i < expected.getAtoms().size(); i++) {
+      InchiAtom e = expected.getAtom(i);
+      InchiAtom a = actual.getAtom(i);
+      assertEquals(e.getElName(), a.getElName());
+      assertEquals(e.getX(), a.getX(), 0);
+      assertEquals(e.getY(), a.getY(), 0);
+      assertEquals(e.getZ(), a.getZ(), 0);
+      assertEquals(e.getImplicitHydrogen(), a.getImplicitHydrogen());
+      assertEquals(e.getImplicitProtium(), a.getImplicitProtium());
+      assertEquals(e.getImplicitDeuterium(), a.getImplicitDeuterium());
+      assertEquals(e.getImplicitTritium(), a.getImplicitTritium());
+      assertEquals(e.getIsotopicMass(), a.getIsotopicMass());
+      assertEquals(e.getRadical(), a.getRadical());
+      assertEquals(e.getCharge(), a.getCharge());
+    }
+    assertEquals(expected.getBonds().size(), actual.getBonds().size());
+    for (int i = 0; i < expected.getBonds().size(); i++) {
+      InchiBond e = expected.getBond(i);
+      InchiBond a = actual.getBond(i);
+      assertSame(actual.getAtom(expected.indexOf(e.getStart())), a.getStart());
+      assertSame(actual.getAtom(expected.indexOf(e.getEnd())), a.getEnd());
+      assertEquals(e.getType(), a.getType());
+      assertEquals(e.getStereo(), a.getStereo());
+    }
+    assertEquals(expected.getStereos().size(), actual.getStereos().size());
+    for (int i = 0; i < expected.getStereos().size(); i++) {
+      InchiStereo e = expected.getStereos().get(i);
+      InchiStereo a = actual.getStereos().get(i);
+      assertEquals(e.getType(), a.getType());
+      assertEquals(e.getParity(), a.getParity());
+      assertSame(e.getCentralAtom() != null ? actual.getAtom(expected.indexOf(e.getCentralAtom())) : null, a.getCentralAtom());
+      for (int j = 0; j < 4; j++) {
+        InchiAtom atom = e.getAtoms()[j];
+        assertSame(atom != null ? actual.getAtom(expected.indexOf(atom)) : null, a.getAtoms()[j]);
+      }
+    }
+  }
+
+}
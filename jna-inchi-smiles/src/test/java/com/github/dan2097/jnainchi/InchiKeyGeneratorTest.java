@@ -0,0 +1,139 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class InchiKeyGeneratorTest {
+
+  private static final String[] SMILES = {
+      "C",
+      "CCO",
+      "C[C@@H](C(=O)O)N",
+      "CC(=O)[O-]",
+      "C[NH3+]",
+      "OC(=O)CCC(=O)O",
+      "C/C=C/C",
+      "[2H]C([2H])([2H])O",
+      "C1=CC=NC(=O)C1",
+      "CCCCCCCCCCCCCCCCCCCC(=O)O.[Na]",
+      "O=C1NC(=O)C(N1)(c1ccccc1)c1ccccc1",
+      "[13CH3][C@H](Cl)Br",
+      "[Fe+2].[Cl-].[Cl-]"
+  };
+
+  private static final String[] INCHIS = {
+      "",
+      "InChI=1",
+      "InChI=1S/",
+      "InChI=1S/ ",
+      "InChI=1SCH4",
+      "InChI=1X/CH4",
+      "InChI=1/CH4/h1H4",
+      "InChI=1S/CH4/h1H4 trailing text",
+      "InChI=1S/CH4/h1H4/",
+      "InChI=1S/CH4//h1H4",
+      "InChI=1S/CH4/p",
+      "InChI=1S/CH4/p+0",
+      "InChI=1S/CH4/p+12",
+      "InChI=1S/CH4/p-12",
+      "InChI=1S/CH4/p+13",
+      "InChI=1S/CH4/p-13",
+      "InChI=1S/CH4/p+1/h1H4",
+      "InChI=1S/CH4/p+0/p+1",
+      "InChI=1S/CH4/p-1/q+1/t1",
+      "InChI=1S/CH4/p+99999999999",
+      "InChI=1S/CH4/p-99999999999999999999"
+  };
+
+  private static final InchiOptions[] OPTIONS = {
+      InchiOptions.DEFAULT_OPTIONS,
+      new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH, InchiFlag.RecMet, InchiFlag.SUU).build(),
+      new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.SRel).build()
+  };
+
+  @Test
+  public void testMatchesNativeInchiKey() throws Exception {
+    for (InchiOptions options : OPTIONS) {
+      for (String smiles : SMILES) {
+        String inchi = SmilesToInchi.toInchi(smiles, options).getInchi();
+        assertSameKey(inchi);
+      }
+    }
+  }
+
+  @Test
+  public void testMatchesNativeInchiKeyOnSmilesCorpus() throws Exception {
+    try (BufferedReader input = new BufferedReader(new InputStreamReader(InchiKeyGeneratorTest.class.getResourceAsStream("smilesintegrationtests.smi"), "UTF-8"))) {
+      String line = null;
+      while ((line = input.readLine()) != null) {
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] smilesAndInchi = line.split("\t");
+        assertSameKey(smilesAndInchi[1]);
+        for (InchiOptions options : OPTIONS) {
+          assertSameKey(SmilesToInchi.toInchi(smilesAndInchi[0], options).getInchi());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testMatchesNativeInchiKeyEdgeCases() {
+    for (String inchi : INCHIS) {
+      assertSameKey(inchi);
+    }
+  }
+
+  @Test
+  public void testMinorLayerLength() {
+    //the minor layers are hashed twice when shorter than 255 characters
+    List<String> inchis = new ArrayList<>();
+    StringBuilder sb = new StringBuilder("InChI=1S/CH4/b");
+    for (int i = 0; i < 270; i++) {
+      sb.append(i % 10);
+      inchis.add(sb.toString());
+    }
+    for (String inchi : inchis) {
+      assertSameKey(inchi);
+    }
+  }
+
+  @Test
+  public void testNullInchi() {
+    InchiKeyOutput output = InchiKeyGenerator.inchiToInchiKey(null);
+    assertEquals("", output.getInchiKey());
+    assertEquals(InchiKeyStatus.EMPTY_INPUT, output.getStatus());
+  }
+
+  private static void assertSameKey(String inchi) {
+    InchiKeyOutput expected = JnaInchi.inchiToInchiKey(inchi);
+    InchiKeyOutput actual = InchiKeyGenerator.inchiToInchiKey(inchi);
+    assertEquals(inchi, expected.getInchiKey(), actual.getInchiKey());
+    assertEquals(inchi, expected.getStatus(), actual.getStatus());
+  }
+
+}
@@ -0,0 +1,255 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InchiMemoStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final String ETHANOL = "ethanol\n  Program01012500002D\n\n"
+      + "  3  2  0  0  0  0  0  0  0  0999 V2000\n"
+      + "    0.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    1.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    2.0000    0.0000    0.0000 O   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "  1  2  1  0\n"
+      + "  2  3  1  0\n"
+      + "M  END\n";
+
+  private static final InchiOptions NO_AUXINFO = new InchiOptions.InchiOptionsBuilder().withOutputFields(InchiOutputField.MESSAGE).build();
+
+  @Test
+  public void testPutGetAndReopen() throws IOException {
+    Path directory = folder.newFolder().toPath();
+    InchiMemoStore.Key key = InchiMemoStore.Key.ofMolfile(ETHANOL, NO_AUXINFO);
+    InchiMemoStore.Key failedKey = InchiMemoStore.Key.ofMolfile("invalid\n", NO_AUXINFO);
+    InchiOutput output = JnaInchi.molToInchi(ETHANOL, NO_AUXINFO);
+    InchiOutput failed = JnaInchi.molToInchi("invalid\n", NO_AUXINFO);
+    try (InchiMemoStore store = InchiMemoStore.openForWriting(directory)) {
+      assertNull(store.get(key));
+      assertTrue(store.put(key, output));
+      assertFalse(store.put(key, output));
+      assertTrue(store.put(failedKey, failed));
+      assertEquals(2, store.size());
+      assertEntry(output, store.get(key));
+      //records are written through the channel, so the data file never needs truncating
+      assertTrue(Files.size(directory.resolve(InchiMemoStore.DATA_FILE)) < 1024);
+    }
+    try (InchiMemoStore store = InchiMemoStore.open(directory)) {
+      assertEquals(2, store.size());
+      assertEntry(output, store.get(key));
+      InchiMemoStore.Entry entry = store.get(failedKey);
+      assertEntry(failed, entry);
+      assertNull(entry.getInchiKey());
+      assertNull(store.get(InchiMemoStore.Key.ofInchi("InChI=1S/CH4/h1H4", NO_AUXINFO)));
+    }
+  }
+
+  @Test
+  public void testGrowthAndConcurrentReader() throws IOException {
+    Path directory = folder.newFolder().toPath();
+    //more than fit in the first two tables
+    int count = 120000;
+    InchiOutput output = new InchiOutput("InChI=1S/CH4/h1H4", null, "", null, InchiStatus.SUCCESS);
+    try (InchiMemoStore writer = InchiMemoStore.openForWriting(directory);
+        InchiMemoStore reader = InchiMemoStore.open(directory)) {
+      for (int i = 0; i < count; i++) {
+        assertTrue(writer.put(key(i), output));
+        if (i % 10007 == 0) {
+          //the reader sees entries as they are added
+          assertEquals(output.getInchi(), reader.get(key(i)).getInchi());
+        }
+      }
+      assertEquals(count, writer.size());
+      assertEquals(count, reader.size());
+      for (int i = 0; i < count; i += 97) {
+        assertEquals(output.getInchi(), reader.get(key(i)).getInchi());
+      }
+      assertNull(reader.get(key(count)));
+    }
+    try (InchiMemoStore writer = InchiMemoStore.openForWriting(directory)) {
+      assertFalse(writer.put(key(5), output));
+      assertTrue(writer.put(key(count), output));
+      assertEquals(count + 1, writer.size());
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testSingleWriter() throws IOException {
+    Path directory = folder.newFolder().toPath();
+    try (InchiMemoStore writer = InchiMemoStore.openForWriting(directory)) {
+      InchiMemoStore.openForWriting(directory).close();
+    }
+  }
+
+  @Test
+  public void testKeyNormalization() {
+    InchiMemoStore.Key key = InchiMemoStore.Key.ofMolfile(ETHANOL, NO_AUXINFO);
+    String retitled = ETHANOL.replace("ethanol\n  Program01012500002D\n\n", "renamed\n  Other  02022614302D\ncomment\n");
+    assertEquals(key, InchiMemoStore.Key.ofMolfile(retitled, NO_AUXINFO));
+    assertEquals(key, InchiMemoStore.Key.ofMolfile(ETHANOL.replace("\n", "\r\n"), NO_AUXINFO));
+    assertEquals(key, InchiMemoStore.Key.ofMolfile(ETHANOL + "> <ID>\n1\n\n", NO_AUXINFO));
+    assertEquals(key, InchiMemoStore.Key.ofMolfile(ByteBuffer.wrap(ETHANOL.getBytes(StandardCharsets.US_ASCII)), NO_AUXINFO));
+    //characters outside Latin-1 are not truncated to a single byte, U+0141 would otherwise match 'A'
+    String alias = ETHANOL.replace("M  END", "A    1\nAx\nM  END");
+    String nonLatin1 = ETHANOL.replace("M  END", "A    1\n\u0141x\nM  END");
+    assertNotEquals(InchiMemoStore.Key.ofMolfile(alias, NO_AUXINFO), InchiMemoStore.Key.ofMolfile(nonLatin1, NO_AUXINFO));
+    assertEquals(InchiMemoStore.Key.ofMolfile(nonLatin1, NO_AUXINFO),
+        InchiMemoStore.Key.ofMolfile(ByteBuffer.wrap(nonLatin1.getBytes(StandardCharsets.UTF_8)), NO_AUXINFO));
+    //output fields do not affect the InChI
+    assertEquals(key, InchiMemoStore.Key.ofMolfile(ETHANOL, InchiOptions.DEFAULT_OPTIONS));
+    assertNotEquals(key, InchiMemoStore.Key.ofMolfile(ETHANOL.replace("2.0000", "2.5000"), NO_AUXINFO));
+
+    InchiOptions fixedHRecMet = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH, InchiFlag.RecMet).build();
+    InchiOptions recMetFixedH = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.RecMet, InchiFlag.FixedH).build();
+    assertEquals(InchiMemoStore.Key.ofSmiles("CCO", fixedHRecMet), InchiMemoStore.Key.ofSmiles(" CCO\n", recMetFixedH));
+    assertNotEquals(InchiMemoStore.Key.ofSmiles("CCO", fixedHRecMet), InchiMemoStore.Key.ofSmiles("CCO", NO_AUXINFO));
+    //the kind of input is part of the key
+    assertNotEquals(InchiMemoStore.Key.ofSmiles("C", NO_AUXINFO), InchiMemoStore.Key.ofInchi("C", NO_AUXINFO));
+  }
+
+  @Test
+  public void testEngine() throws IOException {
+    Path directory = folder.newFolder().toPath();
+    try (InchiMemoStore store = InchiMemoStore.openForWriting(directory)) {
+      MemoInchiEngine engine = new MemoInchiEngine(new IxaInchiEngine(), store);
+      InchiOutput expected = JnaInchi.molToInchi(ETHANOL, NO_AUXINFO);
+      assertOutput(expected, engine.molToInchi(ETHANOL, NO_AUXINFO));
+      assertEquals(0, store.getHitCount());
+      assertOutput(expected, engine.molToInchi(ETHANOL, NO_AUXINFO));
+      assertOutput(expected, engine.molToInchi(ByteBuffer.wrap(ETHANOL.getBytes(StandardCharsets.US_ASCII)), NO_AUXINFO));
+      assertEquals(2, store.getHitCount());
+      assertEquals(JnaInchi.molToInchiKey(ETHANOL, NO_AUXINFO).getInchiKey(), engine.molToInchiKey(ETHANOL, NO_AUXINFO).getInchiKey());
+      assertEquals(3, store.getHitCount());
+
+      //AuxInfo is not stored, so conversions requesting it are not answered from the store
+      InchiOutput withAuxInfo = engine.molToInchi(ETHANOL, InchiOptions.DEFAULT_OPTIONS);
+      assertEquals(JnaInchi.molToInchi(ETHANOL).getAuxInfo(), withAuxInfo.getAuxInfo());
+      assertEquals(3, store.getHitCount());
+      assertEquals(2, store.getMissCount());
+
+      InchiInput input = JnaInchi.getInchiInputFromInchi("InChI=1S/C4H10O/c1-3-4(2)5/h4-5H,3H2,1-2H3/t4-/m0/s1").getInchiInput();
+      assertOutput(JnaInchi.toInchi(input, NO_AUXINFO), engine.toInchi(input, NO_AUXINFO));
+      assertOutput(JnaInchi.toInchi(input, NO_AUXINFO), engine.toInchi(input, NO_AUXINFO));
+      assertEquals(JnaInchi.toInchiKey(input).getInchiKey(), engine.toInchiKey(input, InchiOptions.DEFAULT_OPTIONS).getInchiKey());
+      assertEquals(5, store.getHitCount());
+
+      String methane = "\n\n\n  1  0  0  0  0  0  0  0  0  0999 V2000\n"
+          + "    0.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+          + "M  END\n";
+      assertEquals(JnaInchi.molToInchiKey(methane).getInchiKey(), engine.molToInchiKey(methane, NO_AUXINFO).getInchiKey());
+      assertEquals(JnaInchi.molToInchiKey(methane).getInchiKey(), engine.molToInchiKey(methane, NO_AUXINFO).getInchiKey());
+      assertEquals(6, store.getHitCount());
+      assertEquals(4, store.getMissCount());
+    }
+  }
+
+  @Test
+  public void testErrorsNotStoredWithTimeout() throws IOException {
+    Path directory = folder.newFolder().toPath();
+    InchiOptions timeout = new InchiOptions.InchiOptionsBuilder().withTimeoutMilliSeconds(60000).withOutputFields().build();
+    InchiOutput error = new InchiOutput(null, null, "Time limit exceeded", null, InchiStatus.ERROR);
+    try (InchiMemoStore store = InchiMemoStore.openForWriting(directory)) {
+      InchiMemoStore.Key key = InchiMemoStore.Key.ofMolfile(ETHANOL, timeout);
+      assertEquals(InchiStatus.ERROR, store.getOrConvert(key, timeout, () -> error).getStatus());
+      assertEquals(InchiKeyStatus.EMPTY_INPUT, store.getOrConvertInchiKey(key, timeout, () -> error).getStatus());
+      assertNull(store.get(key));
+      //without a timeout the error is a property of the input
+      InchiMemoStore.Key noTimeoutKey = InchiMemoStore.Key.ofMolfile(ETHANOL, NO_AUXINFO);
+      store.getOrConvert(noTimeoutKey, NO_AUXINFO, () -> error);
+      assertEquals(InchiStatus.ERROR, store.get(noTimeoutKey).getStatus());
+    }
+  }
+
+  @Test
+  public void testUnwrittenRecordIsMiss() throws IOException {
+    //a slot whose record is zeroed, as a reader may see before the record is written, or after a writer crashed
+    assertUnwrittenRecordIsMiss(0, 64);
+    //a record whose digest was written but not its status
+    assertUnwrittenRecordIsMiss(16, 1);
+  }
+
+  private void assertUnwrittenRecordIsMiss(long position, int length) throws IOException {
+    Path directory = folder.newFolder().toPath();
+    InchiOutput output = new InchiOutput("InChI=1S/CH4/h1H4", null, "", null, InchiStatus.SUCCESS);
+    try (InchiMemoStore store = InchiMemoStore.openForWriting(directory)) {
+      assertTrue(store.put(key(0), output));
+    }
+    try (FileChannel data = FileChannel.open(directory.resolve(InchiMemoStore.DATA_FILE), StandardOpenOption.WRITE)) {
+      data.write(ByteBuffer.allocate(length), position);
+    }
+    try (InchiMemoStore store = InchiMemoStore.open(directory)) {
+      assertEquals(1, store.size());
+      assertNull(store.get(key(0)));
+      assertEquals("InChI=1S/test", store.getOrConvert(key(0), NO_AUXINFO, () -> new InchiOutput("InChI=1S/test", null, "", null, InchiStatus.SUCCESS)).getInchi());
+      assertEquals(1, store.getMissCount());
+    }
+  }
+
+  @Test
+  public void testSmiles() throws IOException {
+    Path directory = folder.newFolder().toPath();
+    try (InchiMemoStore store = InchiMemoStore.openForWriting(directory)) {
+      for (int i = 0; i < 2; i++) {
+        assertOutput(SmilesToInchi.toInchi("C[C@H](O)CC", NO_AUXINFO), SmilesToInchi.toInchi("C[C@H](O)CC", NO_AUXINFO, store));
+      }
+      assertEquals(1, store.getHitCount());
+      assertEquals(1, store.getMissCount());
+    }
+  }
+
+  private static InchiMemoStore.Key key(int i) {
+    return InchiMemoStore.Key.ofInchi("InChI=1S/test" + i, NO_AUXINFO);
+  }
+
+  private static void assertEntry(InchiOutput expected, InchiMemoStore.Entry entry) {
+    assertEquals(expected.getInchi(), entry.getInchi());
+    assertEquals(expected.getStatus(), entry.getStatus());
+    assertEquals(expected.getMessage(), entry.getMessage());
+    if (expected.getInchi() != null && !expected.getInchi().isEmpty()) {
+      InchiKeyOutput key = JnaInchi.inchiToInchiKey(expected.getInchi());
+      assertEquals(key.getInchiKey(), entry.getInchiKey());
+      assertEquals(key.getStatus(), entry.getInchiKeyStatus());
+    }
+  }
+
+  private static void assertOutput(InchiOutput expected, InchiOutput actual) {
+    assertEquals(expected.getInchi(), actual.getInchi());
+    assertEquals(expected.getStatus(), actual.getStatus());
+    assertEquals(expected.getMessage(), actual.getMessage());
+  }
+
+}
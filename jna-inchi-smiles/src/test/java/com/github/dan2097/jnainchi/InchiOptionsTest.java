@@ -22,10 +22,13 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
 import java.io.IOException;
+import java.util.EnumSet;
 
 import org.junit.Ignore;
 import org.junit.Test;
 
+import uk.ac.ebi.beam.Graph;
+
 public class InchiOptionsTest {
 
   @Test
@@ -41,6 +44,23 @@ public class InchiOptionsTest {
     assertEquals("InChI=1/C5H4N4/c1-4-5(8-2-6-1)9-3-7-4/h1-3H,(H,6,7,8,9)/f/h9H", SmilesToInchi.toInchi(tautomer2, options).getInchi());
   }
   
+  @Test
+  public void testBuilderChangesDoNotAffectBuiltOptions() throws IOException {
+    InchiOptions.InchiOptionsBuilder builder = new InchiOptions.InchiOptionsBuilder().withOutputFields(InchiOutputField.MESSAGE);
+    InchiOptions options = builder.build();
+    try (InchiConverter converter = new InchiConverter()) {
+      String smiles = "N[C@@H](C)C(=O)O";
+      InchiInput input = SmilesToInchi.graphToInput(Graph.fromSmiles(smiles));
+      assertEquals("InChI=1S/C3H7NO2/c1-2(4)3(5)6/h2H,4H2,1H3,(H,5,6)/t2-/m0/s1", converter.toInchi(input, options).getInchi());
+      builder.withFlag(InchiFlag.SNon).withOutputFields();
+      assertEquals(0, options.getFlags().size());
+      assertEquals(EnumSet.of(InchiOutputField.MESSAGE), options.getOutputFields());
+      //the converter reuses native state for the same options
+      assertEquals("InChI=1S/C3H7NO2/c1-2(4)3(5)6/h2H,4H2,1H3,(H,5,6)/t2-/m0/s1", converter.toInchi(input, options).getInchi());
+      assertEquals("InChI=1S/C3H7NO2/c1-2(4)3(5)6/h2H,4H2,1H3,(H,5,6)/t2-/m0/s1", JnaInchi.toInchi(input, options).getInchi());
+    }
+  }
+
   @Test
   public void testReconnectedMetalLayer() throws IOException {
     String metalComplex = "[NH3][Pt](Cl)(Cl)[NH3]";
@@ -0,0 +1,341 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import uk.ac.ebi.beam.Graph;
+
+public class InchiResultCacheTest {
+
+  private static final String[] SMILES = {"C", "CCO", "C/C=C/C", "C[C@@H](O)CC", "[Na+].[Cl-]", "CC(=O)[O-]", "[13CH4]", "O"};
+
+  private static final InchiOptions FIXEDH = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH, InchiFlag.RecMet).build();
+
+  private static InchiInput input(String smiles) throws IOException {
+    return SmilesToInchi.graphToInput(Graph.fromSmiles(smiles));
+  }
+
+  @Test
+  public void testKeyEquality() throws IOException {
+    for (String smi : SMILES) {
+      assertEquals(InchiResultCache.Key.of(input(smi), FIXEDH), InchiResultCache.Key.of(input(smi), FIXEDH));
+      assertNotEquals(InchiResultCache.Key.of(input(smi), FIXEDH), InchiResultCache.Key.of(input(smi), InchiOptions.DEFAULT_OPTIONS));
+    }
+    InchiInput input = input("CCO");
+    InchiResultCache.Key key = InchiResultCache.Key.of(input, InchiOptions.DEFAULT_OPTIONS);
+    input.getAtom(2).setCharge(-1);
+    assertNotEquals(key, InchiResultCache.Key.of(input, InchiOptions.DEFAULT_OPTIONS));
+    input.getAtom(2).setCharge(0);
+    assertEquals(key, InchiResultCache.Key.of(input, InchiOptions.DEFAULT_OPTIONS));
+    input.getAtom(2).setImplicitDeuterium(1);
+    assertNotEquals(key, InchiResultCache.Key.of(input, InchiOptions.DEFAULT_OPTIONS));
+  }
+
+  @Test
+  public void testKeyOptions() throws IOException {
+    InchiInput input = input("C[C@@H](O)CC");
+    InchiOptions ab = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH, InchiFlag.SUU).build();
+    InchiOptions ba = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.SUU, InchiFlag.FixedH).build();
+    assertEquals(InchiResultCache.Key.of(input, ab), InchiResultCache.Key.of(input, ba));
+    InchiOptions inchiOnly = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH, InchiFlag.SUU).withOutputFields().build();
+    assertNotEquals(InchiResultCache.Key.of(input, ab), InchiResultCache.Key.of(input, inchiOnly));
+    InchiOptions timeout = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH, InchiFlag.SUU).withTimeout(5).build();
+    assertNotEquals(InchiResultCache.Key.of(input, ab), InchiResultCache.Key.of(input, timeout));
+  }
+
+  @Test
+  public void testKeyCoordinates() throws IOException {
+    InchiInput input = input("CC(F)(Cl)Br");
+    InchiOptions noStereo = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.SNon).withOutputFields(InchiOutputField.MESSAGE).build();
+    InchiOptions noStereoWithAuxInfo = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.SNon).build();
+    InchiResultCache.Key key = InchiResultCache.Key.of(input, InchiOptions.DEFAULT_OPTIONS);
+    InchiResultCache.Key noStereoKey = InchiResultCache.Key.of(input, noStereo);
+    InchiResultCache.Key noStereoWithAuxInfoKey = InchiResultCache.Key.of(input, noStereoWithAuxInfo);
+    input.getAtom(1).setZ(-0.0);
+    assertEquals(key, InchiResultCache.Key.of(input, InchiOptions.DEFAULT_OPTIONS));
+    input.getAtom(1).setZ(1.5);
+    assertNotEquals(key, InchiResultCache.Key.of(input, InchiOptions.DEFAULT_OPTIONS));
+    assertNotEquals(noStereoWithAuxInfoKey, InchiResultCache.Key.of(input, noStereoWithAuxInfo));
+    //coordinates only affect stereo perception and the AuxInfo
+    assertEquals(noStereoKey, InchiResultCache.Key.of(input, noStereo));
+  }
+
+  @Test
+  public void testStatistics() throws IOException {
+    InchiResultCache cache = new InchiResultCache(100);
+    InchiEngine engine = InchiEngines.getDefaultEngine();
+    for (int i = 0; i < 3; i++) {
+      for (String smi : SMILES) {
+        InchiInput input = input(smi);
+        assertEquals(engine.toInchi(input, FIXEDH).getInchi(), cache.getOrConvert(input, FIXEDH, engine).getInchi());
+      }
+    }
+    assertEquals(SMILES.length, cache.getMissCount());
+    assertEquals(2 * SMILES.length, cache.getHitCount());
+    assertEquals(0, cache.getEvictionCount());
+    assertEquals(SMILES.length, cache.size());
+    assertEquals(2.0 / 3, cache.getHitRate(), 1e-9);
+    cache.clear();
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testEviction() throws IOException {
+    InchiResultCache cache = new InchiResultCache(10, 1);
+    InchiOutput output = JnaInchi.toInchi(input("C"));
+    InchiResultCache.Key frequent = InchiResultCache.Key.of(input("CCO"), InchiOptions.DEFAULT_OPTIONS);
+    cache.put(frequent, InchiOptions.DEFAULT_OPTIONS, output);
+    assertSame(output, cache.get(frequent));
+    //a scan of structures seen once evicts only from the probationary area
+    InchiInput chain = new InchiInput();
+    for (int i = 0; i < 100; i++) {
+      chain.addAtom(new InchiAtom("C"));
+      cache.put(InchiResultCache.Key.of(chain, InchiOptions.DEFAULT_OPTIONS), InchiOptions.DEFAULT_OPTIONS, output);
+    }
+    assertEquals(10, cache.size());
+    assertEquals(91, cache.getEvictionCount());
+    assertNotNull(cache.get(frequent));
+    assertNull(cache.get(InchiResultCache.Key.of(input("CCCC"), InchiOptions.DEFAULT_OPTIONS)));
+  }
+
+  @Test
+  public void testWeightBound() throws IOException {
+    InchiOutput output = JnaInchi.toInchi(input("CCO"));
+    long weight = InchiResultCache.weigh(output);
+    InchiResultCache cache = new InchiResultCache.InchiResultCacheBuilder().withMaximumWeight(weight * 5).withConcurrencyLevel(1).build();
+    InchiInput chain = new InchiInput();
+    for (int i = 0; i < 20; i++) {
+      chain.addAtom(new InchiAtom("C"));
+      cache.put(InchiResultCache.Key.of(chain, InchiOptions.DEFAULT_OPTIONS), InchiOptions.DEFAULT_OPTIONS, output);
+    }
+    assertEquals(5, cache.size());
+    assertEquals(weight * 5, cache.weight());
+    assertEquals(15, cache.getEvictionCount());
+    assertEquals(Long.MAX_VALUE, cache.getMaximumSize());
+  }
+
+  @Test
+  public void testExpiry() throws IOException {
+    AtomicLong time = new AtomicLong();
+    InchiResultCache cache = new InchiResultCache.InchiResultCacheBuilder().withMaximumSize(100)
+        .withExpireAfterWrite(10, TimeUnit.SECONDS).withTicker(time::get).build();
+    InchiOutput output = JnaInchi.toInchi(input("C"));
+    InchiResultCache.Key probationary = InchiResultCache.Key.of(input("C"), InchiOptions.DEFAULT_OPTIONS);
+    InchiResultCache.Key promoted = InchiResultCache.Key.of(input("CC"), InchiOptions.DEFAULT_OPTIONS);
+    cache.put(probationary, InchiOptions.DEFAULT_OPTIONS, output);
+    cache.put(promoted, InchiOptions.DEFAULT_OPTIONS, output);
+    assertSame(output, cache.get(promoted));
+    time.set(TimeUnit.SECONDS.toNanos(9));
+    assertSame(output, cache.get(probationary));
+    assertSame(output, cache.get(promoted));
+    time.set(TimeUnit.SECONDS.toNanos(10));
+    assertNull(cache.get(probationary));
+    assertNull(cache.get(promoted));
+    assertEquals(2, cache.getExpirationCount());
+    assertEquals(0, cache.getEvictionCount());
+    assertEquals(0, cache.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBoundRequired() {
+    new InchiResultCache.InchiResultCacheBuilder().withExpireAfterWrite(1, TimeUnit.MINUTES).build();
+  }
+
+  @Test
+  public void testSmilesCache() throws IOException {
+    InchiResultCache cache = new InchiResultCache(100);
+    for (int i = 0; i < 2; i++) {
+      for (String smi : SMILES) {
+        assertEquals(SmilesToInchi.toInchi(smi, FIXEDH).getInchi(), SmilesToInchi.toInchi(smi, FIXEDH, cache).getInchi());
+      }
+    }
+    assertEquals(SMILES.length, cache.getMissCount());
+    assertEquals(SMILES.length, cache.getHitCount());
+    assertEquals(SMILES.length, cache.size());
+    //different options and SMILES of the same structure are distinct keys
+    assertNotEquals(InchiResultCache.Key.ofSmiles("CCO", FIXEDH), InchiResultCache.Key.ofSmiles("CCO", InchiOptions.DEFAULT_OPTIONS));
+    assertNotEquals(InchiResultCache.Key.ofSmiles("CCO", FIXEDH), InchiResultCache.Key.ofSmiles("OCC", FIXEDH));
+    assertNotEquals(InchiResultCache.Key.ofSmiles("CCO", FIXEDH), InchiResultCache.Key.of(input("CCO"), FIXEDH));
+    try {
+      SmilesToInchi.toInchi("C1CC", FIXEDH, cache);
+      fail("Expected IOException for invalid SMILES");
+    }
+    catch (IOException e) {
+      //not cached
+    }
+    assertEquals(SMILES.length, cache.size());
+  }
+
+  @Test
+  public void testSmilesHashCollision() {
+    //keys whose hashes collide are told apart by their SMILES
+    InchiResultCache.Key ethanol = new InchiResultCache.Key(1, 2, "CCO");
+    InchiResultCache.Key methanol = new InchiResultCache.Key(1, 2, "CO");
+    assertNotEquals(ethanol, methanol);
+    InchiResultCache cache = new InchiResultCache(100);
+    InchiOutput output = new InchiOutput("InChI=1S/C2H6O/c1-2-3/h3H,2H2,1H3", null, "", null, InchiStatus.SUCCESS);
+    cache.put(ethanol, InchiOptions.DEFAULT_OPTIONS, output);
+    assertNull(cache.get(methanol));
+    assertSame(output, cache.get(new InchiResultCache.Key(1, 2, "CCO")));
+  }
+
+  @Test
+  public void testTimeoutErrorsNotCached() throws IOException {
+    InchiResultCache cache = new InchiResultCache(10);
+    InchiOptions timeout = new InchiOptions.InchiOptionsBuilder().withTimeout(5).build();
+    InchiResultCache.Key key = InchiResultCache.Key.of(input("C"), timeout);
+    cache.put(key, timeout, new InchiOutput(null, null, "Time limit exceeded", null, InchiStatus.ERROR));
+    assertNull(cache.get(key));
+  }
+
+  @Test
+  public void testCachingEngine() throws IOException {
+    InchiEngine engine = InchiEngines.getDefaultEngine();
+    CachingInchiEngine cachingEngine = new CachingInchiEngine(engine, new InchiResultCache(1000));
+    List<InchiOptions> variants = Arrays.asList(InchiOptions.DEFAULT_OPTIONS, FIXEDH);
+    for (String smi : SMILES) {
+      InchiInput input = input(smi);
+      assertSameOutput(engine.toInchi(input, FIXEDH), cachingEngine.toInchi(input, FIXEDH));
+      List<InchiOutput> expected = engine.toInchiVariants(input, variants);
+      List<InchiOutput> actual = cachingEngine.toInchiVariants(input, variants);
+      for (int i = 0; i < variants.size(); i++) {
+        assertSameOutput(expected.get(i), actual.get(i));
+      }
+      assertEquals(engine.toInchiKey(input, FIXEDH).getInchiKey(), cachingEngine.toInchiKey(input, FIXEDH).getInchiKey());
+    }
+    InchiResultCache cache = cachingEngine.getCache();
+    assertEquals(2 * SMILES.length, cache.size());
+    assertEquals(2 * SMILES.length, cache.getMissCount());
+    assertEquals(2 * SMILES.length, cache.getHitCount());
+  }
+
+  /**
+   * Counts the conversions made by the default engine
+   */
+  private static class CountingEngine implements InchiEngine {
+
+    private final InchiEngine engine = InchiEngines.getDefaultEngine();
+    private int conversions;
+    private int keyConversions;
+
+    @Override
+    public String getName() {
+      return "counting";
+    }
+
+    @Override
+    public InchiOutput toInchi(InchiInput inchiInput, InchiOptions options) {
+      conversions++;
+      return engine.toInchi(inchiInput, options);
+    }
+
+    @Override
+    public InchiKeyOutput toInchiKey(InchiInput inchiInput, InchiOptions options) {
+      keyConversions++;
+      return engine.toInchiKey(inchiInput, options);
+    }
+
+    @Override
+    public InchiOutput molToInchi(String molText, InchiOptions options) {
+      return engine.molToInchi(molText, options);
+    }
+
+    @Override
+    public InchiOutput inchiToInchi(String inchi, InchiOptions options) {
+      return engine.inchiToInchi(inchi, options);
+    }
+
+    @Override
+    public InchiKeyOutput inchiToInchiKey(String inchi) {
+      return engine.inchiToInchiKey(inchi);
+    }
+  }
+
+  @Test
+  public void testCachingEngineKeyMissUsesKeyPath() throws IOException {
+    CountingEngine counting = new CountingEngine();
+    CachingInchiEngine cachingEngine = new CachingInchiEngine(counting, new InchiResultCache(10));
+    InchiInput input = input("CCO");
+    String expected = InchiEngines.getDefaultEngine().toInchiKey(input, FIXEDH).getInchiKey();
+    assertEquals(expected, cachingEngine.toInchiKey(input, FIXEDH).getInchiKey());
+    assertEquals(1, counting.keyConversions);
+    assertEquals(0, counting.conversions);
+    assertEquals(0, cachingEngine.getCache().size());
+
+    //once the output is cached the key is derived from it
+    cachingEngine.toInchi(input, FIXEDH);
+    assertEquals(expected, cachingEngine.toInchiKey(input, FIXEDH).getInchiKey());
+    assertEquals(1, counting.keyConversions);
+    assertEquals(1, counting.conversions);
+  }
+
+  @Test
+  public void testSharedBetweenThreads() throws Exception {
+    InchiResultCache cache = new InchiResultCache(50);
+    InchiEngine engine = InchiEngines.getDefaultEngine();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 50; i++) {
+            String smi = SMILES[i % SMILES.length];
+            InchiInput input = input(smi);
+            assertEquals(engine.toInchi(input, FIXEDH).getInchi(), cache.getOrConvert(input, FIXEDH, engine).getInchi());
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
+    assertEquals(200, cache.getHitCount() + cache.getMissCount());
+    assertEquals(SMILES.length, cache.size());
+  }
+
+  private static void assertSameOutput(InchiOutput expected, InchiOutput actual) {
+    assertEquals(expected.getInchi(), actual.getInchi());
+    assertEquals(expected.getAuxInfo(), actual.getAuxInfo());
+    assertEquals(expected.getMessage(), actual.getMessage());
+    assertEquals(expected.getLog(), actual.getLog());
+    assertEquals(expected.getStatus(), actual.getStatus());
+  }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InchiResultWriterTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final List<String> SMILES = Arrays.asList("CCO", "C[C@H](O)CC", "CC(=O)[O-]", "c1ccccc1", "[Na+].[Cl-]");
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    Path directory = folder.newFolder().toPath();
+    List<InchiOutput> outputs = new ArrayList<>();
+    for (String smiles : SMILES) {
+      outputs.add(SmilesToInchi.toInchi(smiles));
+    }
+    outputs.add(JnaInchi.molToInchi("invalid\n"));
+    //small regions, so rows and the heap span several mappings
+    try (InchiResultWriter writer = new InchiResultWriter(directory, 40)) {
+      for (int i = outputs.size() - 1; i >= 0; i--) {
+        writer.write(i, outputs.get(i));
+      }
+      assertEquals(outputs.size(), writer.getRowCount());
+    }
+    try (InchiResultReader reader = new InchiResultReader(directory)) {
+      assertEquals(outputs.size(), reader.getRowCount());
+      for (int i = 0; i < outputs.size(); i++) {
+        InchiOutput output = outputs.get(i);
+        assertTrue(reader.contains(i));
+        assertEquals(output.getStatus(), reader.getStatus(i));
+        assertEquals(output.getInchi(), reader.getInchi(i));
+        if (output.getStatus() == InchiStatus.ERROR) {
+          assertNull(reader.getInchiKey(i));
+          assertNull(reader.getInchiKeyStatus(i));
+        }
+        else {
+          InchiKeyOutput key = JnaInchi.inchiToInchiKey(output.getInchi());
+          assertEquals(key.getInchiKey(), reader.getInchiKey(i));
+          assertEquals(key.getStatus(), reader.getInchiKeyStatus(i));
+        }
+      }
+    }
+    //index column is readable directly
+    ByteBuffer indexes = ByteBuffer.wrap(Files.readAllBytes(directory.resolve(InchiResultWriter.INDEX_FILE))).order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < outputs.size(); i++) {
+      assertEquals(i, indexes.getLong());
+    }
+  }
+
+  @Test
+  public void testGapsKeysAndErrors() throws IOException {
+    Path directory = folder.newFolder().toPath();
+    InchiKeyOutput key = JnaInchi.inchiToInchiKey("InChI=1S/CH4/h1H4");
+    try (InchiResultWriter writer = new InchiResultWriter(directory)) {
+      writer.write(1, key);
+      writer.write(new InchiBatchResult(4, null, new IllegalArgumentException()));
+    }
+    try (InchiResultReader reader = new InchiResultReader(directory)) {
+      assertEquals(5, reader.getRowCount());
+      for (int i : new int[] {0, 2, 3}) {
+        assertFalse(reader.contains(i));
+        assertNull(reader.getInchi(i));
+        assertNull(reader.getInchiKey(i));
+        assertNull(reader.getStatus(i));
+      }
+      assertEquals(key.getInchiKey(), reader.getInchiKey(1));
+      assertEquals(InchiKeyStatus.OK, reader.getInchiKeyStatus(1));
+      assertNull(reader.getStatus(1));
+      assertNull(reader.getInchi(1));
+
+      assertTrue(reader.contains(4));
+      assertEquals(InchiStatus.ERROR, reader.getStatus(4));
+      assertNull(reader.getInchi(4));
+      assertNull(reader.getInchiKey(4));
+    }
+  }
+
+  @Test
+  public void testBatchResults() throws IOException {
+    Path directory = folder.newFolder().toPath();
+    try (InchiResultWriter writer = new InchiResultWriter(directory);
+        Stream<InchiBatchResult> results = SmilesToInchi.toInchiAll(Stream.concat(SMILES.stream(), Stream.of("C1CC")), InchiOptions.DEFAULT_OPTIONS, 2)) {
+      for (InchiBatchResult result : (Iterable<InchiBatchResult>) results::iterator) {
+        writer.write(result);
+      }
+    }
+    try (InchiResultReader reader = new InchiResultReader(directory)) {
+      assertEquals(SMILES.size() + 1, reader.getRowCount());
+      for (int i = 0; i < SMILES.size(); i++) {
+        assertEquals(SmilesToInchi.toInchi(SMILES.get(i)).getInchi(), reader.getInchi(i));
+      }
+      //unparseable SMILES
+      assertEquals(InchiStatus.ERROR, reader.getStatus(SMILES.size()));
+    }
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testOutOfRange() throws IOException {
+    Path directory = folder.newFolder().toPath();
+    new InchiResultWriter(directory).close();
+    try (InchiResultReader reader = new InchiResultReader(directory)) {
+      assertEquals(0, reader.getRowCount());
+      reader.getInchi(0);
+    }
+  }
+
+}
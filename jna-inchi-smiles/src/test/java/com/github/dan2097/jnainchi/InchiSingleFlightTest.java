@@ -0,0 +1,226 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import uk.ac.ebi.beam.Graph;
+
+public class InchiSingleFlightTest {
+
+  private static final InchiOutput OUTPUT = new InchiOutput("InChI=1S/CH4/h1H4", null, "", null, InchiStatus.SUCCESS);
+
+  private static final InchiKeyOutput KEY = new InchiKeyOutput("VNWKTOKETHGBQD-UHFFFAOYSA-N", InchiKeyStatus.OK);
+
+  /**
+   * Blocks conversions until released, counting them
+   */
+  private static class BlockingEngine implements InchiEngine {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger conversions = new AtomicInteger();
+    private final AtomicInteger keyConversions = new AtomicInteger();
+    private volatile RuntimeException failure;
+
+    @Override
+    public String getName() {
+      return "blocking";
+    }
+
+    @Override
+    public InchiOutput toInchi(InchiInput inchiInput, InchiOptions options) {
+      conversions.incrementAndGet();
+      try {
+        release.await();
+      }
+      catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return OUTPUT;
+    }
+
+    @Override
+    public InchiKeyOutput toInchiKey(InchiInput inchiInput, InchiOptions options) {
+      keyConversions.incrementAndGet();
+      return KEY;
+    }
+
+    @Override
+    public InchiOutput molToInchi(String molText, InchiOptions options) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public InchiOutput inchiToInchi(String inchi, InchiOptions options) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public InchiKeyOutput inchiToInchiKey(String inchi) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static InchiInput methane() throws Exception {
+    return SmilesToInchi.graphToInput(Graph.fromSmiles("C"));
+  }
+
+  private static void awaitCoalesced(InchiSingleFlight singleFlight, int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (singleFlight.getCoalescedCount() < count) {
+      if (System.nanoTime() > deadline) {
+        fail("Callers were not coalesced");
+      }
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  public void testConcurrentCallsCoalesced() throws Exception {
+    BlockingEngine blocking = new BlockingEngine();
+    CoalescingInchiEngine engine = new CoalescingInchiEngine(blocking);
+    InchiSingleFlight singleFlight = engine.getSingleFlight();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<InchiOutput>> futures = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        //each caller has its own, identical, InchiInput
+        InchiInput input = methane();
+        futures.add(executor.submit(() -> engine.toInchi(input, InchiOptions.DEFAULT_OPTIONS)));
+      }
+      awaitCoalesced(singleFlight, 3);
+      assertEquals(1, singleFlight.getInFlightCount());
+      blocking.release.countDown();
+      for (Future<InchiOutput> future : futures) {
+        assertSame(OUTPUT, future.get());
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
+    assertEquals(1, blocking.conversions.get());
+    assertEquals(1, singleFlight.getExecutedCount());
+    assertEquals(3, singleFlight.getCoalescedCount());
+    assertEquals(0, singleFlight.getInFlightCount());
+
+    //nothing is retained once complete
+    engine.toInchi(methane(), InchiOptions.DEFAULT_OPTIONS);
+    assertEquals(2, blocking.conversions.get());
+  }
+
+  @Test
+  public void testFailureSharedAndReleased() throws Exception {
+    BlockingEngine blocking = new BlockingEngine();
+    blocking.failure = new IllegalArgumentException("bad input");
+    CoalescingInchiEngine engine = new CoalescingInchiEngine(blocking);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      List<Future<InchiOutput>> futures = new ArrayList<>();
+      for (int i = 0; i < 2; i++) {
+        InchiInput input = methane();
+        futures.add(executor.submit(() -> engine.toInchi(input, InchiOptions.DEFAULT_OPTIONS)));
+      }
+      awaitCoalesced(engine.getSingleFlight(), 1);
+      blocking.release.countDown();
+      for (Future<InchiOutput> future : futures) {
+        try {
+          future.get();
+          fail("Expected the conversion's exception");
+        }
+        catch (ExecutionException e) {
+          assertSame(blocking.failure, e.getCause());
+        }
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
+    assertEquals(0, engine.getSingleFlight().getInFlightCount());
+    blocking.failure = null;
+    assertSame(OUTPUT, engine.toInchi(methane(), InchiOptions.DEFAULT_OPTIONS));
+  }
+
+  @Test
+  public void testInterruptedWaiter() throws Exception {
+    BlockingEngine blocking = new BlockingEngine();
+    CoalescingInchiEngine engine = new CoalescingInchiEngine(blocking);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      InchiInput leaderInput = methane();
+      Future<InchiOutput> leader = executor.submit(() -> engine.toInchi(leaderInput, InchiOptions.DEFAULT_OPTIONS));
+      while (blocking.conversions.get() == 0) {
+        Thread.sleep(1);
+      }
+      InchiInput waiterInput = methane();
+      Future<Boolean> waiter = executor.submit(() -> {
+        Thread.currentThread().interrupt();
+        assertSame(OUTPUT, engine.toInchi(waiterInput, InchiOptions.DEFAULT_OPTIONS));
+        return Thread.interrupted();
+      });
+      awaitCoalesced(engine.getSingleFlight(), 1);
+      blocking.release.countDown();
+      assertSame(OUTPUT, leader.get());
+      assertTrue(waiter.get());
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testDistinctKeysNotCoalesced() throws Exception {
+    CoalescingInchiEngine engine = new CoalescingInchiEngine(InchiEngines.getDefaultEngine());
+    InchiOptions fixedH = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH).build();
+    for (String smi : new String[] {"CCO", "CC(=O)[O-]"}) {
+      InchiInput input = SmilesToInchi.graphToInput(Graph.fromSmiles(smi));
+      assertEquals(JnaInchi.toInchi(input).getInchi(), engine.toInchi(input, InchiOptions.DEFAULT_OPTIONS).getInchi());
+      assertEquals(JnaInchi.toInchi(input, fixedH).getInchi(), engine.toInchi(input, fixedH).getInchi());
+    }
+    assertEquals(4, engine.getSingleFlight().getExecutedCount());
+    assertEquals(0, engine.getSingleFlight().getCoalescedCount());
+  }
+
+  @Test
+  public void testKeyUsesEngineKeyPath() throws Exception {
+    BlockingEngine blocking = new BlockingEngine();
+    CoalescingInchiEngine engine = new CoalescingInchiEngine(blocking);
+    assertSame(KEY, engine.toInchiKey(methane(), InchiOptions.DEFAULT_OPTIONS));
+    assertEquals(1, blocking.keyConversions.get());
+    assertEquals(0, blocking.conversions.get());
+    assertEquals(0, engine.getSingleFlight().getExecutedCount());
+  }
+
+}
@@ -0,0 +1,98 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.github.dan2097.jnainchi.inchi.InchiLibrary;
+
+public class InchiStructDecoderTest {
+
+  private static final String[] INCHIS = {
+      "InChI=1S/CH4/h1H4",
+      "InChI=1S/C4H8/c1-3-4-2/h3-4H,1-2H3/b4-3+",
+      "InChI=1S/C4H10O/c1-3-4(2)5/h4-5H,3H2,1-2H3/t4-/m0/s1",
+      "InChI=1S/C3H2Cl2/c4-2-1-3-5/h2-3H/t1-/m1/s1",
+      "InChI=1S/C2H4O2/c1-2(3)4/h1H3,(H,3,4)/p-1",
+      "InChI=1S/C2H6O/c1-2-3/h3H,2H2,1H3/i1D,2+1",
+      "InChI=1S/C12H22O11/c13-1-4-6(16)8(18)9(19)11(21-4)23-12(3-15)10(20)7(17)5(2-14)22-12/h4-11,13-20H,1-3H2/t4-,5-,6-,7-,8+,9-,10+,11-,12+/m1/s1",
+      "InChI=1S/H2O/h1H2/i/hD"
+  };
+
+  private static final InchiOptions FIXEDH = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH, InchiFlag.RecMet).build();
+
+  @Test
+  public void testRoundTrip() {
+    InchiStructDecoder decoder = new InchiStructDecoder();
+    for (InchiOptions options : new InchiOptions[] {InchiOptions.DEFAULT_OPTIONS, FIXEDH}) {
+      for (String inchi : INCHIS) {
+        InchiInputFromInchiOutput output = decoder.getInchiInputFromInchi(inchi, options);
+        assertEquals(inchi, JnaInchi.toInchi(output.getInchiInput()).getInchi());
+      }
+    }
+  }
+
+  @Test
+  public void testStructure() {
+    InchiStructDecoder decoder = new InchiStructDecoder();
+    //decode a larger molecule first so that the native block is reused for the smaller one
+    decoder.getInchiInputFromInchi(INCHIS[6]);
+    InchiInput input = decoder.getInchiInputFromInchi("InChI=1S/C4H10O/c1-3-4(2)5/h4-5H,3H2,1-2H3/t4-/m0/s1").getInchiInput();
+    //the hydrogen on the stereocentre is explicit
+    assertEquals(6, input.getAtoms().size());
+    assertEquals(5, input.getBonds().size());
+    List<InchiStereo> stereos = input.getStereos();
+    assertEquals(1, stereos.size());
+    InchiStereo stereo = stereos.get(0);
+    assertEquals(InchiStereoType.Tetrahedral, stereo.getType());
+    assertEquals(InchiStereoParity.ODD, stereo.getParity());
+    assertSame(input.getAtom(3), stereo.getCentralAtom());
+    assertSame(input.getAtom(5), stereo.getAtoms()[0]);
+    assertEquals("H", input.getAtom(5).getElName());
+    assertEquals("O", input.getAtom(4).getElName());
+    assertEquals(1, input.getAtom(4).getImplicitHydrogen());
+
+    InchiInput isotopic = decoder.getInchiInputFromInchi("InChI=1S/C2H6O/c1-2-3/h3H,2H2,1H3/i1D,2+1").getInchiInput();
+    assertEquals(2, isotopic.getAtom(0).getImplicitHydrogen());
+    assertEquals(1, isotopic.getAtom(0).getImplicitDeuterium());
+    assertEquals(InchiLibrary.ISOTOPIC_SHIFT_FLAG + 1, isotopic.getAtom(1).getIsotopicMass());
+  }
+
+  @Test
+  public void testStatusAndMessages() {
+    InchiStructDecoder decoder = new InchiStructDecoder();
+    for (String inchi : new String[] {"InChI=1S/invalid", "", "InChI=1S/CéH4", INCHIS[4]}) {
+      InchiInputFromInchiOutput expected = JnaInchi.getInchiInputFromInchi(inchi, FIXEDH);
+      InchiInputFromInchiOutput actual = decoder.getInchiInputFromInchi(inchi, FIXEDH);
+      assertEquals(expected.getStatus(), actual.getStatus());
+      assertEquals(expected.getMessage(), actual.getMessage());
+      assertEquals(expected.getLog(), actual.getLog());
+      for (int i = 0; i < 2; i++) {
+        assertArrayEquals(expected.getWarningFlags()[i], actual.getWarningFlags()[i]);
+      }
+    }
+    assertEquals(InchiStatus.ERROR, decoder.getInchiInputFromInchi("InChI=1S/invalid").getStatus());
+  }
+
+}
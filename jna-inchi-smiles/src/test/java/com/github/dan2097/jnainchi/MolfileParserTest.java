@@ -0,0 +1,308 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.dan2097.jnainchi.inchi.InchiLibrary;
+
+public class MolfileParserTest {
+
+  private static final InchiOptions SUCF = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.SUCF).build();
+
+  private static final InchiOptions FIXEDH = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH, InchiFlag.RecMet).build();
+
+  private static final String[] ELEMENTS = {"C", "C", "C", "C", "N", "N", "O", "O", "S", "P", "Cl", "Br", "F", "H", "I", "B", "Si", "Se", "Na", "Fe", "CL"};
+
+  //(R)-butan-2-ol drawn with a wedge, chiral flag set
+  private static final String BUTANOL = "\n  test\n\n"
+      + "  5  4  0  0  1  0  0  0  0  0999 V2000\n"
+      + "    0.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    0.8660    0.5000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    1.7321    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    2.5981    0.5000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    0.8660    1.5000    0.0000 O   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "  1  2  1  0\n"
+      + "  2  3  1  0\n"
+      + "  3  4  1  0\n"
+      + "  2  5  1  1\n"
+      + "M  END\n";
+
+  private static final String BUTENE = "\n  test\n\n"
+      + "  4  3  0  0  0  0  0  0  0  0999 V2000\n"
+      + "    0.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    0.8660    0.5000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    1.7321    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    2.5981    0.5000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "  1  2  1  0\n"
+      + "  2  3  2  0\n"
+      + "  3  4  1  0\n"
+      + "M  END\n";
+
+  //atom block charge, radical, mass difference and valence, then the same overridden by the properties block
+  private static final String ATOM_BLOCK = "\n  test\n\n"
+      + "  4  3  0  0  0  0  0  0  0  0999 V2000\n"
+      + "    0.0000    0.0000    0.0000 N   0  3  0  0  0  0  0  0  0  0  0  0\n"
+      + "    0.8660    0.5000    0.0000 C   1  4  0  0  0  0  0  0  0  0  0  0\n"
+      + "    1.7321    0.0000    0.0000 O   0  5  0  0  0  0  0  0  0  0  0  0\n"
+      + "    2.5981    0.5000    0.0000 S   0  0  0  0  0 15  0  0  0  0  0  0\n"
+      + "  1  2  1  0\n"
+      + "  2  3  1  0\n"
+      + "  3  4  1  0\n"
+      + "M  END\n";
+
+  private static final String PROPERTIES_BLOCK = ATOM_BLOCK.replace("M  END\n", "M  CHG  1   3  -1\nM  ISO  2   1  15   2  99\nM  END\n");
+
+  private static final String ALIAS = BUTENE.replace("M  END\n", "A    4\nCl\nA    1\nD\nM  END\n");
+
+  private static final String V3000 = "\n  test\n\n"
+      + "  0  0  0     0  0            999 V3000\n"
+      + "M  V30 BEGIN CTAB\n"
+      + "M  V30 COUNTS 5 4 0 0 1\n"
+      + "M  V30 BEGIN ATOM\n"
+      + "M  V30 1 C 0 0 0 0 MASS=13\n"
+      + "M  V30 2 C 0.866 0.5 0 0\n"
+      + "M  V30 3 C 1.7321 0 0 0 RAD=2\n"
+      + "M  V30 4 N 2.5981 0.5 0 0 CHG=1 -\n"
+      + "M  V30 VAL=4\n"
+      + "M  V30 10 O 0.866 1.5 0 0\n"
+      + "M  V30 END ATOM\n"
+      + "M  V30 BEGIN BOND\n"
+      + "M  V30 1 1 1 2\n"
+      + "M  V30 2 1 2 3\n"
+      + "M  V30 3 1 3 4\n"
+      + "M  V30 4 1 2 10 CFG=3\n"
+      + "M  V30 END BOND\n"
+      + "M  V30 END CTAB\n"
+      + "M  END\n";
+
+  @Test
+  public void testMatchesNativeReader() {
+    for (String molText : new String[] {BUTANOL, BUTANOL.replace("  0  0  1  0", "  0  0  0  0"),
+        BUTANOL.replace("  2  5  1  1", "  2  5  1  6"), BUTANOL.replace("  2  5  1  1", "  2  5  1  4"),
+        BUTENE, BUTENE.replace("  2  3  2  0", "  2  3  2  3"), ATOM_BLOCK, PROPERTIES_BLOCK, ALIAS, V3000}) {
+      for (InchiOptions options : new InchiOptions[] {InchiOptions.DEFAULT_OPTIONS, SUCF, FIXEDH}) {
+        assertSameOutput(molText, options);
+        assertSameOutput(molText.replace("\n", "\r\n"), options);
+      }
+    }
+  }
+
+  @Test
+  public void testChiralFlag() {
+    InchiInputFromMolfileOutput parsed = MolfileParser.parse(BUTANOL);
+    assertTrue(parsed.getChiralFlag());
+    assertTrue(parsed.applyChiralFlag(SUCF).getFlags().contains(InchiFlag.ChiralFlagON));
+    InchiOptions off = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.SUCF, InchiFlag.ChiralFlagOFF).build();
+    assertFalse(parsed.applyChiralFlag(off).getFlags().contains(InchiFlag.ChiralFlagON));
+    assertFalse(MolfileParser.parse(BUTENE).getChiralFlag());
+    assertTrue(MolfileParser.parse(V3000).getChiralFlag());
+  }
+
+  @Test
+  public void testAtomFields() {
+    InchiInput input = MolfileParser.parse(PROPERTIES_BLOCK).getInchiInput();
+    InchiAtom n = input.getAtom(0);
+    assertEquals(0, n.getCharge());
+    assertEquals(InchiRadical.NONE, n.getRadical());
+    assertEquals(InchiLibrary.ISOTOPIC_SHIFT_FLAG + 1, n.getIsotopicMass());
+    assertEquals(-1, n.getImplicitHydrogen());
+    //out of range isotopic mass is ignored, as is the atom block mass difference once M  ISO is present
+    assertEquals(0, input.getAtom(1).getIsotopicMass());
+    assertEquals(-1, input.getAtom(2).getCharge());
+    //as in the native reader, a valence of 15 only means zero valence for an unbonded atom
+    assertEquals(14, input.getAtom(3).getImplicitHydrogen());
+    assertEquals("Cl", MolfileParser.parse(ALIAS).getInchiInput().getAtom(3).getElName());
+  }
+
+  @Test
+  public void testRandomMolfiles() {
+    Random random = new Random(42);
+    for (int i = 0; i < 2000; i++) {
+      String molText = random.nextInt(3) == 0 ? randomV3000(random) : randomV2000(random);
+      InchiOptions options = random.nextBoolean() ? SUCF : InchiOptions.DEFAULT_OPTIONS;
+      InchiOutput expected = JnaInchi.molToInchi(molText, options);
+      InchiInputFromMolfileOutput parsed;
+      try {
+        parsed = MolfileParser.parse(molText);
+      }
+      catch (IllegalArgumentException e) {
+        assertEquals(molText, InchiStatus.ERROR, expected.getStatus());
+        continue;
+      }
+      InchiOutput actual = JnaInchi.toInchi(parsed.getInchiInput(), parsed.applyChiralFlag(options));
+      assertEquals(molText, expected.getStatus(), actual.getStatus());
+      assertEquals(molText, expected.getInchi(), actual.getInchi());
+      assertEquals(molText, expected.getAuxInfo(), actual.getAuxInfo());
+    }
+  }
+
+  @Test
+  public void testByteBuffer() {
+    byte[] bytes = ("xx" + BUTANOL + "\0").getBytes(StandardCharsets.ISO_8859_1);
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    buffer.position(2);
+    InchiInput expected = MolfileParser.parse(BUTANOL).getInchiInput();
+    assertEquals(JnaInchi.toInchi(expected).getInchi(), JnaInchi.toInchi(MolfileParser.parse(buffer).getInchiInput()).getInchi());
+    assertEquals(2, buffer.position());
+    ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+    direct.put(bytes).flip();
+    assertEquals(JnaInchi.toInchi(expected).getInchi(), JnaInchi.toInchi(MolfileParser.parse(direct).getInchiInput()).getInchi());
+  }
+
+  @Test
+  public void testUnsupported() {
+    assertRejected(BUTENE.replace(" C   0  0", " Q   0  0"));
+    assertRejected(BUTENE.replace("  2  3  2  0", "  2  3  8  0"));
+    assertRejected(BUTENE.replace("M  END\n", ""));
+    assertRejected(BUTENE.substring(0, 10));
+  }
+
+  private static void assertRejected(String molText) {
+    try {
+      MolfileParser.parse(molText);
+      fail("Expected IllegalArgumentException for:\n" + molText);
+    }
+    catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("molfile line"));
+    }
+    assertEquals(InchiStatus.ERROR, JnaInchi.molToInchi(molText).getStatus());
+  }
+
+  private static void assertSameOutput(String molText, InchiOptions options) {
+    InchiOutput expected = JnaInchi.molToInchi(molText, options);
+    InchiInputFromMolfileOutput parsed = MolfileParser.parse(molText);
+    InchiOutput actual = JnaInchi.toInchi(parsed.getInchiInput(), parsed.applyChiralFlag(options));
+    assertEquals(molText, expected.getInchi(), actual.getInchi());
+    assertEquals(molText, expected.getAuxInfo(), actual.getAuxInfo());
+    assertEquals(molText, expected.getMessage(), actual.getMessage());
+    assertEquals(molText, expected.getStatus(), actual.getStatus());
+  }
+
+  private static int[][] randomGraph(Random random, int atomCount) {
+    int[] parents = new int[atomCount];
+    for (int i = 1; i < atomCount; i++) {
+      parents[i] = random.nextInt(i);
+    }
+    //optionally close a ring between the first and last atoms
+    boolean ring = atomCount > 3 && parents[atomCount - 1] != 0 && random.nextBoolean();
+    int[][] bonds = new int[atomCount - 1 + (ring ? 1 : 0)][];
+    for (int i = 1; i < atomCount; i++) {
+      bonds[i - 1] = new int[] {parents[i], i};
+    }
+    if (ring) {
+      bonds[atomCount - 1] = new int[] {0, atomCount - 1};
+    }
+    return bonds;
+  }
+
+  private static int randomOrder(Random random) {
+    int x = random.nextInt(20);
+    return x < 14 ? 1 : x < 18 ? 2 : x < 19 ? 3 : 4;
+  }
+
+  private static double randomCoordinate(Random random) {
+    return random.nextInt(5) == 0 ? 0 : Math.round((random.nextDouble() * 6 - 3) * 10000) / 10000.0;
+  }
+
+  private static String randomV2000(Random random) {
+    int atomCount = 1 + random.nextInt(10);
+    int[][] bonds = randomGraph(random, atomCount);
+    StringBuilder sb = new StringBuilder("\n  random\n\n");
+    sb.append(String.format(Locale.ROOT, "%3d%3d  0  0%3d  0  0  0  0  0999 V2000\n", atomCount, bonds.length, random.nextInt(2)));
+    for (int i = 0; i < atomCount; i++) {
+      int massDifference = random.nextInt(10) == 0 ? random.nextInt(5) - 2 : 0;
+      int charge = random.nextInt(8) == 0 ? random.nextInt(8) : 0;
+      int valence = random.nextInt(10) == 0 ? random.nextInt(16) : 0;
+      sb.append(String.format(Locale.ROOT, "%10.4f%10.4f%10.4f %-3s%2d%3d  0  0  0%3d  0  0  0  0  0  0\n", randomCoordinate(random),
+          randomCoordinate(random), randomCoordinate(random), ELEMENTS[random.nextInt(ELEMENTS.length)], massDifference, charge, valence));
+    }
+    for (int[] bond : bonds) {
+      int order = randomOrder(random);
+      int stereo = 0;
+      if (order == 1 && random.nextInt(3) == 0) {
+        stereo = new int[] {1, 4, 6}[random.nextInt(3)];
+      }
+      else if (order == 2 && random.nextInt(4) == 0) {
+        stereo = 3;
+      }
+      sb.append(String.format(Locale.ROOT, "%3d%3d%3d%3d\n", bond[0] + 1, bond[1] + 1, order, stereo));
+    }
+    if (random.nextInt(4) == 0) {
+      sb.append(String.format(Locale.ROOT, "M  CHG  1%4d%4d\n", 1 + random.nextInt(atomCount), random.nextInt(5) - 2));
+    }
+    if (random.nextInt(6) == 0) {
+      sb.append(String.format(Locale.ROOT, "M  RAD  1%4d%4d\n", 1 + random.nextInt(atomCount), random.nextInt(4)));
+    }
+    if (random.nextInt(5) == 0) {
+      sb.append(String.format(Locale.ROOT, "M  ISO  1%4d%4d\n", 1 + random.nextInt(atomCount), 10 + random.nextInt(30)));
+    }
+    sb.append("M  END\n");
+    return sb.toString();
+  }
+
+  private static String randomV3000(Random random) {
+    int atomCount = 1 + random.nextInt(10);
+    int[][] bonds = randomGraph(random, atomCount);
+    StringBuilder sb = new StringBuilder("\n  random\n\n  0  0  0     0  0            999 V3000\nM  V30 BEGIN CTAB\n");
+    sb.append(String.format(Locale.ROOT, "M  V30 COUNTS %d %d 0 0 %d\nM  V30 BEGIN ATOM\n", atomCount, bonds.length, random.nextInt(2)));
+    for (int i = 0; i < atomCount; i++) {
+      sb.append(String.format(Locale.ROOT, "M  V30 %d %s %s %s %s 0", i + 1, ELEMENTS[random.nextInt(ELEMENTS.length)], randomCoordinate(random),
+          randomCoordinate(random), randomCoordinate(random)));
+      if (random.nextInt(6) == 0) {
+        sb.append(" CHG=").append(random.nextInt(7) - 3);
+      }
+      if (random.nextInt(10) == 0) {
+        sb.append(" RAD=").append(random.nextInt(4));
+      }
+      if (random.nextInt(8) == 0) {
+        sb.append(" MASS=").append(1 + random.nextInt(40));
+      }
+      if (random.nextInt(10) == 0) {
+        sb.append(" -\nM  V30 VAL=").append(random.nextInt(8) - 1);
+      }
+      sb.append('\n');
+    }
+    sb.append("M  V30 END ATOM\n");
+    if (bonds.length > 0) {
+      sb.append("M  V30 BEGIN BOND\n");
+      for (int i = 0; i < bonds.length; i++) {
+        int order = randomOrder(random);
+        sb.append(String.format(Locale.ROOT, "M  V30 %d %d %d %d", i + 1, order, bonds[i][0] + 1, bonds[i][1] + 1));
+        if (order == 1 && random.nextInt(3) == 0) {
+          sb.append(" CFG=").append(1 + random.nextInt(3));
+        }
+        sb.append('\n');
+      }
+      sb.append("M  V30 END BOND\n");
+    }
+    sb.append("M  V30 END CTAB\nM  END\n");
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,249 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SdfPipelineTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final String ETHANOL = "\n  test\n\n"
+      + "  3  2  0  0  0  0  0  0  0  0999 V2000\n"
+      + "    0.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    1.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    2.0000    0.0000    0.0000 O   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "  1  2  1  0\n"
+      + "  2  3  1  0\n"
+      + "M  END\n";
+
+  private static final String ACETATE = "acetate\n  test\n\n"
+      + "  4  3  0  0  0  0  0  0  0  0999 V2000\n"
+      + "    0.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    1.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    1.5000    0.8660    0.0000 O   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    1.5000   -0.8660    0.0000 O   0  5  0  0  0  0  0  0  0  0  0  0\n"
+      + "  1  2  1  0\n"
+      + "  2  3  2  0\n"
+      + "  2  4  1  0\n"
+      + "M  CHG  1   4  -1\n"
+      + "M  END\n"
+      + "> <ID>\n"
+      + "acetate\n"
+      + "\n";
+
+  private static final InchiOptions FIXEDH = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH).build();
+
+  private static List<String> records(int count) {
+    List<String> records = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      records.add(i % 7 == 3 ? "invalid\n" : i % 2 == 0 ? ETHANOL : ACETATE);
+    }
+    return records;
+  }
+
+  @Test
+  public void testPlain() throws IOException {
+    List<String> records = records(50);
+    byte[] sdf = toSdf(records);
+    assertMatchesMolToInchi(records, write(sdf), 2);
+  }
+
+  @Test
+  public void testGzip() throws IOException {
+    List<String> records = records(50);
+    assertMatchesMolToInchi(records, write(gzip(toSdf(records))), 2);
+  }
+
+  @Test
+  public void testMultiMemberGzip() throws IOException {
+    List<String> records = records(50);
+    byte[] sdf = toSdf(records);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(gzip(Arrays.copyOfRange(sdf, 0, 1000)));
+    out.write(gzip(Arrays.copyOfRange(sdf, 1000, sdf.length)));
+    assertMatchesMolToInchi(records, write(out.toByteArray()), 2);
+  }
+
+  @Test
+  public void testBgzf() throws IOException {
+    List<String> records = records(500);
+    //small blocks, so records span many blocks
+    Path bgzf = write(bgzf(toSdf(records), 100));
+    for (int threads : new int[] {1, 3}) {
+      List<SdfPipeline.StageMetrics> metrics = assertMatchesMolToInchi(records, bgzf, threads);
+      assertEquals(threads, metrics.get(0).getParallelism());
+      assertTrue(metrics.get(0).getProcessed() > 500);
+    }
+  }
+
+  @Test
+  public void testCrlfAndUnterminatedRecord() throws IOException {
+    List<String> records = records(20);
+    String sdf = String.join("$$$$\n", records).replace("\n", "\r\n");
+    List<String> expected = new ArrayList<>();
+    for (String record : records) {
+      expected.add(record.replace("\n", "\r\n"));
+    }
+    assertMatchesMolToInchi(expected, write(bgzf(sdf.getBytes(StandardCharsets.US_ASCII), 64)), 2);
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    assertMatchesMolToInchi(Arrays.asList(), write(new byte[0]), 1);
+    assertMatchesMolToInchi(Arrays.asList(), write(gzip("\n".getBytes(StandardCharsets.US_ASCII))), 1);
+  }
+
+  @Test
+  public void testTruncatedBgzf() throws IOException {
+    byte[] bgzf = bgzf(toSdf(records(50)), 100);
+    Path truncated = write(Arrays.copyOf(bgzf, bgzf.length - 40));
+    try (SdfPipeline pipeline = new SdfPipeline.SdfPipelineBuilder(truncated).build();
+        Stream<InchiBatchResult> results = pipeline.results()) {
+      results.forEach(result -> {});
+      fail("Truncated file should be reported");
+    }
+    catch (UncheckedIOException e) {
+      //expected
+    }
+  }
+
+  @Test
+  public void testRecordsFromStream() throws IOException {
+    List<String> records = records(50);
+    byte[] bgzf = bgzf(toSdf(records), 100);
+    try (SdfPipeline pipeline = new SdfPipeline.SdfPipelineBuilder(new ByteArrayInputStream(bgzf)).withInflateThreads(2).build();
+        Stream<byte[]> actual = pipeline.records()) {
+      assertEquals(records, actual.map(record -> new String(record, StandardCharsets.US_ASCII)).collect(Collectors.toList()));
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testSingleUse() throws IOException {
+    try (SdfPipeline pipeline = new SdfPipeline.SdfPipelineBuilder(write(new byte[0])).build()) {
+      pipeline.results();
+      pipeline.results();
+    }
+  }
+
+  private static List<SdfPipeline.StageMetrics> assertMatchesMolToInchi(List<String> records, Path sdf, int threads) throws IOException {
+    SdfPipeline pipeline = new SdfPipeline.SdfPipelineBuilder(sdf)
+        .withOptions(FIXEDH)
+        .withInflateThreads(threads)
+        .withConversionThreads(threads)
+        .withChunkQueueDepth(2)
+        .withRecordQueueDepth(3)
+        .build();
+    List<InchiBatchResult> actual;
+    try (Stream<InchiBatchResult> results = pipeline.results()) {
+      actual = results.collect(Collectors.toList());
+    }
+    assertEquals(records.size(), actual.size());
+    for (int i = 0; i < records.size(); i++) {
+      InchiBatchResult result = actual.get(i);
+      assertEquals(i, result.getIndex());
+      InchiOutput expected = JnaInchi.molToInchi(records.get(i), FIXEDH);
+      assertEquals(expected.getInchi(), result.getOutput().getInchi());
+      assertEquals(expected.getAuxInfo(), result.getOutput().getAuxInfo());
+      assertEquals(expected.getStatus(), result.getOutput().getStatus());
+    }
+    List<SdfPipeline.StageMetrics> metrics = pipeline.getMetrics();
+    assertEquals(Arrays.asList("inflate", "split", "convert"), metrics.stream().map(SdfPipeline.StageMetrics::getName).collect(Collectors.toList()));
+    assertEquals(records.size(), metrics.get(1).getProcessed());
+    assertEquals(records.size(), metrics.get(2).getProcessed());
+    assertEquals(0, metrics.get(2).getQueueDepth());
+    return metrics;
+  }
+
+  private Path write(byte[] bytes) throws IOException {
+    Path path = folder.newFile().toPath();
+    Files.write(path, bytes);
+    return path;
+  }
+
+  private static byte[] toSdf(List<String> records) {
+    return (String.join("$$$$\n", records) + "$$$$\n").getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private static byte[] gzip(byte[] bytes) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(bytes);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Writes blocks in the format used by bgzip, followed by its empty end of file block
+   */
+  private static byte[] bgzf(byte[] bytes, int blockSize) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int offset = 0; offset < bytes.length; offset += blockSize) {
+      writeBgzfBlock(out, Arrays.copyOfRange(bytes, offset, Math.min(offset + blockSize, bytes.length)));
+    }
+    writeBgzfBlock(out, new byte[0]);
+    return out.toByteArray();
+  }
+
+  private static void writeBgzfBlock(ByteArrayOutputStream out, byte[] data) {
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    deflater.setInput(data);
+    deflater.finish();
+    byte[] compressed = new byte[data.length + 64];
+    int length = deflater.deflate(compressed);
+    deflater.end();
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    int blockSize = 18 + length + 8;
+    out.write(new byte[] {0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+        (byte) (blockSize - 1), (byte) ((blockSize - 1) >> 8)}, 0, 18);
+    out.write(compressed, 0, length);
+    writeIntLE(out, (int) crc.getValue());
+    writeIntLE(out, data.length);
+  }
+
+  private static void writeIntLE(ByteArrayOutputStream out, int value) {
+    for (int i = 0; i < 4; i++) {
+      out.write(value >>> (8 * i));
+    }
+  }
+
+}
@@ -0,0 +1,148 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SdfReaderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final String ETHANOL = "\n  test\n\n"
+      + "  3  2  0  0  0  0  0  0  0  0999 V2000\n"
+      + "    0.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    1.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    2.0000    0.0000    0.0000 O   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "  1  2  1  0\n"
+      + "  2  3  1  0\n"
+      + "M  END\n";
+
+  private static final String CHIRAL = "\n  test\n\n"
+      + "  5  4  0  0  1  0  0  0  0  0999 V2000\n"
+      + "    0.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    1.0000    0.0000    0.0000 F   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "   -0.5000    0.8660    0.0000 Cl  0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "   -0.5000   -0.8660    0.0000 Br  0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    0.0000    0.0000    1.0000 I   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "  1  2  1  0\n"
+      + "  1  3  1  0\n"
+      + "  1  4  1  0\n"
+      + "  1  5  1  1\n"
+      + "M  END\n"
+      + "> <ID>\n"
+      + "chiral\n"
+      + "\n";
+
+  private static final String ACETATE = "acetate\n  test\n\n"
+      + "  4  3  0  0  0  0  0  0  0  0999 V2000\n"
+      + "    0.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    1.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    1.5000    0.8660    0.0000 O   0  0  0  0  0  0  0  0  0  0  0  0\n"
+      + "    1.5000   -0.8660    0.0000 O   0  5  0  0  0  0  0  0  0  0  0  0\n"
+      + "  1  2  1  0\n"
+      + "  2  3  2  0\n"
+      + "  2  4  1  0\n"
+      + "M  CHG  1   4  -1\n"
+      + "M  END\n";
+
+  private static final List<String> RECORDS = Arrays.asList(ETHANOL, CHIRAL, "invalid\n", ACETATE, ETHANOL);
+
+  @Test
+  public void testRecords() throws IOException {
+    Path sdf = writeSdf(String.join("$$$$\n", RECORDS) + "$$$$\n");
+    for (int windowSize : new int[] {64, 200, 1 << 20}) {
+      assertEquals(RECORDS, readRecords(sdf, windowSize));
+    }
+  }
+
+  @Test
+  public void testCrlfAndUnterminatedRecord() throws IOException {
+    String crlf = String.join("$$$$\r\n", RECORDS).replace("\n", "\r\n");
+    Path sdf = writeSdf(crlf);
+    List<String> expected = new ArrayList<>();
+    for (String record : RECORDS) {
+      expected.add(record.replace("\n", "\r\n"));
+    }
+    for (int windowSize : new int[] {64, 200, 1 << 20}) {
+      assertEquals(expected, readRecords(sdf, windowSize));
+    }
+  }
+
+  @Test
+  public void testTrailingWhitespace() throws IOException {
+    Path sdf = writeSdf(ETHANOL + "$$$$\n\n");
+    assertEquals(Arrays.asList(ETHANOL), readRecords(sdf, 1 << 20));
+    assertEquals(Arrays.asList(), readRecords(writeSdf(""), 1 << 20));
+  }
+
+  @Test
+  public void testMatchesMolToInchi() throws IOException {
+    Path sdf = writeSdf(String.join("$$$$\n", RECORDS) + "$$$$\n");
+    InchiOptions options = new InchiOptions.InchiOptionsBuilder().withFlag(InchiFlag.FixedH).build();
+    try (Stream<InchiOutput> outputs = JnaInchi.sdfToInchi(sdf, options)) {
+      List<InchiOutput> actual = outputs.collect(Collectors.toList());
+      assertEquals(RECORDS.size(), actual.size());
+      for (int i = 0; i < RECORDS.size(); i++) {
+        InchiOutput expected = JnaInchi.molToInchi(RECORDS.get(i), options);
+        assertEquals(expected.getInchi(), actual.get(i).getInchi());
+        assertEquals(expected.getAuxInfo(), actual.get(i).getAuxInfo());
+        assertEquals(expected.getMessage(), actual.get(i).getMessage());
+        assertEquals(expected.getStatus(), actual.get(i).getStatus());
+      }
+    }
+  }
+
+  private Path writeSdf(String content) throws IOException {
+    Path sdf = folder.newFile().toPath();
+    Files.write(sdf, content.getBytes(StandardCharsets.US_ASCII));
+    return sdf;
+  }
+
+  private static List<String> readRecords(Path sdf, int windowSize) throws IOException {
+    List<String> records = new ArrayList<>();
+    try (SdfReader reader = new SdfReader(sdf, windowSize)) {
+      ByteBuffer record;
+      while ((record = reader.nextRecord()) != null) {
+        assertEquals(records.size(), reader.getRecordIndex());
+        byte[] bytes = new byte[record.remaining()];
+        record.get(bytes);
+        records.add(new String(bytes, StandardCharsets.US_ASCII));
+      }
+      assertNull(reader.nextRecord());
+    }
+    return records;
+  }
+
+}
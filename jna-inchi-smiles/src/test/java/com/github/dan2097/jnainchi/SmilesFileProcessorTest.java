@@ -0,0 +1,87 @@
+/**
+ * JNA-InChI - Library for calling InChI from Java
+ * Copyright © 2018 Daniel Lowe
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dan2097.jnainchi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SmilesFileProcessorTest {
+
+  @Test
+  public void testOutputInInputOrder() throws Exception {
+    List<String> smiles = readSmiles();
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < smiles.size(); i++) {
+      input.append(smiles.get(i)).append('\t').append("id").append(i).append('\n');
+    }
+    input.append("C1CC\tunparseable\n");
+    input.append("\n");
+    input.append("CCO\n");
+
+    StringWriter output = new StringWriter();
+    InchiOptions options = new InchiOptions.InchiOptionsBuilder().withOutputFields().build();
+    SmilesFileProcessor processor = new SmilesFileProcessor(options, 4);
+    List<SmilesFileProcessor.Counts> progress = new ArrayList<>();
+    processor.setProgressListener(progress::add, 10);
+    SmilesFileProcessor.Counts counts = processor.process(new BufferedReader(new StringReader(input.toString())), output);
+
+    String[] lines = output.toString().split("\n");
+    assertEquals(smiles.size() + 2, lines.length);
+    long errors = 0;
+    for (int i = 0; i < smiles.size(); i++) {
+      InchiOutput expected = SmilesToInchi.toInchi(smiles.get(i));
+      String inchi = expected.getInchi() != null ? expected.getInchi() : "";
+      String inchiKey = expected.getInchi() != null ? JnaInchi.inchiToInchiKey(expected.getInchi()).getInchiKey() : "";
+      assertEquals("id" + i + "\t" + inchi + "\t" + inchiKey + "\t" + expected.getStatus(), lines[i]);
+      if (expected.getStatus() == InchiStatus.ERROR) {
+        errors++;
+      }
+    }
+    assertEquals("unparseable\t\t\tERROR", lines[smiles.size()]);
+    //no identifier, so the line number is used
+    assertEquals((smiles.size() + 3) + "\tInChI=1S/C2H6O/c1-2-3/h3H,2H2,1H3\tLFQSCWFLJHTTHZ-UHFFFAOYSA-N\tSUCCESS", lines[smiles.size() + 1]);
+
+    assertEquals(smiles.size() + 2, counts.getRecords());
+    assertEquals(errors + 1, counts.getErrors());
+    assertEquals(1, counts.getParseErrors());
+    assertEquals(counts.getRecords(), counts.getSuccesses() + counts.getWarnings() + counts.getErrors());
+    assertEquals(counts.getRecords() / 10, progress.size());
+  }
+
+  private static List<String> readSmiles() throws Exception {
+    List<String> smiles = new ArrayList<>();
+    try (BufferedReader input = new BufferedReader(new InputStreamReader(SmilesFileProcessorTest.class.getResourceAsStream("smilesintegrationtests.smi"), "UTF-8"))) {
+      String line = null;
+      while ((line = input.readLine()) != null) {
+        if (!line.isEmpty() && !line.startsWith("#")) {
+          smiles.add(line.split("\t")[0]);
+        }
+      }
+    }
+    return smiles;
+  }
+
+}